@@ -39,15 +39,14 @@ import org.apache.ws.security.handler.RequestData;
 import org.apache.ws.security.handler.WSHandlerConstants;
 import org.apache.ws.security.handler.WSHandlerResult;
 import org.apache.ws.security.message.token.Timestamp;
+import org.apache.ws.security.metrics.WSSecurityMetrics;
 import org.apache.ws.security.util.WSSecurityUtil;
-import org.apache.xml.security.utils.XMLUtils;
 import org.w3c.dom.Document;
 
 import javax.security.auth.callback.CallbackHandler;
 import javax.xml.namespace.QName;
 import javax.xml.soap.SOAPHeader;
 import javax.xml.soap.SOAPHeaderElement;
-import java.io.ByteArrayOutputStream;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Enumeration;
@@ -57,8 +56,6 @@ import java.util.Vector;
 public class WSDoAllReceiver extends WSDoAllHandler {
 
     protected static Log log = LogFactory.getLog(WSDoAllReceiver.class.getName());
-    private static Log tlog =
-        LogFactory.getLog("org.apache.ws.security.TIME");
 
     /**
      * Axis calls invoke to handle a message.
@@ -75,12 +72,9 @@ public class WSDoAllReceiver extends WSDoAllHandler {
             log.debug("WSDoAllReceiver: enter invoke() with msg type: "
                     + msgContext.getCurrentMessage().getMessageType());
         }
-        long t0 = 0, t1 = 0, t2 = 0, t3 = 0, t4 = 0;
-        if (tlog.isDebugEnabled()) {
-            t0 = System.currentTimeMillis();
-        }        
-
         RequestData reqData = new RequestData();
+        WSSecurityMetrics metrics = getMetrics(reqData);
+        long t0 = metrics.isEnabled() ? System.nanoTime() : 0;
         /*
         * The overall try, just to have a finally at the end to perform some
         * housekeeping.
@@ -97,7 +91,7 @@ public class WSDoAllReceiver extends WSDoAllHandler {
             if (action == null) {
                 throw new AxisFault("WSDoAllReceiver: No action defined");
             }
-            int doAction = WSSecurityUtil.decodeAction(action, actions);
+            int doAction = decodeAction(action, actions);
 
             String actor = (String) getOption(WSHandlerConstants.ACTOR);
 
@@ -111,6 +105,12 @@ public class WSDoAllReceiver extends WSDoAllHandler {
             if(sm == null){
                 return;
             }
+            if (metrics.isEnabled()) {
+                SOAPPart part = (SOAPPart) sm.getSOAPPart();
+                if (part.getCurrentForm() == SOAPPart.FORM_BYTES) {
+                    metrics.messageSize(false, ((byte[]) part.getCurrentMessage()).length);
+                }
+            }
 
             try {
                 doc = sm.getSOAPEnvelope().getAsDocument();
@@ -156,9 +156,6 @@ public class WSDoAllReceiver extends WSDoAllHandler {
             doReceiverAction(doAction, reqData);
             
             Vector wsResult = null;
-            if (tlog.isDebugEnabled()) {
-                t1 = System.currentTimeMillis();
-            }        
 
             try {
                 wsResult = secEngine.processSecurityHeader(doc, actor,
@@ -171,10 +168,6 @@ public class WSDoAllReceiver extends WSDoAllHandler {
                         "WSDoAllReceiver: security processing failed", ex);
             }
 
-            if (tlog.isDebugEnabled()) {
-                t2 = System.currentTimeMillis();
-            }        
-
             if (wsResult == null) { // no security header found
                 if (doAction == WSConstants.NO_SECURITY) {
                     return;
@@ -207,18 +200,12 @@ public class WSDoAllReceiver extends WSDoAllHandler {
             */
             SOAPPart sPart = (org.apache.axis.SOAPPart) sm.getSOAPPart();
 
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            XMLUtils.outputDOM(doc, os, true);
-            sPart.setCurrentMessage(os.toByteArray(), SOAPPart.FORM_BYTES);
+            setSecuredMessage(sPart, doc, reqData.getSecurityPlan().isDirectHandoff());
             if (doDebug) {
                 log.debug("Processed received SOAP request");
                 log.debug(org.apache.axis.utils.XMLUtils
                         .PrettyDocumentToString(doc));
             }
-            if (tlog.isDebugEnabled()) {
-                t3 = System.currentTimeMillis();
-            }        
-
             /*
             * set the original processed-header flags
             */
@@ -339,15 +326,9 @@ public class WSDoAllReceiver extends WSDoAllHandler {
             }
             WSHandlerResult rResult = new WSHandlerResult(actor, wsResult);
             results.add(0, rResult);
-            if (tlog.isDebugEnabled()) {
-                t4 = System.currentTimeMillis();
-                tlog.debug("Receive request: total= " + (t4 - t0) +
-                        " request preparation= " + (t1 - t0) +
-                        " request processing= " + (t2 - t1) +
-                        " request to Axis= " + (t3 - t2) + 
-                        " header, cert verify, timestamp= " + (t4 - t3) +
-                        "\n");                                
-            }        
+            if (metrics.isEnabled()) {
+                metrics.messageTime(false, System.nanoTime() - t0);
+            }
 
             if (doDebug) {
                 log.debug("WSDoAllReceiver: exit invoke()");
@@ -30,12 +30,9 @@ import org.apache.ws.security.WSConstants;
 import org.apache.ws.security.WSSecurityException;
 import org.apache.ws.security.handler.RequestData;
 import org.apache.ws.security.handler.WSHandlerConstants;
-import org.apache.ws.security.util.WSSecurityUtil;
-import org.apache.xml.security.utils.XMLUtils;
+import org.apache.ws.security.metrics.WSSecurityMetrics;
 import org.w3c.dom.Document;
 
-import java.io.ByteArrayOutputStream;
-import java.io.UnsupportedEncodingException;
 import java.util.Vector;
 
 /**
@@ -44,8 +41,6 @@ import java.util.Vector;
 public class WSDoAllSender extends WSDoAllHandler {
 
     protected static Log log = LogFactory.getLog(WSDoAllSender.class.getName());
-    private static Log tlog =
-        LogFactory.getLog("org.apache.ws.security.TIME");
     
     /**
      * Axis calls invoke to handle a message. <p/>
@@ -57,11 +52,6 @@ public class WSDoAllSender extends WSDoAllHandler {
 
         boolean doDebug = log.isDebugEnabled();
         
-        long t0 = 0, t1 = 0, t2 = 0, t3 = 0;
-        if (tlog.isDebugEnabled()) {
-            t0 = System.currentTimeMillis();
-        }
-
         if (doDebug && mc.getCurrentMessage() != null
                 && mc.getCurrentMessage().getMessageType() != null) {
             log.debug("WSDoAllSender: enter invoke() with msg type: "
@@ -69,6 +59,8 @@ public class WSDoAllSender extends WSDoAllHandler {
         }
 
         RequestData reqData = new RequestData();
+        WSSecurityMetrics metrics = getMetrics(reqData);
+        long t0 = metrics.isEnabled() ? System.nanoTime() : 0;
 
         reqData.setMsgContext(mc);
         /*
@@ -84,7 +76,7 @@ public class WSDoAllSender extends WSDoAllHandler {
             if (action == null) {
                 throw new AxisFault("WSDoAllSender: No action defined");
             }
-            int doAction = WSSecurityUtil.decodeAction(action, actions);
+            int doAction = decodeAction(action, actions);
             if (doAction == WSConstants.NO_SECURITY) {
                 return;
             }
@@ -163,15 +155,8 @@ public class WSDoAllSender extends WSDoAllHandler {
                                     + e);
                 }
             }
-            if (tlog.isDebugEnabled()) {
-                t1 = System.currentTimeMillis();
-            }
 
             doSenderAction(doAction, doc, reqData, actions, !mc.getPastPivot());
-            
-            if (tlog.isDebugEnabled()) {
-                t2 = System.currentTimeMillis();
-            }
 
             /*
              * If required convert the resulting document into a message first.
@@ -191,29 +176,22 @@ public class WSDoAllSender extends WSDoAllHandler {
                 ((MessageContext)reqData.getMsgContext()).setProperty(WSHandlerConstants.SND_SECURITY,
                         doc);
             } else {
-                ByteArrayOutputStream os = new ByteArrayOutputStream();
-                XMLUtils.outputDOM(doc, os, true);
-                sPart.setCurrentMessage(os.toByteArray(), SOAPPart.FORM_BYTES);
+                long size = 
+                    setSecuredMessage(
+                        sPart, doc, reqData.getSecurityPlan().isDirectHandoff()
+                    );
+                if (metrics.isEnabled()) {
+                    metrics.messageSize(true, size);
+                }
                 if (doDebug) {
-                    String osStr = null;
-                    try {
-                        osStr = os.toString("UTF-8");
-                    } catch (UnsupportedEncodingException e) {
-                        osStr = os.toString();
-                    }
                     log.debug("Send request:");
-                    log.debug(osStr);
+                    log.debug(org.apache.axis.utils.XMLUtils.PrettyDocumentToString(doc));
                 }
                 ((MessageContext)reqData.getMsgContext()).setProperty(WSHandlerConstants.SND_SECURITY,
                         null);
             }
-            if (tlog.isDebugEnabled()) {
-                t3 = System.currentTimeMillis();
-                tlog.debug("Send request: total= " + (t3 - t0) +
-                        " request preparation= " + (t1 - t0) +
-                        " request processing= " + (t2 - t1) +
-                        " request to Axis= " + (t3 - t2) +
-                        "\n");                
+            if (metrics.isEnabled()) {
+                metrics.messageTime(true, System.nanoTime() - t0);
             }
 
             if (doDebug) {
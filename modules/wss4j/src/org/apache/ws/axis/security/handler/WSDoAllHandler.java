@@ -21,14 +21,19 @@ package org.apache.ws.axis.security.handler;
 import org.apache.axis.AxisFault;
 import org.apache.axis.Handler;
 import org.apache.axis.MessageContext;
+import org.apache.axis.SOAPPart;
 import org.apache.axis.components.logger.LogFactory;
+import org.apache.axis.utils.ByteArray;
 import org.apache.axis.utils.LockableHashtable;
 import org.apache.commons.logging.Log;
 import org.apache.ws.security.handler.WSHandler;
+import org.apache.xml.security.utils.XMLUtils;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
 import javax.xml.namespace.QName;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.List;
@@ -184,6 +189,41 @@ public abstract class WSDoAllHandler extends WSHandler implements Handler {
         return null;
     }
 
+    /**
+     * Serialize a secured document and set it as the current message of a
+     * SOAP part.
+     * 
+     * With direct handoff the document is serialized into an Axis
+     * <code>ByteArray</code>, which Axis writes to the transport as is and
+     * which may use a backing store for large messages. Otherwise the document
+     * is serialized into a byte array.
+     *
+     * @param sPart the SOAP part to set the message on
+     * @param doc the secured document
+     * @param directHandoff whether to hand the message off without an
+     *                      intermediate byte array
+     * @return the size of the serialized message in bytes
+     * @throws AxisFault
+     */
+    protected long setSecuredMessage(SOAPPart sPart, Document doc, boolean directHandoff)
+        throws AxisFault {
+        if (directHandoff) {
+            ByteArray message = new ByteArray();
+            XMLUtils.outputDOM(doc, message, true);
+            try {
+                message.flush();
+            } catch (IOException e) {
+                throw AxisFault.makeFault(e);
+            }
+            sPart.setCurrentMessage(message, SOAPPart.FORM_OPTIMIZED);
+            return message.size();
+        }
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        XMLUtils.outputDOM(doc, os, true);
+        sPart.setCurrentMessage(os.toByteArray(), SOAPPart.FORM_BYTES);
+        return os.size();
+    }
+
     public Object getProperty(Object msgContext, String key) {
         return ((MessageContext)msgContext).getProperty(key);
     }
@@ -0,0 +1,107 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ws.security;
+
+import javax.security.auth.callback.Callback;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Callback to exchange MIME attachments (for example the parts of an MTOM 
+ * message) that carry binary data referenced by <code>xop:Include</code>.
+ * <p/>
+ * The <code>AttachmentCallback</code> class defines the following usage
+ * codes:
+ * <ul>
+ * <li><code>ATTACHMENT_REQUEST</code> - an <code>xop:Include</code> of a 
+ * received message references the attachment with this Content-ID. The
+ * <code>handle</code> method shall set a stream that provides the raw (not
+ * Base64 encoded) content of the attachment. WSS4J closes the stream.</li>
+ * <li><code>ATTACHMENT_RESULT</code> - WSS4J creates an attachment with this
+ * Content-ID and content type. The <code>handle</code> method shall set a 
+ * stream to which WSS4J writes the raw content of the attachment. WSS4J 
+ * closes the stream when the content is complete.</li>
+ * </ul>
+ */
+public class AttachmentCallback implements Callback {
+
+    public static final int ATTACHMENT_REQUEST = 1;
+    public static final int ATTACHMENT_RESULT = 2;
+
+    private int usage;
+    private String contentId;
+    private String contentType;
+    private InputStream inputStream;
+    private OutputStream outputStream;
+
+    /**
+     * Constructor.
+     *
+     * @param contentId the Content-ID of the attachment, without "cid:"
+     * @param usage     the usage of the attachment
+     */
+    public AttachmentCallback(String contentId, int usage) {
+        this.contentId = contentId;
+        this.usage = usage;
+    }
+
+    public int getUsage() {
+        return usage;
+    }
+
+    public String getContentId() {
+        return contentId;
+    }
+
+    /**
+     * @return the MIME content type of an attachment to create
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    /**
+     * @return the stream of the requested attachment
+     */
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    public void setInputStream(InputStream inputStream) {
+        this.inputStream = inputStream;
+    }
+
+    /**
+     * @return the stream to write the content of a created attachment to
+     */
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    public void setOutputStream(OutputStream outputStream) {
+        this.outputStream = outputStream;
+    }
+}
@@ -0,0 +1,307 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ws.security;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.ws.security.components.crypto.Crypto;
+import org.apache.ws.security.message.token.SecurityContextToken;
+import org.apache.ws.security.message.token.SecurityTokenReference;
+import org.apache.ws.security.message.token.UsernameToken;
+import org.apache.ws.security.util.WSSecurityUtil;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.UnsupportedCallbackException;
+
+import java.io.IOException;
+import java.security.cert.X509Certificate;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+/**
+ * A CallbackHandler that resolves the credentials of a received message with as
+ * few calls of the application's handler as possible. <p/>
+ *
+ * Before the tokens of the security header are processed, {@link #prefetch}
+ * collects the credentials that the processors will ask for: the passwords of
+ * hashed UsernameTokens, the private key passwords of EncryptedKeys and the
+ * secrets of SecurityContextTokens. They are requested from the application's
+ * handler in a single call with an array of <code>WSPasswordCallback</code>s.
+ * <p/>
+ *
+ * The passwords and keys that the application supplied, whether in the batch
+ * or later to a single callback, are cached for the rest of the message. A
+ * callback of a processor is only passed to the application's handler if its
+ * credential is not cached yet. Callbacks that ask the application to verify a
+ * credential, such as plain text UsernameTokens, are always passed on.
+ */
+public class BatchedCallbackHandler implements CallbackHandler {
+    private static Log log = LogFactory.getLog(BatchedCallbackHandler.class);
+
+    private final CallbackHandler handler;
+
+    /**
+     * The resolved credentials, of the form <String, WSPasswordCallback>
+     */
+    private final Map credentials = new HashMap();
+
+    /**
+     * @param handler the application's callback handler
+     */
+    public BatchedCallbackHandler(CallbackHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Wrap a callback handler and resolve the credentials needed by the tokens
+     * of a security header with one call of the handler.
+     *
+     * @param securityHeader the <code>wsse:Security</code> header element
+     * @param handler the application's callback handler
+     * @param decCrypto the Crypto used for decryption, may be null
+     * @return the batching handler to pass to the processors
+     */
+    public static BatchedCallbackHandler prefetch(
+        Element securityHeader, CallbackHandler handler, Crypto decCrypto
+    ) {
+        BatchedCallbackHandler batched = new BatchedCallbackHandler(handler);
+        Vector callbacks = new Vector();
+        Set keys = new HashSet();
+        for (Node node = securityHeader.getFirstChild(); 
+            node != null; 
+            node = node.getNextSibling()) {
+            if (node.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            try {
+                WSPasswordCallback callback = getCallback((Element) node, decCrypto);
+                if (callback != null && keys.add(getKey(callback))) {
+                    callbacks.add(callback);
+                }
+            } catch (WSSecurityException ex) {
+                //
+                // The processor reports the problem when it handles the token
+                //
+                if (log.isDebugEnabled()) {
+                    log.debug("No credential prefetched for " + node.getLocalName(), ex);
+                }
+            }
+        }
+        if (!callbacks.isEmpty()) {
+            batched.handleBatch(
+                (Callback[]) callbacks.toArray(new Callback[callbacks.size()])
+            );
+        }
+        return batched;
+    }
+
+    public void handle(Callback[] callbacks) throws IOException, UnsupportedCallbackException {
+        Vector unresolved = new Vector();
+        for (int i = 0; i < callbacks.length; i++) {
+            if (!resolve(callbacks[i])) {
+                unresolved.add(callbacks[i]);
+            }
+        }
+        if (unresolved.isEmpty()) {
+            return;
+        }
+        handler.handle((Callback[]) unresolved.toArray(new Callback[unresolved.size()]));
+        for (int i = 0; i < unresolved.size(); i++) {
+            store((Callback) unresolved.get(i));
+        }
+    }
+
+    /**
+     * @return the number of credentials cached for the message
+     */
+    public int getCachedCount() {
+        return credentials.size();
+    }
+
+    /**
+     * Call the application's handler with the prefetched callbacks. If the 
+     * handler rejects the batch, nothing is cached and every processor asks 
+     * for its credential on its own, so that it reports the failure itself.
+     */
+    private void handleBatch(Callback[] callbacks) {
+        try {
+            handler.handle(callbacks);
+        } catch (IOException ex) {
+            if (log.isDebugEnabled()) {
+                log.debug("Batched credential callback failed", ex);
+            }
+            return;
+        } catch (UnsupportedCallbackException ex) {
+            if (log.isDebugEnabled()) {
+                log.debug("Batched credential callback failed", ex);
+            }
+            return;
+        }
+        for (int i = 0; i < callbacks.length; i++) {
+            store(callbacks[i]);
+        }
+    }
+
+    private boolean resolve(Callback callback) {
+        if (!isCacheable(callback)) {
+            return false;
+        }
+        WSPasswordCallback pwCb = (WSPasswordCallback) callback;
+        WSPasswordCallback cached = (WSPasswordCallback) credentials.get(getKey(pwCb));
+        if (cached == null) {
+            return false;
+        }
+        pwCb.setPassword(cached.getPassword());
+        pwCb.setKey(cached.getKey());
+        return true;
+    }
+
+    private void store(Callback callback) {
+        if (!isCacheable(callback)) {
+            return;
+        }
+        WSPasswordCallback pwCb = (WSPasswordCallback) callback;
+        if (pwCb.getPassword() != null || pwCb.getKey() != null) {
+            credentials.put(getKey(pwCb), pwCb);
+        }
+    }
+
+    /**
+     * Only callbacks that ask the application for a credential are cached.
+     */
+    private static boolean isCacheable(Callback callback) {
+        if (!(callback instanceof WSPasswordCallback)) {
+            return false;
+        }
+        WSPasswordCallback pwCb = (WSPasswordCallback) callback;
+        if (pwCb.getIdentifier() == null) {
+            return false;
+        }
+        switch (pwCb.getUsage()) {
+        case WSPasswordCallback.DECRYPT:
+        case WSPasswordCallback.USERNAME_TOKEN:
+        case WSPasswordCallback.SECURITY_CONTEXT_TOKEN:
+        case WSPasswordCallback.CUSTOM_TOKEN:
+        case WSPasswordCallback.ENCRYPTED_KEY_TOKEN:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    private static String getKey(WSPasswordCallback callback) {
+        return callback.getUsage() + ":" + callback.getPasswordType() 
+            + ":" + callback.getIdentifier();
+    }
+
+    /**
+     * Create the callback that the processor of a token will issue, if it can
+     * be predicted without processing the token.
+     */
+    private static WSPasswordCallback getCallback(Element token, Crypto decCrypto) 
+        throws WSSecurityException {
+        String localName = token.getLocalName();
+        String ns = token.getNamespaceURI();
+        if (WSConstants.USERNAME_TOKEN_LN.equals(localName) && WSConstants.WSSE_NS.equals(ns)) {
+            UsernameToken ut = new UsernameToken(token);
+            if (ut.isHashed() && ut.getName() != null) {
+                return 
+                    new WSPasswordCallback(
+                        ut.getName(), null, ut.getPasswordType(), 
+                        WSPasswordCallback.USERNAME_TOKEN
+                    );
+            }
+        } else if (WSConstants.ENC_KEY_LN.equals(localName) && WSConstants.ENC_NS.equals(ns)) {
+            String alias = getDecryptionAlias(token, decCrypto);
+            if (alias != null) {
+                return new WSPasswordCallback(alias, WSPasswordCallback.DECRYPT);
+            }
+        } else if ("SecurityContextToken".equals(localName)) {
+            SecurityContextToken sct = new SecurityContextToken(token);
+            if (sct.getIdentifier() != null) {
+                return 
+                    new WSPasswordCallback(
+                        sct.getIdentifier(), WSPasswordCallback.SECURITY_CONTEXT_TOKEN
+                    );
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the alias of the private key of an EncryptedKey for the cheap cases:
+     * an X509IssuerSerial, an X.509 KeyIdentifier or no KeyInfo at all. Other
+     * references are left to the EncryptedKeyProcessor.
+     */
+    private static String getDecryptionAlias(Element encryptedKey, Crypto crypto) 
+        throws WSSecurityException {
+        if (crypto == null) {
+            return null;
+        }
+        Element keyInfo = 
+            WSSecurityUtil.getDirectChildElement(encryptedKey, "KeyInfo", WSConstants.SIG_NS);
+        if (keyInfo == null) {
+            return crypto.getDefaultX509Alias();
+        }
+        Element agreementMethod = 
+            WSSecurityUtil.getDirectChildElement(
+                keyInfo, WSConstants.AGREEMENT_METHOD_LN, WSConstants.ENC_NS
+            );
+        if (agreementMethod != null) {
+            keyInfo = 
+                WSSecurityUtil.getDirectChildElement(
+                    agreementMethod, "RecipientKeyInfo", WSConstants.ENC_NS
+                );
+            if (keyInfo == null) {
+                return null;
+            }
+        }
+        Element secRefToken = 
+            WSSecurityUtil.getDirectChildElement(
+                keyInfo, "SecurityTokenReference", WSConstants.WSSE_NS
+            );
+        if (secRefToken == null) {
+            return null;
+        }
+        SecurityTokenReference secRef = new SecurityTokenReference(secRefToken);
+        if (secRef.containsX509Data() || secRef.containsX509IssuerSerial()) {
+            return secRef.getX509IssuerSerialAlias(crypto);
+        }
+        if (secRef.containsKeyIdentifier()) {
+            String valueType = secRef.getKeyIdentifierValueType();
+            if (WSConstants.WSS_SAML_KI_VALUE_TYPE.equals(valueType)
+                || WSConstants.WSS_SAML2_KI_VALUE_TYPE.equals(valueType)) {
+                return null;
+            }
+            X509Certificate[] certs = secRef.getKeyIdentifier(crypto);
+            if (certs != null && certs.length > 0 && certs[0] != null) {
+                return crypto.getAliasForX509Cert(certs[0]);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ws.security;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.ws.security.util.SecureRandomSource;
+
+/**
+ * A WsuIdAllocator that does not lock on the id generation path. <p/>
+ *
+ * Every thread reserves a block of ids from a shared atomic counter and then
+ * hands out the ids of that block without any further synchronization. Ids
+ * are therefore unique within the whole JVM (and hence within a document),
+ * but they are not strictly ascending across threads. <p/>
+ *
+ * Secure ids are not allocated from blocks. Every secure id consists of fresh
+ * random bits from the SecureRandom of the calling thread, so a secure id
+ * cannot be predicted from the ids that were handed out before.
+ */
+public class BlockWsuIdAllocator implements WsuIdAllocator {
+
+    /**
+     * The default number of ids reserved by a thread at a time
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+    /**
+     * The number of random bytes of a secure id, as many as in a UUID
+     */
+    private static final int SECURE_ID_BYTES = 16;
+
+    private final AtomicLong nextBlock = new AtomicLong(1);
+
+    private final int blockSize;
+
+    private final ThreadLocal blocks = new ThreadLocal() {
+        protected Object initialValue() {
+            return new IdBlock();
+        }
+    };
+
+    public BlockWsuIdAllocator() {
+        this(DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param blockSize the number of ids reserved by a thread at a time
+     */
+    public BlockWsuIdAllocator(int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize must be positive");
+        }
+        this.blockSize = blockSize;
+    }
+
+    public String createId(String prefix, Object o) {
+        String id = Long.toString(((IdBlock)blocks.get()).next());
+        if (prefix == null) {
+            return id;
+        }
+        return prefix + id;
+    }
+
+    public String createSecureId(String prefix, Object o) {
+        String id = nextSecure();
+        if (prefix == null) {
+            return id;
+        }
+        return prefix + id;
+    }
+
+    /**
+     * @return fresh random bits from the SecureRandom of the calling thread,
+     *         hex encoded
+     */
+    private static String nextSecure() {
+        byte[] bytes;
+        try {
+            bytes = SecureRandomSource.getInstance().nextBytes(SECURE_ID_BYTES);
+        } catch (java.security.NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+        StringBuffer sb = new StringBuffer(2 * SECURE_ID_BYTES);
+        for (int i = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xFF;
+            if (b < 0x10) {
+                sb.append('0');
+            }
+            sb.append(Integer.toHexString(b).toUpperCase());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The ids reserved by a single thread
+     */
+    private class IdBlock {
+        private long next;
+        private long limit;
+
+        long next() {
+            if (next == limit) {
+                next = nextBlock.getAndAdd(blockSize);
+                limit = next + blockSize;
+            }
+            return next++;
+        }
+    }
+}
@@ -99,6 +99,11 @@ public class WSConstants {
     public static final String ENC_KEY_LN = "EncryptedKey";
     public static final String ENC_DATA_LN = "EncryptedData";
     public static final String REF_LIST_LN = "ReferenceList";
+    public static final String ENC11_NS = "http://www.w3.org/2009/xmlenc11#";
+    public static final String ENC11_PREFIX = "xenc11";
+    public static final String SIG11_NS = "http://www.w3.org/2009/xmldsig11#";
+    public static final String SIG11_PREFIX = "dsig11";
+    public static final String AGREEMENT_METHOD_LN = "AgreementMethod";
     public final static String EX_C14N = "http://www.w3.org/2001/10/xml-exc-c14n#";
 
     /*
@@ -107,6 +112,13 @@ public class WSConstants {
     public static final String XMLNS_NS = "http://www.w3.org/2000/xmlns/";
     public static final String XML_NS = "http://www.w3.org/XML/1998/namespace";
 
+    /*
+     * The definitions for XOP, to carry binary data in MIME attachments
+     */
+    public static final String XOP_NS = "http://www.w3.org/2004/08/xop/include";
+    public static final String XOP_PREFIX = "xop";
+    public static final String XOP_INCLUDE_LN = "Include";
+
     /*
      * The local names and attribute names used by WSS
      */
@@ -215,6 +227,38 @@ public class WSConstants {
      */
     public static final String KEYTRANSPORT_RSAOEP = EncryptionConstants.ALGO_ID_KEYTRANSPORT_RSAOAEP;
 
+    /**
+     * Sets the encryption method to wrap the symmetric key with AES and a 128 bit key 
+     * encryption key. The key encryption key is agreed with the recipient's EC key, see
+     * {@link #AGREEMENT_ECDH_ES}.
+     */
+    public static final String KEYWRAP_AES128 = EncryptionConstants.ALGO_ID_KEYWRAP_AES128;
+
+    /**
+     * Sets the encryption method to wrap the symmetric key with AES and a 192 bit key 
+     * encryption key.
+     */
+    public static final String KEYWRAP_AES192 = EncryptionConstants.ALGO_ID_KEYWRAP_AES192;
+
+    /**
+     * Sets the encryption method to wrap the symmetric key with AES and a 256 bit key 
+     * encryption key. This is the default if the recipient has an EC key.
+     */
+    public static final String KEYWRAP_AES256 = EncryptionConstants.ALGO_ID_KEYWRAP_AES256;
+
+    /**
+     * The Elliptic Curve Diffie-Hellman Ephemeral Static key agreement of XML 
+     * Encryption 1.1. The key encryption key is agreed between an ephemeral key of
+     * the sender and the static EC key of the recipient, and derived with 
+     * {@link #KDF_CONCAT}.
+     */
+    public static final String AGREEMENT_ECDH_ES = ENC11_NS + "ECDH-ES";
+
+    /**
+     * The ConcatKDF key derivation function of XML Encryption 1.1 (NIST SP 800-56A).
+     */
+    public static final String KDF_CONCAT = ENC11_NS + "ConcatKDF";
+
     /**
      * Sets the {@link org.apache.ws.security.message.WSEncryptBody#build(Document, Crypto)
      * encryption} method to use triple DES as the symmetric algorithm to encrypt data.
@@ -255,6 +299,40 @@ public class WSConstants {
      */
     public static final String AES_192 = EncryptionConstants.ALGO_ID_BLOCKCIPHER_AES192;
 
+    /**
+     * Sets the {@link org.apache.ws.security.message.WSSecEncrypt#setSymmetricEncAlgorithm(String)
+     * encryption} method to use AES in Galois/Counter Mode with 128 bit key as the symmetric 
+     * algorithm to encrypt data. GCM is an authenticated encryption, a modified cipher text
+     * fails to decrypt.
+     * <p/>
+     * This is a required method as defined by XML Encryption 1.1. The String to use in WSDD 
+     * file (in accordance to w3c specifications: <br/>
+     * http://www.w3.org/2009/xmlenc11#aes128-gcm
+     */
+    public static final String AES_128_GCM = ENC11_NS + "aes128-gcm";
+
+    /**
+     * Sets the {@link org.apache.ws.security.message.WSSecEncrypt#setSymmetricEncAlgorithm(String)
+     * encryption} method to use AES in Galois/Counter Mode with 192 bit key as the symmetric 
+     * algorithm to encrypt data.
+     * <p/>
+     * This is a optional method as defined by XML Encryption 1.1. The String to use in WSDD 
+     * file (in accordance to w3c specifications: <br/>
+     * http://www.w3.org/2009/xmlenc11#aes192-gcm
+     */
+    public static final String AES_192_GCM = ENC11_NS + "aes192-gcm";
+
+    /**
+     * Sets the {@link org.apache.ws.security.message.WSSecEncrypt#setSymmetricEncAlgorithm(String)
+     * encryption} method to use AES in Galois/Counter Mode with 256 bit key as the symmetric 
+     * algorithm to encrypt data.
+     * <p/>
+     * This is a required method as defined by XML Encryption 1.1. The String to use in WSDD 
+     * file (in accordance to w3c specifications: <br/>
+     * http://www.w3.org/2009/xmlenc11#aes256-gcm
+     */
+    public static final String AES_256_GCM = ENC11_NS + "aes256-gcm";
+
     /**
      * Sets the {@link org.apache.ws.security.message.WSSignEnvelope#build(Document, Crypto)
      * signature} method to use DSA with SHA1 (DSS) to sign data.
@@ -271,6 +349,29 @@ public class WSConstants {
      */
     public static final String RSA = XMLSignature.ALGO_ID_SIGNATURE_RSA_SHA1;
 
+    /**
+     * Sets the signature method to use ECDSA with SHA-256, as defined by RFC 4051.
+     * This is the default for keys on the P-256 curve.
+     */
+    public static final String ECDSA_SHA256 = "http://www.w3.org/2001/04/xmldsig-more#ecdsa-sha256";
+
+    /**
+     * Sets the signature method to use ECDSA with SHA-384, as defined by RFC 4051.
+     * This is the default for keys on the P-384 curve.
+     */
+    public static final String ECDSA_SHA384 = "http://www.w3.org/2001/04/xmldsig-more#ecdsa-sha384";
+
+    /**
+     * Sets the signature method to use ECDSA with SHA-512, as defined by RFC 4051.
+     * This is the default for keys on the P-521 curve.
+     */
+    public static final String ECDSA_SHA512 = "http://www.w3.org/2001/04/xmldsig-more#ecdsa-sha512";
+
+    /**
+     * Sets the signature method to use Ed25519, as defined by RFC 9231.
+     */
+    public static final String ED25519 = "http://www.w3.org/2021/04/xmldsig-more#eddsa-ed25519";
+
     public static final String C14N_OMIT_COMMENTS = Canonicalizer.ALGO_ID_C14N_OMIT_COMMENTS;
     public static final String C14N_WITH_COMMENTS = Canonicalizer.ALGO_ID_C14N_WITH_COMMENTS;
     public static final String C14N_EXCL_OMIT_COMMENTS = Canonicalizer.ALGO_ID_C14N_EXCL_OMIT_COMMENTS;
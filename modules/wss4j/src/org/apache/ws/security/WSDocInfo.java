@@ -34,7 +34,10 @@ package org.apache.ws.security;
  */
 
 import org.apache.ws.security.components.crypto.Crypto;
+import org.apache.ws.security.processor.DeferredTokenProcessor;
 import org.apache.ws.security.processor.Processor;
+import org.apache.ws.security.saml.SAMLAssertionRegistry;
+import org.apache.ws.security.stream.StreamedMessage;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -51,6 +54,8 @@ public class WSDocInfo {
     Element assertion = null;
     Vector processors = null;
     List securityTokenReferences = null;
+    SAMLAssertionRegistry samlAssertions = null;
+    StreamedMessage streamedMessage = null;
 
     public WSDocInfo(Document doc) {
         //
@@ -103,6 +108,11 @@ public class WSDocInfo {
     public void clear() {
         crypto = null;
         assertion = null;
+        if (samlAssertions != null) {
+            samlAssertions.clear();
+        }
+        samlAssertions = null;
+        streamedMessage = null;
         if (bst != null && bst.size() > 0) {
             bst.removeAllElements();
         }
@@ -160,6 +170,23 @@ public class WSDocInfo {
         return null;
     }
 
+    /**
+     * Get the Processor of the token with the given Id. If the processing of
+     * the token was deferred, the token is processed now.
+     *
+     * @param id is the Id to look for
+     * @return the Security processor identified with this Id or null if nothing found
+     * @throws WSSecurityException if the deferred processing of the token fails
+     * @see DeferredTokenProcessor
+     */
+    public Processor resolveProcessor(String id) throws WSSecurityException {
+        Processor p = getProcessor(id);
+        if (p instanceof DeferredTokenProcessor) {
+            return ((DeferredTokenProcessor) p).process();
+        }
+        return p;
+    }
+
     /**
      * Store a Processor for later access.
      *
@@ -218,4 +245,29 @@ public class WSDocInfo {
     public void setAssertion(Element assertion) {
         this.assertion = assertion;
     }
+
+    /**
+     * @return the registry of the SAML assertions parsed for this document
+     */
+    public SAMLAssertionRegistry getSAMLAssertionRegistry() {
+        if (samlAssertions == null) {
+            samlAssertions = new SAMLAssertionRegistry();
+        }
+        return samlAssertions;
+    }
+
+    /**
+     * @return the message whose SOAP Body is streamed, or null if the whole
+     *         envelope is available as a document
+     */
+    public StreamedMessage getStreamedMessage() {
+        return streamedMessage;
+    }
+
+    /**
+     * @param streamedMessage the message whose SOAP Body is streamed
+     */
+    public void setStreamedMessage(StreamedMessage streamedMessage) {
+        this.streamedMessage = streamedMessage;
+    }
 }
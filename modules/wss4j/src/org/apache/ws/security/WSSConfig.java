@@ -20,17 +20,24 @@
 
 package org.apache.ws.security;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
 import javax.xml.namespace.QName;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.ws.security.action.Action;
+import org.apache.ws.security.metrics.NoOpMetrics;
+import org.apache.ws.security.metrics.WSSecurityMetrics;
+import org.apache.ws.security.saml.SAMLAssertionCache;
 import org.apache.ws.security.processor.Processor;
 import org.apache.ws.security.transform.STRTransform;
+import org.apache.ws.security.util.CryptoExecutor;
 import org.apache.ws.security.util.Loader;
-import org.apache.ws.security.util.UUIDGenerator;
+import org.apache.xml.security.algorithms.SignatureAlgorithm;
 import org.apache.xml.security.transforms.Transform;
 
 /**
@@ -193,6 +200,57 @@ public class WSSConfig {
      */
     protected boolean timeStampStrict = true;
     
+    /**
+     * If set to true the security header is scanned for cheap checks, like
+     * expired Timestamps or stale UsernameTokens, before any token is processed.
+     * A message that fails these checks is rejected before any signature is
+     * verified or any data is decrypted.
+     * 
+     * By default this is set to false.
+     */
+    protected boolean precheckSecurityHeader = false;
+    
+    /**
+     * If set to true the credentials that the tokens of the security header
+     * need are requested from the callback handler in one call before the 
+     * tokens are processed, and cached for the rest of the message.
+     * 
+     * By default this is set to false.
+     * 
+     * @see BatchedCallbackHandler
+     */
+    protected boolean batchPasswordCallbacks = false;
+    
+    /**
+     * If set to true BinarySecurityTokens, SAML assertions and 
+     * SecurityContextTokens are only processed when they are referenced,
+     * unless their element name is one of the required tokens.
+     * 
+     * By default this is set to false.
+     * 
+     * @see org.apache.ws.security.processor.DeferredTokenProcessor
+     */
+    protected boolean lazyTokenProcessing = false;
+    
+    /**
+     * The element names, of the form QName, of the tokens that are processed
+     * even if the token processing is lazy, because their results are required.
+     */
+    protected Set requiredTokens = Collections.EMPTY_SET;
+    
+    /**
+     * The time to live in seconds of the Created value of a Timestamp, checked
+     * by the pre-scan of the security header. A value of 0 disables the check.
+     */
+    protected int timeStampTTL = 0;
+    
+    /**
+     * The time to live in seconds of the Created value of a UsernameToken,
+     * checked by the pre-scan of the security header. A value of 0 disables
+     * the check.
+     */
+    protected int usernameTokenTTL = 0;
+    
     /**
      * This variable controls whether types other than PasswordDigest or PasswordText
      * are allowed when processing UsernameTokens. 
@@ -229,30 +287,61 @@ public class WSSConfig {
     protected boolean passwordsAreEncoded = false;
     
     /**
-     * The default wsu:Id allocator is a simple "start at 1 and increment up"
-     * thing that is very fast.
+     * The default wsu:Id allocator hands out ascending numbers from blocks
+     * reserved per thread, so it never locks on the id generation path.
+     * 
+     * @see BlockWsuIdAllocator
      */
-    public static WsuIdAllocator DEFAULT_ID_ALLOCATOR = new WsuIdAllocator() {
-        int i;
-        private synchronized String next() {
-            return Integer.toString(++i);
-        }
-        public String createId(String prefix, Object o) {
-            if (prefix == null) {
-                return next();
-            }
-            return prefix + next();
-        }
-
-        public String createSecureId(String prefix, Object o) {
-            if (prefix == null) {
-                return UUIDGenerator.getUUID();
-            }
-            return prefix + UUIDGenerator.getUUID();
-        }
-    };
+    public static WsuIdAllocator DEFAULT_ID_ALLOCATOR = new BlockWsuIdAllocator();
     protected WsuIdAllocator idAllocator = DEFAULT_ID_ALLOCATOR;
     
+    /**
+     * The metrics of the security processing. The default records nothing.
+     * 
+     * @see org.apache.ws.security.metrics.HistogramMetrics
+     */
+    protected WSSecurityMetrics metrics = NoOpMetrics.INSTANCE;
+    
+    /**
+     * The cache of verified SAML assertions. The default is no cache, every
+     * assertion signature is verified.
+     */
+    protected SAMLAssertionCache samlAssertionCache = null;
+
+    /**
+     * The executor of the asynchronous security operations. The default is the
+     * shared pool of {@link CryptoExecutor}.
+     */
+    protected Executor executor = null;
+
+    /**
+     * The names of the structural limits, as reported to the metrics and in
+     * the message of a <code>SECURITY_LIMIT_EXCEEDED</code> exception.
+     */
+    public static final String MAX_SECURITY_HEADER_ELEMENTS = "maxSecurityHeaderElements";
+    public static final String MAX_ENCRYPTED_KEYS = "maxEncryptedKeys";
+    public static final String MAX_SIGNATURE_REFERENCES = "maxSignatureReferences";
+    public static final String MAX_REFERENCE_TRANSFORMS = "maxReferenceTransforms";
+    public static final String MAX_DATA_REFERENCES = "maxDataReferences";
+    public static final String MAX_DERIVED_KEY_ITERATIONS = "maxDerivedKeyIterations";
+    public static final String MAX_DERIVED_KEY_LENGTH = "maxDerivedKeyLength";
+    public static final String MAX_ATTACHMENT_SIZE = "maxAttachmentSize";
+    
+    /**
+     * Structural limits of a received message. They are checked before any
+     * cryptographic work is done for the affected element, so that a crafted
+     * message cannot cause an unbounded amount of work. A value of 0 or less
+     * disables a limit.
+     */
+    protected int maxSecurityHeaderElements = 100;
+    protected int maxEncryptedKeys = 10;
+    protected int maxSignatureReferences = 100;
+    protected int maxReferenceTransforms = 5;
+    protected int maxDataReferences = 100;
+    protected int maxDerivedKeyIterations = 10000;
+    protected int maxDerivedKeyLength = 512;
+    protected int maxAttachmentSize = 1048576;
+    
     protected HashMap jceProvider = new HashMap(10);
 
     /**
@@ -319,9 +408,34 @@ public class WSSConfig {
                     log.debug(ex.getMessage(), ex);
                 }
             }
+            registerSignatureAlgorithm(
+                WSConstants.ECDSA_SHA256, 
+                "org.apache.ws.security.algorithms.SignatureECDSA$SignatureECDSASHA256"
+            );
+            registerSignatureAlgorithm(
+                WSConstants.ECDSA_SHA384, 
+                "org.apache.ws.security.algorithms.SignatureECDSA$SignatureECDSASHA384"
+            );
+            registerSignatureAlgorithm(
+                WSConstants.ECDSA_SHA512, 
+                "org.apache.ws.security.algorithms.SignatureECDSA$SignatureECDSASHA512"
+            );
+            registerSignatureAlgorithm(
+                WSConstants.ED25519, "org.apache.ws.security.algorithms.SignatureEd25519"
+            );
             staticallyInitialized = true;
         }
     }
+
+    private static void registerSignatureAlgorithm(String uri, String className) {
+        try {
+            SignatureAlgorithm.register(uri, className);
+        } catch (Exception ex) {
+            if (log.isDebugEnabled()) {
+                log.debug(ex.getMessage(), ex);
+            }
+        }
+    }
     
     protected WSSConfig() {
         staticInit();
@@ -446,6 +560,102 @@ public class WSSConfig {
         this.timeStampStrict = timeStampStrict;
     }
     
+    /**
+     * @return whether the security header is pre-scanned before processing
+     */
+    public boolean isPrecheckSecurityHeader() {
+        return precheckSecurityHeader;
+    }
+
+    /**
+     * @param precheckSecurityHeader
+     *            If true pre-scan the security header before processing
+     */
+    public void setPrecheckSecurityHeader(boolean precheckSecurityHeader) {
+        this.precheckSecurityHeader = precheckSecurityHeader;
+    }
+    
+    /**
+     * @return whether the credentials of a message are requested in one batch
+     */
+    public boolean isBatchPasswordCallbacks() {
+        return batchPasswordCallbacks;
+    }
+
+    /**
+     * @param batchPasswordCallbacks
+     *            If true request the credentials of a message in one batch and
+     *            cache them for the rest of the message
+     */
+    public void setBatchPasswordCallbacks(boolean batchPasswordCallbacks) {
+        this.batchPasswordCallbacks = batchPasswordCallbacks;
+    }
+    
+    /**
+     * @return whether tokens are only processed when they are referenced
+     */
+    public boolean isLazyTokenProcessing() {
+        return lazyTokenProcessing;
+    }
+
+    /**
+     * @param lazyTokenProcessing
+     *            If true only process BinarySecurityTokens, SAML assertions and
+     *            SecurityContextTokens when they are referenced
+     */
+    public void setLazyTokenProcessing(boolean lazyTokenProcessing) {
+        this.lazyTokenProcessing = lazyTokenProcessing;
+    }
+    
+    /**
+     * @return the element names of the tokens that are always processed
+     */
+    public Set getRequiredTokens() {
+        return requiredTokens;
+    }
+
+    /**
+     * @param requiredTokens
+     *            the element names, as QNames, of the tokens that are always
+     *            processed, so that their results are reported even if the 
+     *            token processing is lazy, or null for none
+     */
+    public void setRequiredTokens(Set requiredTokens) {
+        this.requiredTokens = requiredTokens == null ? Collections.EMPTY_SET : requiredTokens;
+    }
+    
+    /**
+     * @return the time to live in seconds of a Timestamp in the pre-scan
+     */
+    public int getTimeStampTTL() {
+        return timeStampTTL;
+    }
+
+    /**
+     * @param timeStampTTL
+     *            the time to live in seconds of a Timestamp in the pre-scan,
+     *            0 to not check the Created value
+     */
+    public void setTimeStampTTL(int timeStampTTL) {
+        this.timeStampTTL = timeStampTTL;
+    }
+    
+    /**
+     * @return the time to live in seconds of a UsernameToken in the pre-scan
+     */
+    public int getUsernameTokenTTL() {
+        return usernameTokenTTL;
+    }
+
+    /**
+     * @param usernameTokenTTL
+     *            the time to live in seconds of a UsernameToken in the pre-scan,
+     *            0 to not check the Created value
+     */
+    public void setUsernameTokenTTL(int usernameTokenTTL) {
+        this.usernameTokenTTL = usernameTokenTTL;
+    }
+    
     /**
      * Set the secret key length to be used for UT_SIGN.
      */
@@ -485,6 +695,161 @@ public class WSSConfig {
     public void setIdAllocator(WsuIdAllocator idAllocator) {
         this.idAllocator = idAllocator;
     }
+    
+    /**
+     * @return Returns the WSSecurityMetrics used to record the security processing
+     */
+    public WSSecurityMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param metrics the WSSecurityMetrics to use, or null to record nothing
+     */
+    public void setMetrics(WSSecurityMetrics metrics) {
+        this.metrics = metrics == null ? NoOpMetrics.INSTANCE : metrics;
+    }
+
+    /**
+     * @return the cache of verified SAML assertions, or null if there is none
+     */
+    public SAMLAssertionCache getSAMLAssertionCache() {
+        return samlAssertionCache;
+    }
+
+    /**
+     * @param samlAssertionCache the cache of verified SAML assertions, or null
+     *                           to verify the signature of every assertion
+     */
+    public void setSAMLAssertionCache(SAMLAssertionCache samlAssertionCache) {
+        this.samlAssertionCache = samlAssertionCache;
+    }
+
+    /**
+     * @return the executor of the asynchronous security operations
+     */
+    public Executor getExecutor() {
+        return executor == null ? CryptoExecutor.getDefault() : executor;
+    }
+
+    /**
+     * @param executor the executor of the asynchronous security operations, or
+     *                 null to use the shared pool of {@link CryptoExecutor}
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return the maximum number of child elements of the security header
+     */
+    public int getMaxSecurityHeaderElements() {
+        return maxSecurityHeaderElements;
+    }
+
+    public void setMaxSecurityHeaderElements(int maxSecurityHeaderElements) {
+        this.maxSecurityHeaderElements = maxSecurityHeaderElements;
+    }
+
+    /**
+     * @return the maximum number of EncryptedKeys in the security header
+     */
+    public int getMaxEncryptedKeys() {
+        return maxEncryptedKeys;
+    }
+
+    public void setMaxEncryptedKeys(int maxEncryptedKeys) {
+        this.maxEncryptedKeys = maxEncryptedKeys;
+    }
+
+    /**
+     * @return the maximum number of References of a Signature
+     */
+    public int getMaxSignatureReferences() {
+        return maxSignatureReferences;
+    }
+
+    public void setMaxSignatureReferences(int maxSignatureReferences) {
+        this.maxSignatureReferences = maxSignatureReferences;
+    }
+
+    /**
+     * @return the maximum number of Transforms of a signature Reference
+     */
+    public int getMaxReferenceTransforms() {
+        return maxReferenceTransforms;
+    }
+
+    public void setMaxReferenceTransforms(int maxReferenceTransforms) {
+        this.maxReferenceTransforms = maxReferenceTransforms;
+    }
+
+    /**
+     * @return the maximum number of DataReferences of a ReferenceList
+     */
+    public int getMaxDataReferences() {
+        return maxDataReferences;
+    }
+
+    public void setMaxDataReferences(int maxDataReferences) {
+        this.maxDataReferences = maxDataReferences;
+    }
+
+    /**
+     * @return the maximum Iteration value of a UsernameToken used to derive a key
+     */
+    public int getMaxDerivedKeyIterations() {
+        return maxDerivedKeyIterations;
+    }
+
+    public void setMaxDerivedKeyIterations(int maxDerivedKeyIterations) {
+        this.maxDerivedKeyIterations = maxDerivedKeyIterations;
+    }
+
+    /**
+     * @return the maximum Length in bytes of a DerivedKeyToken
+     */
+    public int getMaxDerivedKeyLength() {
+        return maxDerivedKeyLength;
+    }
+
+    public void setMaxDerivedKeyLength(int maxDerivedKeyLength) {
+        this.maxDerivedKeyLength = maxDerivedKeyLength;
+    }
+
+    /**
+     * @return the maximum size in bytes of an attachment that is read into
+     *         memory for an xop:Include, for example a BinarySecurityToken
+     *         or the CipherValue of an EncryptedKey
+     */
+    public int getMaxAttachmentSize() {
+        return maxAttachmentSize;
+    }
+
+    public void setMaxAttachmentSize(int maxAttachmentSize) {
+        this.maxAttachmentSize = maxAttachmentSize;
+    }
+
+    /**
+     * Check a value against a structural limit. If the limit is exceeded it is
+     * counted by the metrics and a WSSecurityException with the error code
+     * <code>SECURITY_LIMIT_EXCEEDED</code> is thrown.
+     *
+     * @param name the name of the limit, one of the MAX_ constants
+     * @param value the value found in the message
+     * @param limit the limit, 0 or less if there is none
+     * @throws WSSecurityException if the value exceeds the limit
+     */
+    public void checkLimit(String name, int value, int limit) throws WSSecurityException {
+        if (limit > 0 && value > limit) {
+            metrics.limitExceeded(name);
+            throw new WSSecurityException(
+                WSSecurityException.SECURITY_LIMIT_EXCEEDED,
+                "limitExceeded",
+                new Object[] {name, String.valueOf(value), String.valueOf(limit)}
+            );
+        }
+    }
 
     /**
      * Associate an action name with a specific action code.
@@ -23,18 +23,27 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.ws.security.components.crypto.Crypto;
 import org.apache.ws.security.conversation.ConversationConstants;
+import org.apache.ws.security.message.token.Timestamp;
 import org.apache.ws.security.message.token.UsernameToken;
+import org.apache.ws.security.metrics.WSSecurityMetrics;
+import org.apache.ws.security.processor.DeferredTokenProcessor;
 import org.apache.ws.security.processor.Processor;
+import org.apache.ws.security.util.SecurityFuture;
 import org.apache.ws.security.util.WSSecurityUtil;
+import org.apache.ws.security.util.XmlSchemaDateTime;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.w3c.dom.Text;
 
 import javax.security.auth.callback.CallbackHandler;
 import javax.xml.namespace.QName;
 
+import java.text.ParseException;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 
 /**
  * WS-Security Engine.
@@ -46,8 +55,6 @@ import java.util.Vector;
 public class WSSecurityEngine {
     public static final String VALUE_TYPE = "ValueType";
     private static Log log = LogFactory.getLog(WSSecurityEngine.class.getName());
-    private static Log tlog =
-            LogFactory.getLog("org.apache.ws.security.TIME");
 
     private static WSSecurityEngine engine = null;
     
@@ -251,6 +258,58 @@ public class WSSecurityEngine {
         return wsResult;
     }
 
+    /**
+     * Process the security header on the executor of the WSSConfig.
+     *
+     * @see #processSecurityHeaderAsync(Document, String, CallbackHandler, Crypto, Crypto, Executor)
+     */
+    public SecurityFuture<Vector> processSecurityHeaderAsync(
+        Document doc,
+        String actor,
+        CallbackHandler cb,
+        Crypto sigCrypto,
+        Crypto decCrypto
+    ) {
+        return processSecurityHeaderAsync(
+            doc, actor, cb, sigCrypto, decCrypto, getWssConfig().getExecutor()
+        );
+    }
+
+    /**
+     * Process the security header given the soap envelope as W3C document on
+     * an executor, so that the calling thread does not block on the signature
+     * verification and decryption. <p/>
+     * 
+     * The whole processing of the message runs on one executor thread. The
+     * callback handler is called on that thread. The document belongs to the
+     * processing until the returned future is done: the caller must not access
+     * it before. Several messages, each with its own document, can be processed 
+     * concurrently.
+     *
+     * @param doc       the SOAP envelope as {@link Document}
+     * @param actor     the engine works on behalf of this <code>actor</code>
+     * @param cb        a callback hander to the caller to resolve passwords
+     * @param sigCrypto the Crypto used for Signature
+     * @param decCrypto the Crypto used for Decryption
+     * @param executor  the executor to process the security header on
+     * @return the pending result vector, as returned by 
+     *         {@link #processSecurityHeader(Document, String, CallbackHandler, Crypto, Crypto)}
+     */
+    public SecurityFuture<Vector> processSecurityHeaderAsync(
+        final Document doc,
+        final String actor,
+        final CallbackHandler cb,
+        final Crypto sigCrypto,
+        final Crypto decCrypto,
+        Executor executor
+    ) {
+        return SecurityFuture.submit(executor, new Callable<Vector>() {
+            public Vector call() throws WSSecurityException {
+                return processSecurityHeader(doc, actor, cb, sigCrypto, decCrypto);
+            }
+        });
+    }
+
     /**
      * Process the security header given the <code>wsse:Security</code> DOM
      * Element. 
@@ -276,6 +335,16 @@ public class WSSecurityEngine {
      * Processors have been registered with the WSSCondig instance set
      * on this class.
      *
+     * Before any element is processed, the number of elements and of
+     * EncryptedKeys in the header are checked against the limits of the
+     * WSSConfig. If the WSSConfig enables the pre-scan of the security header,
+     * the header is then checked by {@link #precheckSecurityHeader}. If the
+     * WSSConfig enables batched password callbacks, the credentials the tokens 
+     * need are then requested with one call of the callback handler, see
+     * {@link BatchedCallbackHandler}. If the WSSConfig enables lazy token
+     * processing, tokens that are only needed when they are referenced are
+     * not processed here, see {@link DeferredTokenProcessor}.
+     *
      * @param securityHeader the <code>wsse:Security</code> header element
      * @param cb             a callback hander to the caller to resolve passwords during
      *                       encryption and {@link UsernameToken}handling
@@ -283,7 +352,8 @@ public class WSSecurityEngine {
      *                       handling of certificates used for Signature
      * @param decCrypto      the object that implements the access to the keystore and the
      *                       handling of certificates used for Decryption
-     * @return a Vector of {@link WSSecurityEngineResult}. Each element in the
+     * @return a {@link WSSecurityEngineResults}, a Vector of 
+     *         {@link WSSecurityEngineResult}. Each element in the
      *         the Vector represents the result of a security action. The elements
      *         are ordered according to the sequence of the security actions in the
      *         wsse:Signature header. The Vector maybe empty if no security processing
@@ -295,10 +365,6 @@ public class WSSecurityEngine {
                                            Crypto sigCrypto,
                                            Crypto decCrypto) throws WSSecurityException {
 
-        long t0 = 0, t1 = 0, t2 = 0;
-        if (tlog.isDebugEnabled()) {
-            t0 = System.currentTimeMillis();
-        }
         /*
          * Gather some info about the document to process and store
          * it for retrieval. Store the implementation of signature crypto
@@ -306,22 +372,79 @@ public class WSSecurityEngine {
          */
         WSDocInfo wsDocInfo = new WSDocInfo(securityHeader.getOwnerDocument());
         wsDocInfo.setCrypto(sigCrypto);
+        return processSecurityHeader(securityHeader, cb, sigCrypto, decCrypto, wsDocInfo);
+    }
+
+    /**
+     * Process the security header given the <code>wsse:Security</code> DOM
+     * Element and the info about the document that the processors share.
+     *
+     * @param securityHeader the <code>wsse:Security</code> header element
+     * @param cb             a callback hander to the caller to resolve passwords
+     * @param sigCrypto      the Crypto used for Signature
+     * @param decCrypto      the Crypto used for Decryption
+     * @param wsDocInfo      the info about the document to process
+     * @return a {@link WSSecurityEngineResults}
+     * @throws WSSecurityException
+     * @see #processSecurityHeader(Element, CallbackHandler, Crypto, Crypto)
+     */
+    protected Vector processSecurityHeader(Element securityHeader,
+                                           CallbackHandler cb,
+                                           Crypto sigCrypto,
+                                           Crypto decCrypto,
+                                           WSDocInfo wsDocInfo) throws WSSecurityException {
 
         NodeList list = securityHeader.getChildNodes();
         int len = list.getLength();
         Node elem;
-        if (tlog.isDebugEnabled()) {
-            t1 = System.currentTimeMillis();
+        Vector returnResults = new WSSecurityEngineResults();
+        final WSSConfig cfg = getWssConfig();
+        final WSSecurityMetrics metrics = cfg.getMetrics();
+        final boolean doMetrics = metrics.isEnabled();
+
+        try {
+            checkLimits(list, cfg);
+            if (cfg.isPrecheckSecurityHeader()) {
+                precheckSecurityHeader(securityHeader, cfg);
+            }
+        } catch (WSSecurityException ex) {
+            if (doMetrics) {
+                metrics.failure(ex.getErrorCode());
+            }
+            throw ex;
+        }
+        if (cb != null && cfg.isBatchPasswordCallbacks()) {
+            cb = BatchedCallbackHandler.prefetch(securityHeader, cb, decCrypto);
+        }
+        if (cfg.isLazyTokenProcessing()) {
+            //
+            // Register the deferred tokens before any element is processed, so 
+            // that a token that follows the Signature or EncryptedKey that 
+            // references it is still processed when it is resolved
+            //
+            for (int i = 0; i < len; i++) {
+                elem = list.item(i);
+                if (elem.getNodeType() != Node.ELEMENT_NODE || !isDeferred(elem, cfg)) {
+                    continue;
+                }
+                Processor p = 
+                    cfg.getProcessor(new QName(elem.getNamespaceURI(), elem.getLocalName()));
+                if (p != null) {
+                    p = new DeferredTokenProcessor(p, (Element) elem);
+                    p.handleToken(
+                        (Element) elem, sigCrypto, decCrypto, cb, wsDocInfo, returnResults, cfg
+                    );
+                    wsDocInfo.setProcessor(p);
+                }
+            }
         }
-        Vector returnResults = new Vector();
 
         for (int i = 0; i < len; i++) {
             elem = list.item(i);
-            if (elem.getNodeType() != Node.ELEMENT_NODE) {
+            if (elem.getNodeType() != Node.ELEMENT_NODE || isDeferred(elem, cfg)) {
                 continue;
             }
             QName el = new QName(elem.getNamespaceURI(), elem.getLocalName());
-            final WSSConfig cfg = getWssConfig();
             Processor p = cfg.getProcessor(el);
             /*
              * Call the processor for this token. After the processor returns, 
@@ -329,7 +452,23 @@ public class WSSecurityEngine {
              * information about the processed token
              */
             if (p != null) {
-                p.handleToken((Element) elem, sigCrypto, decCrypto, cb, wsDocInfo, returnResults, cfg);
+                long t0 = doMetrics ? System.nanoTime() : 0;
+                int resultCount = returnResults.size();
+                try {
+                    p.handleToken(
+                        (Element) elem, sigCrypto, decCrypto, cb, wsDocInfo, returnResults, cfg
+                    );
+                } catch (WSSecurityException ex) {
+                    if (doMetrics) {
+                        metrics.failure(ex.getErrorCode());
+                    }
+                    throw ex;
+                }
+                if (doMetrics) {
+                    long nanos = System.nanoTime() - t0;
+                    metrics.processorTime(el, nanos);
+                    recordActionTime(metrics, returnResults, resultCount, nanos);
+                }
                 wsDocInfo.setProcessor(p);
             } else {
                 /*
@@ -344,13 +483,172 @@ public class WSSecurityEngine {
                 }
             }
         }
-        if (tlog.isDebugEnabled()) {
-            t2 = System.currentTimeMillis();
-            tlog.debug(
-                "processHeader: total " + (t2 - t0) + ", prepare " + (t1 - t0) 
-                + ", handle " + (t2 - t1)
+        return returnResults;
+    }
+
+    /**
+     * Record the time of a processor as the receiver time of the action of
+     * its result. The processors add their results at the start of the
+     * results, so the result of the processor is the first one, except for
+     * the timestamp of a SAML assertion that is added after the result of
+     * the assertion.
+     */
+    private static void recordActionTime(
+        WSSecurityMetrics metrics, Vector results, int resultCount, long nanos
+    ) {
+        int added = results.size() - resultCount;
+        for (int i = 0; i < added; i++) {
+            int action = ((WSSecurityEngineResult) results.get(i)).getAction();
+            if (action != WSConstants.SAML_TIMESTAMP) {
+                metrics.actionTime(action, false, nanos);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return whether the processing of a child element of the security header
+     *         is deferred until the element is referenced
+     */
+    private static boolean isDeferred(Node elem, WSSConfig cfg) {
+        if (!cfg.isLazyTokenProcessing()) {
+            return false;
+        }
+        QName el = new QName(elem.getNamespaceURI(), elem.getLocalName());
+        return DeferredTokenProcessor.isDeferrable(el) && !cfg.getRequiredTokens().contains(el);
+    }
+
+    /**
+     * Check the number of child elements and EncryptedKeys of the security header.
+     */
+    private static void checkLimits(NodeList list, WSSConfig cfg) throws WSSecurityException {
+        int elements = 0;
+        int encryptedKeys = 0;
+        for (int i = 0; i < list.getLength(); i++) {
+            Node node = list.item(i);
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                elements++;
+                if (WSConstants.ENC_KEY_LN.equals(node.getLocalName())
+                    && WSConstants.ENC_NS.equals(node.getNamespaceURI())) {
+                    encryptedKeys++;
+                }
+            }
+        }
+        cfg.checkLimit(
+            WSSConfig.MAX_SECURITY_HEADER_ELEMENTS, elements, cfg.getMaxSecurityHeaderElements()
+        );
+        cfg.checkLimit(WSSConfig.MAX_ENCRYPTED_KEYS, encryptedKeys, cfg.getMaxEncryptedKeys());
+    }
+
+    /**
+     * Scan the direct children of the <code>wsse:Security</code> header for
+     * conditions that are cheap to check and reject the message before any
+     * token is processed. This is a separate pass because a Timestamp or a
+     * UsernameToken may follow a Signature or an EncryptedKey in the header.
+     * 
+     * The following is checked:
+     * <ul>
+     * <li>the header contains at most one <code>wsu:Timestamp</code></li>
+     * <li>the Timestamp is not expired, if the WSSConfig is strict about
+     * timestamps</li>
+     * <li>the Created value of the Timestamp is not in the future and is
+     * within the time to live of timestamps, if one is set</li>
+     * <li>the Created value of a UsernameToken is not in the future and is
+     * within the time to live of UsernameTokens, if one is set</li>
+     * </ul>
+     * 
+     * The Timestamp is verified again when it is processed in order.
+     *
+     * @param securityHeader the <code>wsse:Security</code> header element
+     * @param cfg the WSSConfig that holds the limits
+     * @throws WSSecurityException if the message should be rejected
+     */
+    protected void precheckSecurityHeader(Element securityHeader, WSSConfig cfg)
+        throws WSSecurityException {
+        long now = System.currentTimeMillis();
+        boolean timestampFound = false;
+        for (Node node = securityHeader.getFirstChild(); 
+            node != null; 
+            node = node.getNextSibling()
+        ) {
+            if (node.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            String localName = node.getLocalName();
+            String namespace = node.getNamespaceURI();
+            if (WSConstants.TIMESTAMP_TOKEN_LN.equals(localName) 
+                && WSConstants.WSU_NS.equals(namespace)) {
+                if (timestampFound) {
+                    throw new WSSecurityException(
+                        WSSecurityException.INVALID_SECURITY,
+                        "invalidTimestamp",
+                        new Object[] {"The security header contains more than one timestamp"}
+                    );
+                }
+                timestampFound = true;
+                Timestamp timestamp = new Timestamp((Element) node);
+                long expires = timestamp.getExpiresTime();
+                if (expires != Timestamp.UNDEFINED && cfg.isTimeStampStrict() && expires < now) {
+                    throw new WSSecurityException(
+                        WSSecurityException.MESSAGE_EXPIRED,
+                        "invalidTimestamp",
+                        new Object[] {"The security semantics of the message have expired"}
+                    );
+                }
+                checkCreated(timestamp.getCreatedTime(), cfg.getTimeStampTTL(), now);
+            } else if (WSConstants.USERNAME_TOKEN_LN.equals(localName)
+                && WSConstants.WSSE_NS.equals(namespace)
+                && cfg.getUsernameTokenTTL() > 0) {
+                Element created = 
+                    WSSecurityUtil.getDirectChildElement(
+                        node, WSConstants.CREATED_LN, WSConstants.WSU_NS
+                    );
+                if (created != null) {
+                    checkCreated(parseCreated(created), cfg.getUsernameTokenTTL(), now);
+                }
+            }
+        }
+    }
+
+    private static long parseCreated(Element created) throws WSSecurityException {
+        Node text = created.getFirstChild();
+        if (text == null || text.getNodeType() != Node.TEXT_NODE) {
+            throw new WSSecurityException(
+                WSSecurityException.INVALID_SECURITY_TOKEN,
+                "invalidData",
+                new Object[] {"UsernameToken Created"}
+            );
+        }
+        try {
+            return XmlSchemaDateTime.parse(((Text) text).getData());
+        } catch (ParseException e) {
+            throw new WSSecurityException(
+                WSSecurityException.INVALID_SECURITY_TOKEN,
+                "invalidData",
+                new Object[] {"UsernameToken Created"},
+                e
+            );
+        }
+    }
+
+    private static void checkCreated(long created, int timeToLive, long now)
+        throws WSSecurityException {
+        if (created == Timestamp.UNDEFINED || timeToLive <= 0) {
+            return;
+        }
+        if (created > now) {
+            throw new WSSecurityException(
+                WSSecurityException.MESSAGE_EXPIRED,
+                "invalidTimestamp",
+                new Object[] {"The message was created in the future"}
+            );
+        }
+        if (created <= now - timeToLive * 1000L) {
+            throw new WSSecurityException(
+                WSSecurityException.MESSAGE_EXPIRED,
+                "invalidTimestamp",
+                new Object[] {"The message was created too long ago"}
             );
         }
-        return returnResults;
     }
 }
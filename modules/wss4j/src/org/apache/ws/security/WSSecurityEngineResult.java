@@ -24,16 +24,35 @@ import org.apache.ws.security.message.token.SecurityContextToken;
 import org.apache.ws.security.message.token.SignatureConfirmation;
 import org.apache.ws.security.message.token.Timestamp;
 
+import java.io.Serializable;
 import java.security.Principal;
 import java.security.cert.X509Certificate;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 /**
+ * The result of a security action performed by the security engine. <p/>
+ *
+ * The action, principal, certificate, signed element Ids and data references
+ * are kept in fields, which the typed getters such as {@link #getAction()}
+ * return without a lookup. For compatibility the result is also a map from
+ * the TAG_* constants to the values found. The map writes through to the
+ * fields for these tags and keeps any other tag in a HashMap. The results of
+ * a security header are collected in a {@link WSSecurityEngineResults}, which
+ * indexes them by action and by the wsu:Id of the elements they protect.
+ *
  * @author Werner Dittmann (Werner.Dittmann@t-online.de)
  */
-public class WSSecurityEngineResult extends java.util.HashMap {
+public class WSSecurityEngineResult extends AbstractMap implements Serializable {
+
+    private static final long serialVersionUID = 4539283611766380455L;
 
     /**
      * Tag denoting the cryptographic operation performed
@@ -190,6 +209,31 @@ public class WSSecurityEngineResult extends java.util.HashMap {
      */
     public static final Object TAG_CANONICALIZATION_METHOD = "canonicalization-method";
 
+    /**
+     * The tags whose values are kept in fields, in the order of the bits of
+     * {@link #present}
+     */
+    private static final String[] FIELD_TAGS = {
+        TAG_ACTION, TAG_PRINCIPAL, TAG_X509_CERTIFICATE, TAG_SIGNED_ELEMENT_IDS,
+        TAG_DATA_REF_URIS
+    };
+
+    private int action;
+    private Principal principal;
+    private X509Certificate certificate;
+    private Set signedElements;
+    private List dataRefs;
+
+    /**
+     * A bit for each tag of FIELD_TAGS that has a value, which may be null
+     */
+    private int present;
+
+    /**
+     * The values of all other tags
+     */
+    private final HashMap tags = new HashMap();
+
     public WSSecurityEngineResult(
         int act, 
         Object ass
@@ -293,55 +337,55 @@ public class WSSecurityEngineResult extends java.util.HashMap {
     }
 
     /**
-     * @return the actions vector. These actions were performed by the the
-     *         security engine.
-     *
-     * @deprecated      use ((java.lang.Integer) #get(#TAG_ACTION)).intValue() 
-     *                  instead
+     * @return the action performed by the security engine, one of the
+     *         action constants of {@link WSConstants}
      */
     public int getAction() {
-        return ((java.lang.Integer) get(TAG_ACTION)).intValue();
+        return action;
     }
 
     /**
-     * @return the principals found if UsernameToken or Signature
+     * @return the principal found if UsernameToken or Signature
      *         processing were done
-     *
-     * @deprecated      use (Principal) #get(#TAG_PRINCIPAL) instead
      */
     public Principal getPrincipal() {
-        return (Principal) get(TAG_PRINCIPAL);
+        return principal;
     }
 
     /**
      * @return the Certificate found if Signature
      *         processing were done
-     *
-     * @deprecated      use (X509Certificate)
-     *                  #get(#TAG_X509_CERTIFICATE) instead
      */
     public X509Certificate getCertificate() {
-        return (X509Certificate) get(TAG_X509_CERTIFICATE);
+        return certificate;
     }
 
     /**
      * @return the timestamp found
-     *
-     * @deprecated      use (Timestamp)
-     *                  #get(#TAG_TIMESTAMP) instead
      */
     public Timestamp getTimestamp() {
         return (Timestamp) get(TAG_TIMESTAMP);
     }
 
     /**
-     * @return Returns the signedElements.
-     *
-     * @deprecated      use (java.util.Set)
-     *                  #get(#TAG_SIGNED_ELEMENT_IDS) instead
+     * @return the wsu:Ids of the signed elements
      */
     public Set getSignedElements() {
-        return (java.util.Set) get(TAG_SIGNED_ELEMENT_IDS);
+        return signedElements;
+    }
+
+    /**
+     * @return the DOM elements that have been cryptographically protected
+     */
+    public Set getProtectedElements() {
+        return (java.util.Set) get(TAG_PROTECTED_ELEMENTS);
+    }
+
+    /**
+     * @return the data references, a list of {@link WSDataRef}
+     */
+    public List getDataRefs() {
+        return dataRefs;
     }
 
     /**
@@ -355,10 +399,7 @@ public class WSSecurityEngineResult extends java.util.HashMap {
     }
 
     /**
-     * @return Returns the sigConf.
-     *
-     * @deprecated      use (SignatureConfirmation)
-     *                  #get(#TAG_SIGNATURE_CONFIRMATION) instead
+     * @return the SignatureConfirmation found
      */
     public SignatureConfirmation getSigConf() {
         return (SignatureConfirmation) get(TAG_SIGNATURE_CONFIRMATION);
@@ -410,7 +451,209 @@ public class WSSecurityEngineResult extends java.util.HashMap {
      *                  #get(#TAG_DATA_REF_URIS) instead
      */
     public ArrayList getDataRefUris() {
-        return (ArrayList) get(TAG_DATA_REF_URIS);
+        return (ArrayList) dataRefs;
+    }
+
+    public Object get(Object key) {
+        int field = getField(key);
+        if (field < 0) {
+            return tags.get(key);
+        }
+        return (present & (1 << field)) == 0 ? null : getFieldValue(field);
+    }
+
+    public boolean containsKey(Object key) {
+        int field = getField(key);
+        if (field < 0) {
+            return tags.containsKey(key);
+        }
+        return (present & (1 << field)) != 0;
+    }
+
+    public Object put(Object key, Object value) {
+        int field = getField(key);
+        if (field < 0) {
+            return tags.put(key, value);
+        }
+        Object previous = get(key);
+        setFieldValue(field, value);
+        present |= 1 << field;
+        return previous;
+    }
+
+    public Object remove(Object key) {
+        int field = getField(key);
+        if (field < 0) {
+            return tags.remove(key);
+        }
+        Object previous = get(key);
+        setFieldValue(field, null);
+        present &= ~(1 << field);
+        return previous;
+    }
+
+    public void clear() {
+        for (int i = 0; i < FIELD_TAGS.length; i++) {
+            setFieldValue(i, null);
+        }
+        present = 0;
+        tags.clear();
     }
     
+    public int size() {
+        return Integer.bitCount(present) + tags.size();
+    }
+
+    /**
+     * The entries of the fields write through to the fields, the entries of
+     * the other tags are those of their HashMap.
+     */
+    public Set entrySet() {
+        return new AbstractSet() {
+            public Iterator iterator() {
+                return new EntryIterator();
+            }
+
+            public int size() {
+                return WSSecurityEngineResult.this.size();
+            }
+        };
+    }
+
+    private static int getField(Object key) {
+        for (int i = 0; i < FIELD_TAGS.length; i++) {
+            if (FIELD_TAGS[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private Object getFieldValue(int field) {
+        switch (field) {
+        case 0:
+            return Integer.valueOf(action);
+        case 1:
+            return principal;
+        case 2:
+            return certificate;
+        case 3:
+            return signedElements;
+        default:
+            return dataRefs;
+        }
+    }
+
+    private void setFieldValue(int field, Object value) {
+        switch (field) {
+        case 0:
+            action = value == null ? 0 : ((Integer) value).intValue();
+            break;
+        case 1:
+            principal = (Principal) value;
+            break;
+        case 2:
+            certificate = (X509Certificate) value;
+            break;
+        case 3:
+            signedElements = (Set) value;
+            break;
+        default:
+            dataRefs = (List) value;
+            break;
+        }
+    }
+
+    /**
+     * An entry of a field, that reads and writes the field.
+     */
+    private class FieldEntry implements Map.Entry {
+        private final int field;
+
+        FieldEntry(int field) {
+            this.field = field;
+        }
+
+        public Object getKey() {
+            return FIELD_TAGS[field];
+        }
+
+        public Object getValue() {
+            return get(FIELD_TAGS[field]);
+        }
+
+        public Object setValue(Object value) {
+            return put(FIELD_TAGS[field], value);
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry e = (Map.Entry) o;
+            Object value = getValue();
+            return getKey().equals(e.getKey())
+                && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+        }
+
+        public int hashCode() {
+            Object value = getValue();
+            return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+    /**
+     * Iterates the entries of the fields that have a value, then the entries
+     * of the other tags.
+     */
+    private class EntryIterator implements Iterator {
+        private int next = nextField(0);
+        private int last = -1;
+        private Iterator others;
+
+        public boolean hasNext() {
+            if (next < FIELD_TAGS.length) {
+                return true;
+            }
+            if (others == null) {
+                others = tags.entrySet().iterator();
+            }
+            return others.hasNext();
+        }
+
+        public Object next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (next < FIELD_TAGS.length) {
+                last = next;
+                next = nextField(next + 1);
+                return new FieldEntry(last);
+            }
+            last = -1;
+            return others.next();
+        }
+
+        public void remove() {
+            if (last >= 0) {
+                WSSecurityEngineResult.this.remove(FIELD_TAGS[last]);
+                last = -1;
+            } else if (others != null) {
+                others.remove();
+            } else {
+                throw new IllegalStateException();
+            }
+        }
+
+        private int nextField(int from) {
+            while (from < FIELD_TAGS.length && (present & (1 << from)) == 0) {
+                from++;
+            }
+            return from;
+        }
+    }
 }
@@ -0,0 +1,201 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ws.security;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+/**
+ * The results of processing a security header, a Vector of
+ * {@link WSSecurityEngineResult}. <p/>
+ *
+ * Besides the Vector view, the results can be looked up by action and by the
+ * Id of a protected element, that is the wsu:Id of a signed element or the Id
+ * of an EncryptedData element. The index is built on the first lookup and is
+ * rebuilt after the Vector was modified, so results must be complete when
+ * they are added. This is the case for the results the processors add to the
+ * results of the security engine.
+ */
+public class WSSecurityEngineResults extends Vector {
+
+    private static final long serialVersionUID = -3518250283461394628L;
+
+    /**
+     * The results by action, of the form <Integer, List>
+     */
+    private transient Map byAction;
+
+    /**
+     * The results by wsu:Id of the elements they protect, of the form
+     * <String, List>
+     */
+    private transient Map byElementId;
+
+    /**
+     * The modCount at which the index was built
+     */
+    private transient int indexedModCount = -1;
+
+    public WSSecurityEngineResults() {
+        super();
+    }
+
+    /**
+     * @param results the results to add, a Collection of WSSecurityEngineResult
+     */
+    public WSSecurityEngineResults(Collection results) {
+        super(results);
+    }
+
+    /**
+     * Get the last result of an action. If the results are in the order of 
+     * the security engine, this is the first action of this type in the
+     * security header.
+     *
+     * @param action the action to get the result of
+     * @return the result or <code>null</code> if the action was not performed
+     */
+    public synchronized WSSecurityEngineResult getResult(int action) {
+        List list = (List) index().get(new Integer(action));
+        if (list == null) {
+            return null;
+        }
+        return (WSSecurityEngineResult) list.get(list.size() - 1);
+    }
+
+    /**
+     * Get all results of an action, in the order of this Vector.
+     *
+     * @param action the action to get the results of
+     * @return an unmodifiable list of WSSecurityEngineResult, which is empty
+     *         if the action was not performed
+     */
+    public synchronized List getResults(int action) {
+        List list = (List) index().get(new Integer(action));
+        if (list == null) {
+            return Collections.EMPTY_LIST;
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Get the number of results of an action.
+     *
+     * @param action the action to count
+     * @return the number of results of the action
+     */
+    public synchronized int countResults(int action) {
+        List list = (List) index().get(new Integer(action));
+        return list == null ? 0 : list.size();
+    }
+
+    /**
+     * Get the results that sign or encrypt the element with a given Id, in
+     * the order of this Vector.
+     *
+     * @param id the wsu:Id of a signed element or the Id of an EncryptedData
+     *           element
+     * @return an unmodifiable list of WSSecurityEngineResult, which is empty
+     *         if the element was not protected
+     */
+    public synchronized List getResultsForElementId(String id) {
+        index();
+        List list = (List) byElementId.get(id);
+        if (list == null) {
+            return Collections.EMPTY_LIST;
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Replacing an element does not change the modCount of a Vector, so the
+     * index is dropped here.
+     */
+    public synchronized Object set(int index, Object element) {
+        byAction = null;
+        return super.set(index, element);
+    }
+
+    public synchronized void setElementAt(Object obj, int index) {
+        byAction = null;
+        super.setElementAt(obj, index);
+    }
+
+    private Map index() {
+        if (byAction != null && indexedModCount == modCount) {
+            return byAction;
+        }
+        byAction = new HashMap();
+        byElementId = new HashMap();
+        for (int i = 0; i < elementCount; i++) {
+            WSSecurityEngineResult result = (WSSecurityEngineResult) elementData[i];
+            Integer action = new Integer(result.getAction());
+            List list = (List) byAction.get(action);
+            if (list == null) {
+                list = new ArrayList(2);
+                byAction.put(action, list);
+            }
+            list.add(result);
+
+            Set signed = result.getSignedElements();
+            if (signed != null) {
+                for (Iterator it = signed.iterator(); it.hasNext();) {
+                    Object id = it.next();
+                    if (id instanceof String) {
+                        addElementId((String) id, result);
+                    }
+                }
+            }
+            List dataRefs = result.getDataRefs();
+            if (dataRefs != null) {
+                for (Iterator it = dataRefs.iterator(); it.hasNext();) {
+                    Object dataRef = it.next();
+                    if (dataRef instanceof WSDataRef) {
+                        String id = ((WSDataRef) dataRef).getWsuId();
+                        if (id != null) {
+                            addElementId(id, result);
+                        }
+                    }
+                }
+            }
+        }
+        indexedModCount = modCount;
+        return byAction;
+    }
+
+    private void addElementId(String id, WSSecurityEngineResult result) {
+        List list = (List) byElementId.get(id);
+        if (list == null) {
+            list = new ArrayList(2);
+            byElementId.put(id, list);
+        } else if (list.get(list.size() - 1) == result) {
+            return;
+        }
+        list.add(result);
+    }
+}
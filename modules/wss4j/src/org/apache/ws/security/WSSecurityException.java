@@ -18,6 +18,9 @@
  */
 package org.apache.ws.security;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
 import java.rmi.RemoteException;
 import java.text.MessageFormat;
 import java.util.MissingResourceException;
@@ -41,13 +44,26 @@ public class WSSecurityException extends RemoteException {
     public static final int MESSAGE_EXPIRED = 8;
     public static final int FAILED_ENCRYPTION = 9;
     public static final int FAILED_SIGNATURE = 10;
+    public static final int SECURITY_LIMIT_EXCEEDED = 11;
+    private static final Log log = LogFactory.getLog(WSSecurityException.class.getName());
     private static ResourceBundle resources;
+    
+    /**
+     * If set, exceptions with one of the well-known failure codes
+     * (FAILED_AUTHENTICATION, FAILED_CHECK, MESSAGE_EXPIRED and INVALID_SECURITY)
+     * are created without a stack trace, and their message is only formatted
+     * when it is requested. This keeps the cost of rejecting a message low
+     * when failures occur at a high rate. The setting is ignored while debug
+     * logging is enabled for this class, so that full detail is available.
+     */
+    private static volatile boolean lightweight = false;
     /*
      * This is an Integer -> QName map. Its function is to map the integer error codes
      * given above to the QName fault codes as defined in the SOAP Message Security 1.1
      * specification. A client application can simply call getFaultCode rather than do
      * any parsing of the error code. Note that there are no mappings for "FAILURE", 
      * "FAILED_ENCRYPTION" and "FAILED_SIGNATURE" as these are not standard error messages.
+     * "SECURITY_LIMIT_EXCEEDED" maps to the InvalidSecurity fault code.
      */
     private static final java.util.Map FAULT_CODE_MAP = new java.util.HashMap();
 
@@ -90,9 +106,40 @@ public class WSSecurityException extends RemoteException {
             new Integer(MESSAGE_EXPIRED), 
             WSConstants.MESSAGE_EXPIRED
         );
+        FAULT_CODE_MAP.put(
+            new Integer(SECURITY_LIMIT_EXCEEDED), 
+            WSConstants.INVALID_SECURITY
+        );
     }
 
     private int errorCode;
+    
+    /**
+     * The message id and arguments of a lightweight exception, kept until the
+     * message is formatted.
+     */
+    private transient String msgId;
+    private transient Object[] args;
+    private boolean lazyMessage;
+    private String message;
+
+    /**
+     * Enable or disable lightweight exceptions for the well-known failure codes.
+     * <p/>
+     *
+     * @param value <code>true</code> to create these exceptions without a stack
+     *              trace and with a lazily formatted message
+     */
+    public static void setLightweight(boolean value) {
+        lightweight = value;
+    }
+
+    /**
+     * @return whether lightweight exceptions are enabled
+     */
+    public static boolean isLightweight() {
+        return lightweight;
+    }
 
     /**
      * Constructor.
@@ -104,8 +151,8 @@ public class WSSecurityException extends RemoteException {
      * @param exception
      */
     public WSSecurityException(int errorCode, String msgId, Object[] args, Throwable exception) {
-        super(getMessage(errorCode, msgId, args), exception);
-        this.errorCode = errorCode;
+        super(isLightweight(errorCode) ? null : getMessage(errorCode, msgId, args), exception);
+        init(errorCode, msgId, args);
     }
 
     /**
@@ -117,8 +164,8 @@ public class WSSecurityException extends RemoteException {
      * @param args
      */
     public WSSecurityException(int errorCode, String msgId, Object[] args) {
-        super(getMessage(errorCode, msgId, args));
-        this.errorCode = errorCode;
+        super(isLightweight(errorCode) ? null : getMessage(errorCode, msgId, args));
+        init(errorCode, msgId, args);
     }
 
     /**
@@ -150,6 +197,9 @@ public class WSSecurityException extends RemoteException {
      */
     public WSSecurityException(String errorMessage) {
         super(errorMessage);
+        if (lightweight) {
+            super.fillInStackTrace();
+        }
     }
 
     /**
@@ -160,6 +210,69 @@ public class WSSecurityException extends RemoteException {
      */
     public WSSecurityException(String errorMessage, Throwable t) {
         super(errorMessage, t);
+        if (lightweight) {
+            super.fillInStackTrace();
+        }
+    }
+
+    /**
+     * Record the error code. A lightweight exception keeps the message id and
+     * arguments for later formatting, all others get the stack trace that
+     * <code>fillInStackTrace</code> skipped during construction.
+     */
+    private void init(int errorCode, String msgId, Object[] args) {
+        this.errorCode = errorCode;
+        if (isLightweight(errorCode)) {
+            this.msgId = msgId;
+            this.args = args;
+            this.lazyMessage = true;
+        } else if (lightweight) {
+            super.fillInStackTrace();
+        }
+    }
+
+    /**
+     * Fill in the stack trace, unless lightweight exceptions are enabled. In this
+     * case the constructor decides, once the error code is known.
+     */
+    public synchronized Throwable fillInStackTrace() {
+        if (lightweight) {
+            return this;
+        }
+        return super.fillInStackTrace();
+    }
+
+    /**
+     * Get the message of this exception, including the message of the nested
+     * exception if there is one. The message of a lightweight exception is
+     * formatted on the first call.
+     * <p/>
+     *
+     * @return the message of this exception
+     */
+    public String getMessage() {
+        if (!lazyMessage) {
+            return super.getMessage();
+        }
+        synchronized (this) {
+            if (message == null) {
+                message = getMessage(errorCode, msgId, args);
+                msgId = null;
+                args = null;
+            }
+        }
+        if (detail == null) {
+            return message;
+        }
+        return message + "; nested exception is: \n\t" + detail.toString();
+    }
+
+    /**
+     * Format the message of a lightweight exception before it is serialized.
+     */
+    private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException {
+        getMessage();
+        out.defaultWriteObject();
     }
 
     /**
@@ -186,6 +299,24 @@ public class WSSecurityException extends RemoteException {
         return null;
     }
 
+    /**
+     * @return whether an exception with this error code is to be lightweight
+     */
+    private static boolean isLightweight(int errorCode) {
+        if (!lightweight || log.isDebugEnabled()) {
+            return false;
+        }
+        switch (errorCode) {
+        case FAILED_AUTHENTICATION:
+        case FAILED_CHECK:
+        case MESSAGE_EXPIRED:
+        case INVALID_SECURITY:
+            return true;
+        default:
+            return false;
+        }
+    }
+
     /**
      * get the message from resource bundle.
      * <p/>
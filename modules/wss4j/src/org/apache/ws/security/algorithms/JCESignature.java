@@ -0,0 +1,192 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ws.security.algorithms;
+
+import org.apache.xml.security.algorithms.SignatureAlgorithmSpi;
+import org.apache.xml.security.signature.XMLSignatureException;
+
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.spec.AlgorithmParameterSpec;
+
+/**
+ * Base class of the XML Signature algorithms that WSS4J adds to the algorithms 
+ * of Apache XML Security. The signature is computed by a JCE 
+ * <code>Signature</code>; subclasses convert between the JCE format and the
+ * format of the SignatureValue.
+ */
+public abstract class JCESignature extends SignatureAlgorithmSpi {
+
+    private final Signature signature;
+
+    /**
+     * @param jceAlgorithm the JCE name of the signature algorithm
+     * @throws XMLSignatureException if the JCE does not provide the algorithm
+     */
+    protected JCESignature(String jceAlgorithm) throws XMLSignatureException {
+        try {
+            signature = Signature.getInstance(jceAlgorithm);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new XMLSignatureException(
+                "algorithms.NoSuchAlgorithm", new Object[] {jceAlgorithm, ex.getMessage()}
+            );
+        }
+    }
+
+    /**
+     * Called with the key before signing or verifying.
+     *
+     * @param key the private or public key
+     * @throws XMLSignatureException if the key does not fit the algorithm
+     */
+    protected void initKey(Key key) throws XMLSignatureException {
+        // complete
+    }
+
+    /**
+     * Convert a signature computed by the JCE to a SignatureValue.
+     */
+    protected abstract byte[] toSignatureValue(byte[] jceSignature) 
+        throws XMLSignatureException;
+
+    /**
+     * Convert a SignatureValue to a signature the JCE verifies.
+     */
+    protected abstract byte[] fromSignatureValue(byte[] signatureValue) 
+        throws XMLSignatureException;
+
+    protected String engineGetJCEAlgorithmString() {
+        return signature.getAlgorithm();
+    }
+
+    protected String engineGetJCEProviderName() {
+        return signature.getProvider().getName();
+    }
+
+    protected void engineUpdate(byte[] input) throws XMLSignatureException {
+        try {
+            signature.update(input);
+        } catch (GeneralSecurityException ex) {
+            throw new XMLSignatureException("empty", ex);
+        }
+    }
+
+    protected void engineUpdate(byte input) throws XMLSignatureException {
+        try {
+            signature.update(input);
+        } catch (GeneralSecurityException ex) {
+            throw new XMLSignatureException("empty", ex);
+        }
+    }
+
+    protected void engineUpdate(byte[] buf, int offset, int len) throws XMLSignatureException {
+        try {
+            signature.update(buf, offset, len);
+        } catch (GeneralSecurityException ex) {
+            throw new XMLSignatureException("empty", ex);
+        }
+    }
+
+    protected void engineInitSign(Key privateKey) throws XMLSignatureException {
+        engineInitSign(privateKey, (SecureRandom) null);
+    }
+
+    protected void engineInitSign(Key privateKey, SecureRandom secureRandom) 
+        throws XMLSignatureException {
+        if (!(privateKey instanceof PrivateKey)) {
+            throw new XMLSignatureException(
+                "algorithms.WrongKeyForThisOperation", 
+                new Object[] {
+                    privateKey == null ? null : privateKey.getClass().getName(),
+                    PrivateKey.class.getName()
+                }
+            );
+        }
+        initKey(privateKey);
+        try {
+            if (secureRandom == null) {
+                signature.initSign((PrivateKey) privateKey);
+            } else {
+                signature.initSign((PrivateKey) privateKey, secureRandom);
+            }
+        } catch (GeneralSecurityException ex) {
+            throw new XMLSignatureException("empty", ex);
+        }
+    }
+
+    protected void engineInitSign(Key privateKey, AlgorithmParameterSpec spec) 
+        throws XMLSignatureException {
+        engineSetParameter(spec);
+        engineInitSign(privateKey);
+    }
+
+    protected byte[] engineSign() throws XMLSignatureException {
+        try {
+            return toSignatureValue(signature.sign());
+        } catch (GeneralSecurityException ex) {
+            throw new XMLSignatureException("empty", ex);
+        }
+    }
+
+    protected void engineInitVerify(Key publicKey) throws XMLSignatureException {
+        if (!(publicKey instanceof PublicKey)) {
+            throw new XMLSignatureException(
+                "algorithms.WrongKeyForThisOperation", 
+                new Object[] {
+                    publicKey == null ? null : publicKey.getClass().getName(),
+                    PublicKey.class.getName()
+                }
+            );
+        }
+        initKey(publicKey);
+        try {
+            signature.initVerify((PublicKey) publicKey);
+        } catch (GeneralSecurityException ex) {
+            throw new XMLSignatureException("empty", ex);
+        }
+    }
+
+    protected boolean engineVerify(byte[] signatureValue) throws XMLSignatureException {
+        try {
+            return signature.verify(fromSignatureValue(signatureValue));
+        } catch (GeneralSecurityException ex) {
+            throw new XMLSignatureException("empty", ex);
+        }
+    }
+
+    protected void engineSetParameter(AlgorithmParameterSpec params) 
+        throws XMLSignatureException {
+        try {
+            signature.setParameter(params);
+        } catch (GeneralSecurityException ex) {
+            throw new XMLSignatureException("empty", ex);
+        }
+    }
+
+    protected void engineSetHMACOutputLength(int length) throws XMLSignatureException {
+        throw new XMLSignatureException("algorithms.HMACOutputLengthOnlyForHMAC");
+    }
+}
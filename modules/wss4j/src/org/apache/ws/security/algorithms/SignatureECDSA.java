@@ -0,0 +1,199 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ws.security.algorithms;
+
+import org.apache.ws.security.WSConstants;
+import org.apache.xml.security.signature.XMLSignatureException;
+
+import java.io.ByteArrayOutputStream;
+import java.security.Key;
+import java.security.interfaces.ECKey;
+
+/**
+ * The ECDSA signature algorithms of RFC 4051 with SHA-256, SHA-384 and SHA-512.
+ * The SignatureValue is the concatenation of the integers r and s, each of the 
+ * size of the field of the curve, rather than the DER encoding of the JCE.
+ */
+public abstract class SignatureECDSA extends JCESignature {
+
+    /**
+     * The size of r and s in the SignatureValue
+     */
+    private int size;
+
+    protected SignatureECDSA(String jceAlgorithm) throws XMLSignatureException {
+        super(jceAlgorithm);
+    }
+
+    protected void initKey(Key key) throws XMLSignatureException {
+        int fieldSize = getFieldSize(key);
+        if (fieldSize <= 0) {
+            throw new XMLSignatureException(
+                "algorithms.WrongKeyForThisOperation", 
+                new Object[] {key.getClass().getName(), ECKey.class.getName()}
+            );
+        }
+        size = (fieldSize + 7) / 8;
+    }
+
+    /**
+     * Get the field size of the curve of an EC key. Keys of the JDK 1.4 build of 
+     * BouncyCastle do not implement <code>java.security.interfaces.ECKey</code>, 
+     * their parameters are read by reflection so that there is no compile time 
+     * dependency on BouncyCastle.
+     * 
+     * @return the field size in bits, or -1 if the key is not an EC key
+     */
+    public static int getFieldSize(Key key) {
+        if (key instanceof ECKey) {
+            return ((ECKey) key).getParams().getCurve().getField().getFieldSize();
+        }
+        try {
+            Object params = invoke(key, "getParameters");
+            Object curve = invoke(params, "getCurve");
+            return ((Integer) invoke(curve, "getFieldSize")).intValue();
+        } catch (Exception ex) {
+            return -1;
+        }
+    }
+
+    private static Object invoke(Object target, String name) throws Exception {
+        return target.getClass().getMethod(name, (Class[]) null).invoke(target, (Object[]) null);
+    }
+
+    /**
+     * Convert the DER encoded SEQUENCE of the INTEGERs r and s to their 
+     * concatenation.
+     */
+    protected byte[] toSignatureValue(byte[] der) throws XMLSignatureException {
+        int[] offset = new int[1];
+        readHeader(der, offset, 0x30);
+        byte[] signatureValue = new byte[2 * size];
+        readInteger(der, offset, signatureValue, 0);
+        readInteger(der, offset, signatureValue, size);
+        return signatureValue;
+    }
+
+    /**
+     * Convert the concatenation of r and s to a DER encoded SEQUENCE.
+     */
+    protected byte[] fromSignatureValue(byte[] signatureValue) throws XMLSignatureException {
+        if (signatureValue.length != 2 * size) {
+            throw new XMLSignatureException("empty", new Object[] {"Invalid ECDSA signature"});
+        }
+        ByteArrayOutputStream integers = new ByteArrayOutputStream(2 * size + 6);
+        writeInteger(integers, signatureValue, 0, size);
+        writeInteger(integers, signatureValue, size, size);
+        ByteArrayOutputStream der = new ByteArrayOutputStream(2 * size + 9);
+        der.write(0x30);
+        writeLength(der, integers.size());
+        byte[] content = integers.toByteArray();
+        der.write(content, 0, content.length);
+        return der.toByteArray();
+    }
+
+    private static int readHeader(byte[] der, int[] offset, int tag) 
+        throws XMLSignatureException {
+        if (offset[0] + 2 > der.length || der[offset[0]++] != tag) {
+            throw new XMLSignatureException("empty", new Object[] {"Invalid ECDSA signature"});
+        }
+        int length = der[offset[0]++] & 0xff;
+        if (length > 0x80) {
+            int count = length - 0x80;
+            length = 0;
+            for (int i = 0; i < count && offset[0] < der.length; i++) {
+                length = (length << 8) | (der[offset[0]++] & 0xff);
+            }
+        }
+        if (offset[0] + length > der.length) {
+            throw new XMLSignatureException("empty", new Object[] {"Invalid ECDSA signature"});
+        }
+        return length;
+    }
+
+    private void readInteger(byte[] der, int[] offset, byte[] to, int toOffset) 
+        throws XMLSignatureException {
+        int length = readHeader(der, offset, 0x02);
+        int start = offset[0];
+        offset[0] += length;
+        while (length > 0 && der[start] == 0) {
+            start++;
+            length--;
+        }
+        if (length > size) {
+            throw new XMLSignatureException("empty", new Object[] {"Invalid ECDSA signature"});
+        }
+        System.arraycopy(der, start, to, toOffset + size - length, length);
+    }
+
+    private static void writeInteger(
+        ByteArrayOutputStream out, byte[] value, int offset, int length
+    ) {
+        while (length > 1 && value[offset] == 0) {
+            offset++;
+            length--;
+        }
+        boolean pad = (value[offset] & 0x80) != 0;
+        out.write(0x02);
+        writeLength(out, pad ? length + 1 : length);
+        if (pad) {
+            out.write(0);
+        }
+        out.write(value, offset, length);
+    }
+
+    private static void writeLength(ByteArrayOutputStream out, int length) {
+        if (length >= 0x80) {
+            out.write(0x81);
+        }
+        out.write(length);
+    }
+
+    public static class SignatureECDSASHA256 extends SignatureECDSA {
+        public SignatureECDSASHA256() throws XMLSignatureException {
+            super("SHA256withECDSA");
+        }
+
+        public String engineGetURI() {
+            return WSConstants.ECDSA_SHA256;
+        }
+    }
+
+    public static class SignatureECDSASHA384 extends SignatureECDSA {
+        public SignatureECDSASHA384() throws XMLSignatureException {
+            super("SHA384withECDSA");
+        }
+
+        public String engineGetURI() {
+            return WSConstants.ECDSA_SHA384;
+        }
+    }
+
+    public static class SignatureECDSASHA512 extends SignatureECDSA {
+        public SignatureECDSASHA512() throws XMLSignatureException {
+            super("SHA512withECDSA");
+        }
+
+        public String engineGetURI() {
+            return WSConstants.ECDSA_SHA512;
+        }
+    }
+}
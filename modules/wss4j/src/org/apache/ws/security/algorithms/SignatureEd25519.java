@@ -0,0 +1,48 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ws.security.algorithms;
+
+import org.apache.ws.security.WSConstants;
+import org.apache.xml.security.signature.XMLSignatureException;
+
+/**
+ * The Ed25519 signature algorithm of RFC 9231. The SignatureValue is the 
+ * signature of RFC 8032, as computed by the JCE. It requires a JCE provider of
+ * Ed25519, such as the SunEC provider of Java 15 and later.
+ */
+public class SignatureEd25519 extends JCESignature {
+
+    public SignatureEd25519() throws XMLSignatureException {
+        super("Ed25519");
+    }
+
+    public String engineGetURI() {
+        return WSConstants.ED25519;
+    }
+
+    protected byte[] toSignatureValue(byte[] jceSignature) {
+        return jceSignature;
+    }
+
+    protected byte[] fromSignatureValue(byte[] signatureValue) {
+        return signatureValue;
+    }
+}
@@ -21,6 +21,7 @@ package org.apache.ws.security.components.crypto;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.ws.security.WSSecurityException;
+import org.apache.ws.security.algorithms.SignatureECDSA;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
@@ -582,7 +583,7 @@ public abstract class CryptoBase implements Crypto {
      * If the the certificate does not contain a SKI extension then
      * try to compute the SKI according to RFC3280 using the
      * SHA-1 hash value of the public key. The second method described
-     * in RFC3280 is not support. Also only RSA public keys are supported.
+     * in RFC3280 is not support. Also only RSA and EC public keys are supported.
      * If we cannot compute the SKI throw a WSSecurityException.
      *
      * @param cert The certificate to read SKI
@@ -598,16 +599,27 @@ public abstract class CryptoBase implements Crypto {
 
         if (cert.getVersion() < 3 || derEncodedValue == null) {
             PublicKey key = cert.getPublicKey();
-            if (!(key instanceof RSAPublicKey)) {
+            byte[] encoded = key.getEncoded();
+            byte[] value = null;
+            if (key instanceof RSAPublicKey) {
+                // remove 22-byte algorithm ID and header
+                value = new byte[encoded.length - 22];
+                System.arraycopy(encoded, 22, value, 0, value.length);
+            } else if (SignatureECDSA.getFieldSize(key) > 0) {
+                // the subjectPublicKey BIT STRING, the encoded EC point
+                value = getSubjectPublicKey(encoded);
+                if (value == null) {
+                    throw new WSSecurityException(
+                            1,
+                            "noSKIHandling",
+                            new Object[]{"Unsupported public key encoding"});
+                }
+            } else {
                 throw new WSSecurityException(
                         1,
                         "noSKIHandling",
-                        new Object[]{"Support for RSA key only"});
+                        new Object[]{"Support for RSA and EC keys only"});
             }
-            byte[] encoded = key.getEncoded();
-            // remove 22-byte algorithm ID and header
-            byte[] value = new byte[encoded.length - 22];
-            System.arraycopy(encoded, 22, value, 0, value.length);
             MessageDigest sha;
             try {
                 sha = MessageDigest.getInstance("SHA-1");
@@ -633,6 +645,50 @@ public abstract class CryptoBase implements Crypto {
         return abyte0;
     }
 
+    /**
+     * Get the value of the subjectPublicKey BIT STRING of a DER encoded 
+     * SubjectPublicKeyInfo, without the unused bits octet.
+     *
+     * @param encoded the SubjectPublicKeyInfo
+     * @return the value of the subjectPublicKey or null if it cannot be parsed
+     */
+    private static byte[] getSubjectPublicKey(byte[] encoded) {
+        int[] offset = new int[1];
+        // SEQUENCE SubjectPublicKeyInfo
+        if (readDERHeader(encoded, offset, 0x30) < 0) {
+            return null;
+        }
+        // SEQUENCE AlgorithmIdentifier
+        int length = readDERHeader(encoded, offset, 0x30);
+        if (length < 0) {
+            return null;
+        }
+        offset[0] += length;
+        // BIT STRING subjectPublicKey
+        length = readDERHeader(encoded, offset, 0x03);
+        if (length < 1 || offset[0] + length > encoded.length) {
+            return null;
+        }
+        byte[] value = new byte[length - 1];
+        System.arraycopy(encoded, offset[0] + 1, value, 0, value.length);
+        return value;
+    }
+
+    private static int readDERHeader(byte[] encoded, int[] offset, int tag) {
+        if (offset[0] + 2 > encoded.length || encoded[offset[0]++] != tag) {
+            return -1;
+        }
+        int length = encoded[offset[0]++] & 0xff;
+        if (length > 0x80) {
+            int count = length - 0x80;
+            length = 0;
+            for (int i = 0; i < count && offset[0] < encoded.length; i++) {
+                length = (length << 8) | (encoded[offset[0]++] & 0xff);
+            }
+        }
+        return length;
+    }
+
     public KeyStore getKeyStore() {
         return this.keystore;
     }
@@ -66,6 +66,7 @@ public class RequestData {
     private int derivedKeyIterations = UsernameToken.DEFAULT_ITERATION;
     private boolean useDerivedKeyForMAC = true;
     private boolean useSingleCert = true;
+    private SecurityPlan securityPlan = null;
 
     public void clear() {
         soapConstants = null;
@@ -85,6 +86,7 @@ public class RequestData {
         derivedKeyIterations = UsernameToken.DEFAULT_ITERATION;
         useDerivedKeyForMAC = true;
         useSingleCert = true;
+        securityPlan = null;
     }
 
     public Object getMsgContext() {
@@ -370,4 +372,18 @@ public class RequestData {
     public boolean isUseSingleCert() {
         return useSingleCert;
     }
+
+    /**
+     * @return the compiled handler configuration used for this request
+     */
+    public SecurityPlan getSecurityPlan() {
+        return securityPlan;
+    }
+
+    /**
+     * @param securityPlan the compiled handler configuration used for this request
+     */
+    public void setSecurityPlan(SecurityPlan securityPlan) {
+        this.securityPlan = securityPlan;
+    }
 }
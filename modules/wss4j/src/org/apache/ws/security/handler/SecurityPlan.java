@@ -0,0 +1,562 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ws.security.handler;
+
+import java.util.Vector;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.WSEncryptionPart;
+import org.apache.ws.security.WSSecurityException;
+import org.apache.ws.security.util.StringUtil;
+
+/**
+ * An immutable, pre-parsed form of the handler configuration. <p/>
+ *
+ * A SecurityPlan holds everything that {@link WSHandler} used to parse from the
+ * option and message context strings on every message (password types, key
+ * identifiers, signature and encryption parts, the various boolean switches).
+ * If the configuration has a {@link WSHandlerConstants#SECURITY_PLAN_ID}, plans
+ * are compiled once and cached by the handler, keyed by that identifier, so
+ * setting up a message only copies the parsed values into the
+ * {@link RequestData}. Plans are not cached for a handler that overrides one of
+ * the <code>decode*</code> methods a plan is compiled with, since these may
+ * depend on the message. <p/>
+ *
+ * Values that are per-message by nature (user names, actor, crypto instances,
+ * the certificate of a received signature) are not part of the plan.
+ */
+public class SecurityPlan {
+
+    private static Log log = LogFactory.getLog(SecurityPlan.class.getName());
+
+    /**
+     * The protected methods of WSHandler a plan is compiled with. If a handler
+     * overrides one of them, its plans are not cached, see
+     * {@link #isCacheable(WSHandler)}.
+     */
+    static final String[] DECODE_METHODS = {
+        "decodeEnableSignatureConfirmation",
+        "decodeUseEncodedPasswords",
+        "decodeDirectHandoff",
+        "decodeMustUnderstand",
+        "decodeTimestampPrecision",
+        "decodeTimestampStrict",
+        "decodePrecheckSecurityHeader",
+        "decodeBatchPasswordCallbacks",
+        "decodeLazyTokenProcessing",
+        "decodeCustomPasswordTypes",
+        "decodeNamespaceQualifiedPasswordTypes",
+        "decodeUseSingleCertificate"
+    };
+
+    private final int doAction;
+    private final boolean sender;
+
+    private boolean enableSignatureConfirmation;
+    private boolean useEncodedPasswords;
+    private boolean directHandoff;
+    private boolean mustUnderstand = true;
+    private boolean timestampPrecision = true;
+    private boolean timestampStrict = true;
+    private boolean precheckSecurityHeader;
+    private boolean batchPasswordCallbacks;
+    private boolean lazyTokenProcessing;
+    private boolean handleCustomPasswordTypes;
+    private boolean allowNamespaceQualifiedPasswordTypes;
+
+    private boolean utParameters;
+    private boolean pwTypeSet;
+    private String pwType;
+    private String[] utElements;
+    private boolean useDerivedKey;
+    private boolean useDerivedKeyForMAC;
+    private int derivedKeyIterations = -1;
+
+    private boolean signatureParameters;
+    private int sigKeyId = -1;
+    private String sigAlgorithm;
+    private String sigDigestAlgorithm;
+    private WSEncryptionPart[] signatureParts;
+    private int secretKeyLength = -1;
+    private boolean useSingleCert = true;
+
+    private boolean encryptionParameters;
+    private int encKeyId = -1;
+    private String encSymmAlgo;
+    private String encKeyTransport;
+    private String encSymEncKey;
+    private WSEncryptionPart[] encryptParts;
+
+    /**
+     * Compile a plan for the given actions. Only the parameters of the given
+     * actions are parsed, so invalid settings of unused actions are ignored
+     * exactly as before.
+     *
+     * @param handler the handler to read the configuration from
+     * @param doAction the actions to compile the plan for
+     * @param sender whether this is a plan for the sending side
+     * @param reqData the request data holding the message context and the
+     *                SOAP constants used to resolve unqualified parts
+     * @throws WSSecurityException if the configuration is invalid
+     */
+    SecurityPlan(WSHandler handler, int doAction, boolean sender, RequestData reqData)
+        throws WSSecurityException {
+        this.doAction = doAction;
+        this.sender = sender;
+
+        enableSignatureConfirmation = handler.decodeEnableSignatureConfirmation(reqData);
+        useEncodedPasswords = handler.decodeUseEncodedPasswords(reqData);
+        directHandoff = handler.decodeDirectHandoff(reqData);
+        if (sender) {
+            mustUnderstand = handler.decodeMustUnderstand(reqData);
+            timestampPrecision = handler.decodeTimestampPrecision(reqData);
+        } else {
+            timestampStrict = handler.decodeTimestampStrict(reqData);
+            precheckSecurityHeader = handler.decodePrecheckSecurityHeader(reqData);
+            batchPasswordCallbacks = handler.decodeBatchPasswordCallbacks(reqData);
+            lazyTokenProcessing = handler.decodeLazyTokenProcessing(reqData);
+            handleCustomPasswordTypes = handler.decodeCustomPasswordTypes(reqData);
+            allowNamespaceQualifiedPasswordTypes =
+                handler.decodeNamespaceQualifiedPasswordTypes(reqData);
+        }
+        if (sender && hasUTParameters(doAction)) {
+            compileUTParameters(handler, reqData.getMsgContext());
+        }
+        if (sender && hasSignatureParameters(doAction)) {
+            compileSignatureParameters(handler, reqData);
+        }
+        if (sender && hasEncryptionParameters(doAction)) {
+            compileEncryptionParameters(handler, reqData);
+        }
+    }
+
+    static boolean hasUTParameters(int doAction) {
+        return (doAction & (WSConstants.UT | WSConstants.UT_SIGN)) != 0;
+    }
+
+    static boolean hasSignatureParameters(int doAction) {
+        return (doAction & (WSConstants.SIGN | WSConstants.UT_SIGN | WSConstants.ST_SIGNED)) != 0;
+    }
+
+    static boolean hasEncryptionParameters(int doAction) {
+        return (doAction & WSConstants.ENCR) != 0;
+    }
+
+    private void compileUTParameters(WSHandler handler, Object mc)
+        throws WSSecurityException {
+        utParameters = true;
+        String type = handler.getString(WSHandlerConstants.PASSWORD_TYPE, mc);
+        if (type != null) {
+            pwTypeSet = true;
+            if (WSConstants.PW_TEXT.equals(type)) {
+                pwType = WSConstants.PASSWORD_TEXT;
+            } else if (WSConstants.PW_DIGEST.equals(type)) {
+                pwType = WSConstants.PASSWORD_DIGEST;
+            } else if (WSConstants.PW_NONE.equals(type)) {
+                // No password requested.
+                pwType = null;
+            } else {
+                throw new WSSecurityException("Unknown password type encoding: " + type);
+            }
+        }
+
+        String add = handler.getString(WSHandlerConstants.ADD_UT_ELEMENTS, mc);
+        if (add != null) {
+            utElements = StringUtil.split(add, ' ');
+        }
+
+        String derived = handler.getString(WSHandlerConstants.USE_DERIVED_KEY, mc);
+        useDerivedKey = Boolean.valueOf(derived).booleanValue();
+        useDerivedKeyForMAC = useDerivedKey;
+
+        String iterations = handler.getString(WSHandlerConstants.DERIVED_KEY_ITERATIONS, mc);
+        if (iterations != null) {
+            derivedKeyIterations = Integer.parseInt(iterations);
+        }
+    }
+
+    private void compileSignatureParameters(WSHandler handler, RequestData reqData)
+        throws WSSecurityException {
+        Object mc = reqData.getMsgContext();
+        signatureParameters = true;
+        String keyId = handler.getString(WSHandlerConstants.SIG_KEY_ID, mc);
+        if (keyId != null) {
+            Integer id = (Integer) WSHandlerConstants.keyIdentifier.get(keyId);
+            if (id == null) {
+                throw new WSSecurityException(
+                    "WSHandler: Signature: unknown key identification"
+                );
+            }
+            int tmp = id.intValue();
+            if (!(tmp == WSConstants.ISSUER_SERIAL
+                    || tmp == WSConstants.BST_DIRECT_REFERENCE
+                    || tmp == WSConstants.X509_KEY_IDENTIFIER
+                    || tmp == WSConstants.SKI_KEY_IDENTIFIER
+                    || tmp == WSConstants.THUMBPRINT_IDENTIFIER
+                    || tmp == WSConstants.ENCRYPTED_KEY_SHA1_IDENTIFIER)) {
+                throw new WSSecurityException(
+                    "WSHandler: Signature: illegal key identification"
+                );
+            }
+            sigKeyId = tmp;
+        }
+        sigAlgorithm = handler.getString(WSHandlerConstants.SIG_ALGO, mc);
+        sigDigestAlgorithm = handler.getString(WSHandlerConstants.SIG_DIGEST_ALGO, mc);
+
+        String parts = handler.getString(WSHandlerConstants.SIGNATURE_PARTS, mc);
+        if (parts != null) {
+            signatureParts = splitEncParts(parts, reqData);
+        }
+
+        String length = handler.getString(WSHandlerConstants.WSE_SECRET_KEY_LENGTH, mc);
+        if (length != null) {
+            secretKeyLength = Integer.parseInt(length);
+        }
+        useSingleCert = handler.decodeUseSingleCertificate(reqData);
+    }
+
+    private void compileEncryptionParameters(WSHandler handler, RequestData reqData)
+        throws WSSecurityException {
+        Object mc = reqData.getMsgContext();
+        encryptionParameters = true;
+        String keyId = handler.getString(WSHandlerConstants.ENC_KEY_ID, mc);
+        if (keyId != null) {
+            Integer id = (Integer) WSHandlerConstants.keyIdentifier.get(keyId);
+            if (id == null) {
+                throw new WSSecurityException(
+                    "WSHandler: Encryption: unknown key identification"
+                );
+            }
+            int tmp = id.intValue();
+            if (!(tmp == WSConstants.ISSUER_SERIAL
+                    || tmp == WSConstants.X509_KEY_IDENTIFIER
+                    || tmp == WSConstants.SKI_KEY_IDENTIFIER
+                    || tmp == WSConstants.BST_DIRECT_REFERENCE
+                    || tmp == WSConstants.EMBEDDED_KEYNAME
+                    || tmp == WSConstants.THUMBPRINT_IDENTIFIER
+                    || tmp == WSConstants.ENCRYPTED_KEY_SHA1_IDENTIFIER)) {
+                throw new WSSecurityException(
+                    "WSHandler: Encryption: illegal key identification"
+                );
+            }
+            encKeyId = tmp;
+        }
+        encSymmAlgo = handler.getString(WSHandlerConstants.ENC_SYM_ALGO, mc);
+        encKeyTransport = handler.getString(WSHandlerConstants.ENC_KEY_TRANSPORT, mc);
+        encSymEncKey = handler.getString(WSHandlerConstants.ENC_SYM_ENC_KEY, mc);
+
+        String parts = handler.getString(WSHandlerConstants.ENCRYPTION_PARTS, mc);
+        if (parts != null) {
+            encryptParts = splitEncParts(parts, reqData);
+        }
+    }
+
+    private static WSEncryptionPart[] splitEncParts(String tmpS, RequestData reqData)
+        throws WSSecurityException {
+        boolean doDebug = log.isDebugEnabled();
+        String[] rawParts = StringUtil.split(tmpS, ';');
+        WSEncryptionPart[] parts = new WSEncryptionPart[rawParts.length];
+
+        for (int i = 0; i < rawParts.length; i++) {
+            String[] partDef = StringUtil.split(rawParts[i], '}');
+
+            if (partDef.length == 1) {
+                if (doDebug) {
+                    log.debug("single partDef: '" + partDef[0] + "'");
+                }
+                parts[i] =
+                    new WSEncryptionPart(partDef[0].trim(),
+                            reqData.getSoapConstants().getEnvelopeURI(),
+                            "Content");
+            } else if (partDef.length == 3) {
+                String mode = partDef[0].trim();
+                if (mode.length() <= 1) {
+                    mode = "Content";
+                } else {
+                    mode = mode.substring(1);
+                }
+                String nmSpace = partDef[1].trim();
+                if (nmSpace.length() <= 1) {
+                    nmSpace = reqData.getSoapConstants().getEnvelopeURI();
+                } else {
+                    nmSpace = nmSpace.substring(1);
+                    if (nmSpace.equals(WSConstants.NULL_NS)) {
+                        nmSpace = null;
+                    }
+                }
+                String element = partDef[2].trim();
+                if (doDebug) {
+                    log.debug(
+                        "partDefs: '" + mode + "' ,'" + nmSpace + "' ,'" + element + "'"
+                    );
+                }
+                parts[i] = new WSEncryptionPart(element, nmSpace, mode);
+            } else {
+                throw new WSSecurityException("WSHandler: wrong part definition: " + tmpS);
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * Copy the parts into the vector. The parts are copied because the
+     * message builders modify them while processing a message.
+     */
+    private static void copyParts(WSEncryptionPart[] parts, Vector target) {
+        if (parts == null) {
+            return;
+        }
+        for (int i = 0; i < parts.length; i++) {
+            target.add(
+                new WSEncryptionPart(
+                    parts[i].getName(), parts[i].getNamespace(), parts[i].getEncModifier()
+                )
+            );
+        }
+    }
+
+    /**
+     * Copy the UsernameToken parameters of this plan into the request data
+     */
+    public void applyUTParameters(RequestData reqData) {
+        if (!utParameters) {
+            throw new IllegalStateException("Plan contains no UsernameToken parameters");
+        }
+        if (pwTypeSet) {
+            reqData.setPwType(pwType);
+        }
+        if (utElements != null) {
+            reqData.setUtElements(utElements);
+        }
+        if (useDerivedKey) {
+            reqData.setUseDerivedKey(true);
+        }
+        if (useDerivedKeyForMAC) {
+            reqData.setUseDerivedKeyForMAC(true);
+        }
+        if (derivedKeyIterations != -1) {
+            reqData.setDerivedKeyIterations(derivedKeyIterations);
+        }
+    }
+
+    /**
+     * Copy the Signature parameters of this plan into the request data
+     */
+    public void applySignatureParameters(RequestData reqData) {
+        if (!signatureParameters) {
+            throw new IllegalStateException("Plan contains no Signature parameters");
+        }
+        if (sigKeyId != -1) {
+            reqData.setSigKeyId(sigKeyId);
+        }
+        reqData.setSigAlgorithm(sigAlgorithm);
+        reqData.setSigDigestAlgorithm(sigDigestAlgorithm);
+        copyParts(signatureParts, reqData.getSignatureParts());
+        if (secretKeyLength != -1) {
+            reqData.setSecretKeyLength(secretKeyLength);
+        }
+        reqData.setUseSingleCert(useSingleCert);
+    }
+
+    /**
+     * Copy the Encryption parameters of this plan into the request data
+     */
+    public void applyEncryptionParameters(RequestData reqData) {
+        if (!encryptionParameters) {
+            throw new IllegalStateException("Plan contains no Encryption parameters");
+        }
+        if (encKeyId != -1) {
+            reqData.setEncKeyId(encKeyId);
+        }
+        reqData.setEncSymmAlgo(encSymmAlgo);
+        reqData.setEncKeyTransport(encKeyTransport);
+        if (encSymEncKey != null) {
+            reqData.setEncryptSymmetricEncryptionKey(
+                Boolean.valueOf(encSymEncKey).booleanValue()
+            );
+        }
+        copyParts(encryptParts, reqData.getEncryptParts());
+    }
+
+    /**
+     * @return the actions this plan was compiled for
+     */
+    public int getAction() {
+        return doAction;
+    }
+
+    /**
+     * @param action one of <code>WSConstants.UT</code>, <code>WSConstants.SIGN</code>
+     *               or <code>WSConstants.ENCR</code>
+     * @return whether this plan contains the parameters of the given action
+     */
+    public boolean containsParameters(int action) {
+        switch (action) {
+        case WSConstants.UT:
+            return utParameters;
+        case WSConstants.SIGN:
+            return signatureParameters;
+        case WSConstants.ENCR:
+            return encryptionParameters;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * @return whether this is a plan for the sending side
+     */
+    public boolean isSender() {
+        return sender;
+    }
+
+    public boolean isEnableSignatureConfirmation() {
+        return enableSignatureConfirmation;
+    }
+
+    public boolean isUseEncodedPasswords() {
+        return useEncodedPasswords;
+    }
+
+    /**
+     * @return whether the secured message is handed to the next stage without
+     *         an intermediate byte array
+     * @see WSHandlerConstants#DIRECT_HANDOFF
+     */
+    public boolean isDirectHandoff() {
+        return directHandoff;
+    }
+
+    public boolean isMustUnderstand() {
+        return mustUnderstand;
+    }
+
+    public boolean isTimestampPrecision() {
+        return timestampPrecision;
+    }
+
+    public boolean isTimestampStrict() {
+        return timestampStrict;
+    }
+
+    /**
+     * @return whether the security header is pre-scanned before processing
+     * @see WSHandlerConstants#PRECHECK_SECURITY_HEADER
+     */
+    public boolean isPrecheckSecurityHeader() {
+        return precheckSecurityHeader;
+    }
+
+    /**
+     * @return whether the credentials of a message are requested in one batch
+     * @see WSHandlerConstants#BATCH_PASSWORD_CALLBACKS
+     */
+    public boolean isBatchPasswordCallbacks() {
+        return batchPasswordCallbacks;
+    }
+
+    /**
+     * @return whether tokens are only processed when they are referenced
+     * @see WSHandlerConstants#LAZY_TOKEN_PROCESSING
+     */
+    public boolean isLazyTokenProcessing() {
+        return lazyTokenProcessing;
+    }
+
+    public boolean isHandleCustomPasswordTypes() {
+        return handleCustomPasswordTypes;
+    }
+
+    public boolean isAllowNamespaceQualifiedPasswordTypes() {
+        return allowNamespaceQualifiedPasswordTypes;
+    }
+
+    /**
+     * Check whether the plans of a handler may be cached, that is whether the
+     * handler uses the <code>decode*</code> methods of WSHandler that a plan
+     * is compiled with.
+     *
+     * @param handler the handler to check
+     * @return false if the handler overrides one of the methods
+     */
+    static boolean isCacheable(WSHandler handler) {
+        for (Class c = handler.getClass(); c != WSHandler.class; c = c.getSuperclass()) {
+            for (int i = 0; i < DECODE_METHODS.length; i++) {
+                try {
+                    c.getDeclaredMethod(DECODE_METHODS[i], new Class[] {RequestData.class});
+                    if (log.isDebugEnabled()) {
+                        log.debug(
+                            c.getName() + " overrides " + DECODE_METHODS[i] 
+                            + ", security plans are not cached"
+                        );
+                    }
+                    return false;
+                } catch (NoSuchMethodException ex) {
+                    // not overridden here
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The cache key of a plan: the configuration identifier, the actions, the
+     * side and the SOAP version.
+     */
+    static final class Key {
+        private final String planId;
+        private final int doAction;
+        private final boolean sender;
+        private final String envelopeURI;
+        private final int hash;
+
+        Key(String planId, int doAction, boolean sender, RequestData reqData) {
+            this.planId = planId;
+            this.doAction = doAction;
+            this.sender = sender;
+            this.envelopeURI =
+                reqData.getSoapConstants() == null
+                    ? null : reqData.getSoapConstants().getEnvelopeURI();
+
+            int h = planId.hashCode();
+            h = h * 31 + doAction;
+            h = h * 31 + (sender ? 1 : 0);
+            hash = h * 31 + (envelopeURI == null ? 0 : envelopeURI.hashCode());
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)o;
+            return doAction == other.doAction
+                && sender == other.sender
+                && planId.equals(other.planId)
+                && (envelopeURI == null
+                    ? other.envelopeURI == null : envelopeURI.equals(other.envelopeURI));
+        }
+    }
+}
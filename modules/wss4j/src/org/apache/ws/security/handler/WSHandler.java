@@ -27,6 +27,7 @@ import org.apache.ws.security.WSPasswordCallback;
 import org.apache.ws.security.WSSConfig;
 import org.apache.ws.security.WSSecurityEngine;
 import org.apache.ws.security.WSSecurityEngineResult;
+import org.apache.ws.security.WSSecurityEngineResults;
 import org.apache.ws.security.WSSecurityException;
 import org.apache.ws.security.action.Action;
 import org.apache.ws.security.components.crypto.Crypto;
@@ -34,10 +35,12 @@ import org.apache.ws.security.components.crypto.CryptoFactory;
 import org.apache.ws.security.message.WSSecHeader;
 import org.apache.ws.security.message.token.SignatureConfirmation;
 import org.apache.ws.security.message.token.Timestamp;
+import org.apache.ws.security.metrics.WSSecurityMetrics;
 import org.apache.ws.security.util.Loader;
+import org.apache.ws.security.util.SecurityFuture;
 import org.apache.ws.security.util.StringUtil;
 import org.apache.ws.security.util.WSSecurityUtil;
-import org.apache.ws.security.util.XmlSchemaDateFormat;
+import org.apache.ws.security.util.XmlSchemaDateTime;
 import org.w3c.dom.Document;
 
 import javax.security.auth.callback.Callback;
@@ -45,13 +48,17 @@ import javax.security.auth.callback.CallbackHandler;
 
 import java.math.BigInteger;
 import java.security.cert.X509Certificate;
-import java.text.DateFormat;
 import java.util.Arrays;
-import java.util.Calendar;
-import java.util.Date;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 
 /**
@@ -70,6 +77,79 @@ public abstract class WSHandler {
 
     private boolean doDebug = log.isDebugEnabled();
 
+    /**
+     * The maximum number of compiled plans (and decoded action strings) kept
+     * per handler. If the limit is reached the caches are cleared.
+     */
+    private static final int MAX_CACHED_PLANS = 64;
+
+    /**
+     * The compiled security plans of this handler, of the form <SecurityPlan.Key, SecurityPlan>
+     */
+    private final Map securityPlans = new ConcurrentHashMap();
+
+    /**
+     * Whether the security plans of this handler may be cached, determined on
+     * first use
+     */
+    private volatile Boolean planCacheable;
+
+    /**
+     * The decoded action strings of this handler, of the form <String, DecodedAction>
+     */
+    private final Map decodedActions = new ConcurrentHashMap();
+
+    /**
+     * The tokens that are processed for the SAML token actions, even if the
+     * token processing is lazy
+     */
+    private static final Set SAML_TOKENS = 
+        Collections.unmodifiableSet(
+            new HashSet(
+                Arrays.asList(
+                    new Object[] {WSSecurityEngine.SAML_TOKEN, WSSecurityEngine.SAML2_TOKEN}
+                )
+            )
+        );
+
+    /**
+     * Performs all defined security actions to set-up the SOAP request on an
+     * executor, so that the calling thread does not block on the private key
+     * operations. The executor is the one of the WSSConfig of the request data,
+     * or else of the security engine. <p/>
+     * 
+     * The document and the request data belong to the security actions until
+     * the returned future is done: the caller must not access them before.
+     * Callbacks, such as the password callback, are called on the executor thread.
+     *
+     * @param doAction a set defining the actions to do 
+     * @param doc   the request as DOM document 
+     * @param reqData a data storage to pass values around between methods
+     * @param actions a vector holding the actions to do in the order defined
+     *                in the deployment file or property
+     * @return a future that is done when all actions are performed
+     * @see #doSenderAction(int, Document, RequestData, Vector, boolean)
+     */
+    protected SecurityFuture<Void> doSenderActionAsync(
+            final int doAction, 
+            final Document doc,
+            final RequestData reqData, 
+            final Vector actions, 
+            final boolean isRequest
+    ) {
+        WSSConfig wssConfig = reqData.getWssConfig();
+        if (wssConfig == null) {
+            wssConfig = secEngine.getWssConfig();
+        }
+        Executor executor = wssConfig.getExecutor();
+        return SecurityFuture.submit(executor, new Callable<Void>() {
+            public Void call() throws WSSecurityException {
+                doSenderAction(doAction, doc, reqData, actions, isRequest);
+                return null;
+            }
+        });
+    }
+
     /**                                                             
      * Performs all defined security actions to set-up the SOAP request.
      * 
@@ -89,35 +169,33 @@ public abstract class WSHandler {
             boolean isRequest
     ) throws WSSecurityException {
 
-        boolean mu = decodeMustUnderstand(reqData);
+        reqData.setSoapConstants(
+            WSSecurityUtil.getSOAPConstants(doc.getDocumentElement())
+        );
+        SecurityPlan plan = getSecurityPlan(doAction, true, reqData);
+        reqData.setSecurityPlan(plan);
 
         WSSConfig wssConfig = reqData.getWssConfig();
         if (wssConfig == null) {
             wssConfig = secEngine.getWssConfig();
         }
 
-        boolean enableSigConf = decodeEnableSignatureConfirmation(reqData);
         wssConfig.setEnableSignatureConfirmation(
-            enableSigConf || ((doAction & WSConstants.SC) != 0)
+            plan.isEnableSignatureConfirmation() || ((doAction & WSConstants.SC) != 0)
         );
-        wssConfig.setPasswordsAreEncoded(decodeUseEncodedPasswords(reqData));
+        wssConfig.setPasswordsAreEncoded(plan.isUseEncodedPasswords());
 
-        wssConfig.setPrecisionInMilliSeconds(
-            decodeTimestampPrecision(reqData)
-        );
+        wssConfig.setPrecisionInMilliSeconds(plan.isTimestampPrecision());
         reqData.setWssConfig(wssConfig);
 
         Object mc = reqData.getMsgContext();
         String actor = getString(WSHandlerConstants.ACTOR, mc);
         reqData.setActor(actor);
 
-        WSSecHeader secHeader = new WSSecHeader(actor, mu);
+        WSSecHeader secHeader = new WSSecHeader(actor, plan.isMustUnderstand());
         secHeader.insertSecurityHeader(doc);
 
         reqData.setSecHeader(secHeader);
-        reqData.setSoapConstants(
-            WSSecurityUtil.getSOAPConstants(doc.getDocumentElement())
-        );
         /*
          * Here we have action, username, password, and actor, mustUnderstand.
          * Now get the action specific parameters.
@@ -188,44 +266,25 @@ public abstract class WSHandler {
          * Here we have all necessary information to perform the requested
          * action(s).
          */
+        WSSecurityMetrics metrics = wssConfig.getMetrics();
+        boolean doMetrics = metrics.isEnabled();
         for (int i = 0; i < actions.size(); i++) {
 
             int actionToDo = ((Integer) actions.get(i)).intValue();
             if (doDebug) {
                 log.debug("Performing Action: " + actionToDo);
             }
-
-            switch (actionToDo) {
-            case WSConstants.UT:
-            case WSConstants.ENCR:
-            case WSConstants.SIGN:
-            case WSConstants.ST_SIGNED:
-            case WSConstants.ST_UNSIGNED:
-            case WSConstants.TS:
-            case WSConstants.UT_SIGN:
-                wssConfig.getAction(actionToDo).execute(this, actionToDo, doc, reqData);
-                break;
-            case WSConstants.NO_SERIALIZE:
-                reqData.setNoSerialization(true);
-                break;
-                //
-                // Handle any "custom" actions, similarly,
-                // but to preserve behavior from previous
-                // versions, consume (but log) action lookup failures.
-                //
-            default:
-                Action doit = null;
+            long t0 = doMetrics ? System.nanoTime() : 0;
             try {
-                doit = wssConfig.getAction(actionToDo);
-            } catch (final WSSecurityException e) {
-                log.warn(
-                        "Error trying to locate a custom action (" + actionToDo + ")", 
-                        e
-                );
-            }
-            if (doit != null) {
-                doit.execute(this, actionToDo, doc, reqData);
+                performSenderAction(actionToDo, doc, reqData, wssConfig);
+            } catch (WSSecurityException e) {
+                if (doMetrics) {
+                    metrics.failure(e.getErrorCode());
+                }
+                throw e;
             }
+            if (doMetrics) {
+                metrics.actionTime(actionToDo, true, System.nanoTime() - t0);
             }
         }
         
@@ -249,24 +308,78 @@ public abstract class WSHandler {
         }
     }
 
-
+    /**
+     * Perform a single sender action
+     */
+    private void performSenderAction(
+        int actionToDo, Document doc, RequestData reqData, WSSConfig wssConfig
+    ) throws WSSecurityException {
+        switch (actionToDo) {
+        case WSConstants.UT:
+        case WSConstants.ENCR:
+        case WSConstants.SIGN:
+        case WSConstants.ST_SIGNED:
+        case WSConstants.ST_UNSIGNED:
+        case WSConstants.TS:
+        case WSConstants.UT_SIGN:
+            wssConfig.getAction(actionToDo).execute(this, actionToDo, doc, reqData);
+            break;
+        case WSConstants.NO_SERIALIZE:
+            reqData.setNoSerialization(true);
+            break;
+            //
+            // Handle any "custom" actions, similarly,
+            // but to preserve behavior from previous
+            // versions, consume (but log) action lookup failures.
+            //
+        default:
+            Action doit = null;
+            try {
+                doit = wssConfig.getAction(actionToDo);
+            } catch (final WSSecurityException e) {
+                log.warn(
+                    "Error trying to locate a custom action (" + actionToDo + ")", 
+                    e
+                );
+            }
+            if (doit != null) {
+                doit.execute(this, actionToDo, doc, reqData);
+            }
+        }
+    }
 
     protected void doReceiverAction(int doAction, RequestData reqData)
         throws WSSecurityException {
 
+        SecurityPlan plan = getSecurityPlan(doAction, false, reqData);
+        reqData.setSecurityPlan(plan);
+
         WSSConfig wssConfig = reqData.getWssConfig();
         if (wssConfig == null) {
             wssConfig = secEngine.getWssConfig();
         }
-        boolean enableSigConf = decodeEnableSignatureConfirmation(reqData);
         wssConfig.setEnableSignatureConfirmation(
-            enableSigConf || ((doAction & WSConstants.SC) != 0)
+            plan.isEnableSignatureConfirmation() || ((doAction & WSConstants.SC) != 0)
         );
-        wssConfig.setTimeStampStrict(decodeTimestampStrict(reqData));
-        wssConfig.setHandleCustomPasswordTypes(decodeCustomPasswordTypes(reqData));
-        wssConfig.setPasswordsAreEncoded(decodeUseEncodedPasswords(reqData));
+        wssConfig.setTimeStampStrict(plan.isTimestampStrict());
+        wssConfig.setPrecheckSecurityHeader(plan.isPrecheckSecurityHeader());
+        wssConfig.setBatchPasswordCallbacks(plan.isBatchPasswordCallbacks());
+        wssConfig.setLazyTokenProcessing(plan.isLazyTokenProcessing());
+        if (plan.isLazyTokenProcessing()) {
+            wssConfig.setRequiredTokens(
+                (doAction & (WSConstants.ST_UNSIGNED | WSConstants.ST_SIGNED)) != 0 
+                    ? SAML_TOKENS : null
+            );
+        }
+        if (plan.isPrecheckSecurityHeader()) {
+            int ttl = decodeTimeToLive(reqData);
+            wssConfig.setTimeStampTTL(ttl);
+            wssConfig.setUsernameTokenTTL(ttl);
+        }
+        wssConfig.setHandleCustomPasswordTypes(plan.isHandleCustomPasswordTypes());
+        wssConfig.setPasswordsAreEncoded(plan.isUseEncodedPasswords());
         wssConfig.setAllowNamespaceQualifiedPasswordTypes(
-            decodeNamespaceQualifiedPasswordTypes(reqData)
+            plan.isAllowNamespaceQualifiedPasswordTypes()
         );
         wssConfig.setSecretKeyLength(reqData.getSecretKeyLength());
         reqData.setWssConfig(wssConfig);
@@ -287,15 +400,126 @@ public abstract class WSHandler {
         }
     }
 
+    /**
+     * Get the compiled security plan for the given actions. If the
+     * configuration has a {@link WSHandlerConstants#SECURITY_PLAN_ID}, the plan
+     * is taken from the cache of this handler if it was already compiled for
+     * that identifier, otherwise it is compiled and cached. Without an
+     * identifier, or if this handler overrides one of the <code>decode*</code>
+     * methods a plan is compiled with, a plan is compiled for every message.
+     * 
+     * @param doAction the actions to get the plan for
+     * @param sender whether the plan is used to send or to receive a message
+     * @param reqData the request data holding the message context
+     * @return the compiled plan
+     * @throws WSSecurityException if the configuration is invalid
+     */
+    protected SecurityPlan getSecurityPlan(int doAction, boolean sender, RequestData reqData) 
+        throws WSSecurityException {
+        String planId = getString(WSHandlerConstants.SECURITY_PLAN_ID, reqData.getMsgContext());
+        if (planId == null || !isPlanCacheable()) {
+            return new SecurityPlan(this, doAction, sender, reqData);
+        }
+        SecurityPlan.Key key = new SecurityPlan.Key(planId, doAction, sender, reqData);
+        SecurityPlan plan = (SecurityPlan) securityPlans.get(key);
+        WSSecurityMetrics metrics = getMetrics(reqData);
+        if (metrics.isEnabled()) {
+            metrics.cacheAccess("SecurityPlan", plan != null);
+        }
+        if (plan == null) {
+            plan = new SecurityPlan(this, doAction, sender, reqData);
+            if (securityPlans.size() >= MAX_CACHED_PLANS) {
+                securityPlans.clear();
+            }
+            securityPlans.put(key, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * @return whether the security plans of this handler may be cached
+     */
+    private boolean isPlanCacheable() {
+        Boolean cacheable = planCacheable;
+        if (cacheable == null) {
+            cacheable = Boolean.valueOf(SecurityPlan.isCacheable(this));
+            planCacheable = cacheable;
+        }
+        return cacheable.booleanValue();
+    }
+
+    /**
+     * Get the metrics of the WSSConfig of the request, or of the default
+     * WSSConfig if the request has none (yet).
+     * 
+     * @param reqData the request data
+     * @return the WSSecurityMetrics to record to
+     */
+    protected WSSecurityMetrics getMetrics(RequestData reqData) {
+        WSSConfig wssConfig = reqData.getWssConfig();
+        if (wssConfig == null) {
+            wssConfig = secEngine.getWssConfig();
+        }
+        return wssConfig.getMetrics();
+    }
+
+    /**
+     * Get the security plan of the current request, or compile one for the
+     * given actions if none was set by doSenderAction.
+     */
+    private SecurityPlan getSecurityPlan(RequestData reqData, int doAction) 
+        throws WSSecurityException {
+        SecurityPlan plan = reqData.getSecurityPlan();
+        if (plan == null || !plan.isSender() || !plan.containsParameters(doAction)) {
+            plan = getSecurityPlan(doAction, true, reqData);
+        }
+        return plan;
+    }
+
+    /**
+     * Decode the action string, see {@link WSSecurityUtil#decodeAction(String, Vector)}.
+     * The decoded actions are cached by this handler.
+     * 
+     * @param action the action string
+     * @param actions a vector that receives the actions in the defined order
+     * @return the actions as a bit set
+     * @throws WSSecurityException if the action string contains an unknown action
+     */
+    protected int decodeAction(String action, Vector actions) throws WSSecurityException {
+        if (action == null) {
+            return 0;
+        }
+        DecodedAction decoded = (DecodedAction) decodedActions.get(action);
+        if (decoded == null) {
+            Vector tmp = new Vector();
+            int doAction = WSSecurityUtil.decodeAction(action, tmp);
+            decoded = new DecodedAction(doAction, tmp);
+            if (decodedActions.size() >= MAX_CACHED_PLANS) {
+                decodedActions.clear();
+            }
+            decodedActions.put(action, decoded);
+        }
+        actions.addAll(decoded.actions);
+        return decoded.doAction;
+    }
+
+    private static final class DecodedAction {
+        private final int doAction;
+        private final java.util.List actions;
+
+        DecodedAction(int doAction, Vector actions) {
+            this.doAction = doAction;
+            this.actions = java.util.Collections.unmodifiableList(actions);
+        }
+    }
+
     protected boolean checkReceiverResults(Vector wsResult, Vector actions) {
         int resultActions = wsResult.size();
         int size = actions.size();
 
         int ai = 0;
         for (int i = 0; i < resultActions; i++) {
-            final Integer actInt = (Integer) ((WSSecurityEngineResult) wsResult
-                    .get(i)).get(WSSecurityEngineResult.TAG_ACTION);
-            int act = actInt.intValue();
+            int act = ((WSSecurityEngineResult) wsResult.get(i)).getAction();
             if (act == WSConstants.SC || act == WSConstants.BST) {
                 continue;
             }
@@ -312,6 +536,9 @@ public abstract class WSHandler {
     }
     
     protected boolean checkReceiverResultsAnyOrder(Vector wsResult, Vector actions) {
+        if (wsResult instanceof WSSecurityEngineResults) {
+            return checkReceiverResultsAnyOrder((WSSecurityEngineResults) wsResult, actions);
+        }
 
         java.util.List recordedActions = new Vector(actions.size());
         for (int i = 0; i < actions.size(); i++) {
@@ -320,14 +547,12 @@ public abstract class WSHandler {
         }
         
         for (int i = 0; i < wsResult.size(); i++) {
-            final Integer actInt = (Integer) ((WSSecurityEngineResult) wsResult
-                    .get(i)).get(WSSecurityEngineResult.TAG_ACTION);
-            int act = actInt.intValue();
+            int act = ((WSSecurityEngineResult) wsResult.get(i)).getAction();
             if (act == WSConstants.SC || act == WSConstants.BST) {
                 continue;
             }
             
-            if (!recordedActions.remove(actInt)) {
+            if (!recordedActions.remove(new Integer(act))) {
                 return false;
             }
         }
@@ -339,6 +564,39 @@ public abstract class WSHandler {
         return true;
     }
 
+    /**
+     * Compare the number of results of each action with the number of times
+     * the action was configured, using the index of the results.
+     */
+    private boolean checkReceiverResultsAnyOrder(
+        WSSecurityEngineResults wsResult, Vector actions
+    ) {
+        int expected = wsResult.size() 
+            - wsResult.countResults(WSConstants.SC) - wsResult.countResults(WSConstants.BST);
+        if (expected != actions.size()) {
+            return false;
+        }
+        java.util.Map counts = new java.util.HashMap();
+        for (int i = 0; i < actions.size(); i++) {
+            Integer action = (Integer) actions.get(i);
+            int[] count = (int[]) counts.get(action);
+            if (count == null) {
+                count = new int[1];
+                counts.put(action, count);
+            }
+            count[0]++;
+        }
+        for (java.util.Iterator it = counts.entrySet().iterator(); it.hasNext();) {
+            java.util.Map.Entry entry = (java.util.Map.Entry) it.next();
+            int act = ((Integer) entry.getKey()).intValue();
+            if (act == WSConstants.SC || act == WSConstants.BST 
+                || wsResult.countResults(act) != ((int[]) entry.getValue())[0]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     protected void checkSignatureConfirmation(RequestData reqData,
             Vector wsResult) throws WSSecurityException{
         if (doDebug) {
@@ -367,8 +625,7 @@ public abstract class WSHandler {
         for (int i = 0; i < sigConf.size(); i++) {
             WSSecurityEngineResult result = 
                 (WSSecurityEngineResult)sigConf.get(i);
-            SignatureConfirmation sc = 
-                (SignatureConfirmation)result.get(WSSecurityEngineResult.TAG_SIGNATURE_CONFIRMATION);
+            SignatureConfirmation sc = result.getSigConf();
 
             byte[] sigVal = sc.getSignatureValue();
             if (sigVal != null) {
@@ -511,44 +768,7 @@ public abstract class WSHandler {
 
     protected void decodeUTParameter(RequestData reqData) 
         throws WSSecurityException {
-        Object mc = reqData.getMsgContext();
-
-        String type = getString(WSHandlerConstants.PASSWORD_TYPE, mc);
-        if (type != null) {
-            if (WSConstants.PW_TEXT.equals(type)) {
-                reqData.setPwType(WSConstants.PASSWORD_TEXT);
-            } else if (WSConstants.PW_DIGEST.equals(type)) {
-                reqData.setPwType(WSConstants.PASSWORD_DIGEST);
-            } else if (WSConstants.PW_NONE.equals(type)) {
-                // No password requested.
-                reqData.setPwType(null);
-            } else {
-                throw new WSSecurityException("Unknown password type encoding: " + type);
-            }
-        }
-
-        String add = getString(WSHandlerConstants.ADD_UT_ELEMENTS, mc);
-        if (add != null) {
-            reqData.setUtElements(StringUtil.split(add, ' '));
-        }
-        
-        String derived = getString(WSHandlerConstants.USE_DERIVED_KEY, mc);
-        boolean useDerivedKey = Boolean.valueOf(derived).booleanValue();
-        if (useDerivedKey) {
-            reqData.setUseDerivedKey(useDerivedKey);
-        }
-        
-        String derivedMAC = getString(WSHandlerConstants.USE_DERIVED_KEY, mc);
-        boolean useDerivedKeyForMAC = Boolean.valueOf(derivedMAC).booleanValue();
-        if (useDerivedKeyForMAC) {
-            reqData.setUseDerivedKeyForMAC(useDerivedKeyForMAC);
-        }
-        
-        String iterations = getString(WSHandlerConstants.DERIVED_KEY_ITERATIONS, mc);
-        if (iterations != null) {
-            int iIterations = Integer.parseInt(iterations);
-            reqData.setDerivedKeyIterations(iIterations);
-        }
+        getSecurityPlan(reqData, WSConstants.UT).applyUTParameters(reqData);
     }
 
     protected void decodeSignatureParameter(RequestData reqData) 
@@ -562,46 +782,7 @@ public abstract class WSHandler {
             reqData.setSignatureUser(reqData.getUsername());
         }
         
-        String keyId = getString(WSHandlerConstants.SIG_KEY_ID, mc);
-        if (keyId != null) {
-            Integer id = (Integer) WSHandlerConstants.keyIdentifier.get(keyId);
-            if (id == null) {
-                throw new WSSecurityException(
-                    "WSHandler: Signature: unknown key identification"
-                );
-            }
-            int tmp = id.intValue();
-            if (!(tmp == WSConstants.ISSUER_SERIAL
-                    || tmp == WSConstants.BST_DIRECT_REFERENCE
-                    || tmp == WSConstants.X509_KEY_IDENTIFIER
-                    || tmp == WSConstants.SKI_KEY_IDENTIFIER
-                    || tmp == WSConstants.THUMBPRINT_IDENTIFIER
-                    || tmp == WSConstants.ENCRYPTED_KEY_SHA1_IDENTIFIER)) {
-                throw new WSSecurityException(
-                    "WSHandler: Signature: illegal key identification"
-                );
-            }
-            reqData.setSigKeyId(tmp);
-        }
-        String algo = getString(WSHandlerConstants.SIG_ALGO, mc);
-        reqData.setSigAlgorithm(algo);
-        
-        String digestAlgo = getString(WSHandlerConstants.SIG_DIGEST_ALGO, mc);
-        reqData.setSigDigestAlgorithm(digestAlgo);
-
-        String parts = getString(WSHandlerConstants.SIGNATURE_PARTS, mc);
-        if (parts != null) {
-            splitEncParts(parts, reqData.getSignatureParts(), reqData);
-        }
-        
-        String secretKeyLength = getString(WSHandlerConstants.WSE_SECRET_KEY_LENGTH, mc);
-        if (secretKeyLength != null) {
-            int iSecretKeyLength = Integer.parseInt(secretKeyLength);
-            reqData.setSecretKeyLength(iSecretKeyLength);
-        }
-        
-        boolean useSingleCert = decodeUseSingleCertificate(reqData);
-        reqData.setUseSingleCert(useSingleCert);
+        getSecurityPlan(reqData, WSConstants.SIGN).applySignatureParameters(reqData);
     }
 
     protected void decodeEncryptionParameter(RequestData reqData) 
@@ -628,45 +809,7 @@ public abstract class WSHandler {
          * If the following parameters are no used (they return null) then the
          * default values of WSS4J are used.
          */
-        String encKeyId = getString(WSHandlerConstants.ENC_KEY_ID, mc);
-        if (encKeyId != null) {
-            Integer id = (Integer) WSHandlerConstants.keyIdentifier.get(encKeyId);
-            if (id == null) {
-                throw new WSSecurityException(
-                    "WSHandler: Encryption: unknown key identification"
-                );
-            }
-            int tmp = id.intValue();
-            reqData.setEncKeyId(tmp);
-            if (!(tmp == WSConstants.ISSUER_SERIAL
-                    || tmp == WSConstants.X509_KEY_IDENTIFIER
-                    || tmp == WSConstants.SKI_KEY_IDENTIFIER
-                    || tmp == WSConstants.BST_DIRECT_REFERENCE
-                    || tmp == WSConstants.EMBEDDED_KEYNAME
-                    || tmp == WSConstants.THUMBPRINT_IDENTIFIER
-                    || tmp == WSConstants.ENCRYPTED_KEY_SHA1_IDENTIFIER)) {
-                throw new WSSecurityException(
-                    "WSHandler: Encryption: illegal key identification"
-                );
-            }
-        }
-        String encSymAlgo = getString(WSHandlerConstants.ENC_SYM_ALGO, mc);
-        reqData.setEncSymmAlgo(encSymAlgo);
-
-        String encKeyTransport = 
-            getString(WSHandlerConstants.ENC_KEY_TRANSPORT, mc);
-        reqData.setEncKeyTransport(encKeyTransport);
-        
-        String encSymEncKey = getString(WSHandlerConstants.ENC_SYM_ENC_KEY, mc);
-        if (encSymEncKey != null) {
-            boolean encSymEndKeyBoolean = Boolean.valueOf(encSymEncKey).booleanValue();
-            reqData.setEncryptSymmetricEncryptionKey(encSymEndKeyBoolean);
-        }
-
-        String encParts = getString(WSHandlerConstants.ENCRYPTION_PARTS, mc);
-        if (encParts != null) {
-            splitEncParts(encParts, reqData.getEncryptParts(), reqData);
-        }
+        getSecurityPlan(reqData, WSConstants.ENCR).applyEncryptionParameters(reqData);
     }
 
     protected boolean decodeMustUnderstand(RequestData reqData) 
@@ -812,6 +955,86 @@ public abstract class WSHandler {
         );
     }
 
+    protected boolean decodeDirectHandoff(RequestData reqData) 
+        throws WSSecurityException {
+        String value = getString(WSHandlerConstants.DIRECT_HANDOFF,
+                reqData.getMsgContext());
+
+        if (value == null) {
+            return false;
+        }
+        if ("0".equals(value) || "false".equals(value)) {
+            return false;
+        } 
+        if ("1".equals(value) || "true".equals(value)) {
+            return true;
+        }
+
+        throw new WSSecurityException(
+            "WSHandler: illegal directHandoff parameter"
+        );
+    }
+
+    protected boolean decodePrecheckSecurityHeader(RequestData reqData) 
+        throws WSSecurityException {
+        String value = getString(WSHandlerConstants.PRECHECK_SECURITY_HEADER,
+                reqData.getMsgContext());
+
+        if (value == null) {
+            return false;
+        }
+        if ("0".equals(value) || "false".equals(value)) {
+            return false;
+        } 
+        if ("1".equals(value) || "true".equals(value)) {
+            return true;
+        }
+
+        throw new WSSecurityException(
+            "WSHandler: illegal precheckSecurityHeader parameter"
+        );
+    }
+
+    protected boolean decodeLazyTokenProcessing(RequestData reqData) 
+        throws WSSecurityException {
+        String value = getString(WSHandlerConstants.LAZY_TOKEN_PROCESSING,
+                reqData.getMsgContext());
+
+        if (value == null) {
+            return false;
+        }
+        if ("0".equals(value) || "false".equals(value)) {
+            return false;
+        } 
+        if ("1".equals(value) || "true".equals(value)) {
+            return true;
+        }
+
+        throw new WSSecurityException(
+            "WSHandler: illegal lazyTokenProcessing parameter"
+        );
+    }
+
+    protected boolean decodeBatchPasswordCallbacks(RequestData reqData) 
+        throws WSSecurityException {
+        String value = getString(WSHandlerConstants.BATCH_PASSWORD_CALLBACKS,
+                reqData.getMsgContext());
+
+        if (value == null) {
+            return false;
+        }
+        if ("0".equals(value) || "false".equals(value)) {
+            return false;
+        } 
+        if ("1".equals(value) || "true".equals(value)) {
+            return true;
+        }
+
+        throw new WSSecurityException(
+            "WSHandler: illegal batchPasswordCallbacks parameter"
+        );
+    }
+
     protected boolean decodeTimestampStrict(RequestData reqData) 
         throws WSSecurityException {
         String value = getString(WSHandlerConstants.TIMESTAMP_STRICT,
@@ -970,52 +1193,6 @@ public abstract class WSHandler {
         return new WSPasswordCallback(username, reason);
     }
 
-    private void splitEncParts(String tmpS, Vector parts, RequestData reqData)
-        throws WSSecurityException {
-        WSEncryptionPart encPart = null;
-        String[] rawParts = StringUtil.split(tmpS, ';');
-
-        for (int i = 0; i < rawParts.length; i++) {
-            String[] partDef = StringUtil.split(rawParts[i], '}');
-
-            if (partDef.length == 1) {
-                if (doDebug) {
-                    log.debug("single partDef: '" + partDef[0] + "'");
-                }
-                encPart =
-                    new WSEncryptionPart(partDef[0].trim(),
-                            reqData.getSoapConstants().getEnvelopeURI(),
-                            "Content");
-            } else if (partDef.length == 3) {
-                String mode = partDef[0].trim();
-                if (mode.length() <= 1) {
-                    mode = "Content";
-                } else {
-                    mode = mode.substring(1);
-                }
-                String nmSpace = partDef[1].trim();
-                if (nmSpace.length() <= 1) {
-                    nmSpace = reqData.getSoapConstants().getEnvelopeURI();
-                } else {
-                    nmSpace = nmSpace.substring(1);
-                    if (nmSpace.equals(WSConstants.NULL_NS)) {
-                        nmSpace = null;
-                    }
-                }
-                String element = partDef[2].trim();
-                if (doDebug) {
-                    log.debug(
-                        "partDefs: '" + mode + "' ,'" + nmSpace + "' ,'" + element + "'"
-                    );
-                }
-                encPart = new WSEncryptionPart(element, nmSpace, mode);
-            } else {
-                throw new WSSecurityException("WSHandler: wrong part definition: " + tmpS);
-            }
-            parts.add(encPart);
-        }
-    }
-
     private void handleSpecialUser(RequestData reqData) {
         if (!WSHandlerConstants.USE_REQ_SIG_CERT.equals(reqData.getEncUser())) {
             return;
@@ -1045,12 +1222,8 @@ public abstract class WSHandler {
             for (int j = 0; j < wsSecEngineResults.size(); j++) {
                 WSSecurityEngineResult wser =
                     (WSSecurityEngineResult) wsSecEngineResults.get(j);
-                int wserAction = 
-                    ((java.lang.Integer)wser.get(WSSecurityEngineResult.TAG_ACTION)).intValue();
-                if (wserAction == WSConstants.SIGN) {
-                    X509Certificate cert = 
-                        (X509Certificate)wser.get(WSSecurityEngineResult.TAG_X509_CERTIFICATE);
-                    reqData.setEncCert(cert);
+                if (wser.getAction() == WSConstants.SIGN) {
+                    reqData.setEncCert(wser.getCertificate());
                     return;
                 }
             }
@@ -1407,34 +1580,31 @@ public abstract class WSHandler {
     protected boolean verifyTimestamp(Timestamp timestamp, int timeToLive) throws WSSecurityException {
 
         // Calculate the time that is allowed for the message to travel
-        Calendar validCreation = Calendar.getInstance();
-        Calendar cre = timestamp.getCreated();
-        if (cre != null && cre.after(validCreation)) {
+        long currentTime = System.currentTimeMillis();
+        long cre = timestamp.getCreatedTime();
+        if (cre != Timestamp.UNDEFINED && cre > currentTime) {
             if (doDebug) {
                 log.debug("Validation of Timestamp: The message was created in the future!");
             }
             return false;
         }
-        long currentTime = validCreation.getTime().getTime();
-        currentTime -= timeToLive * 1000;
-        validCreation.setTime(new Date(currentTime));
+        long validCreation = currentTime - timeToLive * 1000L;
 
         if (doDebug) {
             log.debug("Preparing to verify the timestamp");
-            DateFormat zulu = new XmlSchemaDateFormat();
             log.debug("Validation of Timestamp: Current time is "
-                    + zulu.format(Calendar.getInstance().getTime()));
+                    + XmlSchemaDateTime.format(currentTime));
             log.debug("Validation of Timestamp: Valid creation is "
-                    + zulu.format(validCreation.getTime()));
-            if (timestamp.getCreated() != null) {
+                    + XmlSchemaDateTime.format(validCreation));
+            if (cre != Timestamp.UNDEFINED) {
                 log.debug("Validation of Timestamp: Timestamp created is "
-                        + zulu.format(timestamp.getCreated().getTime()));
+                        + XmlSchemaDateTime.format(cre));
             }
         }
         // Validate the time it took the message to travel
         // if (timestamp.getCreated().before(validCreation) ||
         // !timestamp.getCreated().equals(validCreation)) {
-        if (cre != null && !cre.after(validCreation)) {
+        if (cre != Timestamp.UNDEFINED && cre <= validCreation) {
             if (doDebug) {
                 log.debug("Validation of Timestamp: The message was created too long ago");
             }
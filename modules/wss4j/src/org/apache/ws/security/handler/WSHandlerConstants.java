@@ -548,6 +548,13 @@ public class WSHandlerConstants {
      * </pre>
      * However, the parameter in the WSDD deployment file overwrites the
      * property setting (deployment setting overwrites application setting).
+     * <p/>
+     * If not set, the algorithm is chosen by the key of the signature
+     * certificate: RSA with SHA-1 for RSA keys, DSA for DSA keys, ECDSA with
+     * SHA-256, SHA-384 or SHA-512 (by curve size) for EC keys, and Ed25519 for
+     * Ed25519 keys. See {@link WSConstants#ECDSA_SHA256}, 
+     * {@link WSConstants#ECDSA_SHA384}, {@link WSConstants#ECDSA_SHA512} and
+     * {@link WSConstants#ED25519}.
      */
     public static final String SIG_ALGO = "signatureAlgorithm";
     
@@ -684,6 +691,9 @@ public class WSHandlerConstants {
      * {@link WSConstants#AES_128}, {@link WSConstants#AES_256},
      * and {@link WSConstants#AES_192}. Except for AES 192 all of these
      * algorithms are required by the XML Encryption specification.
+     * The authenticated algorithms of XML Encryption 1.1,
+     * {@link WSConstants#AES_128_GCM} and {@link WSConstants#AES_256_GCM},
+     * are supported as well.
      * <p/>
      * The application may set this parameter using the following method:
      * <pre>
@@ -698,6 +708,12 @@ public class WSHandlerConstants {
      * Defines which algorithm to use to encrypt the generated symmetric key.
      * Currently WSS4J supports {@link WSConstants#KEYTRANSPORT_RSA15} only.
      * <p/>
+     * If the certificate of the recipient has an EC key the symmetric key is
+     * wrapped with a key that is agreed with {@link WSConstants#AGREEMENT_ECDH_ES}.
+     * Then this parameter selects the key wrap algorithm, for example
+     * {@link WSConstants#KEYWRAP_AES128}. The default is 
+     * {@link WSConstants#KEYWRAP_AES256}.
+     * <p/>
      * The application may set this parameter using the following method:
      * <pre>
      * call.setProperty(WSHandlerConstants.ENC_KEY_TRANSPORT, "RSA15");
@@ -806,6 +822,81 @@ public class WSHandlerConstants {
      */
     public static final String TIMESTAMP_STRICT = "timestampStrict";
     
+    /**
+     * Set the value of this parameter to true to scan the security header of
+     * a received message for cheap checks before any token is processed.
+     * <p/>
+     * The pre-scan rejects a message with more than one Timestamp, an expired
+     * Timestamp (if {@link #TIMESTAMP_STRICT} is set), or a Timestamp or
+     * UsernameToken whose Created value is in the future or older than the
+     * {@link #TTL_TIMESTAMP time to live}. This happens before any signature
+     * is verified or any data is decrypted, regardless of the order of the
+     * elements in the security header.
+     * <p/>
+     * The default is false.
+     */
+    public static final String PRECHECK_SECURITY_HEADER = "precheckSecurityHeader";
+    
+    /**
+     * Set the value of this parameter to true to request the credentials of a
+     * received message from the password callback class in one call.
+     * <p/>
+     * Before any token is processed, the passwords of hashed UsernameTokens,
+     * the private key passwords of EncryptedKeys and the secrets of
+     * SecurityContextTokens are requested with an array of 
+     * <code>WSPasswordCallback</code>s. The credentials are cached for the rest
+     * of the message, so the callback class is called at most once per
+     * credential.
+     * <p/>
+     * The default is false.
+     */
+    public static final String BATCH_PASSWORD_CALLBACKS = "batchPasswordCallbacks";
+    
+    /**
+     * Set the value of this parameter to true to process BinarySecurityTokens,
+     * SAML assertions and SecurityContextTokens of a received message only when
+     * a Signature, EncryptedKey, ReferenceList or DerivedKeyToken references them.
+     * <p/>
+     * A token that is not referenced is not processed and has no result. If
+     * the receiver's actions contain a SAML token action, SAML assertions are
+     * processed in any case, so that their results can be checked.
+     * <p/>
+     * The default is false.
+     */
+    public static final String LAZY_TOKEN_PROCESSING = "lazyTokenProcessing";
+    
+    /**
+     * Set the value of this parameter to true to hand the secured message to
+     * the next processing stage without an intermediate byte array.
+     * <p/>
+     * The Axis handlers then serialize the secured document once into an Axis
+     * <code>ByteArray</code> that is written directly to the transport (and may
+     * spill large messages to a backing store). The JAX-RPC handler passes the
+     * secured document to the <code>SOAPPart</code> as a <code>DOMSource</code>,
+     * so that a SAAJ implementation that keeps a DOM does not reparse it.
+     * <p/>
+     * The default is false, which serializes the secured document to a byte
+     * array that is then set as the new message content.
+     */
+    public static final String DIRECT_HANDOFF = "directHandoff";
+
+    /**
+     * An identifier of the handler configuration, for example the name of the
+     * service. If it is set, the handler compiles the configuration into a
+     * {@link SecurityPlan} once per identifier, action and SOAP version and
+     * reuses the plan for every later message, without looking up the
+     * options again.
+     * <p/>
+     * Set the identifier only if the options of the configuration do not
+     * change from message to message. A different configuration, for example
+     * one that sets options on the message context, needs a different
+     * identifier. If the handler overrides one of the <code>decode*</code>
+     * methods that a plan is compiled with, plans are not cached.
+     * <p/>
+     * The default is no identifier, which compiles a plan for every message.
+     */
+    public static final String SECURITY_PLAN_ID = "securityPlanId";
+    
     /**
      * Set the value of this parameter to true to treat passwords as binary values
      * for Username Tokens.
@@ -32,8 +32,6 @@ import org.w3c.dom.Node;
 
 import javax.security.auth.callback.CallbackHandler;
 import javax.xml.namespace.QName;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.rpc.Call;
 import javax.xml.rpc.JAXRPCException;
 import javax.xml.rpc.handler.Handler;
@@ -46,6 +44,7 @@ import javax.xml.soap.SOAPHeaderElement;
 import javax.xml.soap.SOAPMessage;
 import javax.xml.soap.SOAPPart;
 import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamSource;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -199,7 +198,7 @@ public class WSS4JHandler extends WSHandler implements Handler {
         if (action == null) {
             throw new JAXRPCException("WSS4JHandler: No action defined");
         }
-        int doAction = WSSecurityUtil.decodeAction(action, actions);
+        int doAction = decodeAction(action, actions);
         if (doAction == WSConstants.NO_SECURITY) {
             return true;
         }
@@ -288,9 +287,9 @@ public class WSS4JHandler extends WSHandler implements Handler {
         if (reqData.isNoSerialization()) {
             mc.setProperty(WSHandlerConstants.SND_SECURITY, doc);
         } else {
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            XMLUtils.outputDOM(doc, os, true);
             if (doDebug) {
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                XMLUtils.outputDOM(doc, os, true);
                 String osStr = null;
                 try {
                     osStr = os.toString("UTF-8");
@@ -303,15 +302,7 @@ public class WSS4JHandler extends WSHandler implements Handler {
                 log.debug("Send request:");
                 log.debug(osStr);
             }
-
-            try {
-                sPart.setContent(new StreamSource(new ByteArrayInputStream(os.toByteArray())));
-            } catch (SOAPException se) {
-                if (doDebug) {
-                    log.debug(se.getMessage(), se);
-                }
-                throw new JAXRPCException("Couldn't set content on SOAPPart" + se.getMessage(), se);
-            }
+            setSecuredContent(sPart, doc, reqData.getSecurityPlan().isDirectHandoff());
             mc.removeProperty(WSHandlerConstants.SND_SECURITY);
         }
         if (doDebug) {
@@ -320,6 +311,32 @@ public class WSS4JHandler extends WSHandler implements Handler {
         return true;
     }
 
+    /**
+     * Set a secured document as the new content of a SOAP part. With direct
+     * handoff the document is passed as a <code>DOMSource</code>, otherwise
+     * it is serialized and passed as a <code>StreamSource</code>.
+     */
+    private void setSecuredContent(SOAPPart sPart, Document doc, boolean directHandoff) {
+        Source source = null;
+        if (directHandoff) {
+            source = new DOMSource(doc);
+        } else {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            XMLUtils.outputDOM(doc, os, true);
+            source = new StreamSource(new ByteArrayInputStream(os.toByteArray()));
+        }
+        try {
+            sPart.setContent(source);
+        } catch (SOAPException se) {
+            if (doDebug) {
+                log.debug(se.getMessage(), se);
+            }
+            throw new JAXRPCException(
+                "Couldn't set content on SOAPPart" + se.getMessage(), se
+            );
+        }
+    }
+
     /**
      * handle responses
      *
@@ -341,7 +358,7 @@ public class WSS4JHandler extends WSHandler implements Handler {
         if (action == null) {
             throw new JAXRPCException("WSS4JHandler: No action defined");
         }
-        int doAction = WSSecurityUtil.decodeAction(action, actions);
+        int doAction = decodeAction(action, actions);
 
         String actor = (String) getOption(WSHandlerConstants.ACTOR);
 
@@ -418,18 +435,7 @@ public class WSS4JHandler extends WSHandler implements Handler {
         * part. This new part may contain decrypted elements.
         */
 
-        ByteArrayOutputStream os = new ByteArrayOutputStream();
-        XMLUtils.outputDOM(doc, os, true);
-        try {
-            sPart.setContent(new StreamSource(new ByteArrayInputStream(os.toByteArray())));
-        } catch (SOAPException se) {
-            if (doDebug) {
-                log.debug(se.getMessage(), se);
-            }
-            throw new JAXRPCException(
-                "Couldn't set content on SOAPPart" + se.getMessage(), se
-            );
-        }
+        setSecuredContent(sPart, doc, reqData.getSecurityPlan().isDirectHandoff());
 
         if (doDebug) {
             log.debug("Processed received SOAP request");
@@ -547,14 +553,21 @@ public class WSS4JHandler extends WSHandler implements Handler {
     }
 
     /**
-     * Utility method to convert SOAPMessage to org.w3c.dom.Document
+     * Utility method to convert SOAPMessage to org.w3c.dom.Document. If the
+     * content of the SOAPPart is already a plain DOM document it is returned
+     * as is, otherwise the content is parsed with the hardened per-thread
+     * DocumentBuilder.
      */
     public static Document messageToDocument(SOAPMessage message) {
         try {
             Source content = message.getSOAPPart().getContent();
-            DocumentBuilderFactory dbf = org.apache.ws.security.util.XMLUtils.getSecuredDocumentBuilder();
-            DocumentBuilder builder = dbf.newDocumentBuilder();
-            return builder.parse(org.apache.ws.security.util.XMLUtils.sourceToInputSource(content));
+            Document doc = org.apache.ws.security.util.XMLUtils.getDocument(content);
+            if (doc != null) {
+                return doc;
+            }
+            return org.apache.ws.security.util.XMLUtils.parse(
+                org.apache.ws.security.util.XMLUtils.sourceToInputSource(content)
+            );
         } catch (Exception ex) {
             if (doDebug) {
                 log.debug(ex.getMessage(), ex);
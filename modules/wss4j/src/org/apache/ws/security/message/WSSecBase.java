@@ -26,6 +26,8 @@ import org.apache.ws.security.util.WSSecurityUtil;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
+import javax.security.auth.callback.CallbackHandler;
+
 import java.util.Vector;
 
 /**
@@ -48,6 +50,8 @@ public class WSSecBase {
 
     protected WSSConfig wssConfig = WSSConfig.getDefaultWSConfig();
 
+    protected CallbackHandler attachmentCallbackHandler = null;
+
     /**
      * Constructor.
      */
@@ -104,6 +108,19 @@ public class WSSecBase {
         this.wssConfig = wsConfig;
     }
 
+    /**
+     * Set the callback handler that creates attachments. If set, binary 
+     * security tokens and the cipher text of encrypted parts are written to 
+     * MIME attachments (see {@link org.apache.ws.security.AttachmentCallback})
+     * and referenced by <code>xop:Include</code>, instead of being Base64 
+     * encoded into the message.
+     * 
+     * @param attachmentCallbackHandler
+     */
+    public void setAttachmentCallbackHandler(CallbackHandler attachmentCallbackHandler) {
+        this.attachmentCallbackHandler = attachmentCallbackHandler;
+    }
+
     /**
      * Looks up or adds a body id. <p/> First try to locate the
      * <code>wsu:Id</code> in the SOAP body element. If one is found, the
@@ -26,6 +26,7 @@ import org.apache.ws.security.WSSecurityException;
 import org.apache.ws.security.conversation.ConversationException;
 import org.apache.ws.security.message.token.Reference;
 import org.apache.ws.security.message.token.SecurityTokenReference;
+import org.apache.ws.security.util.PartResolver;
 import org.apache.ws.security.util.WSSecurityUtil;
 import org.apache.xml.security.encryption.EncryptedData;
 import org.apache.xml.security.encryption.XMLCipher;
@@ -83,19 +84,26 @@ public class WSSecDKEncrypt extends WSSecDerivedKeyBase {
         throws WSSecurityException {
 
         SecretKey key = WSSecurityUtil.prepareSecretKey(this.symEncAlgo, secretKey);
+        //
+        // The XMLCipher does not know the AES-GCM algorithms of XML Encryption 1.1
+        //
+        boolean gcm = WSSecurityUtil.isGCMAlgorithm(symEncAlgo);
         XMLCipher xmlCipher = null;
-        try {
-            xmlCipher = XMLCipher.getInstance(symEncAlgo);
-        } catch (XMLEncryptionException e3) {
-            throw new WSSecurityException(
-                WSSecurityException.UNSUPPORTED_ALGORITHM, null, null, e3
-            );
+        if (!gcm) {
+            try {
+                xmlCipher = XMLCipher.getInstance(symEncAlgo);
+            } catch (XMLEncryptionException e3) {
+                throw new WSSecurityException(
+                    WSSecurityException.UNSUPPORTED_ALGORITHM, null, null, e3
+                );
+            }
         }
 
         Vector encDataRefs = new Vector();
         if (envelope == null) {
             envelope = doc.getDocumentElement();
         }
+        PartResolver resolver = new PartResolver(document, references);
         
         for (int part = 0; part < references.size(); part++) {
             WSEncryptionPart encPart = (WSEncryptionPart) references.get(part);
@@ -107,19 +115,7 @@ public class WSSecDKEncrypt extends WSSecDerivedKeyBase {
             //
             // Third step: get the data to encrypt.
             //
-            Element body = null;
-            if (idToEnc != null) {
-                body = 
-                    WSSecurityUtil.findElementById(
-                        document.getDocumentElement(), idToEnc, WSConstants.WSU_NS
-                    );
-                if (body == null) {
-                    body = 
-                        WSSecurityUtil.findElementById(document.getDocumentElement(), idToEnc, null);
-                }
-            } else {
-                body = (Element) WSSecurityUtil.findElement(envelope, elemName, nmSpace);
-            }
+            Element body = resolver.getElement(encPart);
             if (body == null) {
                 throw new WSSecurityException(
                     WSSecurityException.FAILURE,
@@ -149,11 +145,17 @@ public class WSSecDKEncrypt extends WSSecDerivedKeyBase {
                     WSConstants.XMLNS_NS, "xmlns:" + WSConstants.SIG_PREFIX, WSConstants.SIG_NS
                 );
 
-                xmlCipher.init(XMLCipher.ENCRYPT_MODE, key);
-                EncryptedData encData = xmlCipher.getEncryptedData();
-                encData.setId(xencEncryptedDataId);
-                encData.setKeyInfo(keyInfo);
-                xmlCipher.doFinal(doc, body, content);
+                if (gcm) {
+                    WSSecEncrypt.encryptInline(
+                        doc, body, xencEncryptedDataId, keyInfo, key, symEncAlgo, content
+                    );
+                } else {
+                    xmlCipher.init(XMLCipher.ENCRYPT_MODE, key);
+                    EncryptedData encData = xmlCipher.getEncryptedData();
+                    encData.setId(xencEncryptedDataId);
+                    encData.setKeyInfo(keyInfo);
+                    xmlCipher.doFinal(doc, body, content);
+                }
             } catch (Exception e2) {
                 throw new WSSecurityException(
                     WSSecurityException.FAILED_ENCRYPTION, null, null, e2
@@ -32,7 +32,9 @@ import org.apache.ws.security.message.token.Reference;
 import org.apache.ws.security.message.token.SecurityTokenReference;
 import org.apache.ws.security.saml.SAMLUtil;
 import org.apache.ws.security.transform.STRTransform;
+import org.apache.ws.security.util.PartResolver;
 import org.apache.ws.security.util.WSSecurityUtil;
+import org.apache.ws.security.util.XOPUtil;
 import org.apache.xml.security.algorithms.SignatureAlgorithm;
 import org.apache.xml.security.c14n.Canonicalizer;
 import org.apache.xml.security.exceptions.XMLSecurityException;
@@ -248,6 +250,7 @@ public class WSSecDKSign extends WSSecDerivedKeyBase {
         Transforms transforms = null;
 
         Element envel = document.getDocumentElement();
+        PartResolver resolver = new PartResolver(document, references);
 
         for (int part = 0; part < references.size(); part++) {
             WSEncryptionPart encPart = (WSEncryptionPart) references.get(part);
@@ -267,15 +270,7 @@ public class WSSecDKSign extends WSSecDerivedKeyBase {
             transforms = new Transforms(document);
             try {
                 if (idToSign != null) {
-                    Element toSignById = 
-                        WSSecurityUtil.findElementById(
-                            document.getDocumentElement(), idToSign, WSConstants.WSU_NS);
-                    if (toSignById == null) {
-                        toSignById = 
-                            WSSecurityUtil.findElementById(
-                                document.getDocumentElement(), idToSign, null
-                            );
-                    }
+                    Element toSignById = resolver.getElement(encPart);
                     transforms.addTransform(Transforms.TRANSFORM_C14N_EXCL_OMIT_COMMENTS);
                     if (wssConfig.isWsiBSPCompliant()) {
                         transforms.item(0).getElement().appendChild(
@@ -300,8 +295,7 @@ public class WSSecDKSign extends WSSecDerivedKeyBase {
                 } else if (elemName.equals("Assertion")) { // Assertion
                     String id = SAMLUtil.getAssertionId(envel, elemName, nmSpace);
 
-                    Element body = 
-                        (Element) WSSecurityUtil.findElement(envel, elemName, nmSpace);
+                    Element body = resolver.getElement(encPart);
                     if (body == null) {
                         throw new WSSecurityException(
                             WSSecurityException.FAILURE, 
@@ -322,7 +316,7 @@ public class WSSecDKSign extends WSSecDerivedKeyBase {
                     sig.addDocument("#" + id, transforms);
 
                 } else {
-                    Element body = (Element) WSSecurityUtil.findElement(envel, elemName, nmSpace);
+                    Element body = resolver.getElement(encPart);
                     if (body == null) {
                         throw new WSSecurityException(
                             WSSecurityException.FAILURE, 
@@ -413,6 +407,7 @@ public class WSSecDKSign extends WSSecDerivedKeyBase {
      * @throws WSSecurityException
      */
     public void computeSignature() throws WSSecurityException {
+        XOPUtil.checkSignedReferences(document, sig);
         boolean remove = WSDocInfoStore.store(wsDocInfo);
         try {
             sig.sign(sig.createSecretKey(derivedKeyBytes));
@@ -28,8 +28,13 @@ import org.apache.ws.security.WSSecurityException;
 import org.apache.ws.security.components.crypto.Crypto;
 import org.apache.ws.security.message.token.Reference;
 import org.apache.ws.security.message.token.SecurityTokenReference;
+import org.apache.ws.security.stream.EnvelopeWriter;
 import org.apache.ws.security.util.Base64;
+import org.apache.ws.security.util.SecureRandomSource;
+import org.apache.ws.security.util.PartResolver;
+import org.apache.ws.security.util.SecurityFuture;
 import org.apache.ws.security.util.WSSecurityUtil;
+import org.apache.ws.security.util.XOPUtil;
 import org.apache.xml.security.algorithms.JCEMapper;
 import org.apache.xml.security.encryption.EncryptedData;
 import org.apache.xml.security.encryption.XMLCipher;
@@ -37,17 +42,21 @@ import org.apache.xml.security.encryption.XMLEncryptionException;
 import org.apache.xml.security.keys.KeyInfo;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
 import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 
-import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 
 /**
  * Encrypts a parts of a message according to WS Specification, X509 profile,
@@ -100,6 +109,16 @@ public class WSSecEncrypt extends WSSecEncryptedKey {
      */
     private boolean encKeyIdDirectId;
 
+    /**
+     * True if Content parts are encrypted when the envelope is written
+     */
+    private boolean streaming;
+
+    /**
+     * Writes the envelope and encrypts the Content parts, if streaming
+     */
+    private EnvelopeWriter envelopeWriter;
+
     /**
      * Constructor.
      */
@@ -152,13 +171,16 @@ public class WSSecEncrypt extends WSSecEncryptedKey {
      * 
      * This encryption algorithm is used to encrypt the data. If the algorithm
      * is not set then AES128 is used. Refer to WSConstants which algorithms are
-     * supported.
+     * supported. The AES-GCM algorithms also protect the integrity of the 
+     * encrypted data.
      * 
      * @param algo Is the name of the encryption algorithm
      * @see WSConstants#TRIPLE_DES
      * @see WSConstants#AES_128
      * @see WSConstants#AES_192
      * @see WSConstants#AES_256
+     * @see WSConstants#AES_128_GCM
+     * @see WSConstants#AES_256_GCM
      */
     public void setSymmetricEncAlgorithm(String algo) {
         symEncAlgo = algo;
@@ -189,6 +211,8 @@ public class WSSecEncrypt extends WSSecEncryptedKey {
      * @see WSConstants#AES_128
      * @see WSConstants#AES_192
      * @see WSConstants#AES_256
+     * @see WSConstants#AES_128_GCM
+     * @see WSConstants#AES_256_GCM
      */
     public String getSymmetricEncAlgorithm() {
         return symEncAlgo;
@@ -227,8 +251,7 @@ public class WSSecEncrypt extends WSSecEncryptedKey {
         //
         if (this.ephemeralKey == null) {
             if (symmetricKey == null) {
-                KeyGenerator keyGen = getKeyGenerator();
-                this.symmetricKey = keyGen.generateKey();
+                this.symmetricKey = generateSymmetricKey();
             } 
             this.ephemeralKey = this.symmetricKey.getEncoded();
         }
@@ -324,6 +347,71 @@ public class WSSecEncrypt extends WSSecEncryptedKey {
         return doc;
     }
 
+    /**
+     * Builds the encrypted SOAP envelope on the executor of the WSSConfig.
+     *
+     * @see #buildAsync(Document, Crypto, WSSecHeader, Executor)
+     */
+    public SecurityFuture<Document> buildAsync(
+        Document doc, Crypto crypto, WSSecHeader secHeader
+    ) {
+        return buildAsync(doc, crypto, secHeader, wssConfig.getExecutor());
+    }
+
+    /**
+     * Runs {@link #build(Document, Crypto, WSSecHeader)} on an executor, so 
+     * that the calling thread does not block on the private key operations. <p/>
+     * 
+     * The document and this builder belong to the build until the returned 
+     * future is done: the caller must not access them before. To build several
+     * messages concurrently, use one builder per message.
+     * 
+     * @param doc the SOAP envelope as <code>Document</code>
+     * @param crypto an instance of the Crypto API to handle keystore and certificates
+     * @param secHeader the security header element
+     * @param executor the executor to build the envelope on
+     * @return the pending encrypted SOAP envelope
+     */
+    public SecurityFuture<Document> buildAsync(
+        final Document doc, final Crypto crypto, final WSSecHeader secHeader, Executor executor
+    ) {
+        return SecurityFuture.submit(executor, new Callable<Document>() {
+            public Document call() throws WSSecurityException {
+                return build(doc, crypto, secHeader);
+            }
+        });
+    }
+
+    /**
+     * Set whether to encrypt the parts with the "Content" modifier, such as the
+     * content of the SOAP Body, when the envelope is written with 
+     * {@link #writeTo(OutputStream)}. <p/>
+     * 
+     * The encryption then only puts an EncryptedData with an empty CipherValue
+     * in place of the content. The content is serialized, encrypted and Base64 
+     * encoded in chunks while the envelope is written. The EncryptedData must 
+     * not be signed afterwards.
+     * 
+     * @param streaming true to encrypt Content parts when the envelope is written
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Write the envelope as UTF-8 and encrypt the Content parts that were left
+     * for streaming.
+     * 
+     * @param out the stream to write the envelope to
+     * @throws WSSecurityException
+     */
+    public void writeTo(OutputStream out) throws WSSecurityException {
+        if (envelopeWriter == null) {
+            envelopeWriter = new EnvelopeWriter(document);
+        }
+        envelopeWriter.write(out);
+    }
+
     /**
      * Encrypt one or more parts or elements of the message (internal).
      * 
@@ -468,18 +556,25 @@ public class WSSecEncrypt extends WSSecEncryptedKey {
         Vector references
     ) throws WSSecurityException {
 
+        //
+        // The XMLCipher does not know the AES-GCM algorithms of XML Encryption 1.1
+        //
+        boolean gcm = WSSecurityUtil.isGCMAlgorithm(symEncAlgo);
         XMLCipher xmlCipher = null;
-        try {
-            xmlCipher = XMLCipher.getInstance(symEncAlgo);
-        } catch (XMLEncryptionException e3) {
-            throw new WSSecurityException(
-                WSSecurityException.UNSUPPORTED_ALGORITHM, null, null, e3
-            );
+        if (!gcm) {
+            try {
+                xmlCipher = XMLCipher.getInstance(symEncAlgo);
+            } catch (XMLEncryptionException e3) {
+                throw new WSSecurityException(
+                    WSSecurityException.UNSUPPORTED_ALGORITHM, null, null, e3
+                );
+            }
         }
 
         Vector encDataRef = new Vector();
 
         boolean cloneKeyInfo = false;
+        PartResolver resolver = new PartResolver(document, references);
         for (int part = 0; part < references.size(); part++) {
             WSEncryptionPart encPart = (WSEncryptionPart) references.get(part);
 
@@ -490,19 +585,7 @@ public class WSSecEncrypt extends WSSecEncryptedKey {
             //
             // Third step: get the data to encrypt.
             //
-            Element body = null;
-            if (idToEnc != null) {
-                body = 
-                    WSSecurityUtil.findElementById(
-                        document.getDocumentElement(), idToEnc, WSConstants.WSU_NS
-                    );
-                if (body == null) {
-                    body = 
-                        WSSecurityUtil.findElementById(document.getDocumentElement(), idToEnc, null);
-                }
-            } else {
-                body = (Element) WSSecurityUtil.findElement(document, elemName, nmSpace);
-            }
+            Element body = resolver.getElement(encPart);
             if (body == null) {
                 throw new WSSecurityException(
                     WSSecurityException.FAILURE,
@@ -580,11 +663,17 @@ public class WSSecEncrypt extends WSSecEncryptedKey {
                         }
                     }
                     
-                    xmlCipher.init(XMLCipher.ENCRYPT_MODE, secretKey);
-                    EncryptedData encData = xmlCipher.getEncryptedData();
-                    encData.setId(xencEncryptedDataId);
-                    encData.setKeyInfo(keyInfo);
-                    xmlCipher.doFinal(doc, body, content);
+                    if (gcm) {
+                        encryptInline(
+                            doc, body, xencEncryptedDataId, keyInfo, secretKey, symEncAlgo, false
+                        );
+                    } else {
+                        xmlCipher.init(XMLCipher.ENCRYPT_MODE, secretKey);
+                        EncryptedData encData = xmlCipher.getEncryptedData();
+                        encData.setId(xencEncryptedDataId);
+                        encData.setKeyInfo(keyInfo);
+                        xmlCipher.doFinal(doc, body, content);
+                    }
                     
                     Element encDataElem = 
                         WSSecurityUtil.findElementById(
@@ -594,6 +683,16 @@ public class WSSecEncrypt extends WSSecEncryptedKey {
                     elem.appendChild(clone);
                     encDataElem.getParentNode().appendChild(elem);
                     encDataElem.getParentNode().removeChild(encDataElem); 
+                } else if (streaming && content) {
+                    prepareStreamedContent(doc, body, xencEncryptedDataId, keyInfo, secretKey);
+                } else if (attachmentCallbackHandler != null) {
+                    encryptToAttachment(
+                        doc, body, xencEncryptedDataId, keyInfo, secretKey, content
+                    );
+                } else if (gcm) {
+                    encryptInline(
+                        doc, body, xencEncryptedDataId, keyInfo, secretKey, symEncAlgo, content
+                    );
                 } else {
                     xmlCipher.init(XMLCipher.ENCRYPT_MODE, secretKey);
                     EncryptedData encData = xmlCipher.getEncryptedData();
@@ -614,6 +713,145 @@ public class WSSecEncrypt extends WSSecEncryptedKey {
         return encDataRef;
     }
 
+    /**
+     * Replace the content of an element by an EncryptedData whose CipherValue
+     * is written by the EnvelopeWriter.
+     */
+    private void prepareStreamedContent(
+        Document doc, 
+        Element element, 
+        String xencEncryptedDataId, 
+        KeyInfo keyInfo,
+        SecretKey secretKey
+    ) {
+        Element encData = createEncryptedData(doc, xencEncryptedDataId, keyInfo, symEncAlgo, true);
+        DocumentFragment plaintext = doc.createDocumentFragment();
+        while (element.getFirstChild() != null) {
+            plaintext.appendChild(element.getFirstChild());
+        }
+        element.appendChild(encData);
+        if (envelopeWriter == null) {
+            envelopeWriter = new EnvelopeWriter(doc);
+        }
+        envelopeWriter.addEncryptedContent(
+            getCipherValue(encData), element, plaintext, secretKey, symEncAlgo
+        );
+    }
+
+    /**
+     * Encrypt an element or its content into an attachment and replace it by
+     * an EncryptedData whose CipherValue references the attachment.
+     */
+    private void encryptToAttachment(
+        Document doc, 
+        Element element, 
+        String xencEncryptedDataId, 
+        KeyInfo keyInfo,
+        SecretKey secretKey,
+        boolean content
+    ) throws WSSecurityException {
+        String contentId = XOPUtil.createContentId();
+        OutputStream out = 
+            XOPUtil.createAttachment(
+                contentId, "application/octet-stream", attachmentCallbackHandler
+            );
+        Element encData = 
+            encrypt(
+                doc, element, xencEncryptedDataId, keyInfo, secretKey, symEncAlgo, content, out
+            );
+        getCipherValue(encData).appendChild(XOPUtil.createInclude(doc, contentId));
+    }
+
+    /**
+     * Encrypt an element or its content and replace it by an EncryptedData 
+     * whose CipherValue holds the Base64 encoded cipher text. This is used for 
+     * the algorithms that the XMLCipher does not support.
+     */
+    static void encryptInline(
+        Document doc, 
+        Element element, 
+        String xencEncryptedDataId, 
+        KeyInfo keyInfo,
+        SecretKey secretKey,
+        String symEncAlgo,
+        boolean content
+    ) throws WSSecurityException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Element encData = 
+            encrypt(
+                doc, element, xencEncryptedDataId, keyInfo, secretKey, symEncAlgo, content, out
+            );
+        getCipherValue(encData).appendChild(
+            WSSecurityUtil.createBase64EncodedTextNode(doc, out.toByteArray())
+        );
+    }
+
+    /**
+     * Replace an element or its content by an EncryptedData with an empty 
+     * CipherValue, and write the raw cipher text to a stream.
+     */
+    private static Element encrypt(
+        Document doc, 
+        Element element, 
+        String xencEncryptedDataId, 
+        KeyInfo keyInfo,
+        SecretKey secretKey,
+        String symEncAlgo,
+        boolean content,
+        OutputStream out
+    ) throws WSSecurityException {
+        Element encData = createEncryptedData(doc, xencEncryptedDataId, keyInfo, symEncAlgo, content);
+        Element parent = element;
+        Node plaintext = element;
+        if (content) {
+            plaintext = doc.createDocumentFragment();
+            while (element.getFirstChild() != null) {
+                plaintext.appendChild(element.getFirstChild());
+            }
+            element.appendChild(encData);
+        } else {
+            parent = (Element) element.getParentNode();
+            parent.replaceChild(encData, element);
+        }
+        EnvelopeWriter.encrypt(plaintext, parent, secretKey, symEncAlgo, out);
+        return encData;
+    }
+
+    /**
+     * Create an EncryptedData with an empty CipherValue.
+     */
+    private static Element createEncryptedData(
+        Document doc, 
+        String xencEncryptedDataId, 
+        KeyInfo keyInfo, 
+        String symEncAlgo,
+        boolean content
+    ) {
+        Element encData = 
+            doc.createElementNS(WSConstants.ENC_NS, WSConstants.ENC_PREFIX + ":EncryptedData");
+        WSSecurityUtil.setNamespace(encData, WSConstants.ENC_NS, WSConstants.ENC_PREFIX);
+        encData.setAttributeNS(null, "Id", xencEncryptedDataId);
+        encData.setAttributeNS(
+            null, "Type", WSConstants.ENC_NS + (content ? "Content" : "Element")
+        );
+        Element encMethod = 
+            doc.createElementNS(WSConstants.ENC_NS, WSConstants.ENC_PREFIX + ":EncryptionMethod");
+        encMethod.setAttributeNS(null, "Algorithm", symEncAlgo);
+        encData.appendChild(encMethod);
+        encData.appendChild(keyInfo.getElement());
+        Element cipherData = 
+            doc.createElementNS(WSConstants.ENC_NS, WSConstants.ENC_PREFIX + ":CipherData");
+        Element cipherValue = 
+            doc.createElementNS(WSConstants.ENC_NS, WSConstants.ENC_PREFIX + ":CipherValue");
+        cipherData.appendChild(cipherValue);
+        encData.appendChild(cipherData);
+        return encData;
+    }
+
+    private static Element getCipherValue(Element encData) {
+        return (Element) encData.getLastChild().getFirstChild();
+    }
+
     private Document buildEmbedded(Document doc, WSSecHeader secHeader) 
         throws WSSecurityException {
         doDebug = log.isDebugEnabled();
@@ -701,21 +939,25 @@ public class WSSecEncrypt extends WSSecEncryptedKey {
         return doc;
     }
 
-    private KeyGenerator getKeyGenerator() throws WSSecurityException {
+    private SecretKey generateSymmetricKey() throws WSSecurityException {
         try {
             //
             // Assume AES as default, so initialize it
             //
+            if (WSSecurityUtil.isGCMAlgorithm(symEncAlgo)) {
+                int keySize = WSSecurityUtil.getKeyLength(symEncAlgo) * 8;
+                return SecureRandomSource.getInstance().generateKey("AES", keySize);
+            }
             String keyAlgorithm = JCEMapper.getJCEKeyAlgorithmFromURI(symEncAlgo);
-            KeyGenerator keyGen = KeyGenerator.getInstance(keyAlgorithm);
+            int keySize = 0;
             if (symEncAlgo.equalsIgnoreCase(WSConstants.AES_128)) {
-                keyGen.init(128);
+                keySize = 128;
             } else if (symEncAlgo.equalsIgnoreCase(WSConstants.AES_192)) {
-                keyGen.init(192);
+                keySize = 192;
             } else if (symEncAlgo.equalsIgnoreCase(WSConstants.AES_256)) {
-                keyGen.init(256);
+                keySize = 256;
             }
-            return keyGen;
+            return SecureRandomSource.getInstance().generateKey(keyAlgorithm, keySize);
         } catch (NoSuchAlgorithmException e) {
             throw new WSSecurityException(
                 WSSecurityException.UNSUPPORTED_ALGORITHM, null, null, e
@@ -19,22 +19,27 @@
 package org.apache.ws.security.message;
 
 import java.security.InvalidKeyException;
-import java.security.SecureRandom;
+import java.security.KeyPair;
+import java.security.PublicKey;
 import java.security.cert.X509Certificate;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.ws.security.WSConstants;
 import org.apache.ws.security.WSSecurityException;
 import org.apache.ws.security.components.crypto.Crypto;
+import org.apache.ws.security.message.token.AgreementMethod;
 import org.apache.ws.security.message.token.BinarySecurity;
 import org.apache.ws.security.message.token.Reference;
 import org.apache.ws.security.message.token.SecurityTokenReference;
 import org.apache.ws.security.message.token.X509Security;
+import org.apache.ws.security.util.SecureRandomSource;
 import org.apache.ws.security.util.UUIDGenerator;
 import org.apache.ws.security.util.WSSecurityUtil;
 import org.apache.xml.security.keys.KeyInfo;
@@ -202,43 +207,27 @@ public class WSSecEncryptedKey extends WSSecBase {
         Crypto crypto
     ) throws WSSecurityException {
         String certUri = UUIDGenerator.getUUID();
-        Cipher cipher = WSSecurityUtil.getCipherInstance(keyEncAlgo);
-        try {
-            cipher.init(Cipher.ENCRYPT_MODE, remoteCert.getPublicKey());
-        } catch (InvalidKeyException e) {
-            throw new WSSecurityException(
-                WSSecurityException.FAILED_ENCRYPTION, null, null, e
-            );
-        }
-        if (doDebug) {
-            log.debug(
-                "cipher blksize: " + cipher.getBlockSize()
-                + ", symm key length: " + keyBytes.length
-            );
-        }
-        int blockSize = cipher.getBlockSize();
-        if (blockSize > 0 && blockSize < keyBytes.length) {
-            throw new WSSecurityException(
-                WSSecurityException.FAILURE,
-                "unsupportedKeyTransp",
-                new Object[] {"public key algorithm too weak to encrypt symmetric key"}
-            );
-        }
-        
-        try {
-            this.encryptedEphemeralKey = cipher.doFinal(keyBytes);
-        } catch (IllegalStateException e1) {
-            throw new WSSecurityException(
-                WSSecurityException.FAILED_ENCRYPTION, null, null, e1
-            );
-        } catch (IllegalBlockSizeException e1) {
-            throw new WSSecurityException(
-                WSSecurityException.FAILED_ENCRYPTION, null, null, e1
-            );
-        } catch (BadPaddingException e1) {
-            throw new WSSecurityException(
-                WSSecurityException.FAILED_ENCRYPTION, null, null, e1
-            );
+        PublicKey remoteKey = remoteCert.getPublicKey();
+        String encAlgo = keyEncAlgo;
+        AgreementMethod agreementMethod = null;
+        if (AgreementMethod.isAgreementKey(remoteKey)) {
+            //
+            // An EC key cannot transport the symmetric key. Wrap it with a key
+            // encryption key that is agreed with ECDH-ES instead.
+            //
+            if (!isKeyWrap(encAlgo)) {
+                encAlgo = WSConstants.KEYWRAP_AES256;
+            }
+            KeyPair originatorKeyPair = AgreementMethod.generateKeyPair(remoteKey);
+            agreementMethod = 
+                new AgreementMethod(document, encAlgo, originatorKeyPair.getPublic());
+            SecretKey keyEncryptionKey = 
+                agreementMethod.getKeyEncryptionKey(
+                    originatorKeyPair.getPrivate(), remoteKey, encAlgo
+                );
+            this.encryptedEphemeralKey = wrapKey(keyBytes, keyEncryptionKey, encAlgo);
+        } else {
+            this.encryptedEphemeralKey = encryptKey(keyBytes, remoteKey);
         }
         Text keyText = 
             WSSecurityUtil.createBase64EncodedTextNode(document, this.encryptedEphemeralKey);
@@ -251,7 +240,7 @@ public class WSSecEncryptedKey extends WSSecBase {
         // 4) Create the CipherValue element structure and insert the encrypted
         // session key
         //
-        encryptedKeyElement = createEncryptedKey(document, keyEncAlgo);
+        encryptedKeyElement = createEncryptedKey(document, encAlgo);
         if(this.encKeyId == null || "".equals(this.encKeyId)) {
             this.encKeyId = "EncKeyId-" + UUIDGenerator.getUUID();
         }
@@ -293,6 +282,7 @@ public class WSSecEncryptedKey extends WSSecBase {
             Reference ref = new Reference(document);
             ref.setURI("#" + certUri);
             bstToken = new X509Security(document);
+            bstToken.setAttachmentCallbackHandler(attachmentCallbackHandler);
             ((X509Security) bstToken).setX509Certificate(remoteCert);
             bstToken.setID(certUri);
             ref.setValueType(bstToken.getValueType());
@@ -306,7 +296,12 @@ public class WSSecEncryptedKey extends WSSecBase {
         default:
             throw new WSSecurityException(WSSecurityException.FAILURE, "unsupportedKeyId");
         }
-        keyInfo.addUnknownElement(secToken.getElement());
+        if (agreementMethod != null) {
+            agreementMethod.setRecipientKeyInfo(secToken.getElement());
+            keyInfo.addUnknownElement(agreementMethod.getElement());
+        } else {
+            keyInfo.addUnknownElement(secToken.getElement());
+        }
         Element keyInfoElement = keyInfo.getElement();
         keyInfoElement.setAttributeNS(
             WSConstants.XMLNS_NS, "xmlns:" + WSConstants.SIG_PREFIX, WSConstants.SIG_NS
@@ -322,6 +317,88 @@ public class WSSecEncryptedKey extends WSSecBase {
         );
     }
 
+    /**
+     * Encrypt the symmetric key with the key transport algorithm.
+     * 
+     * @param keyBytes The bytes that represent the symmetric key
+     * @param remoteKey The public key of the recipient
+     * @return the encrypted symmetric key
+     * @throws WSSecurityException
+     */
+    protected byte[] encryptKey(byte[] keyBytes, PublicKey remoteKey) 
+        throws WSSecurityException {
+        Cipher cipher = WSSecurityUtil.getCipherInstance(keyEncAlgo);
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, remoteKey);
+        } catch (InvalidKeyException e) {
+            throw new WSSecurityException(
+                WSSecurityException.FAILED_ENCRYPTION, null, null, e
+            );
+        }
+        if (doDebug) {
+            log.debug(
+                "cipher blksize: " + cipher.getBlockSize()
+                + ", symm key length: " + keyBytes.length
+            );
+        }
+        int blockSize = cipher.getBlockSize();
+        if (blockSize > 0 && blockSize < keyBytes.length) {
+            throw new WSSecurityException(
+                WSSecurityException.FAILURE,
+                "unsupportedKeyTransp",
+                new Object[] {"public key algorithm too weak to encrypt symmetric key"}
+            );
+        }
+        
+        try {
+            return cipher.doFinal(keyBytes);
+        } catch (IllegalStateException e1) {
+            throw new WSSecurityException(
+                WSSecurityException.FAILED_ENCRYPTION, null, null, e1
+            );
+        } catch (IllegalBlockSizeException e1) {
+            throw new WSSecurityException(
+                WSSecurityException.FAILED_ENCRYPTION, null, null, e1
+            );
+        } catch (BadPaddingException e1) {
+            throw new WSSecurityException(
+                WSSecurityException.FAILED_ENCRYPTION, null, null, e1
+            );
+        }
+    }
+
+    /**
+     * Wrap the symmetric key with an agreed key encryption key.
+     * 
+     * @param keyBytes The bytes that represent the symmetric key
+     * @param keyEncryptionKey The key encryption key
+     * @param wrapAlgo The key wrap algorithm
+     * @return the wrapped symmetric key
+     * @throws WSSecurityException
+     */
+    protected byte[] wrapKey(byte[] keyBytes, SecretKey keyEncryptionKey, String wrapAlgo) 
+        throws WSSecurityException {
+        Cipher cipher = WSSecurityUtil.getCipherInstance(wrapAlgo);
+        try {
+            cipher.init(Cipher.WRAP_MODE, keyEncryptionKey);
+            return cipher.wrap(new SecretKeySpec(keyBytes, "AES"));
+        } catch (InvalidKeyException e) {
+            throw new WSSecurityException(
+                WSSecurityException.FAILED_ENCRYPTION, null, null, e
+            );
+        } catch (IllegalBlockSizeException e) {
+            throw new WSSecurityException(
+                WSSecurityException.FAILED_ENCRYPTION, null, null, e
+            );
+        }
+    }
+
+    private static boolean isKeyWrap(String algorithm) {
+        return WSConstants.KEYWRAP_AES128.equals(algorithm)
+            || WSConstants.KEYWRAP_AES192.equals(algorithm)
+            || WSConstants.KEYWRAP_AES256.equals(algorithm);
+    }
+
     /**
      * Create an ephemeral key
      * 
@@ -329,14 +406,8 @@ public class WSSecEncryptedKey extends WSSecBase {
      * @throws WSSecurityException
      */
     protected byte[] generateEphemeralKey() throws WSSecurityException {
-        try {     
-            final SecureRandom r = WSSecurityUtil.resolveSecureRandom();
-            if (r == null) {
-                throw new WSSecurityException("Random generator is not initialzed.");
-            }
-            byte[] temp = new byte[this.keySize / 8];
-            r.nextBytes(temp);
-            return temp;
+        try {
+            return SecureRandomSource.getInstance().nextBytes(this.keySize / 8);
         } catch (Exception e) {
             throw new WSSecurityException("Error in creating the ephemeral key", e);
         }
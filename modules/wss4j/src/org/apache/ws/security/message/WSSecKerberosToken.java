@@ -27,6 +27,7 @@ import org.apache.ws.security.message.token.Reference;
 import org.apache.ws.security.message.token.SecurityTokenReference;
 import org.apache.ws.security.util.SecurityUtil;
 import org.apache.ws.security.util.WSSecurityUtil;
+import org.apache.ws.security.util.XOPUtil;
 import org.apache.xml.security.algorithms.SignatureAlgorithm;
 import org.apache.xml.security.exceptions.XMLSecurityException;
 import org.apache.xml.security.signature.XMLSignature;
@@ -315,6 +316,7 @@ public class WSSecKerberosToken extends WSSecSignature {
 	 * 
 	 */
 	public void computeSignature() throws WSSecurityException {
+		XOPUtil.checkSignedReferences(document, sig);
 		WSDocInfoStore.store(wsDocInfo);
 		try {
 			sig.sign(sessionKey);
@@ -25,6 +25,8 @@ import java.security.cert.X509Certificate;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -43,7 +45,10 @@ import org.apache.ws.security.message.token.X509Security;
 import org.apache.ws.security.saml.SAMLUtil;
 import org.apache.ws.security.transform.STRTransform;
 import org.apache.ws.security.util.Base64;
+import org.apache.ws.security.util.PartResolver;
+import org.apache.ws.security.util.SecurityFuture;
 import org.apache.ws.security.util.WSSecurityUtil;
+import org.apache.ws.security.util.XOPUtil;
 import org.apache.xml.security.algorithms.SignatureAlgorithm;
 import org.apache.xml.security.c14n.Canonicalizer;
 import org.apache.xml.security.exceptions.XMLSecurityException;
@@ -327,19 +332,7 @@ public class WSSecSignature extends WSSecBase {
             // data stored in the certificate.
             //
             if (sigAlgo == null) {
-                String pubKeyAlgo = certs[0].getPublicKey().getAlgorithm();
-                log.debug("automatic sig algo detection: " + pubKeyAlgo);
-                if (pubKeyAlgo.equalsIgnoreCase("DSA")) {
-                    sigAlgo = XMLSignature.ALGO_ID_SIGNATURE_DSA;
-                } else if (pubKeyAlgo.equalsIgnoreCase("RSA")) {
-                    sigAlgo = XMLSignature.ALGO_ID_SIGNATURE_RSA;
-                } else {
-                    throw new WSSecurityException(
-                        WSSecurityException.FAILURE,
-                        "unknownSignatureAlgorithm",
-                        new Object[] {pubKeyAlgo}
-                    );
-                }
+                sigAlgo = WSSecurityUtil.getSignatureAlgorithm(certs[0].getPublicKey());
             }
         }
 
@@ -399,9 +392,11 @@ public class WSSecSignature extends WSSecBase {
             ref.setURI("#" + certUri);
             if (!useSingleCert) {
                 bstToken = new PKIPathSecurity(document);
+                bstToken.setAttachmentCallbackHandler(attachmentCallbackHandler);
                 ((PKIPathSecurity) bstToken).setX509Certificates(certs, false, crypto);
             } else {
                 bstToken = new X509Security(document);
+                bstToken.setAttachmentCallbackHandler(attachmentCallbackHandler);
                 ((X509Security) bstToken).setX509Certificate(certs[0]);
             }
             ref.setValueType(bstToken.getValueType());
@@ -527,6 +522,7 @@ public class WSSecSignature extends WSSecBase {
     public void addReferencesToSign(Vector references, WSSecHeader secHeader)
         throws WSSecurityException {
         Element envelope = document.getDocumentElement();
+        PartResolver resolver = new PartResolver(document, references);
 
         for (int part = 0; part < references.size(); part++) {
             WSEncryptionPart encPart = (WSEncryptionPart) references.get(part);
@@ -546,16 +542,7 @@ public class WSSecSignature extends WSSecBase {
             Transforms transforms = new Transforms(document);
             try {
                 if (idToSign != null) {
-                    Element toSignById = 
-                        WSSecurityUtil.findElementById(
-                            document.getDocumentElement(), idToSign, WSConstants.WSU_NS
-                        );
-                    if (toSignById == null) {
-                        toSignById = 
-                            WSSecurityUtil.findElementById(
-                                document.getDocumentElement(), idToSign, null
-                            );
-                    }
+                    Element toSignById = resolver.getElement(encPart);
                     if(SecurityTokenReference.SECURITY_TOKEN_REFERENCE.equals(elemName)){
                         Element ctx = createSTRParameter(document);
                         transforms.addTransform(STRTransform.implementedTransformURI, ctx);
@@ -598,8 +585,7 @@ public class WSSecSignature extends WSSecBase {
                     String id = null;
                     id = SAMLUtil.getAssertionId(envelope, elemName, nmSpace);
 
-                    Element body = 
-                        (Element) WSSecurityUtil.findElement(envelope, elemName, nmSpace);
+                    Element body = resolver.getElement(encPart);
                     if (body == null) {
                         throw new WSSecurityException(
                             WSSecurityException.FAILURE, "noEncElement",
@@ -618,8 +604,7 @@ public class WSSecSignature extends WSSecBase {
                     body.setAttributeNS(WSConstants.WSU_NS, prefix + ":Id", id);
                     sig.addDocument("#" + id, transforms, digestAlgo);
                 } else {
-                    Element body = 
-                        (Element)WSSecurityUtil.findElement(envelope, elemName, nmSpace);
+                    Element body = resolver.getElement(encPart);
                     if (body == null) {
                         throw new WSSecurityException(
                             WSSecurityException.FAILURE, 
@@ -733,6 +718,7 @@ public class WSSecSignature extends WSSecBase {
      * @throws WSSecurityException
      */
     public void computeSignature() throws WSSecurityException {
+        XOPUtil.checkSignedReferences(document, sig);
         boolean remove = WSDocInfoStore.store(wsDocInfo);
         try {
             if (keyIdentifierType == WSConstants.UT_SIGNING ||
@@ -818,6 +804,41 @@ public class WSSecSignature extends WSSecBase {
         return doc;
     }
 
+    /**
+     * Builds the signed SOAP envelope on the executor of the WSSConfig.
+     *
+     * @see #buildAsync(Document, Crypto, WSSecHeader, Executor)
+     */
+    public SecurityFuture<Document> buildAsync(
+        Document doc, Crypto cr, WSSecHeader secHeader
+    ) {
+        return buildAsync(doc, cr, secHeader, wssConfig.getExecutor());
+    }
+
+    /**
+     * Runs {@link #build(Document, Crypto, WSSecHeader)} on an executor, so 
+     * that the calling thread does not block on the private key operations. <p/>
+     * 
+     * The document and this builder belong to the build until the returned 
+     * future is done: the caller must not access them before. To build several
+     * messages concurrently, use one builder per message.
+     * 
+     * @param doc the SOAP envelope as <code>Document</code>
+     * @param cr an instance of the Crypto API to handle keystore and certificates
+     * @param secHeader the security header element
+     * @param executor the executor to build the envelope on
+     * @return the pending signed SOAP envelope
+     */
+    public SecurityFuture<Document> buildAsync(
+        final Document doc, final Crypto cr, final WSSecHeader secHeader, Executor executor
+    ) {
+        return SecurityFuture.submit(executor, new Callable<Document>() {
+            public Document call() throws WSSecurityException {
+                return build(doc, cr, secHeader);
+            }
+        });
+    }
+
     protected Element createSTRParameter(Document doc) {
         Element transformParam = 
             doc.createElementNS(
@@ -36,6 +36,7 @@ import org.apache.ws.security.message.token.X509Security;
 import org.apache.ws.security.saml.SAMLUtil;
 import org.apache.ws.security.transform.STRTransform;
 import org.apache.ws.security.util.WSSecurityUtil;
+import org.apache.ws.security.util.XOPUtil;
 import org.apache.xml.security.algorithms.SignatureAlgorithm;
 import org.apache.xml.security.c14n.Canonicalizer;
 import org.apache.xml.security.exceptions.XMLSecurityException;
@@ -265,21 +266,7 @@ public class WSSignEnvelope extends WSBaseMessage {
             }
             certUri = wssConfig.getIdAllocator().createSecureId("CertId-", certs[0]);  
             if (sigAlgo == null) {
-                String pubKeyAlgo = certs[0].getPublicKey().getAlgorithm();
-                log.debug("automatic sig algo detection: " + pubKeyAlgo);
-                if (pubKeyAlgo.equalsIgnoreCase("DSA")) {
-                    sigAlgo = XMLSignature.ALGO_ID_SIGNATURE_DSA;
-                } else if (pubKeyAlgo.equalsIgnoreCase("RSA")) {
-                    sigAlgo = XMLSignature.ALGO_ID_SIGNATURE_RSA;
-                } else {
-                    throw new WSSecurityException(
-                        WSSecurityException.FAILURE,
-                        "unknownSignatureAlgorithm",
-                        new Object[] {
-                            pubKeyAlgo
-                        }
-                    );
-                }
+                sigAlgo = WSSecurityUtil.getSignatureAlgorithm(certs[0].getPublicKey());
             }
         }
         XMLSignature sig = null;
@@ -544,6 +531,7 @@ public class WSSignEnvelope extends WSBaseMessage {
         }
         info.addUnknownElement(secRef.getElement());
 
+        XOPUtil.checkSignedReferences(doc, sig);
         boolean remove = WSDocInfoStore.store(wsDocInfo);
         try {
             if (keyIdentifierType == WSConstants.UT_SIGNING) {
@@ -0,0 +1,563 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ws.security.message.token;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.PublicKey;
+import java.security.Security;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.X509EncodedKeySpec;
+
+import javax.crypto.KeyAgreement;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.WSSecurityException;
+import org.apache.ws.security.util.Base64;
+import org.apache.ws.security.util.WSSecurityUtil;
+import org.apache.xml.security.algorithms.JCEMapper;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * The xenc:AgreementMethod of XML Encryption 1.1 with the ECDH-ES key agreement 
+ * and the ConcatKDF key derivation. It is the ds:KeyInfo of an EncryptedKey whose 
+ * key is wrapped with a key encryption key that both sides derive from their EC keys:
+ * <pre>
+ * &lt;xenc:AgreementMethod Algorithm="http://www.w3.org/2009/xmlenc11#ECDH-ES"&gt;
+ *   &lt;xenc11:KeyDerivationMethod Algorithm="http://www.w3.org/2009/xmlenc11#ConcatKDF"&gt;
+ *     &lt;xenc11:ConcatKDFParams AlgorithmID="00..." PartyUInfo="" PartyVInfo=""&gt;
+ *       &lt;ds:DigestMethod Algorithm="http://www.w3.org/2001/04/xmlenc#sha256"/&gt;
+ *     &lt;/xenc11:ConcatKDFParams&gt;
+ *   &lt;/xenc11:KeyDerivationMethod&gt;
+ *   &lt;xenc:OriginatorKeyInfo&gt;
+ *     &lt;ds:KeyValue&gt;&lt;dsig11:ECKeyValue&gt;...&lt;/dsig11:ECKeyValue&gt;&lt;/ds:KeyValue&gt;
+ *   &lt;/xenc:OriginatorKeyInfo&gt;
+ *   &lt;xenc:RecipientKeyInfo&gt;
+ *     &lt;wsse:SecurityTokenReference&gt;...&lt;/wsse:SecurityTokenReference&gt;
+ *   &lt;/xenc:RecipientKeyInfo&gt;
+ * &lt;/xenc:AgreementMethod&gt;
+ * </pre>
+ */
+public class AgreementMethod {
+
+    /**
+     * The digest method of the ConcatKDF
+     */
+    public static final String DIGEST_SHA256 = "http://www.w3.org/2001/04/xmlenc#sha256";
+
+    /**
+     * The object identifier of the id-ecPublicKey algorithm of RFC 5480
+     */
+    private static final String EC_PUBLIC_KEY_OID = "1.2.840.10045.2.1";
+    
+    private static final String OID_URN = "urn:oid:";
+
+    protected Element element = null;
+
+    /**
+     * Create an AgreementMethod for ECDH-ES that derives a key for the given key 
+     * wrap algorithm. The originator key is the public part of the ephemeral key 
+     * pair of the sender.
+     * 
+     * @param doc The DOM document
+     * @param keyWrapAlgo The key wrap algorithm of the EncryptedKey
+     * @param originatorKey The ephemeral public key of the sender
+     * @throws WSSecurityException
+     */
+    public AgreementMethod(
+        Document doc, String keyWrapAlgo, PublicKey originatorKey
+    ) throws WSSecurityException {
+        element = 
+            doc.createElementNS(
+                WSConstants.ENC_NS, 
+                WSConstants.ENC_PREFIX + ":" + WSConstants.AGREEMENT_METHOD_LN
+            );
+        WSSecurityUtil.setNamespace(element, WSConstants.ENC_NS, WSConstants.ENC_PREFIX);
+        element.setAttributeNS(null, "Algorithm", WSConstants.AGREEMENT_ECDH_ES);
+
+        Element kdm = 
+            doc.createElementNS(
+                WSConstants.ENC11_NS, WSConstants.ENC11_PREFIX + ":KeyDerivationMethod"
+            );
+        WSSecurityUtil.setNamespace(kdm, WSConstants.ENC11_NS, WSConstants.ENC11_PREFIX);
+        kdm.setAttributeNS(null, "Algorithm", WSConstants.KDF_CONCAT);
+        Element params = 
+            doc.createElementNS(
+                WSConstants.ENC11_NS, WSConstants.ENC11_PREFIX + ":ConcatKDFParams"
+            );
+        params.setAttributeNS(null, "AlgorithmID", "00" + toHex(getBytes(keyWrapAlgo)));
+        params.setAttributeNS(null, "PartyUInfo", "");
+        params.setAttributeNS(null, "PartyVInfo", "");
+        Element digestMethod = 
+            doc.createElementNS(WSConstants.SIG_NS, WSConstants.SIG_PREFIX + ":DigestMethod");
+        WSSecurityUtil.setNamespace(digestMethod, WSConstants.SIG_NS, WSConstants.SIG_PREFIX);
+        digestMethod.setAttributeNS(null, "Algorithm", DIGEST_SHA256);
+        params.appendChild(digestMethod);
+        kdm.appendChild(params);
+        element.appendChild(kdm);
+
+        //
+        // The originator key is a dsig11:ECKeyValue with the named curve and the 
+        // uncompressed point, both taken from the SubjectPublicKeyInfo
+        //
+        byte[][] spki = parseSubjectPublicKeyInfo(originatorKey.getEncoded());
+        Element originator = 
+            doc.createElementNS(WSConstants.ENC_NS, WSConstants.ENC_PREFIX + ":OriginatorKeyInfo");
+        Element keyValue = 
+            doc.createElementNS(WSConstants.SIG_NS, WSConstants.SIG_PREFIX + ":KeyValue");
+        WSSecurityUtil.setNamespace(keyValue, WSConstants.SIG_NS, WSConstants.SIG_PREFIX);
+        Element ecKeyValue = 
+            doc.createElementNS(WSConstants.SIG11_NS, WSConstants.SIG11_PREFIX + ":ECKeyValue");
+        WSSecurityUtil.setNamespace(ecKeyValue, WSConstants.SIG11_NS, WSConstants.SIG11_PREFIX);
+        Element namedCurve = 
+            doc.createElementNS(WSConstants.SIG11_NS, WSConstants.SIG11_PREFIX + ":NamedCurve");
+        namedCurve.setAttributeNS(null, "URI", OID_URN + decodeOID(spki[0]));
+        Element publicKey = 
+            doc.createElementNS(WSConstants.SIG11_NS, WSConstants.SIG11_PREFIX + ":PublicKey");
+        publicKey.appendChild(WSSecurityUtil.createBase64EncodedTextNode(doc, spki[1]));
+        ecKeyValue.appendChild(namedCurve);
+        ecKeyValue.appendChild(publicKey);
+        keyValue.appendChild(ecKeyValue);
+        originator.appendChild(keyValue);
+        element.appendChild(originator);
+    }
+
+    /**
+     * Create an AgreementMethod object from an xenc:AgreementMethod element.
+     * 
+     * @param elem The AgreementMethod element
+     * @throws WSSecurityException if the element is not an AgreementMethod or the
+     *                             algorithm is not supported
+     */
+    public AgreementMethod(Element elem) throws WSSecurityException {
+        if (!WSConstants.AGREEMENT_METHOD_LN.equals(elem.getLocalName())
+            || !WSConstants.ENC_NS.equals(elem.getNamespaceURI())) {
+            throw new WSSecurityException(
+                WSSecurityException.INVALID_SECURITY_TOKEN,
+                "badTokenType00", 
+                new Object[]{elem.getLocalName()}
+            );
+        }
+        element = elem;
+        String algorithm = getAlgorithm();
+        if (!WSConstants.AGREEMENT_ECDH_ES.equals(algorithm)) {
+            throw new WSSecurityException(
+                WSSecurityException.UNSUPPORTED_ALGORITHM,
+                "unsupportedKeyAgreement", 
+                new Object[]{algorithm}
+            );
+        }
+    }
+
+    /**
+     * Create an ephemeral key pair on the curve of the recipient's key.
+     * 
+     * @param recipientKey The EC public key of the recipient
+     * @return an ephemeral key pair
+     * @throws WSSecurityException
+     */
+    public static KeyPair generateKeyPair(PublicKey recipientKey) throws WSSecurityException {
+        byte[][] spki = parseSubjectPublicKeyInfo(recipientKey.getEncoded());
+        ECGenParameterSpec spec = new ECGenParameterSpec(decodeOID(spki[0]));
+        //
+        // Not every provider accepts a named curve, e.g. the JDK 1.4 build of 
+        // BouncyCastle, so try all providers of EC key pairs
+        //
+        Provider[] providers = Security.getProviders("KeyPairGenerator.EC");
+        GeneralSecurityException failure = null;
+        for (int i = 0; providers != null && i < providers.length; i++) {
+            try {
+                KeyPairGenerator generator = KeyPairGenerator.getInstance("EC", providers[i]);
+                generator.initialize(spec);
+                return generator.generateKeyPair();
+            } catch (GeneralSecurityException ex) {
+                failure = ex;
+            }
+        }
+        throw new WSSecurityException(
+            WSSecurityException.FAILED_ENCRYPTION, null, null, failure
+        );
+    }
+
+    /**
+     * Check whether a public key can be used with ECDH-ES.
+     * 
+     * @param key a public key
+     * @return true if the key is an EC key
+     */
+    public static boolean isAgreementKey(PublicKey key) {
+        String algorithm = key.getAlgorithm();
+        return "EC".equalsIgnoreCase(algorithm) || "ECDSA".equalsIgnoreCase(algorithm);
+    }
+
+    /**
+     * Add the key information of the recipient, a wsse:SecurityTokenReference
+     * usually, as content of the xenc:RecipientKeyInfo element.
+     * 
+     * @param keyInfo The element that identifies the recipient's key
+     */
+    public void setRecipientKeyInfo(Element keyInfo) {
+        Element recipient = 
+            element.getOwnerDocument().createElementNS(
+                WSConstants.ENC_NS, WSConstants.ENC_PREFIX + ":RecipientKeyInfo"
+            );
+        recipient.appendChild(keyInfo);
+        element.appendChild(recipient);
+    }
+
+    /**
+     * @return the xenc:RecipientKeyInfo element or null if there is none
+     */
+    public Element getRecipientKeyInfo() {
+        return 
+            WSSecurityUtil.getDirectChildElement(
+                element, "RecipientKeyInfo", WSConstants.ENC_NS
+            );
+    }
+
+    /**
+     * Get the ephemeral public key of the sender from the xenc:OriginatorKeyInfo.
+     * 
+     * @return the public key of the originator
+     * @throws WSSecurityException if the element does not contain an EC key
+     */
+    public PublicKey getOriginatorKey() throws WSSecurityException {
+        Element originator = 
+            WSSecurityUtil.getDirectChildElement(
+                element, "OriginatorKeyInfo", WSConstants.ENC_NS
+            );
+        Element keyValue = 
+            originator == null ? null 
+                : WSSecurityUtil.getDirectChildElement(originator, "KeyValue", WSConstants.SIG_NS);
+        Element ecKeyValue = 
+            keyValue == null ? null 
+                : WSSecurityUtil.getDirectChildElement(keyValue, "ECKeyValue", WSConstants.SIG11_NS);
+        Element namedCurve = 
+            ecKeyValue == null ? null 
+                : WSSecurityUtil.getDirectChildElement(ecKeyValue, "NamedCurve", WSConstants.SIG11_NS);
+        Element publicKey = 
+            ecKeyValue == null ? null 
+                : WSSecurityUtil.getDirectChildElement(ecKeyValue, "PublicKey", WSConstants.SIG11_NS);
+        if (namedCurve == null || publicKey == null) {
+            throw new WSSecurityException(
+                WSSecurityException.INVALID_SECURITY,
+                "invalidAgreementMethod",
+                new Object[] {"no dsig11:ECKeyValue in xenc:OriginatorKeyInfo"}
+            );
+        }
+        String uri = namedCurve.getAttributeNS(null, "URI");
+        if (!uri.startsWith(OID_URN)) {
+            throw new WSSecurityException(
+                WSSecurityException.INVALID_SECURITY,
+                "invalidAgreementMethod",
+                new Object[] {"unsupported curve " + uri}
+            );
+        }
+        byte[] point = Base64.decode(publicKey);
+        byte[] encoded = 
+            encodeSubjectPublicKeyInfo(encodeOID(uri.substring(OID_URN.length())), point);
+        try {
+            return KeyFactory.getInstance("EC").generatePublic(new X509EncodedKeySpec(encoded));
+        } catch (GeneralSecurityException ex) {
+            throw new WSSecurityException(
+                WSSecurityException.INVALID_SECURITY, 
+                "invalidAgreementMethod", 
+                new Object[] {"invalid originator key"}, 
+                ex
+            );
+        }
+    }
+
+    /**
+     * Compute the key encryption key. The shared secret of the ECDH key agreement 
+     * is passed through the ConcatKDF of the KeyDerivationMethod to get a key of 
+     * the size that the key wrap algorithm requires.
+     * 
+     * @param privateKey The private key of one side
+     * @param publicKey The public key of the other side
+     * @param keyWrapAlgo The key wrap algorithm of the EncryptedKey
+     * @return the AES key encryption key
+     * @throws WSSecurityException
+     */
+    public SecretKey getKeyEncryptionKey(
+        PrivateKey privateKey, PublicKey publicKey, String keyWrapAlgo
+    ) throws WSSecurityException {
+        Element kdm = 
+            WSSecurityUtil.getDirectChildElement(
+                element, "KeyDerivationMethod", WSConstants.ENC11_NS
+            );
+        if (kdm == null || !WSConstants.KDF_CONCAT.equals(kdm.getAttributeNS(null, "Algorithm"))) {
+            throw new WSSecurityException(
+                WSSecurityException.UNSUPPORTED_ALGORITHM,
+                "invalidAgreementMethod",
+                new Object[] {"unsupported key derivation method"}
+            );
+        }
+        Element params = 
+            WSSecurityUtil.getDirectChildElement(kdm, "ConcatKDFParams", WSConstants.ENC11_NS);
+        Element digestMethod = 
+            params == null ? null 
+                : WSSecurityUtil.getDirectChildElement(params, "DigestMethod", WSConstants.SIG_NS);
+        if (digestMethod == null) {
+            throw new WSSecurityException(
+                WSSecurityException.INVALID_SECURITY,
+                "invalidAgreementMethod",
+                new Object[] {"no xenc11:ConcatKDFParams/ds:DigestMethod"}
+            );
+        }
+        String digestURI = digestMethod.getAttributeNS(null, "Algorithm");
+        String digestAlgo = JCEMapper.translateURItoJCEID(digestURI);
+        if (digestAlgo == null) {
+            throw new WSSecurityException(
+                WSSecurityException.UNSUPPORTED_ALGORITHM,
+                "invalidAgreementMethod",
+                new Object[] {"unsupported digest method " + digestURI}
+            );
+        }
+        int keyLength = WSSecurityUtil.getKeyLength(keyWrapAlgo);
+
+        try {
+            KeyAgreement agreement = KeyAgreement.getInstance("ECDH");
+            agreement.init(privateKey);
+            //
+            // The keys may come from different providers, translate the public key
+            // for the provider of the key agreement
+            //
+            PublicKey translatedKey = 
+                KeyFactory.getInstance("EC", agreement.getProvider()).generatePublic(
+                    new X509EncodedKeySpec(publicKey.getEncoded())
+                );
+            agreement.doPhase(translatedKey, true);
+            byte[] secret = agreement.generateSecret();
+
+            //
+            // OtherInfo is the concatenation of the bit strings of the parameters,
+            // without the first octet that counts the padding bits
+            //
+            ByteArrayOutputStream otherInfo = new ByteArrayOutputStream();
+            String[] names = {"AlgorithmID", "PartyUInfo", "PartyVInfo"};
+            for (int i = 0; i < names.length; i++) {
+                byte[] value = fromHex(params.getAttributeNS(null, names[i]));
+                if (value.length > 1) {
+                    otherInfo.write(value, 1, value.length - 1);
+                }
+            }
+            byte[] info = otherInfo.toByteArray();
+
+            MessageDigest digest = MessageDigest.getInstance(digestAlgo);
+            byte[] key = new byte[keyLength];
+            int offset = 0;
+            for (int counter = 1; offset < keyLength; counter++) {
+                digest.reset();
+                digest.update(
+                    new byte[] {
+                        (byte) (counter >>> 24), (byte) (counter >>> 16), 
+                        (byte) (counter >>> 8), (byte) counter
+                    }
+                );
+                digest.update(secret);
+                digest.update(info);
+                byte[] hash = digest.digest();
+                int length = Math.min(hash.length, keyLength - offset);
+                System.arraycopy(hash, 0, key, offset, length);
+                offset += length;
+            }
+            return new SecretKeySpec(key, "AES");
+        } catch (GeneralSecurityException ex) {
+            throw new WSSecurityException(WSSecurityException.FAILED_CHECK, null, null, ex);
+        } catch (IllegalArgumentException ex) {
+            throw new WSSecurityException(
+                WSSecurityException.INVALID_SECURITY,
+                "invalidAgreementMethod",
+                new Object[] {ex.getMessage()}
+            );
+        }
+    }
+
+    /**
+     * @return the Algorithm attribute of the AgreementMethod
+     */
+    public String getAlgorithm() {
+        return element.getAttributeNS(null, "Algorithm");
+    }
+
+    /**
+     * @return the xenc:AgreementMethod element
+     */
+    public Element getElement() {
+        return element;
+    }
+
+    /**
+     * Split a SubjectPublicKeyInfo of an EC key into the DER encoded object 
+     * identifier of the named curve and the EC point.
+     */
+    private static byte[][] parseSubjectPublicKeyInfo(byte[] encoded) 
+        throws WSSecurityException {
+        int[] offset = new int[1];
+        // SEQUENCE SubjectPublicKeyInfo, SEQUENCE AlgorithmIdentifier
+        if (readHeader(encoded, offset, 0x30) >= 0 && readHeader(encoded, offset, 0x30) >= 0) {
+            // OBJECT IDENTIFIER id-ecPublicKey
+            int length = readHeader(encoded, offset, 0x06);
+            offset[0] += length;
+            // OBJECT IDENTIFIER namedCurve
+            length = readHeader(encoded, offset, 0x06);
+            if (length > 0 && offset[0] + length <= encoded.length) {
+                byte[] curve = new byte[length];
+                System.arraycopy(encoded, offset[0], curve, 0, length);
+                offset[0] += length;
+                // BIT STRING subjectPublicKey, skip the number of unused bits
+                length = readHeader(encoded, offset, 0x03);
+                if (length > 1 && offset[0] + length <= encoded.length) {
+                    byte[] point = new byte[length - 1];
+                    System.arraycopy(encoded, offset[0] + 1, point, 0, point.length);
+                    return new byte[][] {curve, point};
+                }
+            }
+        }
+        throw new WSSecurityException(
+            WSSecurityException.FAILURE,
+            "invalidAgreementMethod",
+            new Object[] {"the key is not an EC key on a named curve"}
+        );
+    }
+
+    private static byte[] encodeSubjectPublicKeyInfo(byte[] curve, byte[] point) {
+        ByteArrayOutputStream algorithm = new ByteArrayOutputStream();
+        writeTLV(algorithm, 0x06, encodeOID(EC_PUBLIC_KEY_OID));
+        writeTLV(algorithm, 0x06, curve);
+        byte[] bitString = new byte[point.length + 1];
+        System.arraycopy(point, 0, bitString, 1, point.length);
+        ByteArrayOutputStream spki = new ByteArrayOutputStream();
+        writeTLV(spki, 0x30, algorithm.toByteArray());
+        writeTLV(spki, 0x03, bitString);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeTLV(out, 0x30, spki.toByteArray());
+        return out.toByteArray();
+    }
+
+    private static int readHeader(byte[] encoded, int[] offset, int tag) {
+        if (offset[0] + 2 > encoded.length || encoded[offset[0]++] != tag) {
+            return -1;
+        }
+        int length = encoded[offset[0]++] & 0xff;
+        if (length > 0x80) {
+            int count = length - 0x80;
+            length = 0;
+            for (int i = 0; i < count && offset[0] < encoded.length; i++) {
+                length = (length << 8) | (encoded[offset[0]++] & 0xff);
+            }
+        }
+        return length;
+    }
+
+    private static void writeTLV(ByteArrayOutputStream out, int tag, byte[] value) {
+        out.write(tag);
+        if (value.length >= 0x100) {
+            out.write(0x82);
+            out.write(value.length >>> 8);
+        } else if (value.length >= 0x80) {
+            out.write(0x81);
+        }
+        out.write(value.length & 0xff);
+        out.write(value, 0, value.length);
+    }
+
+    private static String decodeOID(byte[] oid) {
+        StringBuffer sb = new StringBuffer();
+        long value = 0;
+        for (int i = 0; i < oid.length; i++) {
+            value = (value << 7) | (oid[i] & 0x7f);
+            if ((oid[i] & 0x80) == 0) {
+                if (sb.length() == 0) {
+                    int first = (int) Math.min(value / 40, 2);
+                    sb.append(first).append('.').append(value - 40 * first);
+                } else {
+                    sb.append('.').append(value);
+                }
+                value = 0;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static byte[] encodeOID(String oid) {
+        String[] arcs = oid.split("\\.");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 1; i < arcs.length; i++) {
+            long value = Long.parseLong(arcs[i]);
+            if (i == 1) {
+                value += 40 * Long.parseLong(arcs[0]);
+            }
+            int shift = 0;
+            while ((value >>> (shift + 7)) != 0) {
+                shift += 7;
+            }
+            for (; shift > 0; shift -= 7) {
+                out.write((int) ((value >>> shift) & 0x7f) | 0x80);
+            }
+            out.write((int) (value & 0x7f));
+        }
+        return out.toByteArray();
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuffer sb = new StringBuffer(bytes.length * 2);
+        for (int i = 0; i < bytes.length; i++) {
+            sb.append(Character.forDigit((bytes[i] >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(bytes[i] & 0xf, 16));
+        }
+        return sb.toString().toUpperCase();
+    }
+
+    private static byte[] fromHex(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("invalid hexBinary value " + hex);
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("invalid hexBinary value " + hex);
+            }
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+
+    private static byte[] getBytes(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            return value.getBytes();
+        }
+    }
+}
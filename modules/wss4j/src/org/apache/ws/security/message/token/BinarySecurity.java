@@ -22,17 +22,23 @@ package org.apache.ws.security.message.token;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.WSSConfig;
 import org.apache.ws.security.WSSecurityException;
 import org.apache.ws.security.util.DOM2Writer;
 import org.apache.ws.security.util.WSSecurityUtil;
 import org.apache.ws.security.util.Base64;
+import org.apache.ws.security.util.XOPUtil;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.Text;
 
+import javax.security.auth.callback.CallbackHandler;
 import javax.xml.namespace.QName;
 
+import java.io.IOException;
+import java.io.OutputStream;
+
 /**
  * Binary Security Token.
  * 
@@ -44,8 +50,20 @@ public class BinarySecurity {
     public static final QName TOKEN_KI = new QName(WSConstants.WSSE_NS, "KeyIdentifier");
     public static final String BASE64_ENCODING = WSConstants.SOAPMESSAGE_NS + "#Base64Binary";
     private static final Log LOG = LogFactory.getLog(BinarySecurity.class.getName());
+
+    /**
+     * The key of the user data of the element that holds the token data of an
+     * <code>xop:Include</code>
+     */
+    private static final String ATTACHMENT_DATA = BinarySecurity.class.getName() + ".data";
+
     protected Element element = null;
 
+    /**
+     * Creates attachments for the token data, if set
+     */
+    protected CallbackHandler attachmentCallbackHandler = null;
+
     /**
      * Constructor.
      * 
@@ -143,17 +161,16 @@ public class BinarySecurity {
      * @return the byte array containing token information
      */
     public byte[] getToken() {
-        Node node = element.getFirstChild();
-        StringBuffer buffer = new StringBuffer();
-        while (node != null) {
-            if (Node.TEXT_NODE == node.getNodeType()) {
-                buffer.append(((Text)node).getData());
+        Element include = XOPUtil.getInclude(element);
+        if (include != null) {
+            byte[] data = (byte[]) element.getUserData(ATTACHMENT_DATA);
+            if (data == null) {
+                LOG.debug("The token data of an xop:Include has not been resolved");
             }
-            node = node.getNextSibling();
+            return data;
         }
-                
         try {
-            return Base64.decode(buffer.toString());
+            return Base64.decode(element);
         } catch (Exception ex) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug(ex.getMessage(), ex);
@@ -175,6 +192,77 @@ public class BinarySecurity {
         node.setData(Base64.encode(data));
     }
 
+    /**
+     * Set the token information. If an attachment callback handler was set, 
+     * the data is written to an attachment that an <code>xop:Include</code>
+     * references, otherwise it is Base64 encoded into the element.
+     * 
+     * @param data 
+     * @param attachmentCallbackHandler the callback handler that creates the
+     *        attachment, or <code>null</code>
+     * @throws WSSecurityException if the attachment could not be created
+     */
+    public void setToken(byte[] data, CallbackHandler attachmentCallbackHandler) 
+        throws WSSecurityException {
+        if (attachmentCallbackHandler == null) {
+            setToken(data);
+            return;
+        }
+        if (data == null) {
+            throw new IllegalArgumentException("data == null");
+        }
+        String contentId = XOPUtil.createContentId();
+        OutputStream out = 
+            XOPUtil.createAttachment(
+                contentId, "application/octet-stream", attachmentCallbackHandler
+            );
+        try {
+            out.write(data);
+            out.close();
+        } catch (IOException ex) {
+            throw new WSSecurityException(
+                WSSecurityException.FAILURE, "noAttachment", new Object[] {contentId}, ex
+            );
+        }
+        Text node = getFirstNode();
+        if (node != null) {
+            element.removeChild(node);
+        }
+        element.appendChild(XOPUtil.createInclude(element.getOwnerDocument(), contentId));
+        element.setUserData(ATTACHMENT_DATA, data, null);
+    }
+
+    /**
+     * Set the callback handler that creates an attachment for the token data
+     * when it is set.
+     * 
+     * @param attachmentCallbackHandler 
+     */
+    public void setAttachmentCallbackHandler(CallbackHandler attachmentCallbackHandler) {
+        this.attachmentCallbackHandler = attachmentCallbackHandler;
+    }
+
+    /**
+     * Get the token data of an <code>xop:Include</code> from its attachment. 
+     * The data is kept with the element, so that later instances of a token 
+     * for this element get it with {@link #getToken()}. Nothing is done if 
+     * the data is Base64 encoded into the element.
+     * 
+     * @param cb the callback handler that provides the attachment
+     * @param wsc the WSSConfig with the maximum attachment size, or 
+     *            <code>null</code> for the default WSSConfig
+     * @throws WSSecurityException if the attachment is not available or too large
+     */
+    public void resolveAttachment(CallbackHandler cb, WSSConfig wsc) 
+        throws WSSecurityException {
+        Element include = XOPUtil.getInclude(element);
+        if (include != null && element.getUserData(ATTACHMENT_DATA) == null) {
+            element.setUserData(
+                ATTACHMENT_DATA, XOPUtil.getAttachmentBytes(include, cb, wsc), null
+            );
+        }
+    }
+
     /**
      * return the first text node.
      * 
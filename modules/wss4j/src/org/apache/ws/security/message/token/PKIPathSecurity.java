@@ -94,7 +94,7 @@ public class PKIPathSecurity extends BinarySecurity {
             throw new WSSecurityException(WSSecurityException.FAILURE, "noCert");
         }
         byte[] data = crypto.getCertificateData(reverse, certs);
-        setToken(data);
+        setToken(data, attachmentCallbackHandler);
     }
 
     public static String getType() {
@@ -194,13 +194,20 @@ public class SecurityTokenReference {
 	}
 
 	private Element findTokenElement(Document doc, WSDocInfo docInfo, CallbackHandler cb,
-			String uri, String type) {
+			String uri, String type) throws WSSecurityException {
 		Element tokElement = null;
 		String id = uri;
 		if (id.charAt(0) == '#') {
 			id = id.substring(1);
 		}
 		//
+		// If the processing of the token was deferred, process it now, so that
+		// it is validated before its key is used
+		//
+		if (docInfo != null) {
+			docInfo.resolveProcessor(id);
+		}
+		//
 		// If the type is a SAMLAssertionID then find the SAML assertion - first check
 		// if it has been previously processed, else search the header for it
 		//
@@ -221,6 +228,9 @@ public class SecurityTokenReference {
 					tokElement = sa;
 				}
 			}
+			if (tokElement == null) {
+				tokElement = docInfo.getSAMLAssertionRegistry().getElement(id);
+			}
 			if (tokElement == null) {
 				Node assertion = WSSecurityUtil.findSAMLAssertionElementById(
 						doc.getDocumentElement(), id);
@@ -243,6 +253,9 @@ public class SecurityTokenReference {
 				if (saID.equals(id))
 					tokElement = sa;
 			}
+			if (tokElement == null) {
+				tokElement = docInfo.getSAMLAssertionRegistry().getElement(id);
+			}
 			if (tokElement == null) {
 				Node assertion = WSSecurityUtil.findSAMLAssertionElementById(
 						doc.getDocumentElement(), id);
@@ -442,7 +455,7 @@ public class SecurityTokenReference {
 				return null;
 			}
 			if (node.getNodeType() == Node.TEXT_NODE) {
-				byte[] thumb = Base64.decode(((Text) node).getData());
+				byte[] thumb = Base64.decode(node);
 				alias = crypto.getAliasForX509CertThumb(thumb);
 			}
 		}
@@ -498,7 +511,7 @@ public class SecurityTokenReference {
 		}
 		if (node.getNodeType() == Node.TEXT_NODE) {
 			try {
-				skiBytes = Base64.decode(((Text) node).getData());
+				skiBytes = Base64.decode(node);
 			} catch (WSSecurityException e) {
 				return null;
 			}
@@ -23,18 +23,17 @@ import org.apache.ws.security.WSConstants;
 import org.apache.ws.security.WSSecurityException;
 import org.apache.ws.security.util.DOM2Writer;
 import org.apache.ws.security.util.WSSecurityUtil;
-import org.apache.ws.security.util.XmlSchemaDateFormat;
+import org.apache.ws.security.util.XmlSchemaDateTime;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.Text;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.text.DateFormat;
 import java.util.Calendar;
-import java.util.TimeZone;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Timestamp according to SOAP Message Security 1.0,
@@ -44,10 +43,23 @@ import java.util.Vector;
  */
 public class Timestamp {
 
+    /**
+     * The value of <code>getCreatedTime</code> and <code>getExpiresTime</code>
+     * if the element is not present
+     */
+    public static final long UNDEFINED = Long.MIN_VALUE;
+
+    /**
+     * Whether a subclass overrides getCurrentTime, of the form <Class, Boolean>
+     */
+    private static final Map currentTimeOverrides = new ConcurrentHashMap();
+
     protected Element element = null;
     protected Vector customElements = null;
     protected Calendar created;
     protected Calendar expires;
+    protected long createdTime = UNDEFINED;
+    protected long expiresTime = UNDEFINED;
     
     /**
      * Constructs a <code>Timestamp</code> object and parses the
@@ -93,15 +105,12 @@ public class Timestamp {
             }
         }
 
-        DateFormat zulu = new XmlSchemaDateFormat();
         try {
             if (strCreated != null) {
-                created = Calendar.getInstance();
-                created.setTime(zulu.parse(strCreated));
+                createdTime = XmlSchemaDateTime.parse(strCreated);
             }
             if (strExpires != null) {
-                expires = Calendar.getInstance();
-                expires.setTime(zulu.parse(strExpires));
+                expiresTime = XmlSchemaDateTime.parse(strExpires);
             }
         } catch (ParseException e) {
             throw new WSSecurityException(
@@ -127,44 +136,70 @@ public class Timestamp {
             );
         WSSecurityUtil.setNamespace(element, WSConstants.WSU_NS, WSConstants.WSU_PREFIX);
 
-        DateFormat zulu = null;
-        if (milliseconds) {
-            zulu = new XmlSchemaDateFormat();
-        } else {
-            zulu = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-            zulu.setTimeZone(TimeZone.getTimeZone("UTC"));
-        }
-        created = getCurrentTime();
+        createdTime = currentTimeMillis();
 
         Element elementCreated =
                 doc.createElementNS(
                     WSConstants.WSU_NS, WSConstants.WSU_PREFIX + ":" + WSConstants.CREATED_LN
                 );
-        elementCreated.appendChild(doc.createTextNode(zulu.format(created.getTime())));
+        elementCreated.appendChild(
+            doc.createTextNode(XmlSchemaDateTime.format(createdTime, milliseconds))
+        );
         element.appendChild(elementCreated);
         if (ttl != 0) {
-            long currentTime = created.getTimeInMillis();
-            currentTime += ttl * 1000;
-            expires = getCurrentTime();
-            expires.setTimeInMillis(currentTime);
+            expiresTime = createdTime + ttl * 1000L;
 
             Element elementExpires =
                     doc.createElementNS(
                         WSConstants.WSU_NS, WSConstants.WSU_PREFIX + ":" + WSConstants.EXPIRES_LN
                     );
-            elementExpires.appendChild(doc.createTextNode(zulu.format(expires.getTime())));
+            elementExpires.appendChild(
+                doc.createTextNode(XmlSchemaDateTime.format(expiresTime, milliseconds))
+            );
             element.appendChild(elementExpires);
         }
     }
 
     /**
-     * Get the current time
+     * Get the current time. A subclass may override this method to set the 
+     * creation time of a new Timestamp.
      * 
      * @return calendar the current time
      */
     protected Calendar getCurrentTime() {
         return Calendar.getInstance();
     }
+
+    /**
+     * Get the current time, used as the creation time of a new Timestamp. If a
+     * subclass overrides {@link #getCurrentTime()}, that time is used.
+     * 
+     * @return the current time in milliseconds since the epoch
+     */
+    protected long currentTimeMillis() {
+        if (getClass() != Timestamp.class && overridesGetCurrentTime(getClass())) {
+            return getCurrentTime().getTimeInMillis();
+        }
+        return System.currentTimeMillis();
+    }
+
+    private static boolean overridesGetCurrentTime(Class cls) {
+        Boolean overrides = (Boolean) currentTimeOverrides.get(cls);
+        if (overrides == null) {
+            overrides = Boolean.FALSE;
+            for (Class c = cls; c != Timestamp.class; c = c.getSuperclass()) {
+                try {
+                    c.getDeclaredMethod("getCurrentTime", new Class[0]);
+                    overrides = Boolean.TRUE;
+                    break;
+                } catch (NoSuchMethodException ex) {
+                    // not overridden here
+                }
+            }
+            currentTimeOverrides.put(cls, overrides);
+        }
+        return overrides.booleanValue();
+    }
     
     /**
      * Returns the dom element of this <code>Timestamp</code> object.
@@ -190,18 +225,44 @@ public class Timestamp {
      * @return the "created" time
      */
     public Calendar getCreated() {
+        if (created == null && createdTime != UNDEFINED) {
+            created = Calendar.getInstance();
+            created.setTimeInMillis(createdTime);
+        }
         return created;
     }
 
+    /**
+     * Get the time of creation in milliseconds since the epoch.
+     *
+     * @return the "created" time or <code>UNDEFINED</code> if there is none
+     */
+    public long getCreatedTime() {
+        return createdTime;
+    }
+
     /**
      * Get the time of expiration.
      *
      * @return the "expires" time
      */
     public Calendar getExpires() {
+        if (expires == null && expiresTime != UNDEFINED) {
+            expires = Calendar.getInstance();
+            expires.setTimeInMillis(expiresTime);
+        }
         return expires;
     }
 
+    /**
+     * Get the time of expiration in milliseconds since the epoch.
+     *
+     * @return the "expires" time or <code>UNDEFINED</code> if there is none
+     */
+    public long getExpiresTime() {
+        return expiresTime;
+    }
+
     /**
      * Creates and adds a custom element to this Timestamp
      */
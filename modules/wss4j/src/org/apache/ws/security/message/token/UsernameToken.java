@@ -25,7 +25,7 @@ import org.apache.ws.security.WSConstants;
 import org.apache.ws.security.WSSecurityException;
 import org.apache.ws.security.util.DOM2Writer;
 import org.apache.ws.security.util.WSSecurityUtil;
-import org.apache.ws.security.util.XmlSchemaDateFormat;
+import org.apache.ws.security.util.XmlSchemaDateTime;
 import org.apache.ws.security.util.Base64;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -37,11 +37,6 @@ import javax.crypto.spec.SecretKeySpec;
 import javax.xml.namespace.QName;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.text.SimpleDateFormat;
-import java.text.DateFormat;
-import java.util.Calendar;
-import java.util.TimeZone;
 
 /**
  * UsernameToken according to WS Security specifications, UsernameToken profile.
@@ -61,7 +56,6 @@ public class UsernameToken {
     
     private static final Log LOG = LogFactory.getLog(UsernameToken.class.getName());
     private static final boolean DO_DEBUG = LOG.isDebugEnabled();
-    private static SecureRandom random;
 
     protected Element element = null;
     protected Element elementUsername = null;
@@ -75,16 +69,6 @@ public class UsernameToken {
     private String rawPassword;        // enhancement by Alberto Coletti
     private boolean passwordsAreEncoded = false;
     
-    static {
-        try {
-            random = WSSecurityUtil.resolveSecureRandom();
-        } catch (NoSuchAlgorithmException e) {
-            if (DO_DEBUG) {
-                LOG.debug(e.getMessage(), e);
-            }
-        }
-    }
-    
     /**
      * Constructs a <code>UsernameToken</code> object and parses the
      * <code>wsse:UsernameToken</code> element to initialize it.
@@ -257,7 +241,7 @@ public class UsernameToken {
             return;
         }
         byte[] nonceValue = new byte[16];
-        random.nextBytes(nonceValue);
+        nextRandomBytes(nonceValue);
         elementNonce = doc.createElementNS(WSConstants.WSSE_NS, "wsse:" + WSConstants.NONCE_LN);
         elementNonce.appendChild(doc.createTextNode(Base64.encode(nonceValue)));
         elementNonce.setAttributeNS(null, "EncodingType", BASE64_ENCODING);
@@ -271,20 +255,16 @@ public class UsernameToken {
         if (elementCreated != null) {
             return;
         }
-        DateFormat zulu = null;
-        if (milliseconds) {
-            zulu = new XmlSchemaDateFormat();
-        } else {
-            zulu = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-            zulu.setTimeZone(TimeZone.getTimeZone("UTC"));
-        }
-        Calendar rightNow = Calendar.getInstance();
         elementCreated = 
             doc.createElementNS(
                 WSConstants.WSU_NS,WSConstants.WSU_PREFIX + ":" + WSConstants.CREATED_LN
             );
         WSSecurityUtil.setNamespace(element, WSConstants.WSU_NS, WSConstants.WSU_PREFIX);
-        elementCreated.appendChild(doc.createTextNode(zulu.format(rightNow.getTime())));
+        elementCreated.appendChild(
+            doc.createTextNode(
+                XmlSchemaDateTime.format(System.currentTimeMillis(), milliseconds)
+            )
+        );
         element.appendChild(elementCreated);
     }
 
@@ -801,7 +781,7 @@ public class UsernameToken {
      */
     public static byte[] generateSalt(boolean useForMac) {
         byte[] saltValue = new byte[16];
-        random.nextBytes(saltValue);
+        nextRandomBytes(saltValue);
         if (useForMac) {
             saltValue[15] = 0x01;
         } else {
@@ -810,6 +790,20 @@ public class UsernameToken {
         return saltValue;
     }
 
+    /**
+     * Fill the array with random bytes from the random source of the calling thread
+     */
+    private static void nextRandomBytes(byte[] bytes) {
+        try {
+            WSSecurityUtil.resolveSecureRandom().nextBytes(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            if (DO_DEBUG) {
+                LOG.debug(e.getMessage(), e);
+            }
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
     /**
      * P_hash as defined in RFC 2246 for TLS.
      * 
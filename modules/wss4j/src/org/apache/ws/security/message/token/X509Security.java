@@ -110,7 +110,7 @@ public class X509Security extends BinarySecurity {
         }
         cachedCert = cert;
         try {
-            setToken(cert.getEncoded());
+            setToken(cert.getEncoded(), attachmentCallbackHandler);
         } catch (CertificateEncodingException e) {
             throw new WSSecurityException(
                 WSSecurityException.SECURITY_TOKEN_UNAVAILABLE, "encodeError", null, e
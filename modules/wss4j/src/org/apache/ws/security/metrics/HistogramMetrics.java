@@ -0,0 +1,231 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ws.security.metrics;
+
+import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.handler.WSHandlerConstants;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.xml.namespace.QName;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A WSSecurityMetrics implementation that keeps histograms and counters in
+ * memory. <p/>
+ *
+ * The histograms are named "processor.{ns}localName" for the processors,
+ * "action.sender.Name" and "action.receiver.Name" for the actions,
+ * "message.sender" and "message.receiver" for whole messages and
+ * "size.sender" and "size.receiver" for message sizes. The counters are named
+ * "token.{ns}localName", "failure.code", "cache.name.hit" and "cache.name.miss".
+ */
+public class HistogramMetrics implements WSSecurityMetrics, HistogramMetricsMBean {
+
+    /**
+     * The default ObjectName used by {@link #registerMBean()}
+     */
+    public static final String DEFAULT_OBJECT_NAME = "org.apache.ws.security:type=Metrics";
+
+    private final ConcurrentHashMap histograms = new ConcurrentHashMap();
+
+    private final ConcurrentHashMap counters = new ConcurrentHashMap();
+
+    public boolean isEnabled() {
+        return true;
+    }
+
+    public void processorTime(QName token, long nanos) {
+        getHistogram("processor." + token).record(nanos);
+        increment("token." + token);
+    }
+
+    public void actionTime(int action, boolean sender, long nanos) {
+        getHistogram("action." + side(sender) + "." + getActionName(action)).record(nanos);
+    }
+
+    public void messageTime(boolean sender, long nanos) {
+        getHistogram("message." + side(sender)).record(nanos);
+    }
+
+    public void messageSize(boolean sender, long bytes) {
+        getHistogram("size." + side(sender)).record(bytes);
+    }
+
+    public void failure(int errorCode) {
+        increment("failure." + errorCode);
+    }
+
+    public void cacheAccess(String cache, boolean hit) {
+        increment("cache." + cache + (hit ? ".hit" : ".miss"));
+    }
+
+    public void limitExceeded(String limit) {
+        increment("limit." + limit);
+    }
+
+    /**
+     * Get a histogram, creating it if necessary
+     *
+     * @param name the name of the histogram
+     * @return the histogram
+     */
+    public Histogram getHistogram(String name) {
+        Histogram histogram = (Histogram) histograms.get(name);
+        if (histogram == null) {
+            histogram = new Histogram();
+            Histogram previous = 
+                (Histogram) histograms.putIfAbsent(name, histogram);
+            if (previous != null) {
+                histogram = previous;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Register this instance as an MBean with the platform MBeanServer under
+     * {@link #DEFAULT_OBJECT_NAME}
+     *
+     * @return the name of the registered MBean
+     * @throws JMException
+     */
+    public ObjectName registerMBean() throws JMException {
+        return registerMBean(DEFAULT_OBJECT_NAME);
+    }
+
+    /**
+     * Register this instance as an MBean with the platform MBeanServer
+     *
+     * @param objectName the name to register the MBean under
+     * @return the name of the registered MBean
+     * @throws JMException
+     */
+    public ObjectName registerMBean(String objectName) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(objectName);
+        server.registerMBean(this, name);
+        return name;
+    }
+
+    public String[] getHistogramNames() {
+        return sortedKeys(histograms);
+    }
+
+    public String[] getCounterNames() {
+        return sortedKeys(counters);
+    }
+
+    public long getCount(String histogram) {
+        Histogram h = (Histogram) histograms.get(histogram);
+        return h == null ? 0 : h.getCount();
+    }
+
+    public double getMean(String histogram) {
+        Histogram h = (Histogram) histograms.get(histogram);
+        return h == null ? 0.0 : h.getMean();
+    }
+
+    public long getMax(String histogram) {
+        Histogram h = (Histogram) histograms.get(histogram);
+        return h == null ? 0 : h.getMax();
+    }
+
+    public long getPercentile(String histogram, double percentile) {
+        Histogram h = (Histogram) histograms.get(histogram);
+        return h == null ? 0 : h.getPercentile(percentile);
+    }
+
+    public long getCounter(String counter) {
+        AtomicLong c = (AtomicLong) counters.get(counter);
+        return c == null ? 0 : c.get();
+    }
+
+    public double getCacheHitRate(String cache) {
+        long hits = getCounter("cache." + cache + ".hit");
+        long total = hits + getCounter("cache." + cache + ".miss");
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    public void reset() {
+        for (Iterator it = histograms.values().iterator(); it.hasNext();) {
+            ((Histogram) it.next()).reset();
+        }
+        for (Iterator it = counters.values().iterator(); it.hasNext();) {
+            ((AtomicLong) it.next()).set(0);
+        }
+    }
+
+    private void increment(String name) {
+        AtomicLong counter = (AtomicLong) counters.get(name);
+        if (counter == null) {
+            counter = new AtomicLong();
+            AtomicLong previous = 
+                (AtomicLong) counters.putIfAbsent(name, counter);
+            if (previous != null) {
+                counter = previous;
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    private static String side(boolean sender) {
+        return sender ? "sender" : "receiver";
+    }
+
+    private static String[] sortedKeys(Map map) {
+        String[] keys = (String[]) map.keySet().toArray(new String[0]);
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    /**
+     * @return the action name as used in the handler configuration, or the
+     *         action code for custom actions
+     */
+    private static String getActionName(int action) {
+        switch (action) {
+        case WSConstants.UT:
+            return WSHandlerConstants.USERNAME_TOKEN;
+        case WSConstants.SIGN:
+            return WSHandlerConstants.SIGNATURE;
+        case WSConstants.ENCR:
+            return WSHandlerConstants.ENCRYPT;
+        case WSConstants.ST_UNSIGNED:
+            return WSHandlerConstants.SAML_TOKEN_UNSIGNED;
+        case WSConstants.ST_SIGNED:
+            return WSHandlerConstants.SAML_TOKEN_SIGNED;
+        case WSConstants.TS:
+            return WSHandlerConstants.TIMESTAMP;
+        case WSConstants.UT_SIGN:
+            return WSHandlerConstants.SIGN_WITH_UT_KEY;
+        case WSConstants.SC:
+            return "SignatureConfirmation";
+        default:
+            return "0x" + Integer.toHexString(action);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ws.security.metrics;
+
+/**
+ * The management interface of {@link HistogramMetrics}. Times are reported in
+ * nanoseconds and sizes in bytes.
+ */
+public interface HistogramMetricsMBean {
+
+    /**
+     * @return the names of all histograms recorded so far
+     */
+    String[] getHistogramNames();
+
+    /**
+     * @return the names of all counters recorded so far
+     */
+    String[] getCounterNames();
+
+    long getCount(String histogram);
+
+    double getMean(String histogram);
+
+    long getMax(String histogram);
+
+    long getPercentile(String histogram, double percentile);
+
+    long getCounter(String counter);
+
+    /**
+     * @return the ratio of hits to lookups of the given cache, or 0 if there
+     *         was no lookup
+     */
+    double getCacheHitRate(String cache);
+
+    /**
+     * Reset all histograms and counters
+     */
+    void reset();
+}
@@ -0,0 +1,55 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ws.security.metrics;
+
+import javax.xml.namespace.QName;
+
+/**
+ * A WSSecurityMetrics implementation that records nothing. This is the default.
+ */
+public class NoOpMetrics implements WSSecurityMetrics {
+
+    public static final NoOpMetrics INSTANCE = new NoOpMetrics();
+
+    public boolean isEnabled() {
+        return false;
+    }
+
+    public void processorTime(QName token, long nanos) {
+    }
+
+    public void actionTime(int action, boolean sender, long nanos) {
+    }
+
+    public void messageTime(boolean sender, long nanos) {
+    }
+
+    public void messageSize(boolean sender, long bytes) {
+    }
+
+    public void failure(int errorCode) {
+    }
+
+    public void cacheAccess(String cache, boolean hit) {
+    }
+
+    public void limitExceeded(String limit) {
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ws.security.metrics;
+
+import javax.xml.namespace.QName;
+
+/**
+ * The interface through which WSS4J reports timings, counts and sizes of the
+ * security processing. <p/>
+ *
+ * An implementation is set on the WSSConfig. The default implementation,
+ * {@link NoOpMetrics}, discards everything. {@link HistogramMetrics} keeps
+ * the values in memory and can be registered as an MBean. <p/>
+ *
+ * Implementations must be thread-safe. Callers check {@link #isEnabled()}
+ * before taking any timings, so a disabled implementation costs nothing.
+ */
+public interface WSSecurityMetrics {
+
+    /**
+     * @return true if this implementation records anything at all
+     */
+    boolean isEnabled();
+
+    /**
+     * Record the time spent by a processor on a security header element. This
+     * also counts the processed tokens by type.
+     *
+     * @param token the qualified name of the processed element
+     * @param nanos the elapsed time in nanoseconds
+     */
+    void processorTime(QName token, long nanos);
+
+    /**
+     * Record the time spent on an action. An outbound action is timed by the
+     * handler, an inbound action by the security engine, as the time of the
+     * processor whose result has the action.
+     *
+     * @param action the action code, as defined in WSConstants
+     * @param sender true for an outbound action
+     * @param nanos the elapsed time in nanoseconds
+     */
+    void actionTime(int action, boolean sender, long nanos);
+
+    /**
+     * Record the time spent on the security processing of a whole message.
+     *
+     * @param sender true for an outbound message
+     * @param nanos the elapsed time in nanoseconds
+     */
+    void messageTime(boolean sender, long nanos);
+
+    /**
+     * Record the size of a secured message.
+     *
+     * @param sender true for an outbound message
+     * @param bytes the size of the message in bytes
+     */
+    void messageSize(boolean sender, long bytes);
+
+    /**
+     * Count a failure.
+     *
+     * @param errorCode the error code of the WSSecurityException
+     */
+    void failure(int errorCode);
+
+    /**
+     * Count a cache lookup.
+     *
+     * @param cache the name of the cache
+     * @param hit true if the lookup found an entry
+     */
+    void cacheAccess(String cache, boolean hit);
+
+    /**
+     * Count a message that was rejected because it exceeded a structural limit.
+     *
+     * @param limit the name of the limit, as defined in WSSConfig
+     */
+    void limitExceeded(String limit);
+}
@@ -81,9 +81,9 @@ public class BinarySecurityTokenProcessor  implements Processor {
         WSSConfig config
     ) throws WSSecurityException {
         if (crypto == null) {
-            this.getCertificatesTokenReference(elem, decCrypto);
+            this.getCertificatesTokenReference(elem, decCrypto, cb, config);
         } else {
-            this.getCertificatesTokenReference(elem, crypto);
+            this.getCertificatesTokenReference(elem, crypto, cb, config);
         }
         returnResults.add(
             0, 
@@ -98,11 +98,15 @@ public class BinarySecurityTokenProcessor  implements Processor {
      * @param elem The element containing the binary security token. This is
      *             either X509 certificate(s) or a PKIPath. Any other token type
      *             is ignored.
+     * @param cb The callback handler that provides the token data of an xop:Include
+     * @param config The WSSConfig with the maximum size of the attachment
      * @throws WSSecurityException
      */
-    private void getCertificatesTokenReference(Element elem, Crypto crypto)
-        throws WSSecurityException {
+    private void getCertificatesTokenReference(
+        Element elem, Crypto crypto, CallbackHandler cb, WSSConfig config
+    ) throws WSSecurityException {
         this.createSecurityToken(elem);
+        token.resolveAttachment(cb, config);
         if (token instanceof PKIPathSecurity) {
             this.certificates = ((PKIPathSecurity) token).getX509Certificates(false, crypto);
         } else if (token instanceof X509Security) {
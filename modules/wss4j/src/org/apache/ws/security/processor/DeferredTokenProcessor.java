@@ -0,0 +1,152 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ws.security.processor;
+
+import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.WSDocInfo;
+import org.apache.ws.security.WSSConfig;
+import org.apache.ws.security.WSSecurityEngine;
+import org.apache.ws.security.WSSecurityException;
+import org.apache.ws.security.components.crypto.Crypto;
+import org.w3c.dom.Element;
+
+import javax.security.auth.callback.CallbackHandler;
+import javax.xml.namespace.QName;
+
+import java.util.Vector;
+
+/**
+ * A Processor that defers the processing of a security token until the token 
+ * is referenced. <p/>
+ *
+ * When the security header is processed lazily, the processors of 
+ * BinarySecurityTokens, SAML assertions and SecurityContextTokens are wrapped 
+ * into a DeferredTokenProcessor. Handling the token then only records the 
+ * element under its Id. The certificate is parsed, the assertion unmarshalled 
+ * or the secret requested only when a Signature, an EncryptedKey, a 
+ * ReferenceList or a DerivedKeyToken looks the token up with 
+ * {@link WSDocInfo#resolveProcessor(String)}, which every dereference of a 
+ * SecurityTokenReference does, by Reference URI or KeyIdentifier. The deferred
+ * tokens are registered before any element of the security header is 
+ * processed, so the position of a token in the header does not matter. A 
+ * token that is never referenced is never processed and has no result.
+ */
+public class DeferredTokenProcessor implements Processor {
+
+    private final Processor processor;
+    private final Element token;
+    private final String id;
+
+    private Crypto crypto;
+    private Crypto decCrypto;
+    private CallbackHandler cb;
+    private WSDocInfo wsDocInfo;
+    private Vector returnResults;
+    private WSSConfig config;
+
+    private boolean processed;
+
+    /**
+     * @param processor the processor of the token
+     * @param token the token element
+     */
+    public DeferredTokenProcessor(Processor processor, Element token) {
+        this.processor = processor;
+        this.token = token;
+        this.id = getTokenId(token);
+    }
+
+    /**
+     * @param el the name of a child element of the security header
+     * @return whether the processing of the element can be deferred
+     */
+    public static boolean isDeferrable(QName el) {
+        return WSSecurityEngine.binaryToken.equals(el)
+            || WSSecurityEngine.SAML_TOKEN.equals(el)
+            || WSSecurityEngine.SAML2_TOKEN.equals(el)
+            || WSSecurityEngine.SECURITY_CONTEXT_TOKEN_05_02.equals(el)
+            || WSSecurityEngine.SECURITY_CONTEXT_TOKEN_05_12.equals(el);
+    }
+
+    /**
+     * Record the token and the context to process it in later.
+     */
+    public void handleToken(
+        Element elem, 
+        Crypto crypto, 
+        Crypto decCrypto,
+        CallbackHandler cb, 
+        WSDocInfo wsDocInfo, 
+        Vector returnResults,
+        WSSConfig config
+    ) throws WSSecurityException {
+        this.crypto = crypto;
+        this.decCrypto = decCrypto;
+        this.cb = cb;
+        this.wsDocInfo = wsDocInfo;
+        this.returnResults = returnResults;
+        this.config = config;
+    }
+
+    /**
+     * Process the token, unless that was done before.
+     * 
+     * @return the processor of the token
+     * @throws WSSecurityException if the token is invalid
+     */
+    public Processor process() throws WSSecurityException {
+        if (!processed) {
+            processed = true;
+            processor.handleToken(
+                token, crypto, decCrypto, cb, wsDocInfo, returnResults, config
+            );
+        }
+        return processor;
+    }
+
+    /**
+     * @return whether the token was processed
+     */
+    public boolean isProcessed() {
+        return processed;
+    }
+
+    /**
+     * @return the Id of the token, as the wrapped processor reports it once 
+     *         the token is processed
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Get the Id of a token element without parsing the token.
+     */
+    private static String getTokenId(Element token) {
+        String ns = token.getNamespaceURI();
+        if (WSConstants.SAML_NS.equals(ns)) {
+            return token.getAttribute("AssertionID");
+        } else if (WSConstants.SAML2_NS.equals(ns)) {
+            return token.getAttribute("ID");
+        }
+        return token.getAttributeNS(WSConstants.WSU_NS, "Id");
+    }
+}
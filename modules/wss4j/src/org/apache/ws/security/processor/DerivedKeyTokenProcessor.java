@@ -74,6 +74,9 @@ public class DerivedKeyTokenProcessor implements Processor {
         
         // Deserialize the DKT
         dkt = new DerivedKeyToken(elem);
+        config.checkLimit(
+            WSSConfig.MAX_DERIVED_KEY_LENGTH, dkt.getLength(), config.getMaxDerivedKeyLength()
+        );
         this.extractSecret(wsDocInfo, dkt, cb, crypto);
         
         String tempNonce = dkt.getNonce();
@@ -148,12 +151,12 @@ public class DerivedKeyTokenProcessor implements Processor {
                 if (uri.charAt(0) == '#') {
                     uri = uri.substring(1);
                 }
-                processor = wsDocInfo.getProcessor(uri);
+                processor = wsDocInfo.resolveProcessor(uri);
             } else {
                 // Contains key identifier
                 keyIdentifierValue = str.getKeyIdentifierValue();
                 keyIdentifierValueType = str.getKeyIdentifierValueType();
-                processor = wsDocInfo.getProcessor(keyIdentifierValue);
+                processor = wsDocInfo.resolveProcessor(keyIdentifierValue);
             }
             
             if (processor == null && uri != null) {
@@ -176,7 +179,7 @@ public class DerivedKeyTokenProcessor implements Processor {
             } else if (processor instanceof SAMLTokenProcessor) {
                 SAMLTokenProcessor samlp = (SAMLTokenProcessor) processor;
                 SAMLKeyInfo keyInfo = 
-                    SAMLUtil.getSAMLKeyInfo(samlp.getSamlTokenElement(), crypto, cb);
+                    SAMLUtil.getSAMLKeyInfo(samlp.getSamlTokenElement(), crypto, cb, wsDocInfo);
                 // TODO Handle malformed SAML tokens where they don't have the 
                 // secret in them
                 this.secret = keyInfo.getSecret();
@@ -29,20 +29,22 @@ import org.apache.ws.security.WSSecurityEngine;
 import org.apache.ws.security.WSSecurityEngineResult;
 import org.apache.ws.security.WSSecurityException;
 import org.apache.ws.security.components.crypto.Crypto;
+import org.apache.ws.security.message.token.AgreementMethod;
 import org.apache.ws.security.message.token.SecurityTokenReference;
 import org.apache.ws.security.message.token.X509Security;
 import org.apache.ws.security.saml.SAML2KeyInfo;
 import org.apache.ws.security.saml.SAML2Util;
 import org.apache.ws.security.saml.SAMLKeyInfo;
 import org.apache.ws.security.saml.SAMLUtil;
+import org.apache.ws.security.stream.StreamedMessage;
 import org.apache.ws.security.util.Base64;
+import org.apache.ws.security.util.SecureRandomSource;
 import org.apache.ws.security.util.WSSecurityUtil;
+import org.apache.ws.security.util.XOPUtil;
 import org.apache.xml.security.algorithms.JCEMapper;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.w3c.dom.Text;
 
 import javax.crypto.*;
 import javax.security.auth.callback.Callback;
@@ -61,8 +63,6 @@ import java.util.Vector;
 
 public class EncryptedKeyProcessor implements Processor {
     private static Log log = LogFactory.getLog(EncryptedKeyProcessor.class.getName());
-    private static Log tlog =
-            LogFactory.getLog("org.apache.ws.security.TIME");
     private byte[] encryptedEphemeralKey;
     
     private byte[] decryptedBytes = null;
@@ -73,6 +73,7 @@ public class EncryptedKeyProcessor implements Processor {
     private String encryptedKeyTransportMethod = null;
     
     private WSDocInfo docInfo = null;
+    private WSSConfig wssConfig = null;
 
     public void handleToken(
             Element elem, 
@@ -93,6 +94,12 @@ public class EncryptedKeyProcessor implements Processor {
             throw new WSSecurityException(WSSecurityException.FAILURE, "noCallback");
         }
         docInfo = wsDocInfo;
+        wssConfig = wsc;
+        Element referenceList = 
+            WSSecurityUtil.getDirectChildElement(elem, "ReferenceList", WSConstants.ENC_NS);
+        if (referenceList != null) {
+            ReferenceListProcessor.checkLimits(referenceList, wsc);
+        }
         ArrayList dataRefUris = handleEncryptedKey((Element) elem, cb, decCrypto);
         encryptedKeyId = elem.getAttributeNS(null, "Id");
         
@@ -133,10 +140,6 @@ public class EncryptedKeyProcessor implements Processor {
         Crypto crypto, 
         PrivateKey privateKey
     ) throws WSSecurityException {
-        long t0 = 0, t1 = 0, t2 = 0;
-        if (tlog.isDebugEnabled()) {
-            t0 = System.currentTimeMillis();
-        }
         // need to have it to find the encrypted data elements in the envelope
         Document doc = xencEncryptedKey.getOwnerDocument();
 
@@ -173,11 +176,34 @@ public class EncryptedKeyProcessor implements Processor {
             throw new WSSecurityException(WSSecurityException.INVALID_SECURITY, "noCipher");
         }
 
-        if (privateKey == null) {
-            Element keyInfo = 
-                (Element) WSSecurityUtil.getDirectChild(
-                    (Node) xencEncryptedKey, "KeyInfo", WSConstants.SIG_NS
+        Element keyInfo = 
+            (Element) WSSecurityUtil.getDirectChild(
+                (Node) xencEncryptedKey, "KeyInfo", WSConstants.SIG_NS
+            );
+        //
+        // With a key agreement the key that wraps the session key is derived from
+        // the originator's ephemeral key and the recipient's private key. The
+        // recipient's key is identified by the RecipientKeyInfo.
+        //
+        AgreementMethod agreementMethod = null;
+        Element agreementElement = 
+            keyInfo == null ? null 
+                : WSSecurityUtil.getDirectChildElement(
+                    keyInfo, WSConstants.AGREEMENT_METHOD_LN, WSConstants.ENC_NS
+                );
+        if (agreementElement != null) {
+            agreementMethod = new AgreementMethod(agreementElement);
+            keyInfo = agreementMethod.getRecipientKeyInfo();
+            if (keyInfo == null) {
+                throw new WSSecurityException(
+                    WSSecurityException.INVALID_SECURITY,
+                    "invalidAgreementMethod",
+                    new Object[] {"no xenc:RecipientKeyInfo"}
                 );
+            }
+        }
+
+        if (privateKey == null) {
             String alias;
             if (keyInfo != null) {
                 Element secRefToken = 
@@ -235,7 +261,7 @@ public class EncryptedKeyProcessor implements Processor {
 									"noSigCryptoFile");
 						}
 						SAMLKeyInfo samlKi = SAMLUtil.getSAMLKeyInfo(token,
-								crypto, cb);
+								crypto, cb, docInfo);
 						certs = samlKi.getCerts();
 					} else if (WSConstants.WSS_SAML2_KI_VALUE_TYPE
 							.equals(secRef.getKeyIdentifierValueType())) {
@@ -245,7 +271,7 @@ public class EncryptedKeyProcessor implements Processor {
 							throw new WSSecurityException(0, "noSigCryptoFile");
 						}
 						SAML2KeyInfo samlKi = SAML2Util.getSAML2KeyInfo(token,
-								crypto, cb);
+								crypto, cb, docInfo);
 						certs = samlKi.getCerts();
 					} else {
 						certs = secRef.getKeyIdentifier(crypto);
@@ -268,7 +294,7 @@ public class EncryptedKeyProcessor implements Processor {
                         log.debug("KeyIdentifier Alias: " + alias);
                     }
                 } else if (secRef.containsReference()) {
-                    Element bstElement = secRef.getTokenElement(doc, null, cb);
+                    Element bstElement = secRef.getTokenElement(doc, docInfo, cb);
 
                     // at this point ... check token type: Binary
                     QName el = 
@@ -373,24 +399,43 @@ public class EncryptedKeyProcessor implements Processor {
         }
 
         try {
-            cipher.init(Cipher.DECRYPT_MODE, privateKey);
+            if (agreementMethod != null) {
+                SecretKey keyEncryptionKey = 
+                    agreementMethod.getKeyEncryptionKey(
+                        privateKey, 
+                        agreementMethod.getOriginatorKey(), 
+                        this.encryptedKeyTransportMethod
+                    );
+                cipher.init(Cipher.UNWRAP_MODE, keyEncryptionKey);
+            } else {
+                cipher.init(Cipher.DECRYPT_MODE, privateKey);
+            }
+        } catch (WSSecurityException e1) {
+            throw e1;
         } catch (Exception e1) {
             throw new WSSecurityException(WSSecurityException.FAILED_CHECK, null, null, e1);
         }
 
+        Element include = XOPUtil.getInclude(xencCipherValue);
+        if (include != null) {
+            encryptedEphemeralKey = XOPUtil.getAttachmentBytes(include, cb, wssConfig);
+        }
         try {
-            encryptedEphemeralKey = getDecodedBase64EncodedData(xencCipherValue);
-            decryptedBytes = cipher.doFinal(encryptedEphemeralKey);
+            if (include == null) {
+                encryptedEphemeralKey = getDecodedBase64EncodedData(xencCipherValue);
+            }
+            if (agreementMethod != null) {
+                decryptedBytes = 
+                    cipher.unwrap(encryptedEphemeralKey, "AES", Cipher.SECRET_KEY).getEncoded();
+            } else {
+                decryptedBytes = cipher.doFinal(encryptedEphemeralKey);
+            }
         } catch (IllegalStateException e2) {
             throw new WSSecurityException(WSSecurityException.FAILED_CHECK, null, null, e2);
         } catch (Exception e2) {
             decryptedBytes = getRandomKey(getDataRefURIs(xencCipherValue), xencEncryptedKey.getOwnerDocument(), docInfo);
         }
 
-        if (tlog.isDebugEnabled()) {
-            t1 = System.currentTimeMillis();
-        }
-
         // At this point we have the decrypted session (symmetric) key. According
         // to W3C XML-Enc this key is used to decrypt _any_ references contained in
         // the reference list
@@ -417,21 +462,13 @@ public class EncryptedKeyProcessor implements Processor {
                     if (dataRefURI.charAt(0) == '#') {
                         dataRefURI = dataRefURI.substring(1);
                     }
-                    WSDataRef dataRef = decryptDataRef(doc, dataRefURI, decryptedBytes);
+                    WSDataRef dataRef = decryptDataRef(doc, dataRefURI, decryptedBytes, cb);
                     dataRefs.add(dataRef);
                 }
             }
             return dataRefs;
         }
 
-        if (tlog.isDebugEnabled()) {
-            t2 = System.currentTimeMillis();
-            tlog.debug(
-                "XMLDecrypt: total= " + (t2 - t0) + ", get-sym-key= " + (t1 - t0) 
-                + ", decrypt= " + (t2 - t1)
-            );
-        }
-        
         return null;
     }
 
@@ -443,17 +480,7 @@ public class EncryptedKeyProcessor implements Processor {
      * @throws WSSecurityException
      */
     public static byte[] getDecodedBase64EncodedData(Element element) throws WSSecurityException {
-        StringBuffer sb = new StringBuffer();
-        NodeList children = element.getChildNodes();
-        int iMax = children.getLength();
-        for (int i = 0; i < iMax; i++) {
-            Node curr = children.item(i);
-            if (curr.getNodeType() == Node.TEXT_NODE) {
-                sb.append(((Text) curr).getData());
-            }
-        }
-        String encodedData = sb.toString();
-        return Base64.decode(encodedData);
+        return Base64.decode(element);
     }
 
     /**
@@ -462,12 +489,22 @@ public class EncryptedKeyProcessor implements Processor {
     private WSDataRef decryptDataRef(
         Document doc, 
         String dataRefURI, 
-        byte[] decryptedData
+        byte[] decryptedData,
+        CallbackHandler cb
     ) throws WSSecurityException {
         if (log.isDebugEnabled()) {
             log.debug("found data reference: " + dataRefURI);
         }
         //
+        // The EncryptedData of a streamed SOAP Body is decrypted while the
+        // Body is read
+        //
+        StreamedMessage streamedMessage = 
+            docInfo == null ? null : docInfo.getStreamedMessage();
+        if (streamedMessage != null && streamedMessage.isDeferred(doc, dataRefURI)) {
+            return streamedMessage.addDataReference(dataRefURI, decryptedData);
+        }
+        //
         // Find the encrypted data element referenced by dataRefURI
         //
         Element encryptedDataElement = 
@@ -480,7 +517,7 @@ public class EncryptedKeyProcessor implements Processor {
             WSSecurityUtil.prepareSecretKey(symEncAlgo, decryptedData);
 
         return ReferenceListProcessor.decryptEncryptedData(
-            doc, dataRefURI, encryptedDataElement, symmetricKey, symEncAlgo
+            doc, dataRefURI, encryptedDataElement, symmetricKey, symEncAlgo, cb
         );
     }
     
@@ -555,19 +592,17 @@ public class EncryptedKeyProcessor implements Processor {
                 String uri = dataRefURIs.iterator().next();
                 Element ee = ReferenceListProcessor.findEncryptedDataElement(doc, uri);
                 String algorithmURI = X509Util.getEncAlgo(ee);
-                alg = JCEMapper.getJCEKeyAlgorithmFromURI(algorithmURI);
+                if (!WSSecurityUtil.isGCMAlgorithm(algorithmURI)) {
+                    alg = JCEMapper.getJCEKeyAlgorithmFromURI(algorithmURI);
+                }
                 size = WSSecurityUtil.getKeyLength(algorithmURI);
             }
-            KeyGenerator kgen = KeyGenerator.getInstance(alg);
-            kgen.init(size * 8);
-            SecretKey k = kgen.generateKey();
+            SecretKey k = SecureRandomSource.getInstance().generateKey(alg, size * 8);
             return k.getEncoded();
         } catch (Throwable ex) {
             // Fallback to just using AES to avoid attacks on EncryptedData algorithms
             try {
-                KeyGenerator kgen = KeyGenerator.getInstance("AES");
-                kgen.init(128);
-                SecretKey k = kgen.generateKey();
+                SecretKey k = SecureRandomSource.getInstance().generateKey("AES", 128);
                 return k.getEncoded();
             } catch (NoSuchAlgorithmException e) {
                 throw new WSSecurityException(WSSecurityException.FAILED_CHECK, null, null, e);
@@ -19,10 +19,16 @@
 
 package org.apache.ws.security.processor;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.security.Principal;
 import java.util.ArrayList;
 import java.util.Vector;
 
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
 import javax.crypto.SecretKey;
 import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.CallbackHandler;
@@ -44,12 +50,16 @@ import org.apache.ws.security.saml.SAML2KeyInfo;
 import org.apache.ws.security.saml.SAML2Util;
 import org.apache.ws.security.saml.SAMLKeyInfo;
 import org.apache.ws.security.saml.SAMLUtil;
+import org.apache.ws.security.util.Base64;
 import org.apache.ws.security.util.WSSecurityUtil;
+import org.apache.ws.security.util.XMLUtils;
+import org.apache.ws.security.util.XOPUtil;
 import org.apache.xml.security.encryption.XMLCipher;
 import org.apache.xml.security.encryption.XMLEncryptionException;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 
 public class ReferenceListProcessor implements Processor {
@@ -79,6 +89,7 @@ public class ReferenceListProcessor implements Processor {
             throw new WSSecurityException(WSSecurityException.FAILURE, "noCallback");
         }
         wsDocInfo = wdi;
+        checkLimits(elem, wsc);
         ArrayList uris = handleReferenceList(elem, cb, decCrypto);
         if (krbPricipal!=null) {
         	WSSecurityEngineResult secResults = null;
@@ -94,6 +105,20 @@ public class ReferenceListProcessor implements Processor {
 		}      
     }
 
+    /**
+     * Check the number of DataReferences of a ReferenceList against the limit
+     * of the WSSConfig, before any data is decrypted.
+     */
+    static void checkLimits(Element referenceList, WSSConfig wsc) throws WSSecurityException {
+        wsc.checkLimit(
+            WSSConfig.MAX_DATA_REFERENCES,
+            WSSecurityUtil.countDirectChildElements(
+                referenceList, "DataReference", WSConstants.ENC_NS
+            ),
+            wsc.getMaxDataReferences()
+        );
+    }
+
     /**
      * Dereferences and decodes encrypted data elements.
      * 
@@ -179,7 +204,7 @@ public class ReferenceListProcessor implements Processor {
         
         return 
             decryptEncryptedData(
-                doc, dataRefURI, encryptedDataElement, symmetricKey, symEncAlgo
+                doc, dataRefURI, encryptedDataElement, symmetricKey, symEncAlgo, cb
             );
     }
 
@@ -229,14 +254,48 @@ public class ReferenceListProcessor implements Processor {
         SecretKey symmetricKey,
         String symEncAlgo
     ) throws WSSecurityException {
+        return decryptEncryptedData(doc, dataRefURI, encData, symmetricKey, symEncAlgo, null);
+    }
+
+    /**
+     * Decrypt the EncryptedData argument using a SecretKey.
+     * @param doc The (document) owner of EncryptedData
+     * @param dataRefURI The URI of EncryptedData
+     * @param encData The EncryptedData element
+     * @param symmetricKey The SecretKey with which to decrypt EncryptedData
+     * @param symEncAlgo The symmetric encryption algorithm to use
+     * @param cb The callback handler that provides the cipher text if the 
+     *           CipherValue is an xop:Include
+     * @throws WSSecurityException
+     */
+    public static WSDataRef
+    decryptEncryptedData(
+        Document doc,
+        String dataRefURI,
+        Element encData,
+        SecretKey symmetricKey,
+        String symEncAlgo,
+        CallbackHandler cb
+    ) throws WSSecurityException {
+        Element cipherValue = getCipherValue(encData);
+        Element include = cipherValue == null ? null : XOPUtil.getInclude(cipherValue);
+        Element encryptedData = encData;
+        //
+        // The XMLCipher does not know the AES-GCM algorithms of XML Encryption 1.1
+        //
+        boolean gcm = WSSecurityUtil.isGCMAlgorithm(symEncAlgo);
         XMLCipher xmlCipher = null;
-        try {
-            xmlCipher = XMLCipher.getInstance(symEncAlgo);
-            xmlCipher.init(XMLCipher.DECRYPT_MODE, symmetricKey);
-        } catch (XMLEncryptionException ex) {
-            throw new WSSecurityException(
-                WSSecurityException.UNSUPPORTED_ALGORITHM, null, null, ex
-            );
+        if (!gcm) {
+            try {
+                xmlCipher = XMLCipher.getInstance(symEncAlgo);
+                xmlCipher.init(XMLCipher.DECRYPT_MODE, symmetricKey);
+            } catch (XMLEncryptionException ex) {
+                throw new WSSecurityException(
+                    WSSecurityException.UNSUPPORTED_ALGORITHM, null, null, ex
+                );
+            }
+        } else if (cipherValue == null) {
+            throw new WSSecurityException(WSSecurityException.INVALID_SECURITY, "noCipher");
         }
 
         WSDataRef dataRef = new WSDataRef(dataRefURI);
@@ -252,10 +311,22 @@ public class ReferenceListProcessor implements Processor {
             parent = encData.getParentNode();
         }
         
-        try {
-            xmlCipher.doFinal(doc, encData, content);
-        } catch (Exception ex) {
-            throw new WSSecurityException(WSSecurityException.FAILED_CHECK, null, null, ex);
+        if (include != null) {
+            decrypt(
+                doc, encryptedData, XOPUtil.getAttachmentStream(include, cb), 
+                symmetricKey, symEncAlgo
+            );
+        } else if (gcm) {
+            decrypt(
+                doc, encryptedData, new ByteArrayInputStream(Base64.decode(cipherValue)),
+                symmetricKey, symEncAlgo
+            );
+        } else {
+            try {
+                xmlCipher.doFinal(doc, encData, content);
+            } catch (Exception ex) {
+                throw new WSSecurityException(WSSecurityException.FAILED_CHECK, null, null, ex);
+            }
         }
         
         if (parent.getLocalName().equals(WSConstants.ENCRYPTED_HEADER)
@@ -287,6 +358,92 @@ public class ReferenceListProcessor implements Processor {
     }
     
 
+    /**
+     * Get the CipherValue of an EncryptedData.
+     */
+    private static Element getCipherValue(Element encData) {
+        Element cipherData = 
+            WSSecurityUtil.getDirectChildElement(encData, "CipherData", WSConstants.ENC_NS);
+        if (cipherData == null) {
+            return null;
+        }
+        return WSSecurityUtil.getDirectChildElement(cipherData, "CipherValue", WSConstants.ENC_NS);
+    }
+
+    /**
+     * Decrypt the raw cipher text, that is the IV followed by the encrypted 
+     * octets, and replace the EncryptedData with the plaintext. The cipher text 
+     * is decrypted while the plaintext is parsed, so that a cipher text from an
+     * attachment is neither held as a whole, nor Base64 decoded.
+     */
+    private static void decrypt(
+        Document doc,
+        Element encData,
+        InputStream in,
+        SecretKey symmetricKey,
+        String symEncAlgo
+    ) throws WSSecurityException {
+        Cipher cipher = WSSecurityUtil.getCipherInstance(symEncAlgo);
+        Document plaintext = null;
+        try {
+            byte[] iv = new byte[WSSecurityUtil.getIVLength(symEncAlgo, cipher)];
+            int off = 0;
+            while (off < iv.length) {
+                int len = in.read(iv, off, iv.length - off);
+                if (len == -1) {
+                    throw new WSSecurityException(WSSecurityException.FAILED_CHECK);
+                }
+                off += len;
+            }
+            cipher.init(
+                Cipher.DECRYPT_MODE, symmetricKey, 
+                WSSecurityUtil.getIVParameterSpec(symEncAlgo, iv)
+            );
+            StringBuffer wrapper = new StringBuffer("<wrapper");
+            for (Node node = encData.getParentNode(); 
+                node != null && node.getNodeType() == Node.ELEMENT_NODE; 
+                node = node.getParentNode()) {
+                NamedNodeMap attributes = node.getAttributes();
+                for (int i = 0; i < attributes.getLength(); i++) {
+                    Attr attr = (Attr) attributes.item(i);
+                    if (!WSConstants.XMLNS_NS.equals(attr.getNamespaceURI())
+                        || wrapper.indexOf(" " + attr.getName() + "=") != -1) {
+                        continue;
+                    }
+                    wrapper.append(' ').append(attr.getName()).append("=\"")
+                        .append(XMLUtils.escapeAttribute(attr.getValue())).append('"');
+                }
+            }
+            wrapper.append('>');
+            InputStream plaintextStream = 
+                new SequenceInputStream(
+                    new SequenceInputStream(
+                        new ByteArrayInputStream(wrapper.toString().getBytes("UTF-8")),
+                        new CipherInputStream(in, cipher)
+                    ),
+                    new ByteArrayInputStream("</wrapper>".getBytes("UTF-8"))
+                );
+            plaintext = XMLUtils.parse(plaintextStream);
+        } catch (WSSecurityException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new WSSecurityException(WSSecurityException.FAILED_CHECK, null, null, ex);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ex) {
+                // ignore
+            }
+        }
+        Node parent = encData.getParentNode();
+        for (Node node = plaintext.getDocumentElement().getFirstChild(); 
+            node != null; 
+            node = node.getNextSibling()) {
+            parent.insertBefore(doc.importNode(node, true), encData);
+        }
+        parent.removeChild(encData);
+    }
+
     /**
      * Retrieves a secret key (session key) from a already parsed EncryptedKey
      * element
@@ -325,7 +482,7 @@ public class ReferenceListProcessor implements Processor {
             if (id.charAt(0) == '#') {
                 id = id.substring(1);
             }
-            Processor p = wsDocInfo.getProcessor(id);
+            Processor p = wsDocInfo.resolveProcessor(id);
             if (p instanceof EncryptedKeyProcessor) {
                 EncryptedKeyProcessor ekp = (EncryptedKeyProcessor) p;
                 decryptedData = ekp.getDecryptedBytes();
@@ -335,7 +492,7 @@ public class ReferenceListProcessor implements Processor {
             } else if (p instanceof SAMLTokenProcessor) {
                 SAMLTokenProcessor samlp = (SAMLTokenProcessor) p;
                 SAMLKeyInfo keyInfo = 
-                    SAMLUtil.getSAMLKeyInfo(samlp.getSamlTokenElement(), crypto, cb);
+                    SAMLUtil.getSAMLKeyInfo(samlp.getSamlTokenElement(), crypto, cb, wsDocInfo);
                 // TODO Handle malformed SAML tokens where they don't have the 
                 // secret in them
                 decryptedData = keyInfo.getSecret();
@@ -400,7 +557,7 @@ public class ReferenceListProcessor implements Processor {
                         WSSecurityException.FAILURE, "noSigCryptoFile"
                     );
                 }
-                SAMLKeyInfo keyInfo = SAMLUtil.getSAMLKeyInfo(token, crypto, cb);
+                SAMLKeyInfo keyInfo = SAMLUtil.getSAMLKeyInfo(token, crypto, cb, wsDocInfo);
                 // TODO Handle malformed SAML tokens where they don't have the 
                 // secret in them
                 decryptedData = keyInfo.getSecret();
@@ -412,7 +569,7 @@ public class ReferenceListProcessor implements Processor {
 					throw new WSSecurityException(0, "noSigCryptoFile");
 				}
 				SAML2KeyInfo keyInfo = SAML2Util.getSAML2KeyInfo(token, crypto,
-						cb);
+						cb, wsDocInfo);
 				decryptedData = keyInfo.getSecret();
 			} else {
                 String sha = secRef.getKeyIdentifierValue();
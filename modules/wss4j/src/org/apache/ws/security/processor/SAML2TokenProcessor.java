@@ -25,11 +25,14 @@ import org.apache.ws.security.WSSConfig;
 import org.apache.ws.security.WSSecurityEngineResult;
 import org.apache.ws.security.WSSecurityException;
 import org.apache.ws.security.components.crypto.Crypto;
+import org.apache.ws.security.metrics.WSSecurityMetrics;
 import org.apache.ws.security.saml.SAML2Util;
+import org.apache.ws.security.saml.SAMLAssertionCache;
 import org.apache.ws.security.util.XMLUtils;
 import org.opensaml.Configuration;
 import org.opensaml.DefaultBootstrap;
 import org.opensaml.saml2.core.Assertion;
+import org.opensaml.saml2.core.Conditions;
 import org.opensaml.xml.ConfigurationException;
 import org.opensaml.xml.io.Unmarshaller;
 import org.opensaml.xml.io.UnmarshallerFactory;
@@ -39,11 +42,10 @@ import org.w3c.dom.Element;
 import org.xml.sax.SAXException;
 
 import javax.security.auth.callback.CallbackHandler;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.Set;
 import java.util.Vector;
 
 
@@ -60,10 +62,20 @@ public class SAML2TokenProcessor implements Processor {
 
     public void handleToken(Element elem, Crypto crypto, Crypto decCrypto, CallbackHandler cb,
                             WSDocInfo wsDocInfo, Vector returnResults, WSSConfig config) throws WSSecurityException {
-        Assertion assertion = buildAssertion(elem);
+        Assertion assertion = null;
+        Object registered = wsDocInfo.getSAMLAssertionRegistry().getAssertion(elem);
+        if (registered instanceof Assertion) {
+            assertion = (Assertion) registered;
+        } else {
+            assertion = buildAssertion(elem);
+            wsDocInfo.getSAMLAssertionRegistry().register(elem, assertion.getID(), assertion);
+        }
         // validate the signature of the SAML token
+        Set claims = null;
         if(assertion.getSignature() != null){
-            SAML2Util.validateSignature(assertion, crypto);
+            claims = validateSignature(elem, assertion, crypto, config);
+        } else {
+            claims = SAML2Util.getClaims(assertion);
         }
 
         id = assertion.getID();
@@ -81,12 +93,45 @@ public class SAML2TokenProcessor implements Processor {
         // Adding the token issuer name
         securityEngineResult.put(WSConstants.SAML_ISSUER_NAME, assertion.getIssuer());
         // Adding the set of attributes included in a SAML assertion
-        securityEngineResult.put(WSConstants.SAML_CLAIM_SET, SAML2Util.getClaims(assertion));
+        securityEngineResult.put(WSConstants.SAML_CLAIM_SET, claims);
         // set whether the SAML assertion is signed or not
         securityEngineResult.put(WSConstants.SAML_TOKEN_SIGNED, Boolean.valueOf(assertion.isSigned()));
     }
 
 
+    /**
+     * Validate the signature of the assertion, unless the assertion is in the
+     * cache of verified assertions of the configuration.
+     * 
+     * @return the claims of the assertion
+     */
+    private Set validateSignature(
+        Element elem, Assertion assertion, Crypto crypto, WSSConfig config
+    ) throws WSSecurityException {
+        SAMLAssertionCache cache = config == null ? null : config.getSAMLAssertionCache();
+        if (cache == null) {
+            SAML2Util.validateSignature(assertion, crypto);
+            return SAML2Util.getClaims(assertion);
+        }
+        String key = SAMLAssertionCache.getKey(assertion.getID(), elem);
+        Set claims = cache.get(key, crypto);
+        WSSecurityMetrics metrics = config.getMetrics();
+        if (metrics.isEnabled()) {
+            metrics.cacheAccess(SAMLAssertionCache.NAME, claims != null);
+        }
+        if (claims == null) {
+            SAML2Util.validateSignature(assertion, crypto);
+            claims = SAML2Util.getClaims(assertion);
+            Conditions conditions = assertion.getConditions();
+            if (conditions != null && conditions.getNotOnOrAfter() != null) {
+                cache.put(key, crypto, conditions.getNotOnOrAfter().getMillis(), claims);
+            }
+        } else if (log.isDebugEnabled()) {
+            log.debug("SAML2 Assertion " + assertion.getID() + " was verified before");
+        }
+        return claims;
+    }
+
     /**
      * This method is used to validate a SAML2.0 Token.
      * TODO At the moment it only validates by building an assertion similar to the SAMLTokenProcessor.
@@ -101,9 +146,8 @@ public class SAML2TokenProcessor implements Processor {
 
             // Unmarshall and build the assertion from the DOM element.
             String keyInfoElementString = elem.toString();
-            DocumentBuilderFactory documentBuilderFactory = XMLUtils.getSecuredDocumentBuilder();
-            DocumentBuilder docBuilder = documentBuilderFactory.newDocumentBuilder();
-            Document document = docBuilder.parse(new ByteArrayInputStream(keyInfoElementString.trim().getBytes()));
+            Document document = 
+                XMLUtils.parse(new ByteArrayInputStream(keyInfoElementString.trim().getBytes()));
             Element element = document.getDocumentElement();
             UnmarshallerFactory unmarshallerFactory = Configuration
                     .getUnmarshallerFactory();
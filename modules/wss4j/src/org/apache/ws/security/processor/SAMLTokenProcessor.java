@@ -25,12 +25,16 @@ import org.apache.ws.security.WSSConfig;
 import org.apache.ws.security.WSSecurityEngineResult;
 import org.apache.ws.security.WSSecurityException;
 import org.apache.ws.security.components.crypto.Crypto;
+import org.apache.ws.security.metrics.WSSecurityMetrics;
+import org.apache.ws.security.saml.SAMLAssertionCache;
 import org.apache.ws.security.saml.SAMLUtil;
 import org.opensaml.SAMLAssertion;
 import org.opensaml.SAMLException;
 import org.w3c.dom.Element;
 
 import javax.security.auth.callback.CallbackHandler;
+import java.util.Date;
+import java.util.Set;
 import java.util.Vector;
 
 public class SAMLTokenProcessor implements Processor {
@@ -51,10 +55,20 @@ public class SAMLTokenProcessor implements Processor {
         if (log.isDebugEnabled()) {
             log.debug("Found SAML Assertion element");
         }
-        SAMLAssertion assertion = handleSAMLToken((Element) elem);
+        SAMLAssertion assertion = null;
+        Object registered = wsDocInfo.getSAMLAssertionRegistry().getAssertion(elem);
+        if (registered instanceof SAMLAssertion) {
+            assertion = (SAMLAssertion) registered;
+        } else {
+            assertion = handleSAMLToken((Element) elem);
+            wsDocInfo.getSAMLAssertionRegistry().register(elem, assertion.getId(), assertion);
+        }
         // validate the signature of the token against the Signature Crypto
+        Set claims = null;
         if(assertion.isSigned()){
-            SAMLUtil.validateSignature(assertion, crypto);
+            claims = validateSignature(elem, assertion, crypto, wsc);
+        } else {
+            claims = SAMLUtil.getClaims(assertion);
         }
 
         this.id = assertion.getId();
@@ -69,7 +83,7 @@ public class SAMLTokenProcessor implements Processor {
         // Adding the token issuer name
         wsSecurityEngineResult.put(WSConstants.SAML_ISSUER_NAME, assertion.getIssuer());
         // Adding the set of attributes included in a SAML assertion
-        wsSecurityEngineResult.put(WSConstants.SAML_CLAIM_SET, SAMLUtil.getClaims(assertion));
+        wsSecurityEngineResult.put(WSConstants.SAML_CLAIM_SET, claims);
         // set whether the SAML assertion is signed or not
         wsSecurityEngineResult.put(WSConstants.SAML_TOKEN_SIGNED, Boolean.valueOf(assertion.isSigned()));
 
@@ -77,6 +91,39 @@ public class SAMLTokenProcessor implements Processor {
 
     }
 
+    /**
+     * Validate the signature of the assertion, unless the assertion is in the
+     * cache of verified assertions of the configuration.
+     * 
+     * @return the claims of the assertion
+     */
+    private Set validateSignature(
+        Element elem, SAMLAssertion assertion, Crypto crypto, WSSConfig wsc
+    ) throws WSSecurityException {
+        SAMLAssertionCache cache = wsc == null ? null : wsc.getSAMLAssertionCache();
+        if (cache == null) {
+            SAMLUtil.validateSignature(assertion, crypto);
+            return SAMLUtil.getClaims(assertion);
+        }
+        String key = SAMLAssertionCache.getKey(assertion.getId(), elem);
+        Set claims = cache.get(key, crypto);
+        WSSecurityMetrics metrics = wsc.getMetrics();
+        if (metrics.isEnabled()) {
+            metrics.cacheAccess(SAMLAssertionCache.NAME, claims != null);
+        }
+        if (claims == null) {
+            SAMLUtil.validateSignature(assertion, crypto);
+            claims = SAMLUtil.getClaims(assertion);
+            Date notOnOrAfter = assertion.getNotOnOrAfter();
+            if (notOnOrAfter != null) {
+                cache.put(key, crypto, notOnOrAfter.getTime(), claims);
+            }
+        } else if (log.isDebugEnabled()) {
+            log.debug("SAML Assertion " + assertion.getId() + " was verified before");
+        }
+        return claims;
+    }
+
     public SAMLAssertion handleSAMLToken(Element token) throws WSSecurityException {
         boolean result = false;
         SAMLAssertion assertion = null;
@@ -48,9 +48,11 @@ import org.apache.ws.security.saml.SAML2KeyInfo;
 import org.apache.ws.security.saml.SAML2Util;
 import org.apache.ws.security.saml.SAMLKeyInfo;
 import org.apache.ws.security.saml.SAMLUtil;
+import org.apache.ws.security.stream.StreamedMessage;
 import org.apache.ws.security.transform.STRTransform;
 import org.apache.ws.security.transform.STRTransformUtil;
 import org.apache.ws.security.util.WSSecurityUtil;
+import org.apache.ws.security.util.XOPUtil;
 import org.apache.xml.security.exceptions.XMLSecurityException;
 import org.apache.xml.security.keys.KeyInfo;
 import org.apache.xml.security.keys.keyresolver.KeyResolverException;
@@ -70,6 +72,7 @@ import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.CallbackHandler;
 import javax.xml.namespace.QName;
 
+import java.security.Key;
 import java.security.Principal;
 import java.security.cert.CertificateExpiredException;
 import java.security.cert.CertificateNotYetValidException;
@@ -86,6 +89,8 @@ public class SignatureProcessor implements Processor {
     private String signatureId;
     
     private Vector returnResults;
+    
+    private WSSConfig wssConfig;
 
     private X509Certificate[] certificates;
     
@@ -116,11 +121,13 @@ public class SignatureProcessor implements Processor {
         byte[][] signatureValue = new byte[1][];
         Principal lastPrincipalFound = null;
         this.returnResults = returnResults;
+        wssConfig = wsc;
         secretKeyLength = wsc.getSecretKeyLength();
         signatureMethod = c14nMethod = null;
         certificates = null;
         
         try {
+            checkLimits(elem, wsc);
             lastPrincipalFound = 
                 verifyXMLSignature(
                     elem, crypto, returnCert, returnElements,
@@ -181,6 +188,40 @@ public class SignatureProcessor implements Processor {
         secretKey = null;
     }
 
+    /**
+     * Check the number of References of the Signature and of Transforms of each
+     * Reference against the limits of the WSSConfig, before the Signature is parsed.
+     */
+    private static void checkLimits(Element elem, WSSConfig wsc) throws WSSecurityException {
+        Element signedInfo = 
+            WSSecurityUtil.getDirectChildElement(elem, "SignedInfo", WSConstants.SIG_NS);
+        if (signedInfo == null) {
+            return;
+        }
+        int references = 0;
+        for (Node node = signedInfo.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (Node.ELEMENT_NODE == node.getNodeType()
+                && "Reference".equals(node.getLocalName())
+                && WSConstants.SIG_NS.equals(node.getNamespaceURI())) {
+                wsc.checkLimit(
+                    WSSConfig.MAX_SIGNATURE_REFERENCES, ++references, 
+                    wsc.getMaxSignatureReferences()
+                );
+                Element transforms = 
+                    WSSecurityUtil.getDirectChildElement(node, "Transforms", WSConstants.SIG_NS);
+                if (transforms != null) {
+                    wsc.checkLimit(
+                        WSSConfig.MAX_REFERENCE_TRANSFORMS,
+                        WSSecurityUtil.countDirectChildElements(
+                            transforms, "Transform", WSConstants.SIG_NS
+                        ),
+                        wsc.getMaxReferenceTransforms()
+                    );
+                }
+            }
+        }
+    }
+
     /**
      * Verify the WS-Security signature.
      * 
@@ -314,7 +355,7 @@ public class SignatureProcessor implements Processor {
                 if (uri.charAt(0) == '#') {
                     uri = uri.substring(1);
                 }
-                Processor processor = wsDocInfo.getProcessor(uri);
+                Processor processor = wsDocInfo.resolveProcessor(uri);
                 if (processor == null) {
                     Element token = secRef.getTokenElement(elem.getOwnerDocument(), wsDocInfo, cb);
                     //
@@ -322,16 +363,17 @@ public class SignatureProcessor implements Processor {
                     //
                     QName el = new QName(token.getNamespaceURI(), token.getLocalName());
                     if (el.equals(WSSecurityEngine.binaryToken)) {
+                        new BinarySecurity(token).resolveAttachment(cb, wssConfig);
                         certs = getCertificatesTokenReference(token, crypto);
                         if (certs != null && certs.length > 1) {
                             validateCertificateChain = true;
                         }
                     } else if (el.equals(WSSecurityEngine.SAML_TOKEN)) {
-                        samlKi = SAMLUtil.getSAMLKeyInfo(token, crypto, cb);
+                        samlKi = SAMLUtil.getSAMLKeyInfo(token, crypto, cb, wsDocInfo);
                         certs = samlKi.getCerts();
                         secretKey = samlKi.getSecret();
 					} else if (el.equals(WSSecurityEngine.SAML2_TOKEN)) {
-						saml2Ki = SAML2Util.getSAML2KeyInfo(token, crypto, cb);
+						saml2Ki = SAML2Util.getSAML2KeyInfo(token, crypto, cb, wsDocInfo);
 						certs = saml2Ki.getCerts();
 						secretKey = saml2Ki.getSecret();
 
@@ -412,7 +454,7 @@ public class SignatureProcessor implements Processor {
                         );
                     }
                     SAMLTokenProcessor samlp = (SAMLTokenProcessor) processor;
-                    samlKi = SAMLUtil.getSAMLKeyInfo(samlp.getSamlTokenElement(), crypto, cb);
+                    samlKi = SAMLUtil.getSAMLKeyInfo(samlp.getSamlTokenElement(), crypto, cb, wsDocInfo);
                     certs = samlKi.getCerts();
                     secretKey = samlKi.getSecret();
                     publicKey = samlKi.getPublicKey();
@@ -421,7 +463,7 @@ public class SignatureProcessor implements Processor {
 						throw new WSSecurityException(0, "noSigCryptoFile");
 					SAML2TokenProcessor samlp = (SAML2TokenProcessor) processor;
 					saml2Ki = SAML2Util.getSAML2KeyInfo(
-							samlp.getSamlTokenElement(), crypto, cb);
+							samlp.getSamlTokenElement(), crypto, cb, wsDocInfo);
 					certs = saml2Ki.getCerts();
 					secretKey = saml2Ki.getSecret();
 				}
@@ -453,7 +495,7 @@ public class SignatureProcessor implements Processor {
                     Element token = 
                         secRef.getKeyIdentifierTokenElement(elem.getOwnerDocument(), wsDocInfo, cb);
 
-                    samlKi = SAMLUtil.getSAMLKeyInfo(token, crypto, cb);
+                    samlKi = SAMLUtil.getSAMLKeyInfo(token, crypto, cb, wsDocInfo);
                     certs = samlKi.getCerts();
                     secretKey = samlKi.getSecret();
                     publicKey = samlKi.getPublicKey();
@@ -461,7 +503,7 @@ public class SignatureProcessor implements Processor {
 						.getKeyIdentifierValueType())) {
 					Element token = secRef.getKeyIdentifierTokenElement(
 							elem.getOwnerDocument(), wsDocInfo, cb);
-					saml2Ki = SAML2Util.getSAML2KeyInfo(token, crypto, cb);
+					saml2Ki = SAML2Util.getSAML2KeyInfo(token, crypto, cb, wsDocInfo);
 					certs = saml2Ki.getCerts();
 					secretKey = saml2Ki.getSecret();
                 } else {
@@ -537,7 +579,18 @@ public class SignatureProcessor implements Processor {
         }
         try {
             boolean signatureOk = false;
-            if (certs != null) {
+            StreamedMessage streamedMessage = wsDocInfo.getStreamedMessage();
+            if (streamedMessage != null) {
+                Key key;
+                if (certs != null) {
+                    key = certs[0].getPublicKey();
+                } else if (publicKey != null) {
+                    key = publicKey;
+                } else {
+                    key = sig.createSecretKey(secretKey);
+                }
+                signatureOk = streamedMessage.checkSignatureValue(sig, key);
+            } else if (certs != null) {
                 signatureOk = sig.checkSignatureValue(certs[0]);
             } else if (publicKey != null) {
                 signatureOk = sig.checkSignatureValue(publicKey);
@@ -624,6 +677,16 @@ public class SignatureProcessor implements Processor {
                         if (se == null) {
                             throw new WSSecurityException(WSSecurityException.FAILED_CHECK);
                         }
+                        //
+                        // The digest covers an xop:Include, but not the 
+                        // content of the attachment it references
+                        //
+                        if (XOPUtil.containsInclude(se)) {
+                            throw new WSSecurityException(
+                                WSSecurityException.FAILED_CHECK, "xopSigned", 
+                                new Object[] {uri}
+                            );
+                        }
                         WSDataRef ref = new WSDataRef(uri);
                         ref.setWsuId(uri);
                         ref.setName(new QName(se.getNamespaceURI(), se.getLocalName()));
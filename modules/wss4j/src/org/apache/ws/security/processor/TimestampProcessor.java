@@ -28,12 +28,10 @@ import org.apache.ws.security.WSSecurityEngineResult;
 import org.apache.ws.security.WSSecurityException;
 import org.apache.ws.security.components.crypto.Crypto;
 import org.apache.ws.security.message.token.Timestamp;
-import org.apache.ws.security.util.XmlSchemaDateFormat;
+import org.apache.ws.security.util.XmlSchemaDateTime;
 import org.w3c.dom.Element;
 
 import javax.security.auth.callback.CallbackHandler;
-import java.text.DateFormat;
-import java.util.Calendar;
 import java.util.Vector;
 
 public class TimestampProcessor implements Processor {
@@ -71,22 +69,19 @@ public class TimestampProcessor implements Processor {
         if (log.isDebugEnabled()) {
             log.debug("Preparing to verify the timestamp");
 
-            DateFormat zulu = new XmlSchemaDateFormat();
-
-            log.debug("Current time: " + zulu.format(Calendar.getInstance().getTime()));
-            if (timestamp.getCreated() != null) {
-                log.debug("Timestamp created: " + zulu.format(timestamp.getCreated().getTime()));
+            log.debug("Current time: " + XmlSchemaDateTime.format(System.currentTimeMillis()));
+            if (timestamp.getCreatedTime() != Timestamp.UNDEFINED) {
+                log.debug("Timestamp created: " + XmlSchemaDateTime.format(timestamp.getCreatedTime()));
             }
-            if (timestamp.getExpires() != null) {
-                log.debug("Timestamp expires: " + zulu.format(timestamp.getExpires().getTime()));
+            if (timestamp.getExpiresTime() != Timestamp.UNDEFINED) {
+                log.debug("Timestamp expires: " + XmlSchemaDateTime.format(timestamp.getExpiresTime()));
             }
         }
 
         // Validate whether the security semantics have expired
-        Calendar exp = timestamp.getExpires();
-        if (exp != null && wssConfig.isTimeStampStrict()) {
-            Calendar rightNow = Calendar.getInstance();
-            if (exp.before(rightNow)) {
+        long exp = timestamp.getExpiresTime();
+        if (exp != Timestamp.UNDEFINED && wssConfig.isTimeStampStrict()) {
+            if (exp < System.currentTimeMillis()) {
                 throw new WSSecurityException(
                     WSSecurityException.MESSAGE_EXPIRED,
                     "invalidTimestamp",
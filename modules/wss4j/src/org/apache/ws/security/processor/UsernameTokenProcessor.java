@@ -48,6 +48,7 @@ public class UsernameTokenProcessor implements Processor {
     private boolean handleCustomPasswordTypes;
     private boolean allowNamespaceQualifiedPasswordTypes;
     private boolean passwordsAreEncoded;
+    private WSSConfig wssConfig;
     
     public void handleToken(Element elem, Crypto crypto, Crypto decCrypto, CallbackHandler cb, 
         WSDocInfo wsDocInfo, Vector returnResults, WSSConfig wsc) throws WSSecurityException {
@@ -57,6 +58,7 @@ public class UsernameTokenProcessor implements Processor {
         handleCustomPasswordTypes = wsc.getHandleCustomPasswordTypes();
         allowNamespaceQualifiedPasswordTypes = wsc.getAllowNamespaceQualifiedPasswordTypes();
         passwordsAreEncoded = wsc.getPasswordsAreEncoded();
+        wssConfig = wsc;
         
         Principal lastPrincipalFound = handleUsernameToken((Element) elem, cb);
         returnResults.add(
@@ -95,6 +97,9 @@ public class UsernameTokenProcessor implements Processor {
         //
         ut = new UsernameToken(token, allowNamespaceQualifiedPasswordTypes);
         ut.setPasswordsAreEncoded(passwordsAreEncoded);
+        if (wssConfig != null) {
+            checkLimits(ut, wssConfig);
+        }
         String user = ut.getName();
         String password = ut.getPassword();
         String nonce = ut.getNonce();
@@ -194,6 +199,23 @@ public class UsernameTokenProcessor implements Processor {
         return principal;
     }
 
+    /**
+     * Check the Iteration value used to derive a key from the UsernameToken
+     * against the limit of the WSSConfig, before the callback is called.
+     */
+    private static void checkLimits(UsernameToken ut, WSSConfig wsc) throws WSSecurityException {
+        int iteration;
+        try {
+            iteration = ut.getIteration();
+        } catch (NumberFormatException e) {
+            // reported when the key is derived
+            return;
+        }
+        wsc.checkLimit(
+            WSSConfig.MAX_DERIVED_KEY_ITERATIONS, iteration, wsc.getMaxDerivedKeyIterations()
+        );
+    }
+
     /* (non-Javadoc)
      * @see org.apache.ws.security.processor.Processor#getId()
      */
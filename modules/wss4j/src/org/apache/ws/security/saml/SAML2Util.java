@@ -35,11 +35,10 @@ import javax.crypto.SecretKey;
 import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.CallbackHandler;
 import javax.xml.namespace.QName;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.WSDocInfo;
 import org.apache.ws.security.WSPasswordCallback;
 import org.apache.ws.security.WSSecurityEngine;
 import org.apache.ws.security.WSSecurityException;
@@ -109,6 +108,57 @@ public class SAML2Util {
     }
     public static SAML2KeyInfo getSAML2KeyInfo(Element elem, Crypto crypto,
                                               CallbackHandler cb) throws WSSecurityException {
+        return getSAML2KeyInfo(elem, crypto, cb, null);
+    }
+
+    /**
+     * Extract certificates or the key available in the SAMLAssertion. The
+     * assertion is unmarshalled only if it is not in the assertion registry of
+     * the message yet.
+     *
+     * @param elem
+     * @param docInfo the document info of the message, may be null
+     * @return the SAML2 Key Info
+     * @throws org.apache.ws.security.WSSecurityException
+     */
+    public static SAML2KeyInfo getSAML2KeyInfo(Element elem, Crypto crypto,
+                                              CallbackHandler cb, WSDocInfo docInfo)
+        throws WSSecurityException {
+        // Check for duplicate saml:Assertion
+        NodeList list = elem.getElementsByTagNameNS(WSConstants.SAML2_NS, "Assertion");
+        if (list != null && list.getLength() > 0) {
+            throw new WSSecurityException("invalidSAMLSecurity");
+        }
+        Assertion assertion = getAssertion(elem, docInfo);
+        return getSAML2KeyInfo(assertion, crypto, cb);
+    }
+
+    /**
+     * Get the unmarshalled form of an assertion element. If a document info is
+     * given, the assertion is taken from its assertion registry, or unmarshalled
+     * and registered if it is not there yet.
+     *
+     * @param elem the saml2:Assertion element
+     * @param docInfo the document info of the message, may be null
+     * @return the SAML 2.0 assertion
+     * @throws WSSecurityException if the assertion cannot be unmarshalled
+     */
+    public static Assertion getAssertion(Element elem, WSDocInfo docInfo)
+        throws WSSecurityException {
+        if (docInfo == null) {
+            return unmarshallAssertion(elem);
+        }
+        SAMLAssertionRegistry registry = docInfo.getSAMLAssertionRegistry();
+        Object assertion = registry.getAssertion(elem);
+        if (assertion instanceof Assertion) {
+            return (Assertion) assertion;
+        }
+        Assertion saml2Assertion = unmarshallAssertion(elem);
+        registry.register(elem, saml2Assertion.getID(), saml2Assertion);
+        return saml2Assertion;
+    }
+
+    private static Assertion unmarshallAssertion(Element elem) throws WSSecurityException {
         Assertion assertion;
 
         //build the assertion by unmarhalling the DOM element.
@@ -116,15 +166,9 @@ public class SAML2Util {
             doBootstrap();
 
             String keyInfoElementString = elem.toString();
-            DocumentBuilderFactory documentBuilderFactory = XMLUtils.getSecuredDocumentBuilder();
-            DocumentBuilder docBuilder = documentBuilderFactory.newDocumentBuilder();
-            Document document = docBuilder.parse(new ByteArrayInputStream(keyInfoElementString.trim().getBytes()));
+            Document document = 
+                XMLUtils.parse(new ByteArrayInputStream(keyInfoElementString.trim().getBytes()));
             Element element = document.getDocumentElement();
-            // Check for duplicate saml:Assertion
-			NodeList list = element.getElementsByTagNameNS( WSConstants.SAML2_NS,"Assertion");
-			if (list != null && list.getLength() > 0) {
-				throw new WSSecurityException("invalidSAMLSecurity");
-			}
 
             UnmarshallerFactory unmarshallerFactory = Configuration
                     .getUnmarshallerFactory();
@@ -145,7 +189,7 @@ public class SAML2Util {
             throw new WSSecurityException(
                     WSSecurityException.FAILURE, "Failure in unmarshelling the assertion", null, e);
         }
-        return getSAML2KeyInfo(assertion, crypto, cb);
+        return assertion;
 
     }
 
@@ -246,7 +290,7 @@ public class SAML2Util {
                             return new SAML2KeyInfo(assertion, proc.getDecryptedBytes());
                         } else if (el.equals(new QName(WSConstants.WST_NS, "BinarySecret"))) {
                             Text txt = (Text) child.getFirstChild();
-                            return new SAML2KeyInfo(assertion, Base64.decode(txt.getData()));
+                            return new SAML2KeyInfo(assertion, Base64.decode(txt));
                         } else if (el.equals(new QName(WSConstants.SIG_NS, "X509Data"))) {
 			    X509Certificate[] certs = null;
                             try {
@@ -366,8 +410,7 @@ public class SAML2Util {
         }
 
         try {
-            DocumentBuilderFactory dbFactory = XMLUtils.getSecuredDocumentBuilder();
-            Document document = dbFactory.newDocumentBuilder().newDocument();
+            Document document = XMLUtils.newDocument();
             Element element = document.createElement("SAMLTimestamp");
 
             Element createdElement = document.createElementNS(WSConstants.WSU_NS, WSConstants.CREATED_LN);
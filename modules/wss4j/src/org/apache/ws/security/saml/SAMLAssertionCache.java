@@ -0,0 +1,165 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ws.security.saml;
+
+import org.apache.ws.security.WSSecurityException;
+import org.apache.ws.security.components.crypto.Crypto;
+import org.apache.ws.security.util.Base64;
+import org.apache.xml.security.c14n.Canonicalizer;
+import org.w3c.dom.Element;
+
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A bounded cache of SAML assertions whose issuer signature was verified. <p/>
+ *
+ * Clients usually present the same issuer-signed assertion with every request
+ * until it expires. An assertion is cached under its assertion Id together with
+ * a SHA-256 digest of its exclusive canonical form, so a re-presented assertion
+ * is recognised only if it is unchanged. An entry records the signature Crypto
+ * that was used to verify the assertion and is valid for this Crypto only,
+ * until the NotOnOrAfter time of the assertion. Assertions without a
+ * NotOnOrAfter time are not cached. <p/>
+ *
+ * When the cache is full the least recently used entry is removed. The cache
+ * may be shared by all threads that use the same <code>WSSConfig</code>.
+ */
+public class SAMLAssertionCache {
+
+    /**
+     * The name of the cache, as reported to the metrics
+     */
+    public static final String NAME = "samlAssertion";
+
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private final Map entries;
+
+    /**
+     * A verified assertion
+     */
+    private static class Entry {
+        final Crypto crypto;
+        final long expires;
+        final Set claims;
+
+        Entry(Crypto crypto, long expires, Set claims) {
+            this.crypto = crypto;
+            this.expires = expires;
+            this.claims = claims;
+        }
+    }
+
+    public SAMLAssertionCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries the maximum number of assertions to keep
+     */
+    public SAMLAssertionCache(final int maxEntries) {
+        entries = new LinkedHashMap(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Compute the cache key of an assertion.
+     *
+     * @param id the assertion Id
+     * @param elem the assertion element
+     * @return the assertion Id and the digest of the canonical assertion
+     * @throws WSSecurityException if the assertion cannot be canonicalized
+     */
+    public static String getKey(String id, Element elem) throws WSSecurityException {
+        try {
+            Canonicalizer c14n = 
+                Canonicalizer.getInstance(Canonicalizer.ALGO_ID_C14N_EXCL_OMIT_COMMENTS);
+            byte[] canonical = c14n.canonicalizeSubtree(elem);
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(canonical);
+            return id + "#" + Base64.encode(digest);
+        } catch (Exception e) {
+            throw new WSSecurityException(
+                WSSecurityException.FAILURE, "invalidSAMLSecurity", 
+                new Object[] {"cannot compute digest"}, e
+            );
+        }
+    }
+
+    /**
+     * Get the claims of a verified assertion.
+     *
+     * @param key the key of the assertion, see <code>getKey</code>
+     * @param crypto the signature Crypto that must have verified the assertion
+     * @return a copy of the claims of the assertion, or <code>null</code> if the
+     *         assertion was not verified with this Crypto or has expired
+     */
+    public synchronized Set get(String key, Crypto crypto) {
+        Entry entry = (Entry) entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expires <= System.currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        if (entry.crypto != crypto) {
+            return null;
+        }
+        return new TreeSet(entry.claims);
+    }
+
+    /**
+     * Record a verified assertion.
+     *
+     * @param key the key of the assertion, see <code>getKey</code>
+     * @param crypto the signature Crypto that verified the assertion
+     * @param expires the NotOnOrAfter time of the assertion in milliseconds,
+     *                the assertion is not cached if it is 0 or in the past
+     * @param claims the claims of the assertion
+     */
+    public synchronized void put(String key, Crypto crypto, long expires, Set claims) {
+        if (expires <= System.currentTimeMillis()) {
+            return;
+        }
+        entries.put(key, new Entry(crypto, expires, new TreeSet(claims)));
+    }
+
+    /**
+     * @return the number of cached assertions, including expired ones that were
+     *         not removed yet
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Remove all assertions.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ws.security.saml;
+
+import org.w3c.dom.Element;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Holds the SAML assertions that were parsed while processing one message. <p/>
+ *
+ * Parsing a SAML 1.1 assertion into an OpenSAML <code>SAMLAssertion</code>, or
+ * unmarshalling a SAML 2.0 assertion, is expensive. A message that uses a
+ * holder-of-key assertion refers to the same assertion element from several
+ * places (the assertion itself, the Signature and EncryptedKey KeyInfos, derived
+ * keys). The registry is kept in the <code>WSDocInfo</code> of the message so
+ * that each assertion element is parsed once. <p/>
+ *
+ * Assertions are registered by element identity and by their assertion Id
+ * (<code>AssertionID</code> for SAML 1.1, <code>ID</code> for SAML 2.0).
+ */
+public class SAMLAssertionRegistry {
+
+    /**
+     * Parsed assertions, of the form <Element, assertion object>
+     */
+    private final Map assertions = new IdentityHashMap();
+
+    /**
+     * Assertion elements, of the form <String, Element>
+     */
+    private final Map elements = new HashMap();
+
+    /**
+     * Get the parsed assertion of an assertion element.
+     *
+     * @param elem the assertion element
+     * @return the parsed assertion (a <code>SAMLAssertion</code> or a SAML 2.0
+     *         <code>Assertion</code>), or <code>null</code> if the element was not
+     *         parsed yet
+     */
+    public Object getAssertion(Element elem) {
+        return assertions.get(elem);
+    }
+
+    /**
+     * Get an assertion element by its assertion Id.
+     *
+     * @param id the value of the AssertionID or ID attribute
+     * @return the assertion element or <code>null</code> if no assertion with
+     *         this Id was registered
+     */
+    public Element getElement(String id) {
+        return (Element) elements.get(id);
+    }
+
+    /**
+     * Register a parsed assertion.
+     *
+     * @param elem the assertion element
+     * @param id the assertion Id, may be <code>null</code>
+     * @param assertion the parsed assertion
+     */
+    public void register(Element elem, String id, Object assertion) {
+        assertions.put(elem, assertion);
+        if (id != null && !elements.containsKey(id)) {
+            elements.put(id, elem);
+        }
+    }
+
+    /**
+     * Remove all assertions.
+     */
+    public void clear() {
+        assertions.clear();
+        elements.clear();
+    }
+}
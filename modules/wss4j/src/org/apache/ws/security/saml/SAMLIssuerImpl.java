@@ -25,12 +25,13 @@ import org.apache.ws.security.WSConstants;
 import org.apache.ws.security.WSSecurityException;
 import org.apache.ws.security.components.crypto.Crypto;
 import org.apache.ws.security.components.crypto.CryptoFactory;
+import org.apache.ws.security.util.WSSecurityUtil;
+import org.apache.ws.security.util.XMLUtils;
 import org.apache.xml.security.exceptions.XMLSecurityException;
 import org.apache.xml.security.keys.KeyInfo;
 import org.apache.xml.security.keys.content.X509Data;
 import org.apache.xml.security.keys.content.keyvalues.DSAKeyValue;
 import org.apache.xml.security.keys.content.keyvalues.RSAKeyValue;
-import org.apache.xml.security.signature.XMLSignature;
 import org.opensaml.SAMLAssertion;
 import org.opensaml.SAMLAuthenticationStatement;
 import org.opensaml.SAMLException;
@@ -45,6 +46,8 @@ import java.security.cert.X509Certificate;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
 
 /**
@@ -57,6 +60,71 @@ public class SAMLIssuerImpl implements SAMLIssuer {
 
     private static final Log log = LogFactory.getLog(SAMLIssuerImpl.class.getName());
 
+    /**
+     * The maximum number of issued assertions kept for reuse
+     */
+    private static final int MAX_ISSUED = 100;
+
+    /**
+     * Signed assertions kept for reuse, of the form <IssuedKey, Issued>. The
+     * least recently used assertion is removed when the map is full.
+     */
+    private static final Map issued = new LinkedHashMap(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry eldest) {
+            return size() > MAX_ISSUED;
+        }
+    };
+
+    /**
+     * Identifies the assertions that are interchangeable: same issuer
+     * configuration, same user and same key material.
+     */
+    private static class IssuedKey {
+        private final Properties properties;
+        private final String username;
+        private final X509Certificate cert;
+
+        IssuedKey(Properties properties, String username, X509Certificate cert) {
+            this.properties = properties;
+            this.username = username;
+            this.cert = cert;
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof IssuedKey)) {
+                return false;
+            }
+            IssuedKey key = (IssuedKey) obj;
+            return properties.equals(key.properties)
+                && (username == null ? key.username == null : username.equals(key.username))
+                && (cert == null ? key.cert == null : cert.equals(key.cert));
+        }
+
+        public int hashCode() {
+            int hash = properties.hashCode();
+            if (username != null) {
+                hash = 31 * hash + username.hashCode();
+            }
+            if (cert != null) {
+                hash = 31 * hash + cert.hashCode();
+            }
+            return hash;
+        }
+    }
+
+    /**
+     * A signed assertion, kept in a private document
+     */
+    private static class Issued {
+        private final Element element;
+        private final long renewAt;
+
+        Issued(Element element, long renewAt) {
+            this.element = element;
+            this.renewAt = renewAt;
+        }
+    }
+
     private SAMLAssertion sa = null;
 
     private Document instanceDoc = null;
@@ -80,6 +148,19 @@ public class SAMLIssuerImpl implements SAMLIssuer {
     * is set to true, a ds:KeyValue is used instead with just the key material.
     */
     private boolean sendKeyValue = false;
+    
+    /**
+     * The validity of an assertion in seconds, from its creation. The default of
+     * 0 creates assertions without NotBefore and NotOnOrAfter.
+     */
+    private int validity = 0;
+
+    /**
+     * The fraction of the validity for which a signed (holder-of-key) assertion
+     * is reused for further messages before a new one is issued. The default of
+     * 0 issues a new assertion for every message.
+     */
+    private double reuseFraction = 0;
 
     /**
      * Constructor.
@@ -114,6 +195,17 @@ public class SAMLIssuerImpl implements SAMLIssuer {
             sendKeyValue = Boolean.valueOf(sendKeyValueProp).booleanValue();
         }
 
+        String validityProp =
+            properties.getProperty("org.apache.ws.security.saml.issuer.validity");
+        if (validityProp != null) {
+            validity = Integer.parseInt(validityProp.trim());
+        }
+        String reuseProp =
+            properties.getProperty("org.apache.ws.security.saml.issuer.reuseFraction");
+        if (reuseProp != null) {
+            reuseFraction = Double.parseDouble(reuseProp.trim());
+        }
+
         if ("senderVouches"
                 .equals(properties.getProperty("org.apache.ws.security.saml.confirmationMethod"))) {
             confirmationMethods[0] = SAMLSubject.CONF_SENDER_VOUCHES;
@@ -130,11 +222,98 @@ public class SAMLIssuerImpl implements SAMLIssuer {
      * Creates a new <code>SAMLAssertion</code>.
      * <p/>
      * <p/>
-     * A complete <code>SAMLAssertion</code> is constructed.
+     * A complete <code>SAMLAssertion</code> is constructed. If a validity and a
+     * reuse fraction are configured, a signed (holder-of-key) assertion is
+     * reused for further messages of the same user until the reuse fraction of
+     * its validity has passed. The first request after this point issues a new
+     * assertion, while the previous one is still valid.
      *
      * @return SAMLAssertion
      */
     public SAMLAssertion newAssertion() { // throws Exception {
+        if (senderVouches || validity <= 0 || reuseFraction <= 0) {
+            return createAssertion();
+        }
+        IssuedKey key = new IssuedKey(properties, username, getUserCertificate());
+        long now = System.currentTimeMillis();
+        Issued previous = null;
+        synchronized (issued) {
+            previous = (Issued) issued.get(key);
+        }
+        if (previous != null && now < previous.renewAt) {
+            SAMLAssertion assertion = reuseAssertion(previous);
+            if (assertion != null) {
+                return assertion;
+            }
+        }
+
+        SAMLAssertion assertion = createAssertion();
+        if (assertion == null) {
+            return null;
+        }
+        try {
+            // keep a private copy, the assertion itself goes to the caller
+            Document doc = XMLUtils.newDocument();
+            Element element = (Element) doc.importNode(assertion.toDOM(), true);
+            doc.appendChild(element);
+            long renewAt = now + (long) (validity * 1000L * reuseFraction);
+            synchronized (issued) {
+                issued.put(key, new Issued(element, renewAt));
+            }
+        } catch (Exception ex) {
+            if (log.isDebugEnabled()) {
+                log.debug(ex.getMessage(), ex);
+            }
+        }
+        return assertion;
+    }
+
+    /**
+     * Create a copy of an issued assertion in the instance document.
+     *
+     * @return the copy, or null if it cannot be created
+     */
+    private SAMLAssertion reuseAssertion(Issued previous) {
+        try {
+            Document doc = instanceDoc != null ? instanceDoc : XMLUtils.newDocument();
+            Element element = null;
+            synchronized (previous) {
+                element = (Element) doc.importNode(previous.element, true);
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Reusing SAMLAssertion " + element.getAttributeNS(null, "AssertionID"));
+            }
+            sa = new SAMLAssertion(element);
+            return sa;
+        } catch (Exception ex) {
+            if (log.isDebugEnabled()) {
+                log.debug(ex.getMessage(), ex);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return the first certificate of the user, or null if there is none
+     */
+    private X509Certificate getUserCertificate() {
+        if (userCrypto == null || username == null) {
+            return null;
+        }
+        try {
+            X509Certificate[] certs = userCrypto.getCertificates(username);
+            return certs == null || certs.length == 0 ? null : certs[0];
+        } catch (WSSecurityException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates and, for holder-of-key, signs a new <code>SAMLAssertion</code>.
+     *
+     * @return SAMLAssertion
+     */
+    private SAMLAssertion createAssertion() {
         log.debug("Begin add SAMLAssertion token...");
 
         /*
@@ -174,10 +353,16 @@ public class SAMLIssuerImpl implements SAMLIssuer {
                                 subjectIP,
                                 null,
                                 bindings)};
+            Date notBefore = null;
+            Date notOnOrAfter = null;
+            if (validity > 0) {
+                notBefore = new Date();
+                notOnOrAfter = new Date(notBefore.getTime() + validity * 1000L);
+            }
             sa =
                     new SAMLAssertion(issuer,
-                            null,
-                            null,
+                            notBefore,
+                            notOnOrAfter,
                             null,
                             null,
                             Arrays.asList(statements));
@@ -224,13 +409,8 @@ public class SAMLIssuerImpl implements SAMLIssuer {
                     X509Certificate[] issuerCerts =
                             issuerCrypto.getCertificates(issuerKeyName);
 
-                    String sigAlgo = XMLSignature.ALGO_ID_SIGNATURE_RSA;
-                    String pubKeyAlgo =
-                            issuerCerts[0].getPublicKey().getAlgorithm();
-                    log.debug("automatic sig algo detection: " + pubKeyAlgo);
-                    if (pubKeyAlgo.equalsIgnoreCase("DSA")) {
-                        sigAlgo = XMLSignature.ALGO_ID_SIGNATURE_DSA;
-                    }
+                    String sigAlgo = 
+                        WSSecurityUtil.getSignatureAlgorithm(issuerCerts[0].getPublicKey());
                     java.security.Key issuerPK =
                             issuerCrypto.getPrivateKey(issuerKeyName,
                                     issuerKeyPassword);
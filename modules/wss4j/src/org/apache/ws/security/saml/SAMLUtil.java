@@ -20,6 +20,7 @@ package org.apache.ws.security.saml;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.WSDocInfo;
 import org.apache.ws.security.WSPasswordCallback;
 import org.apache.ws.security.WSSecurityEngine;
 import org.apache.ws.security.WSSecurityException;
@@ -52,7 +53,6 @@ import org.w3c.dom.Text;
 import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.CallbackHandler;
 import javax.xml.namespace.QName;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import java.security.cert.X509Certificate;
 import java.util.Iterator;
@@ -75,6 +75,20 @@ public class SAMLUtil {
      */
     public static SAMLKeyInfo getSAMLKeyInfo(Element elem, Crypto crypto,
             CallbackHandler cb) throws WSSecurityException {
+        return getSAMLKeyInfo(elem, crypto, cb, null);
+    }
+
+    /**
+     * Extract certificates or the key available in the SAMLAssertion. The
+     * assertion is parsed only if it is not in the assertion registry of the
+     * message yet.
+     * @param elem
+     * @param docInfo the document info of the message, may be null
+     * @return the SAML Key Info
+     * @throws WSSecurityException
+     */
+    public static SAMLKeyInfo getSAMLKeyInfo(Element elem, Crypto crypto,
+            CallbackHandler cb, WSDocInfo docInfo) throws WSSecurityException {
         SAMLAssertion assertion;
         try {
             // Check for duplicate saml:Assertion
@@ -82,7 +96,7 @@ public class SAMLUtil {
 			if (list != null && list.getLength() > 0) {
 				throw new WSSecurityException("invalidSAMLSecurity");
 			}
-            assertion = new SAMLAssertion(elem);
+            assertion = getAssertion(elem, docInfo);
             return getSAMLKeyInfo(assertion, crypto, cb);
         } catch (SAMLException e) {
             throw new WSSecurityException(WSSecurityException.FAILURE,
@@ -135,7 +149,7 @@ public class SAMLUtil {
                             return new SAMLKeyInfo(assertion, proc.getDecryptedBytes());
                         } else if (el.equals(new QName(WSConstants.WST_NS, "BinarySecret"))) {
                             Text txt = (Text)child.getFirstChild();
-                            return new SAMLKeyInfo(assertion, Base64.decode(txt.getData()));
+                            return new SAMLKeyInfo(assertion, Base64.decode(txt));
                         }
                     }
 
@@ -197,6 +211,21 @@ public class SAMLUtil {
      */
     public static X509Certificate[] getCertificatesFromSAML(Element elem)
             throws WSSecurityException {
+        return getCertificatesFromSAML(elem, null);
+    }
+
+    /**
+     * Extracts the certificate(s) from the SAML token reference. The assertion is
+     * parsed only if it is not in the assertion registry of the message yet.
+     * <p/>
+     *
+     * @param elem The element containing the SAML token.
+     * @param docInfo the document info of the message, may be null
+     * @return an array of X509 certificates
+     * @throws org.apache.ws.security.WSSecurityException
+     */
+    public static X509Certificate[] getCertificatesFromSAML(Element elem, WSDocInfo docInfo)
+            throws WSSecurityException {
 
         /*
          * Get some information about the SAML token content. This controls how
@@ -205,7 +234,7 @@ public class SAMLUtil {
          */
         SAMLAssertion assertion;
         try {
-            assertion = new SAMLAssertion(elem);
+            assertion = getAssertion(elem, docInfo);
         } catch (SAMLException e) {
             throw new WSSecurityException(WSSecurityException.FAILURE,
                     "invalidSAMLToken", new Object[]{"for Signature (cannot parse)"}, e);
@@ -271,6 +300,13 @@ public class SAMLUtil {
         Element assertionElement = (Element) WSSecurityUtil
                 .findElement(envelope, elemName, nmSpace);
 
+        // The Id is an attribute of the assertion, no need to parse it
+        if (assertionElement != null) {
+            String assertionId = assertionElement.getAttributeNS(null, "AssertionID");
+            if (assertionId.length() > 0) {
+                return assertionId;
+            }
+        }
         try {
             assertion = new SAMLAssertion(assertionElement);
             id = assertion.getId();
@@ -283,6 +319,31 @@ public class SAMLUtil {
         return id;
     }
 
+    /**
+     * Get the parsed form of an assertion element. If a document info is given,
+     * the assertion is taken from its assertion registry, or parsed and
+     * registered if it is not there yet.
+     *
+     * @param elem the saml:Assertion element
+     * @param docInfo the document info of the message, may be null
+     * @return the parsed assertion
+     * @throws SAMLException if the assertion cannot be parsed
+     */
+    public static SAMLAssertion getAssertion(Element elem, WSDocInfo docInfo)
+        throws SAMLException {
+        if (docInfo == null) {
+            return new SAMLAssertion(elem);
+        }
+        SAMLAssertionRegistry registry = docInfo.getSAMLAssertionRegistry();
+        Object assertion = registry.getAssertion(elem);
+        if (assertion instanceof SAMLAssertion) {
+            return (SAMLAssertion) assertion;
+        }
+        SAMLAssertion samlAssertion = new SAMLAssertion(elem);
+        registry.register(elem, samlAssertion.getId(), samlAssertion);
+        return samlAssertion;
+    }
+
      /**
      * Create a TimeStamp object from the SAML assertion.
      * @param assertion
@@ -298,8 +359,7 @@ public class SAMLUtil {
         }
 
         try {
-            DocumentBuilderFactory dbFactory = XMLUtils.getSecuredDocumentBuilder();
-            Document document =  dbFactory.newDocumentBuilder().newDocument();
+            Document document = XMLUtils.newDocument();
             Element element = document.createElement("SAMLTimestamp");
 
             Element createdElement =  document.createElementNS( WSConstants.WSU_NS,WSConstants.CREATED_LN);
@@ -36,6 +36,7 @@ import org.apache.ws.security.message.token.SecurityTokenReference;
 import org.apache.ws.security.message.token.X509Security;
 import org.apache.ws.security.transform.STRTransform;
 import org.apache.ws.security.util.WSSecurityUtil;
+import org.apache.ws.security.util.XOPUtil;
 import org.apache.xml.security.algorithms.SignatureAlgorithm;
 import org.apache.xml.security.exceptions.XMLSecurityException;
 import org.apache.xml.security.keys.KeyInfo;
@@ -301,21 +302,7 @@ public class WSSecSignatureSAML extends WSSecSignature {
                 key = publicKey;
             }
             
-            String pubKeyAlgo = key.getAlgorithm();
-            log.debug("automatic sig algo detection: " + pubKeyAlgo);
-            if (pubKeyAlgo.equalsIgnoreCase("DSA")) {
-                sigAlgo = XMLSignature.ALGO_ID_SIGNATURE_DSA;
-            } else if (pubKeyAlgo.equalsIgnoreCase("RSA")) {
-                sigAlgo = XMLSignature.ALGO_ID_SIGNATURE_RSA;
-            } else {
-                throw new WSSecurityException(
-                    WSSecurityException.FAILURE,
-                    "unknownSignatureAlgorithm",
-                    new Object[] {
-                        pubKeyAlgo
-                    }
-                );
-            }
+            sigAlgo = WSSecurityUtil.getSignatureAlgorithm(key);
         }
         sig = null;
         if (canonAlgo.equals(WSConstants.C14N_EXCL_OMIT_COMMENTS)) {
@@ -626,6 +613,7 @@ public class WSSecSignatureSAML extends WSSecSignature {
      * @throws WSSecurityException
      */
     public void computeSignature() throws WSSecurityException {
+        XOPUtil.checkSignedReferences(document, sig);
         boolean remove = WSDocInfoStore.store(wsDocInfo);
 
         try {
@@ -219,21 +219,7 @@ public class WSSignSAMLEnvelope extends WSSignEnvelope {
             );
         }
         if (sigAlgo == null) {
-            String pubKeyAlgo = certs[0].getPublicKey().getAlgorithm();
-            log.debug("automatic sig algo detection: " + pubKeyAlgo);
-            if (pubKeyAlgo.equalsIgnoreCase("DSA")) {
-                sigAlgo = XMLSignature.ALGO_ID_SIGNATURE_DSA;
-            } else if (pubKeyAlgo.equalsIgnoreCase("RSA")) {
-                sigAlgo = XMLSignature.ALGO_ID_SIGNATURE_RSA;
-            } else {
-                throw new WSSecurityException(
-                    WSSecurityException.FAILURE,
-                    "unknownSignatureAlgorithm",
-                    new Object[] {
-                        pubKeyAlgo
-                    }
-                );
-            }
+            sigAlgo = WSSecurityUtil.getSignatureAlgorithm(certs[0].getPublicKey());
         }
         XMLSignature sig = null;
         try {
@@ -0,0 +1,256 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ws.security.stream;
+
+import org.apache.ws.security.util.WSSecurityUtil;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+
+/**
+ * Reads the plaintext of an <code>xenc:CipherValue</code> while the element
+ * is read. <p/>
+ *
+ * The reader must be positioned at the start of the CipherValue. The text of
+ * the element is passed on to a content handler, Base64 decoded and decrypted
+ * as it is read. The cipher text starts with the IV. When the end
+ * of the plaintext was read, the reader is positioned at the end of the
+ * CipherValue.
+ */
+class DecryptingInputStream extends InputStream {
+    private static final byte[] DECODE = new byte[128];
+
+    static {
+        for (int i = 0; i < DECODE.length; i++) {
+            DECODE[i] = -1;
+        }
+        String alphabet = 
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            DECODE[alphabet.charAt(i)] = (byte) i;
+        }
+    }
+
+    private final XMLStreamReader reader;
+    private final ContentHandler handler;
+    private final String algorithm;
+    private final Cipher cipher;
+    private final SecretKey key;
+    private final byte[] iv;
+    private int ivLength;
+
+    private int quantum;
+    private int sextets;
+    private int padding;
+
+    private byte[] buffer = new byte[0];
+    private int position;
+    private boolean eof;
+
+    /**
+     * @param reader the reader, positioned at the start of the CipherValue
+     * @param handler the handler to pass the cipher text on to
+     * @param algorithm the URI of the encryption algorithm
+     * @param cipher the cipher for the encryption algorithm
+     * @param key the key to decrypt with
+     */
+    DecryptingInputStream(
+        XMLStreamReader reader, 
+        ContentHandler handler, 
+        String algorithm, 
+        Cipher cipher, 
+        SecretKey key
+    ) {
+        this.reader = reader;
+        this.handler = handler;
+        this.algorithm = algorithm;
+        this.cipher = cipher;
+        this.key = key;
+        iv = new byte[WSSecurityUtil.getIVLength(algorithm, cipher)];
+    }
+
+    public int read() throws IOException {
+        while (position == buffer.length) {
+            if (eof) {
+                return -1;
+            }
+            fill();
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (position == buffer.length) {
+            if (eof) {
+                return -1;
+            }
+            fill();
+        }
+        int n = Math.min(len, buffer.length - position);
+        System.arraycopy(buffer, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    /**
+     * Read the next text of the CipherValue and decrypt it.
+     */
+    private void fill() throws IOException {
+        position = 0;
+        buffer = new byte[0];
+        try {
+            int event = reader.next();
+            switch (event) {
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                char[] text = reader.getTextCharacters();
+                int start = reader.getTextStart();
+                int length = reader.getTextLength();
+                handler.characters(text, start, length);
+                byte[] data = decode(text, start, length);
+                update(data, data.length);
+                break;
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                handler.processingInstruction(reader.getPITarget(), reader.getPIData());
+                break;
+            case XMLStreamConstants.COMMENT:
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                byte[] tail = finish();
+                update(tail, tail.length);
+                if (ivLength < iv.length) {
+                    throw new IOException("The cipher value is too short");
+                }
+                byte[] last = cipher.doFinal();
+                buffer = concat(buffer, last);
+                eof = true;
+                break;
+            default:
+                throw new IOException("Unexpected content in the cipher value");
+            }
+        } catch (XMLStreamException ex) {
+            throw (IOException) new IOException(ex.getMessage()).initCause(ex);
+        } catch (SAXException ex) {
+            throw (IOException) new IOException(ex.getMessage()).initCause(ex);
+        } catch (GeneralSecurityException ex) {
+            throw (IOException) new IOException(ex.getMessage()).initCause(ex);
+        }
+    }
+
+    /**
+     * Decrypt the cipher text, after the IV was read from its start.
+     */
+    private void update(byte[] data, int length) throws GeneralSecurityException {
+        int offset = 0;
+        if (ivLength < iv.length) {
+            offset = Math.min(iv.length - ivLength, length);
+            System.arraycopy(data, 0, iv, ivLength, offset);
+            ivLength += offset;
+            if (ivLength < iv.length) {
+                return;
+            }
+            cipher.init(
+                Cipher.DECRYPT_MODE, key, WSSecurityUtil.getIVParameterSpec(algorithm, iv)
+            );
+        }
+        if (offset < length) {
+            byte[] plaintext = cipher.update(data, offset, length - offset);
+            if (plaintext != null) {
+                buffer = concat(buffer, plaintext);
+            }
+        }
+    }
+
+    /**
+     * Base64 decode the characters. The quantum of the last incomplete group of
+     * four characters is kept for the next call.
+     */
+    private byte[] decode(char[] text, int start, int length) throws IOException {
+        byte[] data = new byte[(sextets + length) / 4 * 3];
+        int n = 0;
+        for (int i = start; i < start + length; i++) {
+            char c = text[i];
+            if (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+                continue;
+            }
+            if (c == '=') {
+                padding++;
+                continue;
+            }
+            if (padding > 0 || c >= DECODE.length || DECODE[c] < 0) {
+                throw new IOException("Invalid Base64 data");
+            }
+            quantum = (quantum << 6) | DECODE[c];
+            if (++sextets == 4) {
+                data[n++] = (byte) (quantum >> 16);
+                data[n++] = (byte) (quantum >> 8);
+                data[n++] = (byte) quantum;
+                quantum = 0;
+                sextets = 0;
+            }
+        }
+        if (n == data.length) {
+            return data;
+        }
+        byte[] result = new byte[n];
+        System.arraycopy(data, 0, result, 0, n);
+        return result;
+    }
+
+    /**
+     * @return the bytes of a final, padded group of Base64 characters
+     */
+    private byte[] finish() throws IOException {
+        if (sextets == 0 && padding == 0) {
+            return new byte[0];
+        }
+        if (sextets == 3 && padding == 1) {
+            return new byte[] {(byte) (quantum >> 10), (byte) (quantum >> 2)};
+        }
+        if (sextets == 2 && padding == 2) {
+            return new byte[] {(byte) (quantum >> 4)};
+        }
+        throw new IOException("Invalid Base64 data");
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        if (a.length == 0) {
+            return b;
+        }
+        byte[] result = new byte[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
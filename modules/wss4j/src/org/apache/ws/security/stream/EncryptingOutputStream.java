@@ -0,0 +1,142 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ws.security.stream;
+
+import org.apache.ws.security.util.Base64;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+import javax.crypto.Cipher;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.security.GeneralSecurityException;
+
+/**
+ * Encrypts what is written to it and passes the Base64 encoded cipher text,
+ * preceded by the IV, to a content handler as characters.
+ */
+class EncryptingOutputStream extends OutputStream {
+    private final Cipher cipher;
+    private final Writer characters;
+
+    /**
+     * The bytes of an incomplete group of three, which are encoded with the
+     * next bytes or padded at the end
+     */
+    private final byte[] pending = new byte[3];
+    private int pendingLength;
+    private boolean closed;
+
+    /**
+     * @param cipher the cipher, initialized for encryption
+     * @param handler the handler to pass the Base64 characters to
+     */
+    EncryptingOutputStream(Cipher cipher, ContentHandler handler) throws IOException {
+        this.cipher = cipher;
+        characters = new CharactersWriter(handler);
+        byte[] iv = cipher.getIV();
+        if (iv != null) {
+            encode(iv, 0, iv.length);
+        }
+    }
+
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        byte[] cipherText = cipher.update(b, off, len);
+        if (cipherText != null) {
+            encode(cipherText, 0, cipherText.length);
+        }
+    }
+
+    /**
+     * Encrypt the final block and write the end of the Base64 characters
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            byte[] cipherText = cipher.doFinal();
+            encode(cipherText, 0, cipherText.length);
+        } catch (GeneralSecurityException ex) {
+            throw (IOException) new IOException(ex.getMessage()).initCause(ex);
+        }
+        Base64.encode(pending, 0, pendingLength, characters);
+        pendingLength = 0;
+    }
+
+    /**
+     * Encode the whole groups of three of the pending and the given bytes, 
+     * and keep the rest pending.
+     */
+    private void encode(byte[] data, int off, int len) throws IOException {
+        int end = off + len;
+        if (pendingLength > 0) {
+            while (pendingLength < 3 && off < end) {
+                pending[pendingLength++] = data[off++];
+            }
+            if (pendingLength < 3) {
+                return;
+            }
+            Base64.encode(pending, 0, 3, characters);
+            pendingLength = 0;
+        }
+        int whole = (end - off) - (end - off) % 3;
+        Base64.encode(data, off, whole, characters);
+        for (off += whole; off < end; off++) {
+            pending[pendingLength++] = data[off];
+        }
+    }
+
+    /**
+     * Passes the characters written to it to a content handler
+     */
+    private static class CharactersWriter extends Writer {
+        private final ContentHandler handler;
+
+        CharactersWriter(ContentHandler handler) {
+            this.handler = handler;
+        }
+
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            try {
+                handler.characters(cbuf, off, len);
+            } catch (SAXException ex) {
+                throw (IOException) new IOException(ex.getMessage()).initCause(ex);
+            }
+        }
+
+        public void flush() {
+        }
+
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ws.security.stream;
+
+import org.apache.ws.security.WSSecurityException;
+import org.apache.ws.security.util.WSSecurityUtil;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherOutputStream;
+import javax.crypto.SecretKey;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Writes a SOAP envelope and encrypts content of it while it is written. <p/>
+ *
+ * The content to encrypt has been removed from the document and an 
+ * EncryptedData with an empty CipherValue was put in its place. When the 
+ * CipherValue is written, the content is serialized, encrypted and Base64 
+ * encoded in chunks, so that neither the plaintext nor the cipher text is 
+ * held in memory as a whole.
+ */
+public class EnvelopeWriter {
+    private final Document doc;
+
+    /**
+     * The content to encrypt, of the form <Element (CipherValue), EncryptedContent>
+     */
+    private final Map contents = new IdentityHashMap();
+
+    /**
+     * @param doc the SOAP envelope
+     */
+    public EnvelopeWriter(Document doc) {
+        this.doc = doc;
+    }
+
+    /**
+     * Add content to encrypt when the envelope is written.
+     *
+     * @param cipherValue the empty CipherValue element of the EncryptedData
+     * @param parent the element the content was removed from
+     * @param content the content, usually a DocumentFragment
+     * @param key the key to encrypt with
+     * @param algorithm the symmetric encryption algorithm
+     */
+    public void addEncryptedContent(
+        Element cipherValue, Element parent, Node content, SecretKey key, String algorithm
+    ) {
+        contents.put(
+            cipherValue, 
+            new EncryptedContent(content, SAXEvents.getInScope(parent), key, algorithm)
+        );
+    }
+
+    /**
+     * Write the envelope as UTF-8.
+     *
+     * @param out the stream to write to
+     * @throws WSSecurityException if the content could not be encrypted or written
+     */
+    public void write(OutputStream out) throws WSSecurityException {
+        FragmentWriter writer = new FragmentWriter(out, null, false);
+        SAXEvents.ContentSource source = new SAXEvents.ContentSource() {
+            public boolean fireContent(Element element, ContentHandler handler) 
+                throws SAXException {
+                EncryptedContent content = (EncryptedContent) contents.get(element);
+                if (content == null) {
+                    return false;
+                }
+                content.encrypt(handler);
+                return true;
+            }
+        };
+        try {
+            SAXEvents.fireNode(doc.getDocumentElement(), writer, new NamespaceScope(null), source);
+            writer.endDocument();
+        } catch (SAXException ex) {
+            throw new WSSecurityException(
+                WSSecurityException.FAILED_ENCRYPTION, null, null, 
+                ex.getException() != null ? ex.getException() : ex
+            );
+        }
+    }
+
+    /**
+     * Encrypt content and write the raw cipher text, that is the IV followed by
+     * the encrypted octets without Base64 encoding, for example to an attachment.
+     *
+     * @param content the content, an element or a DocumentFragment
+     * @param parent the element the content was removed from
+     * @param key the key to encrypt with
+     * @param algorithm the symmetric encryption algorithm
+     * @param out the stream to write the cipher text to, closed when done
+     * @throws WSSecurityException if the content could not be encrypted or written
+     */
+    public static void encrypt(
+        Node content, Element parent, SecretKey key, String algorithm, OutputStream out
+    ) throws WSSecurityException {
+        EncryptedContent encryptedContent = 
+            new EncryptedContent(content, SAXEvents.getInScope(parent), key, algorithm);
+        try {
+            Cipher cipher = encryptedContent.createCipher();
+            out.write(cipher.getIV());
+            encryptedContent.serialize(
+                new BufferedOutputStream(new CipherOutputStream(out, cipher), 8192)
+            );
+        } catch (SAXException ex) {
+            throw new WSSecurityException(
+                WSSecurityException.FAILED_ENCRYPTION, null, null, 
+                ex.getException() != null ? ex.getException() : ex
+            );
+        } catch (WSSecurityException ex) {
+            throw ex;
+        } catch (IOException ex) {
+            throw new WSSecurityException(
+                WSSecurityException.FAILED_ENCRYPTION, null, null, ex
+            );
+        }
+    }
+
+    /**
+     * Content to encrypt and the namespaces in scope of it
+     */
+    private static class EncryptedContent {
+        private final Node content;
+        private final Map inScope;
+        private final SecretKey key;
+        private final String algorithm;
+
+        EncryptedContent(Node content, Map inScope, SecretKey key, String algorithm) {
+            this.content = content;
+            this.inScope = inScope;
+            this.key = key;
+            this.algorithm = algorithm;
+        }
+
+        /**
+         * Pass the Base64 encoded cipher text of the content to the handler
+         */
+        void encrypt(ContentHandler handler) throws SAXException {
+            try {
+                Cipher cipher = createCipher();
+                serialize(
+                    new BufferedOutputStream(new EncryptingOutputStream(cipher, handler), 8192)
+                );
+            } catch (IOException ex) {
+                throw new SAXException(ex);
+            }
+        }
+
+        Cipher createCipher() throws WSSecurityException {
+            return WSSecurityUtil.getEncryptionCipher(algorithm, key);
+        }
+
+        /**
+         * Serialize the content to the stream and close it
+         */
+        void serialize(OutputStream out) throws SAXException, IOException {
+            FragmentWriter writer = new FragmentWriter(out, inScope, true);
+            writer.startElement("", "content", "content", new AttributesImpl());
+            SAXEvents.fireNode(content, writer, new NamespaceScope(inScope), null);
+            writer.endElement("", "content", "content");
+            writer.endDocument();
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ws.security.stream;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.TreeMap;
+
+/**
+ * Writes the exclusive canonical form (without comments) of an element that
+ * is read as a sequence of SAX events. <p/>
+ *
+ * The events must start with the element and end with it. The namespace
+ * declarations in scope of the element are passed to the constructor, they
+ * are needed for the prefixes of the InclusiveNamespaces PrefixList only.
+ * Comments are not reported by SAX content handlers and hence omitted.
+ */
+public class ExclusiveC14NHandler extends DefaultHandler {
+
+    private static final Comparator ATTRIBUTE_ORDER = new Comparator() {
+        public int compare(Object o1, Object o2) {
+            String[] a1 = (String[]) o1;
+            String[] a2 = (String[]) o2;
+            int c = a1[0].compareTo(a2[0]);
+            return c != 0 ? c : a1[1].compareTo(a2[1]);
+        }
+    };
+
+    private final Writer writer;
+    private final NamespaceScope scope;
+    private final List inclusivePrefixes = new ArrayList();
+
+    /**
+     * The namespace declarations rendered by each open element
+     */
+    private final List rendered = new ArrayList();
+    private Map declarations;
+
+    /**
+     * @param out the stream to write the canonical form to
+     * @param inclusivePrefixes the InclusiveNamespaces PrefixList, may be null
+     * @param inScope the namespace declarations in scope of the element, of the
+     *        form <prefix, namespace URI>, may be null
+     */
+    public ExclusiveC14NHandler(OutputStream out, String inclusivePrefixes, Map inScope) {
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+        } catch (java.io.UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex.getMessage());
+        }
+        scope = new NamespaceScope(inScope);
+        if (inclusivePrefixes != null) {
+            StringTokenizer tokens = new StringTokenizer(inclusivePrefixes);
+            while (tokens.hasMoreTokens()) {
+                String prefix = tokens.nextToken();
+                this.inclusivePrefixes.add("#default".equals(prefix) ? "" : prefix);
+            }
+        }
+    }
+
+    public void startPrefixMapping(String prefix, String uri) {
+        if (declarations == null) {
+            declarations = new HashMap();
+        }
+        declarations.put(prefix == null ? "" : prefix, uri == null ? "" : uri);
+    }
+
+    public void startElement(String uri, String localName, String qName, Attributes atts)
+        throws SAXException {
+        scope.push(declarations);
+        declarations = null;
+
+        Map output = new TreeMap();
+        render(output, getPrefix(qName));
+        String[][] attributes = new String[atts.getLength()][];
+        for (int i = 0; i < attributes.length; i++) {
+            String attrQName = atts.getQName(i);
+            String attrUri = atts.getURI(i);
+            attributes[i] = new String[] {
+                attrUri == null ? "" : attrUri, atts.getLocalName(i), attrQName, atts.getValue(i)
+            };
+            if (attrQName.indexOf(':') > 0) {
+                render(output, getPrefix(attrQName));
+            }
+        }
+        for (int i = 0; i < inclusivePrefixes.size(); i++) {
+            String prefix = (String) inclusivePrefixes.get(i);
+            if (scope.getNamespaceURI(prefix) != null) {
+                render(output, prefix);
+            }
+        }
+        rendered.add(output);
+        Arrays.sort(attributes, ATTRIBUTE_ORDER);
+
+        try {
+            writer.write('<');
+            writer.write(qName);
+            for (Iterator it = output.entrySet().iterator(); it.hasNext();) {
+                Map.Entry entry = (Map.Entry) it.next();
+                String prefix = (String) entry.getKey();
+                writer.write(prefix.length() == 0 ? " xmlns" : " xmlns:");
+                writer.write(prefix);
+                writer.write("=\"");
+                writeEscaped((String) entry.getValue(), true);
+                writer.write('"');
+            }
+            for (int i = 0; i < attributes.length; i++) {
+                writer.write(' ');
+                writer.write(attributes[i][2]);
+                writer.write("=\"");
+                writeEscaped(attributes[i][3], true);
+                writer.write('"');
+            }
+            writer.write('>');
+        } catch (IOException ex) {
+            throw new SAXException(ex);
+        }
+    }
+
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        try {
+            writer.write("</");
+            writer.write(qName);
+            writer.write('>');
+        } catch (IOException ex) {
+            throw new SAXException(ex);
+        }
+        rendered.remove(rendered.size() - 1);
+        scope.pop();
+    }
+
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        try {
+            writeEscaped(ch, start, length, false);
+        } catch (IOException ex) {
+            throw new SAXException(ex);
+        }
+    }
+
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+        characters(ch, start, length);
+    }
+
+    public void processingInstruction(String target, String data) throws SAXException {
+        try {
+            writer.write("<?");
+            writer.write(target);
+            if (data != null && data.length() > 0) {
+                writer.write(' ');
+                writer.write(data);
+            }
+            writer.write("?>");
+        } catch (IOException ex) {
+            throw new SAXException(ex);
+        }
+    }
+
+    public void endDocument() throws SAXException {
+        try {
+            writer.flush();
+        } catch (IOException ex) {
+            throw new SAXException(ex);
+        }
+    }
+
+    /**
+     * Render the declaration of a prefix unless the nearest output ancestor
+     * already rendered the same one.
+     */
+    private void render(Map output, String prefix) {
+        if ("xml".equals(prefix) || output.containsKey(prefix)) {
+            return;
+        }
+        String uri = scope.getNamespaceURI(prefix);
+        if (uri == null) {
+            return;
+        }
+        String ancestor = null;
+        for (int i = rendered.size() - 1; i >= 0 && ancestor == null; i--) {
+            ancestor = (String) ((Map) rendered.get(i)).get(prefix);
+        }
+        if (uri.length() == 0) {
+            // xmlns="" is only needed to undeclare a rendered default namespace
+            if (prefix.length() == 0 && ancestor != null && ancestor.length() > 0) {
+                output.put(prefix, uri);
+            }
+        } else if (!uri.equals(ancestor)) {
+            output.put(prefix, uri);
+        }
+    }
+
+    private static String getPrefix(String qName) {
+        int colon = qName.indexOf(':');
+        return colon < 0 ? "" : qName.substring(0, colon);
+    }
+
+    private void writeEscaped(String value, boolean attribute) throws IOException {
+        writeEscaped(value.toCharArray(), 0, value.length(), attribute);
+    }
+
+    private void writeEscaped(char[] ch, int start, int length, boolean attribute) 
+        throws IOException {
+        int end = start + length;
+        int last = start;
+        for (int i = start; i < end; i++) {
+            String replacement;
+            switch (ch[i]) {
+            case '&':
+                replacement = "&amp;";
+                break;
+            case '<':
+                replacement = "&lt;";
+                break;
+            case '>':
+                replacement = attribute ? null : "&gt;";
+                break;
+            case '"':
+                replacement = attribute ? "&quot;" : null;
+                break;
+            case '\t':
+                replacement = attribute ? "&#x9;" : null;
+                break;
+            case '\n':
+                replacement = attribute ? "&#xA;" : null;
+                break;
+            case '\r':
+                replacement = "&#xD;";
+                break;
+            default:
+                replacement = null;
+            }
+            if (replacement != null) {
+                writer.write(ch, last, i - last);
+                writer.write(replacement);
+                last = i + 1;
+            }
+        }
+        writer.write(ch, last, end - last);
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ws.security.stream;
+
+import org.apache.ws.security.util.XMLUtils;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes an element that is read as a sequence of SAX events as UTF-8, or 
+ * only the content of the element. The top level elements that are written
+ * declare all namespaces in scope, so that each can be read on its own.
+ */
+class FragmentWriter extends DefaultHandler {
+    private final Writer writer;
+    private final NamespaceScope scope;
+    private final boolean skipRoot;
+    private Map declarations;
+    private int depth;
+
+    /**
+     * @param out the stream to write the content to
+     * @param inScope the namespace declarations in scope of the element
+     * @param skipRoot whether to write the content of the element only
+     */
+    FragmentWriter(OutputStream out, Map inScope, boolean skipRoot) {
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+        } catch (java.io.UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex.getMessage());
+        }
+        scope = new NamespaceScope(inScope);
+        this.skipRoot = skipRoot;
+    }
+
+    public void startPrefixMapping(String prefix, String uri) {
+        if (declarations == null) {
+            declarations = new TreeMap();
+        }
+        declarations.put(prefix == null ? "" : prefix, uri == null ? "" : uri);
+    }
+
+    public void startElement(String uri, String localName, String qName, Attributes atts)
+        throws SAXException {
+        scope.push(declarations);
+        int level = depth++;
+        Map output = level == (skipRoot ? 1 : 0) ? scope.getInScope() : declarations;
+        declarations = null;
+        if (skipRoot && level == 0) {
+            return;
+        }
+        try {
+            writer.write('<');
+            writer.write(qName);
+            if (output != null) {
+                for (Iterator it = output.entrySet().iterator(); it.hasNext();) {
+                    Map.Entry entry = (Map.Entry) it.next();
+                    String prefix = (String) entry.getKey();
+                    writer.write(prefix.length() == 0 ? " xmlns" : " xmlns:");
+                    writer.write(prefix);
+                    writeAttribute((String) entry.getValue());
+                }
+            }
+            for (int i = 0; i < atts.getLength(); i++) {
+                writer.write(' ');
+                writer.write(atts.getQName(i));
+                writeAttribute(atts.getValue(i));
+            }
+            writer.write('>');
+        } catch (IOException ex) {
+            throw new SAXException(ex);
+        }
+    }
+
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        scope.pop();
+        if (--depth == 0 && skipRoot) {
+            return;
+        }
+        try {
+            writer.write("</");
+            writer.write(qName);
+            writer.write('>');
+        } catch (IOException ex) {
+            throw new SAXException(ex);
+        }
+    }
+
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        if (depth == 0) {
+            return;
+        }
+        try {
+            writeText(new String(ch, start, length));
+        } catch (IOException ex) {
+            throw new SAXException(ex);
+        }
+    }
+
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+        characters(ch, start, length);
+    }
+
+    public void processingInstruction(String target, String data) throws SAXException {
+        if (depth == 0) {
+            return;
+        }
+        try {
+            writer.write("<?");
+            writer.write(target);
+            if (data != null && data.length() > 0) {
+                writer.write(' ');
+                writer.write(data);
+            }
+            writer.write("?>");
+        } catch (IOException ex) {
+            throw new SAXException(ex);
+        }
+    }
+
+    public void endDocument() throws SAXException {
+        try {
+            writer.flush();
+        } catch (IOException ex) {
+            throw new SAXException(ex);
+        }
+    }
+
+    /**
+     * Write the value of an attribute in double quotes.
+     */
+    private void writeAttribute(String value) throws IOException {
+        writer.write("=\"");
+        writer.write(XMLUtils.escapeAttribute(value));
+        writer.write('"');
+    }
+
+    private void writeText(String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '&':
+                writer.write("&amp;");
+                break;
+            case '<':
+                writer.write("&lt;");
+                break;
+            case '>':
+                writer.write("&gt;");
+                break;
+            case '\r':
+                writer.write("&#xD;");
+                break;
+            default:
+                writer.write(c);
+                break;
+            }
+        }
+    }
+}
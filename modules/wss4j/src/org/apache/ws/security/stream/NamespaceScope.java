@@ -0,0 +1,91 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ws.security.stream;
+
+import org.apache.ws.security.WSConstants;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The namespace declarations in scope while a document is read as a sequence
+ * of events. Every element pushes a map of its declarations, of the form
+ * <prefix, namespace URI>, with "" as the prefix of the default namespace.
+ */
+class NamespaceScope {
+    private final List frames = new ArrayList();
+
+    /**
+     * @param inScope the declarations in scope at the start, may be null
+     */
+    NamespaceScope(Map inScope) {
+        push(inScope == null ? null : new HashMap(inScope));
+    }
+
+    void push(Map declarations) {
+        frames.add(declarations);
+    }
+
+    void pop() {
+        frames.remove(frames.size() - 1);
+    }
+
+    /**
+     * @return the namespace URI of the prefix, "" for an undeclared default 
+     *         namespace or null if the prefix is not declared
+     */
+    String getNamespaceURI(String prefix) {
+        if ("xml".equals(prefix)) {
+            return WSConstants.XML_NS;
+        }
+        for (int i = frames.size() - 1; i >= 0; i--) {
+            Map declarations = (Map) frames.get(i);
+            if (declarations != null && declarations.containsKey(prefix)) {
+                return (String) declarations.get(prefix);
+            }
+        }
+        return "".equals(prefix) ? "" : null;
+    }
+
+    /**
+     * @return all declarations in scope, sorted by prefix. An undeclared 
+     *         default namespace is left out.
+     */
+    Map getInScope() {
+        Map inScope = new TreeMap();
+        for (int i = 0; i < frames.size(); i++) {
+            Map declarations = (Map) frames.get(i);
+            if (declarations != null) {
+                inScope.putAll(declarations);
+            }
+        }
+        for (Iterator it = inScope.values().iterator(); it.hasNext();) {
+            if ("".equals(it.next())) {
+                it.remove();
+            }
+        }
+        return inScope;
+    }
+}
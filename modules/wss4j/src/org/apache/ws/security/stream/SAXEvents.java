@@ -0,0 +1,276 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ws.security.stream;
+
+import org.apache.ws.security.WSConstants;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Passes the events of a StAX reader or the nodes of a document to a SAX 
+ * content handler. Comments are left out.
+ */
+final class SAXEvents {
+
+    /**
+     * Supplies the content of an element of a document instead of its children
+     */
+    interface ContentSource {
+        /**
+         * @return true if the content of the element was passed to the handler
+         */
+        boolean fireContent(Element element, ContentHandler handler) throws SAXException;
+    }
+
+    private SAXEvents() {
+        // complete
+    }
+
+    /**
+     * @return the namespace declarations of the current element of the reader, 
+     *         or null if it has none
+     */
+    static Map getDeclarations(XMLStreamReader reader) {
+        int count = reader.getNamespaceCount();
+        if (count == 0) {
+            return null;
+        }
+        Map declarations = new HashMap();
+        for (int i = 0; i < count; i++) {
+            declarations.put(
+                nullToEmpty(reader.getNamespacePrefix(i)), nullToEmpty(reader.getNamespaceURI(i))
+            );
+        }
+        return declarations;
+    }
+
+    static void fireStartElement(XMLStreamReader reader, ContentHandler handler) 
+        throws SAXException {
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            handler.startPrefixMapping(
+                nullToEmpty(reader.getNamespacePrefix(i)), nullToEmpty(reader.getNamespaceURI(i))
+            );
+        }
+        AttributesImpl attributes = new AttributesImpl();
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            QName name = reader.getAttributeName(i);
+            attributes.addAttribute(
+                nullToEmpty(name.getNamespaceURI()),
+                name.getLocalPart(),
+                getQName(name.getPrefix(), name.getLocalPart()),
+                "CDATA",
+                reader.getAttributeValue(i)
+            );
+        }
+        handler.startElement(
+            nullToEmpty(reader.getNamespaceURI()), 
+            reader.getLocalName(), 
+            getQName(reader.getPrefix(), reader.getLocalName()), 
+            attributes
+        );
+    }
+
+    static void fireEndElement(XMLStreamReader reader, ContentHandler handler) 
+        throws SAXException {
+        handler.endElement(
+            nullToEmpty(reader.getNamespaceURI()), 
+            reader.getLocalName(), 
+            getQName(reader.getPrefix(), reader.getLocalName())
+        );
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            handler.endPrefixMapping(nullToEmpty(reader.getNamespacePrefix(i)));
+        }
+    }
+
+    /**
+     * Pass the current text or processing instruction of the reader
+     */
+    static void fireEvent(XMLStreamReader reader, ContentHandler handler) 
+        throws SAXException {
+        switch (reader.getEventType()) {
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.CDATA:
+        case XMLStreamConstants.SPACE:
+            handler.characters(
+                reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength()
+            );
+            break;
+        case XMLStreamConstants.PROCESSING_INSTRUCTION:
+            handler.processingInstruction(reader.getPITarget(), reader.getPIData());
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Pass a node of a document and its descendants. Namespaces that are used 
+     * by an element or its attributes but not declared in the document are 
+     * declared on the element.
+     *
+     * @param node the node
+     * @param handler the handler to pass the events to
+     * @param scope the namespace declarations in scope of the node
+     * @param source supplies the content of some elements, may be null
+     */
+    static void fireNode(
+        Node node, ContentHandler handler, NamespaceScope scope, ContentSource source
+    ) throws SAXException {
+        switch (node.getNodeType()) {
+        case Node.ELEMENT_NODE:
+            fireElement((Element) node, handler, scope, source);
+            break;
+        case Node.TEXT_NODE:
+        case Node.CDATA_SECTION_NODE:
+            char[] text = node.getNodeValue().toCharArray();
+            handler.characters(text, 0, text.length);
+            break;
+        case Node.PROCESSING_INSTRUCTION_NODE:
+            handler.processingInstruction(node.getNodeName(), node.getNodeValue());
+            break;
+        case Node.DOCUMENT_NODE:
+        case Node.DOCUMENT_FRAGMENT_NODE:
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                fireNode(child, handler, scope, source);
+            }
+            break;
+        default:
+            break;
+        }
+    }
+
+    private static void fireElement(
+        Element element, ContentHandler handler, NamespaceScope scope, ContentSource source
+    ) throws SAXException {
+        Map declarations = new HashMap();
+        AttributesImpl attributes = new AttributesImpl();
+        List used = new ArrayList();
+        NamedNodeMap attrs = element.getAttributes();
+        for (int i = 0; i < attrs.getLength(); i++) {
+            Attr attr = (Attr) attrs.item(i);
+            if (WSConstants.XMLNS_NS.equals(attr.getNamespaceURI())) {
+                String prefix = "xmlns".equals(attr.getName()) ? "" : attr.getLocalName();
+                declarations.put(prefix, attr.getValue());
+            } else {
+                attributes.addAttribute(
+                    nullToEmpty(attr.getNamespaceURI()), 
+                    getLocalName(attr), 
+                    attr.getName(), 
+                    "CDATA", 
+                    attr.getValue()
+                );
+                if (attr.getNamespaceURI() != null) {
+                    used.add(new String[] {nullToEmpty(attr.getPrefix()), attr.getNamespaceURI()});
+                }
+            }
+        }
+        used.add(new String[] {nullToEmpty(element.getPrefix()), nullToEmpty(element.getNamespaceURI())});
+        scope.push(declarations);
+        for (int i = 0; i < used.size(); i++) {
+            String[] namespace = (String[]) used.get(i);
+            if (!namespace[1].equals(scope.getNamespaceURI(namespace[0]))
+                && !"xml".equals(namespace[0])) {
+                declarations.put(namespace[0], namespace[1]);
+            }
+        }
+        for (Iterator it = declarations.entrySet().iterator(); it.hasNext();) {
+            Map.Entry entry = (Map.Entry) it.next();
+            handler.startPrefixMapping((String) entry.getKey(), (String) entry.getValue());
+        }
+        handler.startElement(
+            nullToEmpty(element.getNamespaceURI()), 
+            getLocalName(element), 
+            element.getNodeName(), 
+            attributes
+        );
+        if (source == null || !source.fireContent(element, handler)) {
+            for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling()) {
+                fireNode(node, handler, scope, source);
+            }
+        }
+        handler.endElement(
+            nullToEmpty(element.getNamespaceURI()), 
+            getLocalName(element), 
+            element.getNodeName()
+        );
+        for (Iterator it = declarations.keySet().iterator(); it.hasNext();) {
+            handler.endPrefixMapping((String) it.next());
+        }
+        scope.pop();
+    }
+
+    /**
+     * @return the namespace declarations in scope of a node of a document
+     */
+    static Map getInScope(Node node) {
+        List ancestors = new ArrayList();
+        for (Node n = node; n != null && n.getNodeType() == Node.ELEMENT_NODE; 
+            n = n.getParentNode()) {
+            ancestors.add(0, n);
+        }
+        NamespaceScope scope = new NamespaceScope(null);
+        for (int i = 0; i < ancestors.size(); i++) {
+            Element element = (Element) ancestors.get(i);
+            Map declarations = new HashMap();
+            NamedNodeMap attrs = element.getAttributes();
+            for (int j = 0; j < attrs.getLength(); j++) {
+                Attr attr = (Attr) attrs.item(j);
+                if (WSConstants.XMLNS_NS.equals(attr.getNamespaceURI())) {
+                    String prefix = "xmlns".equals(attr.getName()) ? "" : attr.getLocalName();
+                    declarations.put(prefix, attr.getValue());
+                }
+            }
+            String prefix = nullToEmpty(element.getPrefix());
+            if (!declarations.containsKey(prefix)) {
+                declarations.put(prefix, nullToEmpty(element.getNamespaceURI()));
+            }
+            scope.push(declarations);
+        }
+        return scope.getInScope();
+    }
+
+    static String getQName(String prefix, String localName) {
+        return prefix == null || prefix.length() == 0 ? localName : prefix + ":" + localName;
+    }
+
+    static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static String getLocalName(Node node) {
+        return node.getLocalName() == null ? node.getNodeName() : node.getLocalName();
+    }
+}
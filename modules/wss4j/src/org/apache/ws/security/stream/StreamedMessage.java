@@ -0,0 +1,303 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ws.security.stream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.WSDataRef;
+import org.apache.ws.security.WSSecurityException;
+import org.apache.ws.security.util.WSSecurityUtil;
+import org.apache.xml.security.algorithms.JCEMapper;
+import org.apache.xml.security.algorithms.SignatureAlgorithm;
+import org.apache.xml.security.exceptions.XMLSecurityException;
+import org.apache.xml.security.signature.Reference;
+import org.apache.xml.security.signature.SignedInfo;
+import org.apache.xml.security.signature.XMLSignature;
+import org.apache.xml.security.signature.XMLSignatureException;
+import org.apache.xml.security.transforms.Transform;
+import org.apache.xml.security.transforms.Transforms;
+import org.apache.xml.security.transforms.params.InclusiveNamespaces;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * A SOAP message that is processed by the {@link StreamingSecurityEngine}. <p/>
+ *
+ * The envelope is available as a document that contains the SOAP header and
+ * an empty SOAP Body element. While the security header is processed, the
+ * Signature and EncryptedKey processors do not touch the content of the Body,
+ * but record here what has to be done with it: the digests of the References
+ * to the Body, and the keys of the EncryptedData elements in the Body. These
+ * are then checked and used while the Body is read.
+ */
+public class StreamedMessage {
+    private static Log log = LogFactory.getLog(StreamedMessage.class.getName());
+
+    private final Element body;
+    private final String bodyId;
+    private boolean streamed = true;
+    private Vector results;
+
+    /**
+     * The References to the Body, in the order the signatures were verified
+     */
+    private final List references = new ArrayList();
+
+    /**
+     * The EncryptedData elements to decrypt, of the form <String, DataReference>
+     */
+    private final Map dataReferences = new HashMap();
+
+    /**
+     * @param body the (empty) SOAP Body element of the envelope document
+     */
+    public StreamedMessage(Element body) {
+        this.body = body;
+        String id = body.getAttributeNS(WSConstants.WSU_NS, "Id");
+        if (id == null || id.length() == 0) {
+            id = body.getAttributeNS(null, "Id");
+        }
+        bodyId = (id == null || id.length() == 0) ? null : id;
+    }
+
+    /**
+     * @return the envelope document. If the message was not streamed it contains
+     *         the whole (decrypted) SOAP Body.
+     */
+    public Document getEnvelope() {
+        return body.getOwnerDocument();
+    }
+
+    /**
+     * @return the SOAP Body element of the envelope document
+     */
+    public Element getBody() {
+        return body;
+    }
+
+    /**
+     * @return the Id of the SOAP Body, or null if the Body has none
+     */
+    public String getBodyId() {
+        return bodyId;
+    }
+
+    /**
+     * @return true if the SOAP Body was streamed, false if the message had to be
+     *         processed as a whole
+     */
+    public boolean isStreamed() {
+        return streamed;
+    }
+
+    void setStreamed(boolean streamed) {
+        this.streamed = streamed;
+    }
+
+    /**
+     * @return the results of the security processing, or null if the message
+     *         did not contain a security header for the actor
+     */
+    public Vector getResults() {
+        return results;
+    }
+
+    void setResults(Vector results) {
+        this.results = results;
+    }
+
+    /**
+     * @param uri the URI of a signature Reference
+     * @return true if the Reference points to the SOAP Body
+     */
+    public boolean isBodyReference(String uri) {
+        return bodyId != null && uri != null && uri.length() > 1 
+            && uri.charAt(0) == '#' && bodyId.equals(uri.substring(1));
+    }
+
+    /**
+     * Verify the signature value as <code>XMLSignature.checkSignatureValue</code>
+     * does, except that the References to the SOAP Body are only recorded. Their
+     * digests are checked when the Body was read.
+     *
+     * @param sig the signature to verify
+     * @param key the key to verify the signature value with
+     * @return true if the signature value and the References to the header are valid
+     * @throws XMLSignatureException
+     */
+    public boolean checkSignatureValue(XMLSignature sig, Key key) 
+        throws XMLSignatureException {
+        try {
+            SignedInfo si = sig.getSignedInfo();
+            SignatureAlgorithm sa = 
+                new SignatureAlgorithm(si.getSignatureMethodElement(), sig.getBaseURI());
+            sa.initVerify(key);
+            sa.update(si.getCanonicalizedOctetStream());
+            if (!sa.verify(sig.getSignatureValue())) {
+                log.warn("Signature verification failed.");
+                return false;
+            }
+            List bodyReferences = new ArrayList();
+            for (int i = 0; i < si.getLength(); i++) {
+                Reference ref = si.item(i);
+                if (isBodyReference(ref.getURI())) {
+                    bodyReferences.add(new DigestReference(ref, !dataReferences.isEmpty()));
+                } else if (!ref.verify()) {
+                    return false;
+                }
+            }
+            references.addAll(bodyReferences);
+            return true;
+        } catch (XMLSignatureException ex) {
+            throw ex;
+        } catch (XMLSecurityException ex) {
+            throw new XMLSignatureException("empty", ex);
+        }
+    }
+
+    /**
+     * @param doc the envelope document
+     * @param id the Id of an EncryptedData element
+     * @return true if the EncryptedData element is not part of the document,
+     *         that is if it is expected in the streamed SOAP Body
+     */
+    public boolean isDeferred(Document doc, String id) {
+        return streamed 
+            && WSSecurityUtil.getElementByWsuId(doc, id) == null
+            && WSSecurityUtil.getElementByGenId(doc, id) == null;
+    }
+
+    /**
+     * Record an EncryptedData element of the SOAP Body to decrypt.
+     *
+     * @param id the Id of the EncryptedData element
+     * @param key the bytes of the symmetric key
+     * @return the data reference for the results. It is completed when the 
+     *         EncryptedData element was decrypted.
+     */
+    public WSDataRef addDataReference(String id, byte[] key) {
+        WSDataRef dataRef = new WSDataRef(id);
+        dataRef.setWsuId(id);
+        dataReferences.put(id, new DataReference(dataRef, key));
+        return dataRef;
+    }
+
+    List getReferences() {
+        return references;
+    }
+
+    /**
+     * @param id the Id of an EncryptedData element in the Body
+     * @return the DataReference to decrypt it with, or null if it was not
+     *         referenced from the security header
+     */
+    DataReference removeDataReference(String id) {
+        return (DataReference) dataReferences.remove(id);
+    }
+
+    /**
+     * Check that the Body was read completely: all digests match and all
+     * referenced EncryptedData elements were found.
+     */
+    void verify() throws WSSecurityException {
+        if (!dataReferences.isEmpty()) {
+            String id = (String) dataReferences.keySet().iterator().next();
+            throw new WSSecurityException(
+                WSSecurityException.INVALID_SECURITY, "dataRef", new Object[] {id}
+            );
+        }
+        for (Iterator it = references.iterator(); it.hasNext();) {
+            DigestReference ref = (DigestReference) it.next();
+            if (!MessageDigest.isEqual(ref.expected, ref.digest.digest())) {
+                throw new WSSecurityException(
+                    WSSecurityException.FAILED_CHECK, "streamedDigest", new Object[] {ref.uri}
+                );
+            }
+        }
+    }
+
+    /**
+     * A Reference to the SOAP Body whose digest is computed while the Body is read
+     */
+    static class DigestReference {
+        final String uri;
+        final byte[] expected;
+        final MessageDigest digest;
+        final String inclusivePrefixes;
+        final boolean plaintext;
+
+        DigestReference(Reference ref, boolean plaintext) throws XMLSecurityException {
+            uri = ref.getURI();
+            expected = ref.getDigestValue();
+            this.plaintext = plaintext;
+            String algorithm = ref.getMessageDigestAlgorithm().getAlgorithmURI();
+            try {
+                digest = MessageDigest.getInstance(JCEMapper.translateURItoJCEID(algorithm));
+            } catch (NoSuchAlgorithmException ex) {
+                throw new XMLSignatureException("empty", ex);
+            }
+            Transforms transforms = ref.getTransforms();
+            if (transforms == null || transforms.getLength() != 1
+                || !WSConstants.C14N_EXCL_OMIT_COMMENTS.equals(transforms.item(0).getURI())) {
+                throw new XMLSignatureException("empty", new Object[] {"Unsupported transforms"});
+            }
+            inclusivePrefixes = getInclusivePrefixes(transforms.item(0));
+        }
+    }
+
+    /**
+     * An EncryptedData element of the SOAP Body and the key to decrypt it with
+     */
+    static class DataReference {
+        final WSDataRef dataRef;
+        final byte[] key;
+
+        DataReference(WSDataRef dataRef, byte[] key) {
+            this.dataRef = dataRef;
+            this.key = key;
+        }
+    }
+
+    /**
+     * @return the PrefixList of the InclusiveNamespaces of an exclusive c14n
+     *         transform, or null if there is none
+     */
+    static String getInclusivePrefixes(Transform transform) {
+        Element inclusive = 
+            WSSecurityUtil.getDirectChildElement(
+                transform.getElement(), 
+                InclusiveNamespaces._TAG_EC_INCLUSIVENAMESPACES,
+                InclusiveNamespaces.ExclusiveCanonicalizationNamespace
+            );
+        return inclusive == null ? null : inclusive.getAttributeNS(null, InclusiveNamespaces._ATT_EC_PREFIXLIST);
+    }
+}
@@ -0,0 +1,647 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ws.security.stream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.WSDocInfo;
+import org.apache.ws.security.WSSecurityEngine;
+import org.apache.ws.security.WSSecurityException;
+import org.apache.ws.security.components.crypto.Crypto;
+import org.apache.ws.security.processor.ReferenceListProcessor;
+import org.apache.ws.security.util.WSSecurityUtil;
+import org.apache.ws.security.util.XMLUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.crypto.Cipher;
+import javax.security.auth.callback.CallbackHandler;
+import javax.xml.namespace.QName;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.security.DigestOutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Processes the security header of a SOAP message that is read from a stream,
+ * without building a document of the SOAP Body. <p/>
+ *
+ * The envelope is read up to the start of the SOAP Body into a document, and
+ * the security header is processed by the usual processors. The References of 
+ * the signatures to the Body and the EncryptedData elements in the Body that
+ * are referenced by EncryptedKeys are recorded in a {@link StreamedMessage}.
+ * The Body is then read as a stream: the digests of the References are 
+ * computed with a streaming exclusive canonicalization, EncryptedData is
+ * decrypted as it is read, and the content of the (decrypted) Body is written
+ * to an output stream. <p/>
+ *
+ * The output must not be used if processing fails: the digests are only 
+ * compared when the whole Body was read. <p/>
+ *
+ * The following is not streamed. If the security header uses it, the whole
+ * envelope is read into a document and processed by the
+ * <code>WSSecurityEngine</code>:
+ * <ul>
+ * <li>signature References to elements in the Body, or with transforms other 
+ * than one exclusive canonicalization without comments</li>
+ * <li>a standalone <code>xenc:ReferenceList</code> that references
+ * EncryptedData in the Body</li>
+ * </ul>
+ * The results for EncryptedData in the Body contain no decrypted element,
+ * except for Content encryption of the Body itself.
+ */
+public class StreamingSecurityEngine extends WSSecurityEngine {
+    private static Log log = LogFactory.getLog(StreamingSecurityEngine.class.getName());
+
+    private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+
+    static {
+        inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    /**
+     * Read a SOAP envelope, process its security header and write the content
+     * of its (decrypted) SOAP Body.
+     *
+     * @param in        the SOAP envelope
+     * @param actor     the engine works on behalf of this <code>actor</code>
+     * @param cb        a callback hander to the caller to resolve passwords
+     * @param sigCrypto the Crypto used for Signature
+     * @param decCrypto the Crypto used for Decryption
+     * @param out       the stream to write the content of the SOAP Body to, as 
+     *                  UTF-8. It must be discarded if an exception is thrown.
+     * @return the processed message, with the results of the security processing
+     * @throws WSSecurityException
+     */
+    public StreamedMessage processMessage(
+        InputStream in,
+        String actor,
+        CallbackHandler cb,
+        Crypto sigCrypto,
+        Crypto decCrypto,
+        OutputStream out
+    ) throws WSSecurityException {
+        boolean doDebug = log.isDebugEnabled();
+        if (actor == null) {
+            actor = "";
+        }
+        XMLStreamReader reader = null;
+        try {
+            reader = createReader(in);
+            NamespaceScope scope = new NamespaceScope(null);
+            StreamedMessage message = new StreamedMessage(readHeader(reader, scope));
+            Document doc = message.getEnvelope();
+            Element securityHeader = 
+                WSSecurityUtil.getSecurityHeader(
+                    doc, actor, WSSecurityUtil.getSOAPConstants(doc.getDocumentElement())
+                );
+            if (securityHeader != null && !isStreamable(securityHeader, message)) {
+                if (doDebug) {
+                    log.debug("The SOAP Body cannot be streamed, processing the envelope");
+                }
+                message.setStreamed(false);
+                readContent(reader, message.getBody());
+                message.setResults(processSecurityHeader(securityHeader, cb, sigCrypto, decCrypto));
+                FragmentWriter writer = new FragmentWriter(out, scope.getInScope(), true);
+                SAXEvents.fireNode(message.getBody(), writer, scope, null);
+                writer.endDocument();
+                return message;
+            }
+            if (securityHeader != null) {
+                if (doDebug) {
+                    log.debug("Processing WS-Security header for '" + actor + "' actor.");
+                }
+                WSDocInfo wsDocInfo = new WSDocInfo(doc);
+                wsDocInfo.setCrypto(sigCrypto);
+                wsDocInfo.setStreamedMessage(message);
+                message.setResults(
+                    processSecurityHeader(securityHeader, cb, sigCrypto, decCrypto, wsDocInfo)
+                );
+            }
+            readBody(reader, message, scope, out);
+            message.verify();
+            return message;
+        } catch (XMLStreamException ex) {
+            throw new WSSecurityException(WSSecurityException.FAILURE, null, null, ex);
+        } catch (SAXException ex) {
+            if (ex.getException() instanceof WSSecurityException) {
+                throw (WSSecurityException) ex.getException();
+            }
+            throw new WSSecurityException(WSSecurityException.FAILURE, null, null, ex);
+        } catch (ParserConfigurationException ex) {
+            throw new WSSecurityException(WSSecurityException.FAILURE, null, null, ex);
+        } finally {
+            close(reader);
+        }
+    }
+
+    /**
+     * Read the envelope up to the start of the SOAP Body into a document.
+     *
+     * @return the empty SOAP Body element. The reader is positioned at its start.
+     */
+    private static Element readHeader(XMLStreamReader reader, NamespaceScope scope) 
+        throws XMLStreamException, ParserConfigurationException, WSSecurityException {
+        Document doc = XMLUtils.newDocument();
+        Node current = doc;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                Element element = createElement(doc, reader);
+                current.appendChild(element);
+                if (current == doc.getDocumentElement()
+                    && WSConstants.ELEM_BODY.equals(element.getLocalName())
+                    && current.getNamespaceURI() != null
+                    && current.getNamespaceURI().equals(element.getNamespaceURI())) {
+                    return element;
+                }
+                scope.push(SAXEvents.getDeclarations(reader));
+                current = element;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                scope.pop();
+                current = current.getParentNode();
+                if (current == doc) {
+                    break;
+                }
+            } else {
+                appendNode(doc, current, reader);
+            }
+        }
+        throw new WSSecurityException(WSSecurityException.INVALID_SECURITY, "noSOAPBody");
+    }
+
+    /**
+     * Read the content of an element into the document.
+     */
+    private static void readContent(XMLStreamReader reader, Element element) 
+        throws XMLStreamException {
+        Document doc = element.getOwnerDocument();
+        Node current = element;
+        while (current != element.getParentNode()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                Element child = createElement(doc, reader);
+                current.appendChild(child);
+                current = child;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                current = current.getParentNode();
+            } else {
+                appendNode(doc, current, reader);
+            }
+        }
+    }
+
+    private static void appendNode(Document doc, Node current, XMLStreamReader reader) {
+        switch (reader.getEventType()) {
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.SPACE:
+            if (current != doc) {
+                current.appendChild(doc.createTextNode(reader.getText()));
+            }
+            break;
+        case XMLStreamConstants.CDATA:
+            current.appendChild(doc.createCDATASection(reader.getText()));
+            break;
+        case XMLStreamConstants.COMMENT:
+            current.appendChild(doc.createComment(reader.getText()));
+            break;
+        case XMLStreamConstants.PROCESSING_INSTRUCTION:
+            current.appendChild(
+                doc.createProcessingInstruction(reader.getPITarget(), reader.getPIData())
+            );
+            break;
+        default:
+            break;
+        }
+    }
+
+    private static Element createElement(Document doc, XMLStreamReader reader) {
+        Element element = 
+            doc.createElementNS(
+                emptyToNull(reader.getNamespaceURI()), 
+                SAXEvents.getQName(reader.getPrefix(), reader.getLocalName())
+            );
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String prefix = reader.getNamespacePrefix(i);
+            element.setAttributeNS(
+                WSConstants.XMLNS_NS, 
+                prefix == null || prefix.length() == 0 ? "xmlns" : "xmlns:" + prefix,
+                SAXEvents.nullToEmpty(reader.getNamespaceURI(i))
+            );
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            QName name = reader.getAttributeName(i);
+            element.setAttributeNS(
+                emptyToNull(name.getNamespaceURI()),
+                SAXEvents.getQName(name.getPrefix(), name.getLocalPart()),
+                reader.getAttributeValue(i)
+            );
+        }
+        return element;
+    }
+
+    /**
+     * Check that the security header does not reference content of the SOAP 
+     * Body other than the Body itself and EncryptedData referenced by 
+     * EncryptedKeys.
+     */
+    private static boolean isStreamable(Element securityHeader, StreamedMessage message) {
+        Document doc = securityHeader.getOwnerDocument();
+        for (Node node = securityHeader.getFirstChild(); 
+            node != null; 
+            node = node.getNextSibling()
+        ) {
+            if (node.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            if (WSConstants.SIG_LN.equals(node.getLocalName())
+                && WSConstants.SIG_NS.equals(node.getNamespaceURI())) {
+                Element signedInfo = 
+                    WSSecurityUtil.getDirectChildElement(node, "SignedInfo", WSConstants.SIG_NS);
+                if (signedInfo == null) {
+                    continue;
+                }
+                for (Node ref = signedInfo.getFirstChild(); ref != null; ref = ref.getNextSibling()) {
+                    if (!"Reference".equals(ref.getLocalName())
+                        || !WSConstants.SIG_NS.equals(ref.getNamespaceURI())) {
+                        continue;
+                    }
+                    String uri = ((Element) ref).getAttributeNS(null, "URI");
+                    if (message.isBodyReference(uri)) {
+                        if (!isExclusiveC14N((Element) ref)) {
+                            return false;
+                        }
+                    } else if (!isHeaderReference(doc, uri)) {
+                        return false;
+                    }
+                }
+            } else if (WSConstants.REF_LIST_LN.equals(node.getLocalName())
+                && WSConstants.ENC_NS.equals(node.getNamespaceURI())) {
+                for (Node ref = node.getFirstChild(); ref != null; ref = ref.getNextSibling()) {
+                    if ("DataReference".equals(ref.getLocalName())
+                        && WSConstants.ENC_NS.equals(ref.getNamespaceURI())
+                        && !isHeaderReference(doc, ((Element) ref).getAttributeNS(null, "URI"))) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the Reference has exactly one transform, an exclusive 
+     *         canonicalization without comments
+     */
+    private static boolean isExclusiveC14N(Element ref) {
+        Element transforms = 
+            WSSecurityUtil.getDirectChildElement(ref, "Transforms", WSConstants.SIG_NS);
+        if (transforms == null) {
+            return false;
+        }
+        int count = 0;
+        for (Node node = transforms.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            if (count++ > 0 
+                || !WSConstants.C14N_EXCL_OMIT_COMMENTS.equals(
+                    ((Element) node).getAttributeNS(null, "Algorithm"))) {
+                return false;
+            }
+        }
+        return count == 1;
+    }
+
+    private static boolean isHeaderReference(Document doc, String uri) {
+        return uri != null && uri.length() > 1 && uri.charAt(0) == '#'
+            && (WSSecurityUtil.getElementByWsuId(doc, uri) != null
+                || WSSecurityUtil.getElementByGenId(doc, uri) != null);
+    }
+
+    /**
+     * Read the SOAP Body. The canonical form of the Body is passed to the 
+     * digests of the References, either as received or after decryption 
+     * depending on the order of signature and decryption in the security 
+     * header. The content of the decrypted Body is written to the output.
+     */
+    private static void readBody(
+        XMLStreamReader reader, StreamedMessage message, NamespaceScope scope, OutputStream out
+    ) throws XMLStreamException, SAXException, WSSecurityException {
+        Map inScope = scope.getInScope();
+        List received = new ArrayList();
+        List decrypted = new ArrayList();
+        for (Iterator it = message.getReferences().iterator(); it.hasNext();) {
+            StreamedMessage.DigestReference ref = (StreamedMessage.DigestReference) it.next();
+            ContentHandler c14n = 
+                new ExclusiveC14NHandler(
+                    new DigestOutputStream(NullOutputStream.INSTANCE, ref.digest), 
+                    ref.inclusivePrefixes, 
+                    inScope
+                );
+            (ref.plaintext ? decrypted : received).add(c14n);
+        }
+        decrypted.add(new FragmentWriter(out, inScope, true));
+        ContentHandler raw = new TeeHandler(received);
+        ContentHandler plain = new TeeHandler(decrypted);
+
+        SAXEvents.fireStartElement(reader, raw);
+        SAXEvents.fireStartElement(reader, plain);
+        scope.push(SAXEvents.getDeclarations(reader));
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                StreamedMessage.DataReference dataRef = null;
+                if (WSConstants.ENC_DATA_LN.equals(reader.getLocalName())
+                    && WSConstants.ENC_NS.equals(reader.getNamespaceURI())) {
+                    String id = reader.getAttributeValue(null, "Id");
+                    dataRef = id == null ? null : message.removeDataReference(id);
+                }
+                if (dataRef != null) {
+                    Element parent = depth == 1 ? message.getBody() : null;
+                    decrypt(reader, dataRef, parent, scope, raw, plain);
+                } else {
+                    SAXEvents.fireStartElement(reader, raw);
+                    SAXEvents.fireStartElement(reader, plain);
+                    scope.push(SAXEvents.getDeclarations(reader));
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                SAXEvents.fireEndElement(reader, raw);
+                SAXEvents.fireEndElement(reader, plain);
+                scope.pop();
+                depth--;
+            } else {
+                SAXEvents.fireEvent(reader, raw);
+                SAXEvents.fireEvent(reader, plain);
+            }
+        }
+        raw.endDocument();
+        plain.endDocument();
+    }
+
+    /**
+     * Decrypt an EncryptedData element. The reader is positioned at its start.
+     * The EncryptedData is passed to the handler of the received Body, the 
+     * plaintext to the handler of the decrypted Body.
+     */
+    private static void decrypt(
+        XMLStreamReader reader,
+        StreamedMessage.DataReference dataRef,
+        Element parent,
+        NamespaceScope scope,
+        ContentHandler raw,
+        ContentHandler plain
+    ) throws XMLStreamException, SAXException, WSSecurityException {
+        Map inScope = scope.getInScope();
+        String type = reader.getAttributeValue(null, "Type");
+        String algorithm = null;
+        SAXEvents.fireStartElement(reader, raw);
+        scope.push(SAXEvents.getDeclarations(reader));
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                SAXEvents.fireStartElement(reader, raw);
+                scope.push(SAXEvents.getDeclarations(reader));
+                depth++;
+                if (!WSConstants.ENC_NS.equals(reader.getNamespaceURI())) {
+                    continue;
+                }
+                if ("EncryptionMethod".equals(reader.getLocalName())) {
+                    algorithm = reader.getAttributeValue(null, "Algorithm");
+                } else if ("CipherValue".equals(reader.getLocalName())) {
+                    if (algorithm == null) {
+                        throw new WSSecurityException(
+                            WSSecurityException.FAILED_CHECK, 
+                            "invalidData", 
+                            new Object[] {"EncryptionMethod"}
+                        );
+                    }
+                    decryptCipherValue(reader, algorithm, dataRef.key, inScope, raw, plain);
+                    SAXEvents.fireEndElement(reader, raw);
+                    scope.pop();
+                    depth--;
+                } else if ("CipherReference".equals(reader.getLocalName())) {
+                    throw new WSSecurityException(
+                        WSSecurityException.FAILED_CHECK, 
+                        "invalidData", 
+                        new Object[] {"CipherReference"}
+                    );
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                SAXEvents.fireEndElement(reader, raw);
+                scope.pop();
+                depth--;
+            } else {
+                SAXEvents.fireEvent(reader, raw);
+            }
+        }
+        boolean content = type == null || type.equals(WSConstants.ENC_NS + "Content");
+        dataRef.dataRef.setAlgorithm(algorithm);
+        dataRef.dataRef.setContent(content);
+        if (content && parent != null) {
+            dataRef.dataRef.setProtectedElement(parent);
+            dataRef.dataRef.setXpath(ReferenceListProcessor.getXPath(parent));
+        }
+    }
+
+    /**
+     * Decrypt the CipherValue at which the reader is positioned and pass the 
+     * events of the plaintext to the handler. The plaintext is read in the
+     * scope of the namespaces of the parent of the EncryptedData.
+     */
+    private static void decryptCipherValue(
+        XMLStreamReader reader,
+        String algorithm,
+        byte[] keyBytes,
+        Map inScope,
+        ContentHandler raw,
+        ContentHandler plain
+    ) throws XMLStreamException, SAXException, WSSecurityException {
+        Cipher cipher = WSSecurityUtil.getCipherInstance(algorithm);
+        DecryptingInputStream plaintext = 
+            new DecryptingInputStream(
+                reader, raw, algorithm, cipher, 
+                WSSecurityUtil.prepareSecretKey(algorithm, keyBytes)
+            );
+        StringBuffer wrapper = new StringBuffer("<wrapper");
+        for (Iterator it = inScope.entrySet().iterator(); it.hasNext();) {
+            Map.Entry entry = (Map.Entry) it.next();
+            String prefix = (String) entry.getKey();
+            wrapper.append(prefix.length() == 0 ? " xmlns" : " xmlns:").append(prefix);
+            wrapper.append("=\"").append(XMLUtils.escapeAttribute((String) entry.getValue())).append('"');
+        }
+        wrapper.append('>');
+
+        XMLStreamReader fragment = null;
+        try {
+            fragment = 
+                createReader(
+                    new SequenceInputStream(
+                        new SequenceInputStream(getBytes(wrapper.toString()), plaintext),
+                        getBytes("</wrapper>")
+                    )
+                );
+            int depth = 0;
+            while (fragment.hasNext()) {
+                int event = fragment.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if (depth++ > 0) {
+                        SAXEvents.fireStartElement(fragment, plain);
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (--depth > 0) {
+                        SAXEvents.fireEndElement(fragment, plain);
+                    }
+                } else if (depth > 0) {
+                    SAXEvents.fireEvent(fragment, plain);
+                }
+            }
+            while (plaintext.read() != -1) {
+                // the plaintext must end with the fragment
+            }
+        } catch (XMLStreamException ex) {
+            throw new WSSecurityException(WSSecurityException.FAILED_CHECK, null, null, ex);
+        } catch (IOException ex) {
+            throw new WSSecurityException(WSSecurityException.FAILED_CHECK, null, null, ex);
+        } finally {
+            close(fragment);
+        }
+    }
+
+    private static XMLStreamReader createReader(InputStream in) throws XMLStreamException {
+        synchronized (inputFactory) {
+            return inputFactory.createXMLStreamReader(in);
+        }
+    }
+
+    private static void close(XMLStreamReader reader) {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (XMLStreamException ex) {
+                log.debug(ex.getMessage(), ex);
+            }
+        }
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.length() == 0 ? null : value;
+    }
+
+    private static InputStream getBytes(String value) {
+        try {
+            return new ByteArrayInputStream(value.getBytes("UTF-8"));
+        } catch (java.io.UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Passes the events to a list of handlers
+     */
+    private static class TeeHandler extends DefaultHandler {
+        private final ContentHandler[] handlers;
+
+        TeeHandler(List handlers) {
+            this.handlers = 
+                (ContentHandler[]) handlers.toArray(new ContentHandler[handlers.size()]);
+        }
+
+        public void startPrefixMapping(String prefix, String uri) throws SAXException {
+            for (int i = 0; i < handlers.length; i++) {
+                handlers[i].startPrefixMapping(prefix, uri);
+            }
+        }
+
+        public void endPrefixMapping(String prefix) throws SAXException {
+            for (int i = 0; i < handlers.length; i++) {
+                handlers[i].endPrefixMapping(prefix);
+            }
+        }
+
+        public void startElement(String uri, String localName, String qName, 
+            org.xml.sax.Attributes atts) throws SAXException {
+            for (int i = 0; i < handlers.length; i++) {
+                handlers[i].startElement(uri, localName, qName, atts);
+            }
+        }
+
+        public void endElement(String uri, String localName, String qName) 
+            throws SAXException {
+            for (int i = 0; i < handlers.length; i++) {
+                handlers[i].endElement(uri, localName, qName);
+            }
+        }
+
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            for (int i = 0; i < handlers.length; i++) {
+                handlers[i].characters(ch, start, length);
+            }
+        }
+
+        public void processingInstruction(String target, String data) throws SAXException {
+            for (int i = 0; i < handlers.length; i++) {
+                handlers[i].processingInstruction(target, data);
+            }
+        }
+
+        public void endDocument() throws SAXException {
+            for (int i = 0; i < handlers.length; i++) {
+                handlers[i].endDocument();
+            }
+        }
+    }
+
+    /**
+     * Discards what is written, for streams that only compute a digest
+     */
+    private static class NullOutputStream extends OutputStream {
+        static final NullOutputStream INSTANCE = new NullOutputStream();
+
+        public void write(int b) {
+        }
+
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
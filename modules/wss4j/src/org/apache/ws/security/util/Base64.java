@@ -18,6 +18,12 @@
 package org.apache.ws.security.util;
 
 import org.apache.ws.security.WSSecurityException;
+import org.w3c.dom.Node;
+import org.w3c.dom.Text;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
 
 /**
  * This class provides encode/decode for RFC 2045 Base64 as
@@ -27,9 +33,10 @@ import org.apache.ws.security.WSSecurityException;
  * 1996 Available at: http://www.ietf.org/rfc/rfc2045.txt
  * This class is used by XML Schema binary format validation
  *
- * This implementation does not encode/decode streaming
- * data. You need the data that you will encode/decode
- * already on a byte arrray.
+ * Data is decoded in a single pass, white space is skipped while
+ * decoding. Encoded data may be read from any CharSequence or from
+ * the Text children of a DOM node, and decoded into a caller provided
+ * buffer. Data may be encoded directly into a Writer or OutputStream.
  *
  * @xerces.internal 
  *
@@ -41,19 +48,24 @@ public final class  Base64 {
 
     static private final int  BASELENGTH         = 128;
     static private final int  LOOKUPLENGTH       = 64;
-    static private final int  TWENTYFOURBITGROUP = 24;
-    static private final int  EIGHTBIT           = 8;
-    static private final int  SIXTEENBIT         = 16;
-    static private final int  FOURBYTE           = 4;
-    static private final int  SIGN               = -128;
     static private final char PAD                = '=';
     static final private byte [] base64Alphabet        = new byte[BASELENGTH];
     static final private char [] lookUpBase64Alphabet  = new char[LOOKUPLENGTH];
+
+    /**
+     * The number of input bytes encoded per chunk when streaming
+     */
+    static private final int  CHUNK              = 768;
+
+    /**
+     * The largest decoded value that is decoded into the per-thread buffer
+     */
+    static private final int  MAX_POOLED         = 8192;
     
     static org.apache.commons.logging.Log log = 
         org.apache.commons.logging.LogFactory.getLog(Base64.class.getName());
     
-    static private final boolean fDebug          = log.isDebugEnabled();
+    private static final ThreadLocal decodeBuffers = new ThreadLocal();
 
     static {
 
@@ -113,85 +125,101 @@ public final class  Base64 {
 
         if (binaryData == null)
             return null;
-
-        int      lengthDataBits    = binaryData.length*EIGHTBIT;
-        if (lengthDataBits == 0) {
+        if (binaryData.length == 0) {
             return "";
         }
-        
-        int      fewerThan24bits   = lengthDataBits%TWENTYFOURBITGROUP;
-        int      numberTriplets    = lengthDataBits/TWENTYFOURBITGROUP;
-        int      numberQuartet     = fewerThan24bits != 0 ? numberTriplets+1 : numberTriplets;
-        char     encodedData[]     = null;
-
-        encodedData = new char[numberQuartet*4];
-
-        byte k=0, l=0, b1=0,b2=0,b3=0;
+        char[] encodedData = new char[getEncodedLength(binaryData.length)];
+        encode(binaryData, 0, binaryData.length, encodedData, 0);
+        return new String(encodedData);
+    }
 
-        int encodedIndex = 0;
-        int dataIndex   = 0;
-        if (fDebug) {
-            log.debug("number of triplets = " + numberTriplets );
+    /**
+     * Encodes octects into Base64 and writes them to a Writer
+     *
+     * @param binaryData Array containing binaryData
+     * @param offset the offset of the data in the array
+     * @param length the number of octets to encode
+     * @param writer the Writer to write the encoded data to
+     * @throws IOException if writing fails
+     */
+    public static void encode(byte[] binaryData, int offset, int length, Writer writer)
+        throws IOException {
+        char[] buf = new char[getEncodedLength(Math.min(length, CHUNK))];
+        int end = offset + length;
+        while (offset < end) {
+            int chunk = Math.min(end - offset, CHUNK);
+            int len = encode(binaryData, offset, chunk, buf, 0);
+            writer.write(buf, 0, len);
+            offset += chunk;
         }
+    }
 
-        for (int i=0; i<numberTriplets; i++) {
-            b1 = binaryData[dataIndex++];
-            b2 = binaryData[dataIndex++];
-            b3 = binaryData[dataIndex++];
-
-            if (fDebug) {
-                log.debug( "b1= " + b1 +", b2= " + b2 + ", b3= " + b3 );
+    /**
+     * Encodes octects into Base64 and writes them as ASCII to an OutputStream
+     *
+     * @param binaryData Array containing binaryData
+     * @param offset the offset of the data in the array
+     * @param length the number of octets to encode
+     * @param out the OutputStream to write the encoded data to
+     * @throws IOException if writing fails
+     */
+    public static void encode(byte[] binaryData, int offset, int length, OutputStream out)
+        throws IOException {
+        char[] chars = new char[getEncodedLength(Math.min(length, CHUNK))];
+        byte[] buf = new byte[chars.length];
+        int end = offset + length;
+        while (offset < end) {
+            int chunk = Math.min(end - offset, CHUNK);
+            int len = encode(binaryData, offset, chunk, chars, 0);
+            for (int i = 0; i < len; i++) {
+                buf[i] = (byte) chars[i];
             }
+            out.write(buf, 0, len);
+            offset += chunk;
+        }
+    }
 
-            l  = (byte)(b2 & 0x0f);
-            k  = (byte)(b1 & 0x03);
-
-            byte val1 = ((b1 & SIGN)==0)?(byte)(b1>>2):(byte)((b1)>>2^0xc0);
-
-            byte val2 = ((b2 & SIGN)==0)?(byte)(b2>>4):(byte)((b2)>>4^0xf0);
-            byte val3 = ((b3 & SIGN)==0)?(byte)(b3>>6):(byte)((b3)>>6^0xfc);
-
-            if (fDebug) {
-                log.debug( "val2 = " + val2 );
-                log.debug( "k4   = " + (k<<4));
-                log.debug( "vak  = " + (val2 | (k<<4)));
-            }
+    /**
+     * Returns the number of characters of the Base64 encoding of some octets
+     *
+     * @param length the number of octets
+     * @return the length of the encoded data
+     */
+    public static int getEncodedLength(int length) {
+        return ((length + 2) / 3) * 4;
+    }
 
-            encodedData[encodedIndex++] = lookUpBase64Alphabet[ val1 ];
-            encodedData[encodedIndex++] = lookUpBase64Alphabet[ val2 | ( k<<4 )];
-            encodedData[encodedIndex++] = lookUpBase64Alphabet[ (l <<2 ) | val3 ];
-            encodedData[encodedIndex++] = lookUpBase64Alphabet[ b3 & 0x3f ];
+    /**
+     * Encodes octets into a character array.
+     *
+     * @return the number of characters written
+     */
+    private static int encode(byte[] data, int offset, int length, char[] out, int outOffset) {
+        int end = offset + length - (length % 3);
+        int o = outOffset;
+        int i = offset;
+        for (; i < end; i += 3) {
+            int bits = ((data[i] & 0xff) << 16) | ((data[i + 1] & 0xff) << 8) | (data[i + 2] & 0xff);
+            out[o++] = lookUpBase64Alphabet[bits >>> 18];
+            out[o++] = lookUpBase64Alphabet[(bits >>> 12) & 0x3f];
+            out[o++] = lookUpBase64Alphabet[(bits >>> 6) & 0x3f];
+            out[o++] = lookUpBase64Alphabet[bits & 0x3f];
         }
-
-        // form integral number of 6-bit groups
-        if (fewerThan24bits == EIGHTBIT) {
-            b1 = binaryData[dataIndex];
-            k = (byte) ( b1 &0x03 );
-            if (fDebug) {
-                log.debug("b1=" + b1);
-                log.debug("b1<<2 = " + (b1>>2) );
-            }
-            byte val1 = ((b1 & SIGN)==0)?(byte)(b1>>2):(byte)((b1)>>2^0xc0);
-            encodedData[encodedIndex++] = lookUpBase64Alphabet[ val1 ];
-            encodedData[encodedIndex++] = lookUpBase64Alphabet[ k<<4 ];
-            encodedData[encodedIndex++] = PAD;
-            encodedData[encodedIndex++] = PAD;
-        } else if (fewerThan24bits == SIXTEENBIT) {
-            b1 = binaryData[dataIndex];
-            b2 = binaryData[dataIndex +1 ];
-            l = ( byte ) ( b2 &0x0f );
-            k = ( byte ) ( b1 &0x03 );
-
-            byte val1 = ((b1 & SIGN)==0)?(byte)(b1>>2):(byte)((b1)>>2^0xc0);
-            byte val2 = ((b2 & SIGN)==0)?(byte)(b2>>4):(byte)((b2)>>4^0xf0);
-
-            encodedData[encodedIndex++] = lookUpBase64Alphabet[ val1 ];
-            encodedData[encodedIndex++] = lookUpBase64Alphabet[ val2 | ( k<<4 )];
-            encodedData[encodedIndex++] = lookUpBase64Alphabet[ l<<2 ];
-            encodedData[encodedIndex++] = PAD;
+        int remaining = length % 3;
+        if (remaining == 1) {
+            int bits = data[i] & 0xff;
+            out[o++] = lookUpBase64Alphabet[bits >>> 2];
+            out[o++] = lookUpBase64Alphabet[(bits << 4) & 0x3f];
+            out[o++] = PAD;
+            out[o++] = PAD;
+        } else if (remaining == 2) {
+            int bits = ((data[i] & 0xff) << 8) | (data[i + 1] & 0xff);
+            out[o++] = lookUpBase64Alphabet[bits >>> 10];
+            out[o++] = lookUpBase64Alphabet[(bits >>> 4) & 0x3f];
+            out[o++] = lookUpBase64Alphabet[(bits << 2) & 0x3f];
+            out[o++] = PAD;
         }
-
-        return new String(encodedData);
+        return o - outOffset;
     }
 
     /**
@@ -201,91 +229,184 @@ public final class  Base64 {
      * @return Array containind decoded data.
      */
     public static byte[] decode(String encoded) throws WSSecurityException {
+        return decode((CharSequence) encoded);
+    }
 
-        if (encoded == null)
+    /**
+     * Decodes Base64 data into octects
+     *
+     * @param encoded the Base64 data
+     * @return Array containing the decoded data
+     * @throws WSSecurityException if the data is not valid Base64
+     */
+    public static byte[] decode(CharSequence encoded) throws WSSecurityException {
+        if (encoded == null) {
             return null;
-
-        char[] base64Data = encoded.toCharArray();
-        // remove white spaces
-        int len = removeWhiteSpace(base64Data);
-        
-        if (len%FOURBYTE != 0) {
-            throw new WSSecurityException("decoding.divisible.four");
         }
+        Decoder decoder = new Decoder(getBuffer(getMaxDecodedLength(encoded.length())), 0);
+        decoder.update(encoded);
+        return decoder.toByteArray();
+    }
 
-        int      numberQuadruple    = (len/FOURBYTE );
-
-        if (numberQuadruple == 0)
-            return new byte[0];
-
-        byte     decodedData[]      = null;
-        byte     b1=0,b2=0,b3=0,b4=0;
-        char     d1=0,d2=0,d3=0,d4=0;
-
-        int i = 0;
-        int encodedIndex = 0;
-        int dataIndex    = 0;
-        decodedData      = new byte[ (numberQuadruple)*3];
-
-        for (; i<numberQuadruple-1; i++) {
+    /**
+     * Decodes the Base64 data of a Text node, or of the Text children of
+     * an Element, without concatenating them first. CDATA sections are Text
+     * nodes as well.
+     *
+     * @param node a Text node or the parent of the Text nodes
+     * @return Array containing the decoded data
+     * @throws WSSecurityException if the data is not valid Base64
+     */
+    public static byte[] decode(Node node) throws WSSecurityException {
+        if (node == null) {
+            return null;
+        }
+        if (node instanceof Text) {
+            return decode(((Text) node).getData());
+        }
+        int length = 0;
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Text) {
+                length += ((Text) child).getLength();
+            }
+        }
+        Decoder decoder = new Decoder(getBuffer(getMaxDecodedLength(length)), 0);
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Text) {
+                decoder.update(((Text) child).getData());
+            }
+        }
+        return decoder.toByteArray();
+    }
 
-            if (!isData( (d1 = base64Data[dataIndex++]) )||
-                !isData( (d2 = base64Data[dataIndex++]) )||
-                !isData( (d3 = base64Data[dataIndex++]) )||
-                !isData( (d4 = base64Data[dataIndex++]) ))
-                throw new WSSecurityException("decoding.general");//if found "no data" just return null
+    /**
+     * Decodes Base64 data into a caller provided buffer. The buffer must have
+     * room for at least <code>getMaxDecodedLength(encoded.length())</code> octets
+     * after the offset.
+     *
+     * @param encoded the Base64 data
+     * @param buf the buffer to decode into
+     * @param offset the offset in the buffer
+     * @return the number of decoded octets
+     * @throws WSSecurityException if the data is not valid Base64
+     */
+    public static int decode(CharSequence encoded, byte[] buf, int offset)
+        throws WSSecurityException {
+        if (buf.length - offset < getMaxDecodedLength(encoded.length())) {
+            throw new IllegalArgumentException("Buffer too small");
+        }
+        Decoder decoder = new Decoder(buf, offset);
+        decoder.update(encoded);
+        decoder.finish();
+        return decoder.pos - offset;
+    }
 
-            b1 = base64Alphabet[d1];
-            b2 = base64Alphabet[d2];
-            b3 = base64Alphabet[d3];
-            b4 = base64Alphabet[d4];
+    /**
+     * Returns an upper bound of the number of octets some Base64 data
+     * decodes to, including any white space
+     *
+     * @param length the number of characters of the Base64 data
+     * @return the maximum length of the decoded data
+     */
+    public static int getMaxDecodedLength(int length) {
+        return (length / 4) * 3;
+    }
 
-            decodedData[encodedIndex++] = (byte)(  b1 <<2 | b2>>4 ) ;
-            decodedData[encodedIndex++] = (byte)(((b2 & 0xf)<<4 ) |( (b3>>2) & 0xf) );
-            decodedData[encodedIndex++] = (byte)( b3<<6 | b4 );
+    /**
+     * Get a buffer to decode into. Small buffers are kept per thread, the
+     * decoded data is copied out of them.
+     */
+    private static byte[] getBuffer(int length) {
+        if (length > MAX_POOLED) {
+            return new byte[length];
         }
+        byte[] buf = (byte[]) decodeBuffers.get();
+        if (buf == null) {
+            buf = new byte[MAX_POOLED];
+            decodeBuffers.set(buf);
+        }
+        return buf;
+    }
 
-        if (!isData( (d1 = base64Data[dataIndex++]) ) ||
-            !isData( (d2 = base64Data[dataIndex++]) )) {
-            throw new WSSecurityException("decoding.general");//if found "no data" just return null
+    /**
+     * Decodes Base64 data that may arrive in several parts
+     */
+    private static final class Decoder {
+        private final byte[] out;
+        private int pos;
+        private int bits;
+        private int count;
+        private int pads;
+        private boolean done;
+
+        Decoder(byte[] out, int offset) {
+            this.out = out;
+            this.pos = offset;
         }
 
-        b1 = base64Alphabet[d1];
-        b2 = base64Alphabet[d2];
+        void update(CharSequence encoded) throws WSSecurityException {
+            int length = encoded.length();
+            for (int i = 0; i < length; i++) {
+                char c = encoded.charAt(i);
+                int value = (c < BASELENGTH) ? base64Alphabet[c] : -1;
+                if (value >= 0) {
+                    if (pads != 0 || done) {
+                        throw new WSSecurityException("decoding.general");
+                    }
+                    bits = (bits << 6) | value;
+                    if (++count == 4) {
+                        out[pos++] = (byte) (bits >> 16);
+                        out[pos++] = (byte) (bits >> 8);
+                        out[pos++] = (byte) bits;
+                        bits = 0;
+                        count = 0;
+                    }
+                } else if (c == PAD) {
+                    pad();
+                } else if (!isWhiteSpace(c)) {
+                    throw new WSSecurityException("decoding.general");
+                }
+            }
+        }
 
-        d3 = base64Data[dataIndex++];
-        d4 = base64Data[dataIndex++];
-        if (!isData( (d3 ) ) ||
-            !isData( (d4 ) )) {//Check if they are PAD characters
-            if (isPad( d3 ) && isPad( d4)) {               //Two PAD e.g. 3c[Pad][Pad]
-                if ((b2 & 0xf) != 0)//last 4 bits should be zero
+        private void pad() throws WSSecurityException {
+            if (done || count < 2) {
+                throw new WSSecurityException("decoding.general");
+            }
+            pads++;
+            if (count == 2 && pads == 2) {
+                // Two PAD e.g. 3c[Pad][Pad], last 4 bits should be zero
+                if ((bits & 0xf) != 0) {
                     throw new WSSecurityException("decoding.general");
-                byte[] tmp = new byte[ i*3 + 1 ];
-                System.arraycopy( decodedData, 0, tmp, 0, i*3 );
-                tmp[encodedIndex]   = (byte)(  b1 <<2 | b2>>4 ) ;
-                return tmp;
-            } else if (!isPad( d3) && isPad(d4)) {               //One PAD  e.g. 3cQ[Pad]
-                b3 = base64Alphabet[ d3 ];
-                if ((b3 & 0x3 ) != 0)//last 2 bits should be zero
+                }
+                out[pos++] = (byte) (bits >> 4);
+                done = true;
+            } else if (count == 3) {
+                // One PAD e.g. 3cQ[Pad], last 2 bits should be zero
+                if ((bits & 0x3) != 0) {
                     throw new WSSecurityException("decoding.general");
-                byte[] tmp = new byte[ i*3 + 2 ];
-                System.arraycopy( decodedData, 0, tmp, 0, i*3 );
-                tmp[encodedIndex++] = (byte)(  b1 <<2 | b2>>4 );
-                tmp[encodedIndex]   = (byte)(((b2 & 0xf)<<4 ) |( (b3>>2) & 0xf) );
-                return tmp;
-            } else {
-                throw new WSSecurityException("decoding.general");//an error  like "3c[Pad]r", "3cdX", "3cXd", "3cXX" where X is non data
+                }
+                out[pos++] = (byte) (bits >> 10);
+                out[pos++] = (byte) (bits >> 2);
+                done = true;
             }
-        } else { //No PAD e.g 3cQl
-            b3 = base64Alphabet[ d3 ];
-            b4 = base64Alphabet[ d4 ];
-            decodedData[encodedIndex++] = (byte)(  b1 <<2 | b2>>4 ) ;
-            decodedData[encodedIndex++] = (byte)(((b2 & 0xf)<<4 ) |( (b3>>2) & 0xf) );
-            decodedData[encodedIndex++] = (byte)( b3<<6 | b4 );
+        }
 
+        void finish() throws WSSecurityException {
+            if (!done && (count != 0 || pads != 0)) {
+                throw new WSSecurityException("decoding.divisible.four");
+            }
         }
 
-        return decodedData;
+        byte[] toByteArray() throws WSSecurityException {
+            finish();
+            if (pos == out.length && out != decodeBuffers.get()) {
+                return out;
+            }
+            byte[] result = new byte[pos];
+            System.arraycopy(out, 0, result, 0, pos);
+            return result;
+        }
     }
 
     /**
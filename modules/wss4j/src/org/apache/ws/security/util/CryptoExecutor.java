@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ws.security.util;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The default executor of the asynchronous security operations. <p/>
+ *
+ * It is a fixed pool with one daemon thread per available processor, since the
+ * operations are bound by the signature and encryption work. The pool is only
+ * created when it is first used. An application that wants a different pool,
+ * for example one thread per operation, sets its own executor on the
+ * <code>WSSConfig</code> or passes it to the asynchronous methods.
+ */
+public final class CryptoExecutor {
+
+    /**
+     * The prefix of the names of the pool threads
+     */
+    public static final String THREAD_NAME_PREFIX = "wss4j-crypto-";
+
+    private CryptoExecutor() {
+        // complete
+    }
+
+    /**
+     * @return the shared default executor
+     */
+    public static Executor getDefault() {
+        return Holder.EXECUTOR;
+    }
+
+    /**
+     * Create a fixed pool of daemon threads as used for the default executor.
+     *
+     * @param threads the number of threads
+     * @return the new pool
+     */
+    public static ExecutorService newFixedPool(int threads) {
+        return Executors.newFixedThreadPool(threads, new DaemonThreadFactory());
+    }
+
+    private static class Holder {
+        static final Executor EXECUTOR = 
+            newFixedPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private static final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, THREAD_NAME_PREFIX + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
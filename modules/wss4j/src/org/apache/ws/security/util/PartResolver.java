@@ -0,0 +1,258 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ws.security.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.WSEncryptionPart;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.namespace.QName;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+/**
+ * Resolves the elements of a set of <code>WSEncryptionPart</code>s with a single
+ * traversal of the document. <p/>
+ *
+ * The parts are collected first. On the first call to <code>getElement</code>
+ * the document is walked once and the targets of all parts are recorded. The
+ * lookup rules are the same as for <code>WSSecurityUtil.findElementById</code>
+ * (a wsu:Id first, then an unqualified Id, duplicates resolve to nothing) and
+ * <code>WSSecurityUtil.findElement</code> (the first element in document order).
+ *
+ * If a target was not found during the traversal, or was removed from the
+ * document since, for example because an enclosing part was encrypted, the part
+ * is looked up again with the <code>WSSecurityUtil</code> methods.
+ */
+public class PartResolver {
+    private static Log log = LogFactory.getLog(PartResolver.class);
+
+    /**
+     * Marks an Id that occurs more than once in the document
+     */
+    private static final Object DUPLICATE = new Object();
+
+    private final Document doc;
+
+    /**
+     * Requested element names, of the form <QName, Element>
+     */
+    private final Map names = new HashMap();
+
+    /**
+     * The local names of the requested element names
+     */
+    private final Set localNames = new HashSet();
+
+    /**
+     * Requested Id values, of the form <String, Element>, for wsu:Id and for
+     * unqualified Id attributes
+     */
+    private final Map wsuIds = new HashMap();
+    private final Map ids = new HashMap();
+
+    private boolean resolved;
+
+    /**
+     * @param doc the document that contains the parts
+     */
+    public PartResolver(Document doc) {
+        this.doc = doc;
+    }
+
+    /**
+     * @param doc the document that contains the parts
+     * @param parts a vector of <code>WSEncryptionPart</code>s to resolve
+     */
+    public PartResolver(Document doc, Vector parts) {
+        this(doc);
+        for (int i = 0; i < parts.size(); i++) {
+            addPart((WSEncryptionPart) parts.get(i));
+        }
+    }
+
+    /**
+     * Add a part to resolve with the next traversal.
+     *
+     * @param part the part to add
+     */
+    public void addPart(WSEncryptionPart part) {
+        String id = part.getId();
+        if (id != null) {
+            if (!wsuIds.containsKey(id)) {
+                wsuIds.put(id, null);
+                ids.put(id, null);
+                resolved = false;
+            }
+        } else if (part.getName() != null) {
+            QName name = new QName(part.getNamespace(), part.getName());
+            if (!names.containsKey(name)) {
+                names.put(name, null);
+                localNames.add(part.getName());
+                resolved = false;
+            }
+        }
+    }
+
+    /**
+     * Get the element of a part. The part should have been added before,
+     * otherwise it is looked up separately.
+     *
+     * @param part the part to get the element for
+     * @return the element of the part or <code>null</code> if the part was not
+     *         found or its Id is not unique
+     */
+    public Element getElement(WSEncryptionPart part) {
+        if (!resolved) {
+            resolve();
+        }
+        String id = part.getId();
+        if (id != null) {
+            Element element = getAttached(wsuIds, id);
+            if (element == null) {
+                element = getAttached(ids, id);
+            }
+            if (element == null) {
+                Element root = doc.getDocumentElement();
+                element = WSSecurityUtil.findElementById(root, id, WSConstants.WSU_NS);
+                if (element == null) {
+                    element = WSSecurityUtil.findElementById(root, id, null);
+                }
+            }
+            return element;
+        }
+        Element element =
+            getAttached(names, new QName(part.getNamespace(), part.getName()));
+        if (element == null) {
+            element =
+                (Element) WSSecurityUtil.findElement(
+                    doc.getDocumentElement(), part.getName(), part.getNamespace()
+                );
+        }
+        return element;
+    }
+
+    /**
+     * Walk the document once and record the elements of all parts added so far.
+     */
+    public void resolve() {
+        clearValues(names);
+        clearValues(wsuIds);
+        clearValues(ids);
+        resolved = true;
+        if (names.isEmpty() && wsuIds.isEmpty()) {
+            return;
+        }
+
+        Node startNode = doc.getDocumentElement();
+        if (startNode == null) {
+            return;
+        }
+        Node startParent = startNode.getParentNode();
+        Node processedNode = null;
+
+        while (startNode != null) {
+            if (startNode.getNodeType() == Node.ELEMENT_NODE) {
+                record((Element) startNode);
+            }
+            processedNode = startNode;
+            startNode = startNode.getFirstChild();
+
+            // no child, this node is done.
+            if (startNode == null) {
+                // close node processing, get sibling
+                startNode = processedNode.getNextSibling();
+            }
+            // no more siblings, get parent, all children
+            // of parent are processed.
+            while (startNode == null) {
+                processedNode = processedNode.getParentNode();
+                if (processedNode == startParent) {
+                    return;
+                }
+                // close parent node processing (processed node now)
+                startNode = processedNode.getNextSibling();
+            }
+        }
+    }
+
+    private void record(Element element) {
+        String localName = element.getLocalName();
+        if (localName != null && localNames.contains(localName)) {
+            QName name = new QName(element.getNamespaceURI(), localName);
+            if (names.containsKey(name) && names.get(name) == null) {
+                names.put(name, element);
+            }
+        }
+        if (!wsuIds.isEmpty()) {
+            Attr attr = element.getAttributeNodeNS(WSConstants.WSU_NS, "Id");
+            if (attr != null) {
+                recordId(wsuIds, attr.getValue(), element);
+            }
+            attr = element.getAttributeNodeNS(null, "Id");
+            if (attr != null) {
+                recordId(ids, attr.getValue(), element);
+            }
+        }
+    }
+
+    private static void recordId(Map idMap, String id, Element element) {
+        if (!idMap.containsKey(id)) {
+            return;
+        }
+        Object found = idMap.get(id);
+        if (found == null) {
+            idMap.put(id, element);
+        } else if (found != DUPLICATE) {
+            log.warn("Multiple elements with the same 'Id' attribute value!");
+            idMap.put(id, DUPLICATE);
+        }
+    }
+
+    private Element getAttached(Map map, Object key) {
+        Object found = map.get(key);
+        if (found == null || found == DUPLICATE) {
+            return null;
+        }
+        Element element = (Element) found;
+        for (Node node = element; node != null; node = node.getParentNode()) {
+            if (node == doc) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    private static void clearValues(Map map) {
+        for (Iterator it = map.entrySet().iterator(); it.hasNext();) {
+            ((Map.Entry) it.next()).setValue(null);
+        }
+    }
+}
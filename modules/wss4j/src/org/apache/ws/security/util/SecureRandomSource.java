@@ -0,0 +1,186 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ws.security.util;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+/**
+ * A source of randomness and symmetric keys for nonces, salts, ephemeral keys
+ * and session keys. <p/>
+ *
+ * Each thread gets its own <code>SecureRandom</code> and its own set of
+ * <code>KeyGenerator</code>s, so concurrent senders never serialise on a single
+ * generator. The <code>SecureRandom</code> instances are never explicitly seeded:
+ * the JCE provider seeds them from the platform entropy source on first use,
+ * which is both stronger and cheaper than seeding with the current time.
+ */
+public class SecureRandomSource {
+
+    /**
+     * The default <code>SecureRandom</code> algorithm
+     */
+    public static final String DEFAULT_ALGORITHM = "SHA1PRNG";
+
+    private static final Map sources = new ConcurrentHashMap();
+
+    private static String defaultAlgorithm = DEFAULT_ALGORITHM;
+
+    private final String algorithm;
+
+    /**
+     * The SecureRandom of the current thread
+     */
+    private final ThreadLocal random = new ThreadLocal();
+
+    /**
+     * A map of the form <String, KeyGenerator> holding the initialized key
+     * generators of the current thread, keyed by "algorithm/keysize".
+     */
+    private final ThreadLocal keyGenerators = new ThreadLocal() {
+        protected Object initialValue() {
+            return new HashMap();
+        }
+    };
+
+    private SecureRandomSource(String algorithm) throws NoSuchAlgorithmException {
+        this.algorithm = algorithm;
+        // fail early if the algorithm is not available at all
+        SecureRandom.getInstance(algorithm);
+    }
+
+    /**
+     * @return the source for the configured default <code>SecureRandom</code> algorithm
+     * @throws NoSuchAlgorithmException
+     */
+    public static SecureRandomSource getInstance() throws NoSuchAlgorithmException {
+        return getInstance(defaultAlgorithm);
+    }
+
+    /**
+     * @param algorithm the <code>SecureRandom</code> algorithm identifier
+     * @return the source for the given <code>SecureRandom</code> algorithm
+     * @throws NoSuchAlgorithmException
+     */
+    public static SecureRandomSource getInstance(String algorithm) throws NoSuchAlgorithmException {
+        SecureRandomSource source = (SecureRandomSource)sources.get(algorithm);
+        if (source == null) {
+            source = new SecureRandomSource(algorithm);
+            sources.put(algorithm, source);
+        }
+        return source;
+    }
+
+    /**
+     * Set the <code>SecureRandom</code> algorithm used by {@link #getInstance()}.
+     *
+     * @param algorithm the <code>SecureRandom</code> algorithm identifier
+     * @throws NoSuchAlgorithmException if the algorithm is not available
+     */
+    public static void setDefaultAlgorithm(String algorithm) throws NoSuchAlgorithmException {
+        getInstance(algorithm);
+        defaultAlgorithm = algorithm;
+    }
+
+    /**
+     * @return the <code>SecureRandom</code> algorithm used by {@link #getInstance()}
+     */
+    public static String getDefaultAlgorithm() {
+        return defaultAlgorithm;
+    }
+
+    /**
+     * @return the <code>SecureRandom</code> algorithm of this source
+     */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Get the <code>SecureRandom</code> of the calling thread. The returned
+     * instance must not be handed over to other threads.
+     *
+     * @return the <code>SecureRandom</code> of the calling thread
+     */
+    public SecureRandom getSecureRandom() {
+        SecureRandom r = (SecureRandom)random.get();
+        if (r == null) {
+            try {
+                r = SecureRandom.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                // checked in the constructor
+                throw new IllegalStateException(e.getMessage());
+            }
+            random.set(r);
+        }
+        return r;
+    }
+
+    /**
+     * Fill the given array with random bytes
+     *
+     * @param bytes the array to fill
+     */
+    public void nextBytes(byte[] bytes) {
+        getSecureRandom().nextBytes(bytes);
+    }
+
+    /**
+     * @param length the number of bytes to generate
+     * @return a new array of the given length filled with random bytes
+     */
+    public byte[] nextBytes(int length) {
+        byte[] bytes = new byte[length];
+        getSecureRandom().nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Generate a symmetric key using a <code>KeyGenerator</code> cached for the
+     * calling thread.
+     *
+     * @param keyAlgorithm the JCE key algorithm, for example "AES" or "DESede"
+     * @param keySize the key size in bits, or a value <= 0 to use the default
+     *                key size of the algorithm
+     * @return a new symmetric key
+     * @throws NoSuchAlgorithmException
+     */
+    public SecretKey generateKey(String keyAlgorithm, int keySize) throws NoSuchAlgorithmException {
+        Map generators = (Map)keyGenerators.get();
+        String key = keyAlgorithm + "/" + keySize;
+        KeyGenerator keyGen = (KeyGenerator)generators.get(key);
+        if (keyGen == null) {
+            keyGen = KeyGenerator.getInstance(keyAlgorithm);
+            if (keySize > 0) {
+                keyGen.init(keySize, getSecureRandom());
+            } else {
+                keyGen.init(getSecureRandom());
+            }
+            generators.put(key, keyGen);
+        }
+        return keyGen.generateKey();
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ws.security.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.ws.security.WSSecurityException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The pending result of an asynchronous security operation. <p/>
+ *
+ * Besides the blocking <code>get</code> methods of a <code>Future</code>, a
+ * caller that must not block, for example an I/O thread of an event loop, can
+ * register listeners that run as soon as the operation is done. A listener runs
+ * on the thread that completed the operation, or on the registering thread if
+ * the operation is already done, so it should only hand the result over to the
+ * caller's own thread. <p/>
+ *
+ * The operation has exclusive access to the DOM document it works on. The
+ * caller must not read or modify the document until the future is done; all
+ * changes made by the operation are visible to the caller afterwards.
+ */
+public class SecurityFuture<V> extends FutureTask<V> {
+    private static Log log = LogFactory.getLog(SecurityFuture.class);
+
+    /**
+     * The listeners to run on completion, or null once they have been run
+     */
+    private List listeners = new ArrayList();
+
+    /**
+     * @param callable the operation to run
+     */
+    public SecurityFuture(Callable<V> callable) {
+        super(callable);
+    }
+
+    /**
+     * Run an operation on an executor.
+     *
+     * @param executor the executor to run the operation on
+     * @param callable the operation to run
+     * @return the pending result of the operation. If the executor rejects the
+     *         operation, the future is done and fails with a 
+     *         <code>WSSecurityException</code>.
+     */
+    public static <V> SecurityFuture<V> submit(Executor executor, Callable<V> callable) {
+        SecurityFuture<V> future = new SecurityFuture<V>(callable);
+        try {
+            executor.execute(future);
+        } catch (RejectedExecutionException ex) {
+            future.setException(
+                new WSSecurityException(WSSecurityException.FAILURE, null, null, ex)
+            );
+        }
+        return future;
+    }
+
+    /**
+     * Add a listener that runs once the operation is done, whether it succeeded,
+     * failed or was cancelled. If the operation is already done the listener
+     * runs immediately.
+     *
+     * @param listener the listener to run
+     */
+    public void addListener(Runnable listener) {
+        synchronized (this) {
+            if (listeners != null) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        runListener(listener);
+    }
+
+    /**
+     * Wait for the operation and return its result. A failure of the operation
+     * is thrown as the <code>WSSecurityException</code> the operation threw, or
+     * wrapped into one.
+     *
+     * @return the result of the operation
+     * @throws WSSecurityException if the operation failed, was cancelled or the
+     *                             calling thread was interrupted
+     */
+    public V getResult() throws WSSecurityException {
+        try {
+            return get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof WSSecurityException) {
+                throw (WSSecurityException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new WSSecurityException(
+                WSSecurityException.FAILURE, null, null, cause
+            );
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new WSSecurityException(WSSecurityException.FAILURE, null, null, ex);
+        } catch (CancellationException ex) {
+            throw new WSSecurityException(WSSecurityException.FAILURE, null, null, ex);
+        }
+    }
+
+    protected void done() {
+        List toRun;
+        synchronized (this) {
+            toRun = listeners;
+            listeners = null;
+        }
+        for (int i = 0; i < toRun.size(); i++) {
+            runListener((Runnable) toRun.get(i));
+        }
+    }
+
+    private static void runListener(Runnable listener) {
+        try {
+            listener.run();
+        } catch (RuntimeException ex) {
+            log.warn("A listener of an asynchronous security operation failed", ex);
+        }
+    }
+}
@@ -26,8 +26,10 @@ import org.apache.ws.security.SOAP12Constants;
 import org.apache.ws.security.SOAPConstants;
 import org.apache.ws.security.WSConstants;
 import org.apache.ws.security.WSSecurityEngineResult;
+import org.apache.ws.security.WSSecurityEngineResults;
 import org.apache.ws.security.WSSecurityException;
 import org.apache.ws.security.WSSConfig;
+import org.apache.ws.security.algorithms.SignatureECDSA;
 import org.apache.ws.security.handler.WSHandlerConstants;
 import org.apache.ws.security.handler.WSHandlerResult;
 import org.apache.xml.security.algorithms.JCEMapper;
@@ -43,13 +45,19 @@ import org.w3c.dom.Text;
 import javax.crypto.Cipher;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import javax.xml.namespace.QName;
 
+import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
 import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
+import java.security.spec.AlgorithmParameterSpec;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.Vector;
 
@@ -61,15 +69,6 @@ import java.util.Vector;
 public class WSSecurityUtil {
     private static Log log = LogFactory.getLog(WSSecurityUtil.class);
 
-    /**
-     * A cached pseudo-random number generator
-     * NB. On some JVMs, caching this random number
-     * generator is required to overcome punitive
-     * overhead.
-     */
-    private static SecureRandom random = null;
-    private static String randomAlgorithm = null;
-    
     /**
      * Returns the first WS-Security header element for a given actor. Only one
      * WS-Security header is allowed for an actor.
@@ -184,6 +183,34 @@ public class WSSecurityUtil {
         }
         return null;
     }
+    /**
+     * Counts the direct children with specified localname and namespace. <p/>
+     * 
+     * @param fNode the node whose children are counted
+     * @param localName local name of the children to count
+     * @param namespace the namespace of the children to count
+     * @return the number of matching child elements
+     */
+    public static int countDirectChildElements(
+        Node fNode, 
+        String localName,
+        String namespace
+    ) {
+        int count = 0;
+        for (
+            Node currentChild = fNode.getFirstChild(); 
+            currentChild != null; 
+            currentChild = currentChild.getNextSibling()
+        ) {
+            if (Node.ELEMENT_NODE == currentChild.getNodeType()
+                && localName.equals(currentChild.getLocalName())
+                && namespace.equals(currentChild.getNamespaceURI())) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
     /**
      * return the first soap "Body" element. <p/>
      * 
@@ -742,11 +769,80 @@ public class WSSecurityUtil {
     }
 
     public static SecretKey prepareSecretKey(String symEncAlgo, byte[] rawKey) {
-        SecretKeySpec keySpec = 
-            new SecretKeySpec(rawKey, JCEMapper.getJCEKeyAlgorithmFromURI(symEncAlgo));
+        String keyAlgorithm = 
+            isGCMAlgorithm(symEncAlgo) ? "AES" : JCEMapper.getJCEKeyAlgorithmFromURI(symEncAlgo);
+        SecretKeySpec keySpec = new SecretKeySpec(rawKey, keyAlgorithm);
         return (SecretKey) keySpec;
     }
 
+    /**
+     * Check if a symmetric encryption algorithm is one of the AES-GCM algorithms 
+     * of XML Encryption 1.1. These are not known to the XMLCipher, WSS4J encrypts
+     * and decrypts them itself.
+     * 
+     * @param symEncAlgo the URI of the symmetric encryption algorithm
+     * @return true if the algorithm is AES-GCM
+     */
+    public static boolean isGCMAlgorithm(String symEncAlgo) {
+        return WSConstants.AES_128_GCM.equals(symEncAlgo)
+            || WSConstants.AES_192_GCM.equals(symEncAlgo)
+            || WSConstants.AES_256_GCM.equals(symEncAlgo);
+    }
+
+    /**
+     * Get the length of the IV that precedes the cipher text of an EncryptedData. 
+     * It is the block size for the CBC algorithms and 96 bits for AES-GCM.
+     * 
+     * @param symEncAlgo the URI of the symmetric encryption algorithm
+     * @param cipher the cipher of the algorithm
+     * @return the length of the IV in bytes
+     */
+    public static int getIVLength(String symEncAlgo, Cipher cipher) {
+        if (isGCMAlgorithm(symEncAlgo)) {
+            return 12;
+        }
+        return cipher.getBlockSize();
+    }
+
+    /**
+     * Get the parameters to initialize the cipher of a symmetric encryption 
+     * algorithm with an IV. AES-GCM uses a 128 bit authentication tag.
+     * 
+     * @param symEncAlgo the URI of the symmetric encryption algorithm
+     * @param iv the IV
+     * @return the parameters for the cipher
+     */
+    public static AlgorithmParameterSpec getIVParameterSpec(String symEncAlgo, byte[] iv) {
+        if (isGCMAlgorithm(symEncAlgo)) {
+            return new GCMParameterSpec(128, iv);
+        }
+        return new IvParameterSpec(iv);
+    }
+
+    /**
+     * Get a cipher for a symmetric encryption algorithm, initialized to encrypt 
+     * with the given key and a fresh random IV. The IV is available from 
+     * <code>Cipher.getIV()</code>.
+     * 
+     * @param symEncAlgo the URI of the symmetric encryption algorithm
+     * @param key the key to encrypt with
+     * @return the initialized cipher
+     * @throws WSSecurityException if the algorithm is not supported
+     */
+    public static Cipher getEncryptionCipher(String symEncAlgo, SecretKey key) 
+        throws WSSecurityException {
+        Cipher cipher = getCipherInstance(symEncAlgo);
+        byte[] iv = generateNonce(getIVLength(symEncAlgo, cipher));
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, key, getIVParameterSpec(symEncAlgo, iv));
+        } catch (GeneralSecurityException ex) {
+            throw new WSSecurityException(
+                WSSecurityException.FAILED_ENCRYPTION, null, null, ex
+            );
+        }
+        return cipher;
+    }
+
     public static SOAPConstants getSOAPConstants(Element startElement) {
         Document doc = startElement.getOwnerDocument();
         String ns = doc.getDocumentElement().getNamespaceURI();
@@ -756,6 +852,48 @@ public class WSSecurityUtil {
         return new SOAP11Constants();
     }
 
+    /**
+     * Get the signature algorithm that fits a public key, for the automatic 
+     * selection of the signature algorithm. RSA and DSA keys use SHA-1, EC keys
+     * use ECDSA with the SHA-2 hash that matches the size of the curve.
+     * 
+     * @param publicKey the public key of the signer
+     * @return the URI of the signature algorithm
+     * @throws WSSecurityException if the type of the key is not supported
+     */
+    public static String getSignatureAlgorithm(PublicKey publicKey) 
+        throws WSSecurityException {
+        String pubKeyAlgo = publicKey.getAlgorithm();
+        if (log.isDebugEnabled()) {
+            log.debug("automatic sig algo detection: " + pubKeyAlgo);
+        }
+        if (pubKeyAlgo.equalsIgnoreCase("DSA")) {
+            return XMLSignature.ALGO_ID_SIGNATURE_DSA;
+        } else if (pubKeyAlgo.equalsIgnoreCase("RSA")) {
+            return XMLSignature.ALGO_ID_SIGNATURE_RSA;
+        } else if (pubKeyAlgo.equalsIgnoreCase("EC") 
+            || pubKeyAlgo.equalsIgnoreCase("ECDSA")) {
+            int fieldSize = SignatureECDSA.getFieldSize(publicKey);
+            if (fieldSize <= 256) {
+                return WSConstants.ECDSA_SHA256;
+            } else if (fieldSize <= 384) {
+                return WSConstants.ECDSA_SHA384;
+            }
+            return WSConstants.ECDSA_SHA512;
+        } else if (pubKeyAlgo.equalsIgnoreCase("Ed25519")) {
+            return WSConstants.ED25519;
+        } else if (pubKeyAlgo.equalsIgnoreCase("EdDSA") 
+            && publicKey.getEncoded().length == 44) {
+            // the SubjectPublicKeyInfo of an Ed25519 key, as opposed to Ed448
+            return WSConstants.ED25519;
+        }
+        throw new WSSecurityException(
+            WSSecurityException.FAILURE,
+            "unknownSignatureAlgorithm",
+            new Object[] {pubKeyAlgo}
+        );
+    }
+
     public static Cipher getCipherInstance(String cipherAlgo)
         throws WSSecurityException {
         
@@ -767,6 +905,8 @@ public class WSSecurityUtil {
                     cipher = Cipher.getInstance("RSA/NONE/PKCS1PADDING");
                 } else if (cipherAlgo.equalsIgnoreCase(WSConstants.KEYTRANSPORT_RSAOEP)) {
                     cipher = Cipher.getInstance("RSA/NONE/OAEPPADDING");
+                } else if (isGCMAlgorithm(cipherAlgo)) {
+                    cipher = Cipher.getInstance("AES/GCM/NoPadding");
                 } else {
                     throw new WSSecurityException(
                         WSSecurityException.UNSUPPORTED_ALGORITHM,
@@ -793,12 +933,18 @@ public class WSSecurityUtil {
     /**
      * Fetch the result of a given action from a given result vector <p/>
      * 
+     * If the result vector is a {@link WSSecurityEngineResults}, the result is
+     * looked up in its index.
+     * 
      * @param wsResultVector The result vector to fetch an action from
      * @param action The action to fetch
      * @return The result fetched from the result vector, null if the result
      *         could not be found
      */
     public static WSSecurityEngineResult fetchActionResult(Vector wsResultVector, int action) {
+        if (wsResultVector instanceof WSSecurityEngineResults) {
+            return ((WSSecurityEngineResults) wsResultVector).getResult(action);
+        }
         WSSecurityEngineResult wsResult = null;
 
         // Find the part of the security result that matches the given action
@@ -806,10 +952,8 @@ public class WSSecurityUtil {
             // Check the result of every action whether it matches the given action
             WSSecurityEngineResult result = 
                 (WSSecurityEngineResult) wsResultVector.get(i);
-            int resultAction = 
-                ((java.lang.Integer)result.get(WSSecurityEngineResult.TAG_ACTION)).intValue();
-            if (resultAction == action) {
-                wsResult = (WSSecurityEngineResult) wsResultVector.get(i);
+            if (result.getAction() == action) {
+                wsResult = result;
             }
         }
 
@@ -819,6 +963,9 @@ public class WSSecurityUtil {
     /**
      * Fetch the result of a given action from a given result vector <p/>
      * 
+     * If the result vector is a {@link WSSecurityEngineResults}, the results 
+     * are looked up in its index.
+     * 
      * @param wsResultVector The result vector to fetch an action from
      * @param action The action to fetch
      * @param results where to store the found results data for the action
@@ -830,16 +977,18 @@ public class WSSecurityUtil {
         int action, 
         Vector results
     ) {
+        if (wsResultVector instanceof WSSecurityEngineResults) {
+            results.addAll(((WSSecurityEngineResults) wsResultVector).getResults(action));
+            return results;
+        }
         // Find the parts of the security result that matches the given action
         for (int i = 0; i < wsResultVector.size(); i++) {
             // Check the result of every action whether it matches the given
             // action
             WSSecurityEngineResult result = 
                 (WSSecurityEngineResult) wsResultVector.get(i);
-            int resultAction = 
-                ((java.lang.Integer)result.get(WSSecurityEngineResult.TAG_ACTION)).intValue();
-            if (resultAction == action) {
-                results.add(wsResultVector.get(i));
+            if (result.getAction() == action) {
+                results.add(result);
             }
         }
         return results;
@@ -977,6 +1126,18 @@ public class WSSecurityUtil {
             return 24;
         } else if (algorithm.equals(WSConstants.AES_256)) {
             return 32;
+        } else if (algorithm.equals(WSConstants.AES_128_GCM)) {
+            return 16;
+        } else if (algorithm.equals(WSConstants.AES_192_GCM)) {
+            return 24;
+        } else if (algorithm.equals(WSConstants.AES_256_GCM)) {
+            return 32;
+        } else if (algorithm.equals(WSConstants.KEYWRAP_AES128)) {
+            return 16;
+        } else if (algorithm.equals(WSConstants.KEYWRAP_AES192)) {
+            return 24;
+        } else if (algorithm.equals(WSConstants.KEYWRAP_AES256)) {
+            return 32;
         } else if (XMLSignature.ALGO_ID_MAC_HMAC_SHA1.equals(algorithm)) {
             return 20;
         } else if (XMLSignature.ALGO_ID_MAC_HMAC_SHA256.equals(algorithm)) {
@@ -1001,14 +1162,8 @@ public class WSSecurityUtil {
      * @throws Exception
      */
     public static byte[] generateNonce(int length) throws WSSecurityException {
-        try {            
-            final SecureRandom r = resolveSecureRandom();
-            if (r == null) {
-                throw new WSSecurityException("Random generator is not initialized.");
-            }
-            byte[] temp = new byte[length];            
-            r.nextBytes(temp);
-            return temp;
+        try {
+            return SecureRandomSource.getInstance().nextBytes(length);
         } catch (Exception e) {
             throw new WSSecurityException(
                 "Error in generating nonce of length " + length, e
@@ -1067,27 +1222,46 @@ public class WSSecurityUtil {
         // Search through the results for a SIGN result
         while (results.hasNext()) {
             WSHandlerResult result = (WSHandlerResult) results.next();
-            Iterator actions = result.getResults().iterator();
+            Vector engineResults = result.getResults();
+            Vector signResults = new Vector();
+            if (engineResults instanceof WSSecurityEngineResults) {
+                //
+                // Only a signature of the first required element can sign all
+                // of them, so the others are not checked
+                //
+                WSSecurityEngineResults indexed = (WSSecurityEngineResults) engineResults;
+                List candidates = indexed.getResultsForElementId(requiredIDs[0]);
+                for (int i = 0; i < candidates.size(); i++) {
+                    WSSecurityEngineResult candidate = 
+                        (WSSecurityEngineResult) candidates.get(i);
+                    if (candidate.getAction() == WSConstants.SIGN) {
+                        signResults.add(candidate);
+                    }
+                }
+                if (signResults.isEmpty() && indexed.countResults(WSConstants.SIGN) > 0) {
+                    fault = 
+                        new WSSecurityException(
+                            WSSecurityException.FAILED_CHECK,
+                            "requiredElementNotSigned",
+                            new Object[] {requiredIDs[0]}
+                        );
+                }
+            } else {
+                fetchAllActionResults(engineResults, WSConstants.SIGN, signResults);
+            }
+            Iterator actions = signResults.iterator();
 
             while (actions.hasNext()) {
                 WSSecurityEngineResult resultItem = 
                     (WSSecurityEngineResult) actions.next();
-                int resultAction = 
-                    ((java.lang.Integer)resultItem.get(WSSecurityEngineResult.TAG_ACTION)).intValue();
-                
-                if (resultAction == WSConstants.SIGN) {
-                    try {
-                        checkSignsAllElements(resultItem, requiredIDs);
-                        return 
-                            (X509Certificate)resultItem.get(
-                                WSSecurityEngineResult.TAG_X509_CERTIFICATE
-                            );
-                    } catch (WSSecurityException ex) {
-                        // Store the exception but keep going... there may be a
-                        // better signature later
-                        log.debug("SIGN result does not sign all required elements", ex);
-                        fault = ex;
-                    }
+                try {
+                    checkSignsAllElements(resultItem, requiredIDs);
+                    return resultItem.getCertificate();
+                } catch (WSSecurityException ex) {
+                    // Store the exception but keep going... there may be a
+                    // better signature later
+                    log.debug("SIGN result does not sign all required elements", ex);
+                    fault = ex;
                 }
             }
         }
@@ -1110,13 +1284,11 @@ public class WSSecurityUtil {
         WSSecurityEngineResult resultItem, 
         String[] requiredIDs
     ) throws WSSecurityException {
-        int resultAction = 
-            ((java.lang.Integer)resultItem.get(WSSecurityEngineResult.TAG_ACTION)).intValue();
-        if (resultAction != WSConstants.SIGN) {
+        if (resultItem.getAction() != WSConstants.SIGN) {
             throw new IllegalArgumentException("Not a SIGN result");
         }
 
-        Set sigElems = (Set)resultItem.get(WSSecurityEngineResult.TAG_SIGNED_ELEMENT_IDS);
+        Set sigElems = resultItem.getSignedElements();
         if (sigElems == null) {
             throw new RuntimeException(
                 "Missing signedElements set in WSSecurityEngineResult!"
@@ -1148,29 +1320,25 @@ public class WSSecurityUtil {
     }
     
     /**
-     * @return      a SecureRandom instance initialized with the "SHA1PRNG"
-     *              algorithm identifier
+     * @return      the SecureRandom instance of the calling thread, initialized
+     *              with the default algorithm of {@link SecureRandomSource}
+     *              ("SHA1PRNG" unless configured otherwise)
      */
     public static SecureRandom
     resolveSecureRandom() throws NoSuchAlgorithmException {
-        return resolveSecureRandom("SHA1PRNG");
+        return SecureRandomSource.getInstance().getSecureRandom();
     }
     
     /**
      * @param       algorithm
      *              
-     * @return      a SecureRandom instance initialized with the identifier
-     *              specified in algorithm
+     * @return      the SecureRandom instance of the calling thread, initialized
+     *              with the identifier specified in algorithm
      */
-    public synchronized static SecureRandom
+    public static SecureRandom
     resolveSecureRandom(
         final String algorithm
     ) throws NoSuchAlgorithmException {
-        if (random == null || !algorithm.equals(randomAlgorithm)) {
-            random = SecureRandom.getInstance(algorithm);
-            randomAlgorithm = algorithm;
-            random.setSeed(System.currentTimeMillis());
-        }
-        return random;
+        return SecureRandomSource.getInstance(algorithm).getSecureRandom();
     }
 }
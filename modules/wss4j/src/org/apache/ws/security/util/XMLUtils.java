@@ -27,8 +27,10 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 
 import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.Source;
@@ -40,6 +42,8 @@ import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 
 public class XMLUtils {
@@ -48,6 +52,16 @@ public class XMLUtils {
     private static final boolean doDebug = log.isDebugEnabled();
     private static final int ENTITY_EXPANSION_LIMIT = 0;
     
+    /**
+     * The hardened factory the per-thread document builders are created from
+     */
+    private static DocumentBuilderFactory securedFactory = null;
+    
+    /**
+     * The hardened DocumentBuilder of the current thread
+     */
+    private static final ThreadLocal securedBuilder = new ThreadLocal();
+    
     public static String PrettyDocumentToString(Document doc) {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         ElementToStream(doc.getDocumentElement(), baos);
@@ -140,4 +154,147 @@ public class XMLUtils {
         return dbf;
 
     }
+
+    /**
+     * Get the hardened DocumentBuilder of the calling thread. The builder is
+     * created once per thread from a factory configured as by
+     * {@link #getSecuredDocumentBuilder()} and is reset before it is returned.
+     * <p/>
+     * The returned builder must neither be handed to other threads nor be
+     * used after the next call to this method on the same thread, and its
+     * error handler and entity resolver must not be changed.
+     *
+     * @return the hardened DocumentBuilder of the calling thread
+     * @throws ParserConfigurationException
+     */
+    public static DocumentBuilder getDocumentBuilder() throws ParserConfigurationException {
+        DocumentBuilder builder = (DocumentBuilder) securedBuilder.get();
+        if (builder == null) {
+            builder = newSecuredDocumentBuilder();
+            securedBuilder.set(builder);
+        } else {
+            builder.reset();
+        }
+        return builder;
+    }
+
+    /**
+     * Create a new empty document with the hardened DocumentBuilder of the
+     * calling thread.
+     *
+     * @return a new empty document
+     * @throws ParserConfigurationException
+     */
+    public static Document newDocument() throws ParserConfigurationException {
+        return getDocumentBuilder().newDocument();
+    }
+
+    /**
+     * Parse a document with the hardened DocumentBuilder of the calling thread.
+     *
+     * @param source the source to parse
+     * @return the parsed document
+     * @throws ParserConfigurationException
+     * @throws SAXException
+     * @throws IOException
+     */
+    public static Document parse(InputSource source) 
+        throws ParserConfigurationException, SAXException, IOException {
+        return getDocumentBuilder().parse(source);
+    }
+
+    /**
+     * Parse a document with the hardened DocumentBuilder of the calling thread.
+     *
+     * @param in the stream to parse
+     * @return the parsed document
+     * @throws ParserConfigurationException
+     * @throws SAXException
+     * @throws IOException
+     */
+    public static Document parse(InputStream in) 
+        throws ParserConfigurationException, SAXException, IOException {
+        return getDocumentBuilder().parse(in);
+    }
+
+    /**
+     * Get the document of a source without parsing, if the source is a
+     * <code>DOMSource</code> of a plain DOM document. SAAJ trees are not
+     * returned because they are not guaranteed to implement the whole DOM.
+     *
+     * @param source the source to get the document of
+     * @return the document of the source or <code>null</code> if the source
+     *         must be parsed
+     */
+    public static Document getDocument(Source source) {
+        if (!(source instanceof DOMSource)) {
+            return null;
+        }
+        Node node = ((DOMSource) source).getNode();
+        if (node instanceof Document 
+            && !(node instanceof javax.xml.soap.SOAPPart)
+            && !(node instanceof javax.xml.soap.Node)
+            && ((Document) node).getDocumentElement() != null) {
+            return (Document) node;
+        }
+        return null;
+    }
+
+    /**
+     * Escape a string for use as the value of an attribute in double quotes.
+     * White space other than the space character is escaped as well, so that
+     * it is not normalized when the attribute is parsed.
+     *
+     * @param value the value to escape
+     * @return the escaped value
+     */
+    public static String escapeAttribute(String value) {
+        StringBuffer escaped = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String replacement;
+            switch (c) {
+            case '&':
+                replacement = "&amp;";
+                break;
+            case '<':
+                replacement = "&lt;";
+                break;
+            case '"':
+                replacement = "&quot;";
+                break;
+            case '\t':
+                replacement = "&#9;";
+                break;
+            case '\n':
+                replacement = "&#10;";
+                break;
+            case '\r':
+                replacement = "&#13;";
+                break;
+            default:
+                if (escaped != null) {
+                    escaped.append(c);
+                }
+                continue;
+            }
+            if (escaped == null) {
+                escaped = new StringBuffer(value.length() + 16);
+                escaped.append(value, 0, i);
+            }
+            escaped.append(replacement);
+        }
+        return escaped == null ? value : escaped.toString();
+    }
+
+    private static DocumentBuilder newSecuredDocumentBuilder() 
+        throws ParserConfigurationException {
+        // DocumentBuilderFactory instances are not thread-safe
+        synchronized (XMLUtils.class) {
+            if (securedFactory == null) {
+                securedFactory = getSecuredDocumentBuilder();
+            }
+            return securedFactory.newDocumentBuilder();
+        }
+    }
 }
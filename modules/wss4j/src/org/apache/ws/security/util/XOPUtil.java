@@ -0,0 +1,352 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ws.security.util;
+
+import org.apache.ws.security.AttachmentCallback;
+import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.WSSConfig;
+import org.apache.ws.security.WSSecurityException;
+import org.apache.ws.security.transform.STRTransform;
+import org.apache.xml.security.exceptions.XMLSecurityException;
+import org.apache.xml.security.signature.Reference;
+import org.apache.xml.security.signature.SignedInfo;
+import org.apache.xml.security.signature.XMLSignature;
+import org.apache.xml.security.transforms.Transforms;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.UnsupportedCallbackException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Utility methods for binary data that is carried in a MIME attachment and 
+ * referenced by an <code>xop:Include</code> element, instead of being Base64
+ * encoded into the element. The attachments are exchanged with an
+ * {@link AttachmentCallback}.
+ */
+public class XOPUtil {
+
+    private static final String CID_PREFIX = "cid:";
+
+    private XOPUtil() {
+        // complete
+    }
+
+    /**
+     * Get the <code>xop:Include</code> child of an element.
+     *
+     * @param element the element that carries binary data, for example a 
+     *                BinarySecurityToken or a CipherValue
+     * @return the <code>xop:Include</code> element or <code>null</code> if the 
+     *         data is inlined
+     */
+    public static Element getInclude(Element element) {
+        return (Element) WSSecurityUtil.getDirectChild(
+            element, WSConstants.XOP_INCLUDE_LN, WSConstants.XOP_NS
+        );
+    }
+
+    /**
+     * Create an <code>xop:Include</code> element that references an attachment.
+     *
+     * @param doc the owner document
+     * @param contentId the Content-ID of the attachment
+     * @return the <code>xop:Include</code> element
+     */
+    public static Element createInclude(Document doc, String contentId) {
+        Element include = 
+            doc.createElementNS(
+                WSConstants.XOP_NS, WSConstants.XOP_PREFIX + ":" + WSConstants.XOP_INCLUDE_LN
+            );
+        WSSecurityUtil.setNamespace(include, WSConstants.XOP_NS, WSConstants.XOP_PREFIX);
+        include.setAttributeNS(null, "href", CID_PREFIX + contentId);
+        return include;
+    }
+
+    /**
+     * @return a new Content-ID for an attachment
+     */
+    public static String createContentId() {
+        return UUIDGenerator.getUUID() + "@ws.apache.org";
+    }
+
+    /**
+     * Get the Content-ID an <code>xop:Include</code> element references. A
+     * "cid:" URL is percent-encoded (RFC 2392), so it is decoded to the 
+     * Content-ID of the attachment.
+     *
+     * @param include the <code>xop:Include</code> element
+     * @return the Content-ID, without the "cid:" scheme
+     */
+    public static String getContentId(Element include) {
+        String href = include.getAttribute("href");
+        if (href.startsWith(CID_PREFIX)) {
+            return decodeURL(href.substring(CID_PREFIX.length()));
+        }
+        return href;
+    }
+
+    /**
+     * Decode the %XX escapes of a URL as UTF-8. Unlike URLDecoder a '+' is 
+     * kept, and a malformed escape is kept as it is.
+     */
+    private static String decodeURL(String url) {
+        if (url.indexOf('%') == -1) {
+            return url;
+        }
+        StringBuffer decoded = new StringBuffer(url.length());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            for (int i = 0; i < url.length(); i++) {
+                char c = url.charAt(i);
+                if (c == '%' && i + 2 < url.length()) {
+                    int hi = Character.digit(url.charAt(i + 1), 16);
+                    int lo = Character.digit(url.charAt(i + 2), 16);
+                    if (hi != -1 && lo != -1) {
+                        bytes.write((hi << 4) + lo);
+                        i += 2;
+                        continue;
+                    }
+                }
+                if (bytes.size() > 0) {
+                    decoded.append(bytes.toString("UTF-8"));
+                    bytes.reset();
+                }
+                decoded.append(c);
+            }
+            if (bytes.size() > 0) {
+                decoded.append(bytes.toString("UTF-8"));
+            }
+        } catch (UnsupportedEncodingException ex) {
+            return url;
+        }
+        return decoded.toString();
+    }
+
+    /**
+     * @param element an element
+     * @return true if the element is, or contains, an <code>xop:Include</code>
+     */
+    public static boolean containsInclude(Element element) {
+        if (WSConstants.XOP_NS.equals(element.getNamespaceURI())
+            && WSConstants.XOP_INCLUDE_LN.equals(element.getLocalName())) {
+            return true;
+        }
+        return element.getElementsByTagNameNS(
+            WSConstants.XOP_NS, WSConstants.XOP_INCLUDE_LN
+        ).getLength() > 0;
+    }
+
+    /**
+     * Check that no Reference of a Signature covers an <code>xop:Include</code>.
+     * The digest of such a Reference covers the <code>xop:Include</code> 
+     * element, but not the content of the attachment, which could then be 
+     * exchanged without breaking the Signature. A Reference with the 
+     * STR-Transform covers the token that its SecurityTokenReference references.
+     *
+     * @param doc the document that contains the signed elements
+     * @param sig the Signature, with all its References added
+     * @throws WSSecurityException if a Reference covers an xop:Include
+     */
+    public static void checkSignedReferences(Document doc, XMLSignature sig) 
+        throws WSSecurityException {
+        NodeList includes = 
+            doc.getElementsByTagNameNS(WSConstants.XOP_NS, WSConstants.XOP_INCLUDE_LN);
+        if (includes.getLength() == 0) {
+            return;
+        }
+        SignedInfo si = sig.getSignedInfo();
+        try {
+            for (int i = 0; i < si.getLength(); i++) {
+                Reference ref = si.item(i);
+                Element signed = getElementByReference(doc, ref.getURI());
+                if (signed != null && isSTRTransform(ref.getTransforms())) {
+                    Element strReference = 
+                        WSSecurityUtil.getDirectChildElement(
+                            signed, "Reference", WSConstants.WSSE_NS
+                        );
+                    if (strReference != null) {
+                        signed = getElementByReference(doc, strReference.getAttribute("URI"));
+                    }
+                }
+                if (signed != null && containsInclude(signed)) {
+                    throw new WSSecurityException(
+                        WSSecurityException.FAILED_SIGNATURE, "xopSigned", 
+                        new Object[] {ref.getURI()}
+                    );
+                }
+            }
+        } catch (XMLSecurityException ex) {
+            throw new WSSecurityException(
+                WSSecurityException.FAILED_SIGNATURE, null, null, ex
+            );
+        }
+    }
+
+    private static Element getElementByReference(Document doc, String uri) {
+        if (uri == null || !uri.startsWith("#")) {
+            return null;
+        }
+        Element element = WSSecurityUtil.getElementByWsuId(doc, uri);
+        if (element == null) {
+            element = WSSecurityUtil.getElementByGenId(doc, uri);
+        }
+        return element;
+    }
+
+    private static boolean isSTRTransform(Transforms transforms) 
+        throws XMLSecurityException {
+        if (transforms == null) {
+            return false;
+        }
+        for (int i = 0; i < transforms.getLength(); i++) {
+            if (STRTransform.implementedTransformURI.equals(transforms.item(i).getURI())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the content of the attachment an <code>xop:Include</code> element
+     * references.
+     *
+     * @param include the <code>xop:Include</code> element
+     * @param cb the callback handler that provides the attachment
+     * @return a stream of the raw content of the attachment
+     * @throws WSSecurityException if the attachment is not available
+     */
+    public static InputStream getAttachmentStream(Element include, CallbackHandler cb) 
+        throws WSSecurityException {
+        String contentId = getContentId(include);
+        AttachmentCallback callback = 
+            new AttachmentCallback(contentId, AttachmentCallback.ATTACHMENT_REQUEST);
+        handle(callback, cb);
+        if (callback.getInputStream() == null) {
+            throw new WSSecurityException(
+                WSSecurityException.FAILURE, "noAttachment", new Object[] {contentId}
+            );
+        }
+        return callback.getInputStream();
+    }
+
+    /**
+     * Get the content of the attachment an <code>xop:Include</code> element
+     * references, as a byte array. The attachment is read up to the 
+     * maximum attachment size of the WSSConfig.
+     *
+     * @param include the <code>xop:Include</code> element
+     * @param cb the callback handler that provides the attachment
+     * @param wsc the WSSConfig with the maximum attachment size, or 
+     *            <code>null</code> for the default WSSConfig
+     * @return the raw content of the attachment
+     * @throws WSSecurityException if the attachment is not available or 
+     *         exceeds the maximum attachment size
+     */
+    public static byte[] getAttachmentBytes(
+        Element include, CallbackHandler cb, WSSConfig wsc
+    ) throws WSSecurityException {
+        if (wsc == null) {
+            wsc = WSSConfig.getDefaultWSConfig();
+        }
+        int limit = wsc.getMaxAttachmentSize();
+        InputStream in = getAttachmentStream(include, cb);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int len;
+            while ((len = in.read(buf)) != -1) {
+                out.write(buf, 0, len);
+                wsc.checkLimit(WSSConfig.MAX_ATTACHMENT_SIZE, out.size(), limit);
+            }
+            return out.toByteArray();
+        } catch (WSSecurityException ex) {
+            throw ex;
+        } catch (IOException ex) {
+            throw new WSSecurityException(
+                WSSecurityException.FAILURE, "noAttachment", 
+                new Object[] {getContentId(include)}, ex
+            );
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ex) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Create an attachment.
+     *
+     * @param contentId the Content-ID of the attachment
+     * @param contentType the MIME content type of the attachment
+     * @param cb the callback handler that creates the attachment
+     * @return the stream to write the raw content of the attachment to. It
+     *         must be closed when the content is complete.
+     * @throws WSSecurityException if the attachment could not be created
+     */
+    public static OutputStream createAttachment(
+        String contentId, String contentType, CallbackHandler cb
+    ) throws WSSecurityException {
+        AttachmentCallback callback = 
+            new AttachmentCallback(contentId, AttachmentCallback.ATTACHMENT_RESULT);
+        callback.setContentType(contentType);
+        handle(callback, cb);
+        if (callback.getOutputStream() == null) {
+            throw new WSSecurityException(
+                WSSecurityException.FAILURE, "noAttachment", new Object[] {contentId}
+            );
+        }
+        return callback.getOutputStream();
+    }
+
+    private static void handle(AttachmentCallback callback, CallbackHandler cb) 
+        throws WSSecurityException {
+        if (cb == null) {
+            throw new WSSecurityException(
+                WSSecurityException.FAILURE, "noAttachment", 
+                new Object[] {callback.getContentId()}
+            );
+        }
+        try {
+            cb.handle(new Callback[] {callback});
+        } catch (IOException ex) {
+            throw new WSSecurityException(
+                WSSecurityException.FAILURE, "noAttachment", 
+                new Object[] {callback.getContentId()}, ex
+            );
+        } catch (UnsupportedCallbackException ex) {
+            throw new WSSecurityException(
+                WSSecurityException.FAILURE, "noAttachment", 
+                new Object[] {callback.getContentId()}, ex
+            );
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ws.security.util;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * A thread safe codec for the dateTime simpleType of the XML Schema specification,
+ * see <a href="http://www.w3.org/TR/xmlschema-2/#dateTime">XML Schema Part 2: Datatypes,
+ * Section 3.2.7</a>. Values are exchanged as milliseconds since the epoch. <p/>
+ *
+ * Parsing accepts the same lexical forms as {@link XmlSchemaDateFormat}: an optional
+ * sign of the year, an optional fraction of a second (rounded to milliseconds), and
+ * an optional time zone which is either "Z" or an offset of the form +hh:mm or -hh:mm.
+ * A negative year is counted as in XML Schema 1.1, where year 0000 is 1 BCE and
+ * -0001 is 2 BCE. Formatting always produces
+ * the Zulu (UTC) form, with or without milliseconds. <p/>
+ *
+ * The codec keeps no shared mutable state. Formatting uses a small per-thread buffer
+ * which remembers the date and time part of the last formatted second, so that
+ * consecutive timestamps of the same second only update the milliseconds.
+ */
+public final class XmlSchemaDateTime {
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    /**
+     * Per-thread format buffer, holds "yyyy-MM-ddTHH:mm:ss.SSSZ"
+     */
+    private static final ThreadLocal buffers = new ThreadLocal() {
+        protected Object initialValue() {
+            return new FormatBuffer();
+        }
+    };
+
+    private XmlSchemaDateTime() {
+        // complete
+    }
+
+    /**
+     * Parse an XML Schema dateTime string.
+     *
+     * @param src the string to parse
+     * @return the time in milliseconds since the epoch (UTC)
+     * @throws ParseException if <code>src</code> is not a valid dateTime string
+     */
+    public static long parse(CharSequence src) throws ParseException {
+        if (src == null) {
+            throw new ParseException("INVALID_XSD_DATETIME: null", 0);
+        }
+        int start = 0;
+        int length = src.length();
+        boolean negative = false;
+        if (length > 0 && (src.charAt(0) == '+' || src.charAt(0) == '-')) {
+            negative = src.charAt(0) == '-';
+            start = 1;
+        }
+        if (length - start < 19) {
+            throw new ParseException("INVALID_XSD_DATETIME: TOO_FEW_CHARS", length);
+        }
+        expect(src, start + 4, '-', "EXPECTED_DASH");
+        expect(src, start + 7, '-', "EXPECTED_DASH");
+        expect(src, start + 10, 'T', "EXPECTED_CAPITAL_T");
+        expect(src, start + 13, ':', "EXPECTED_COLON_IN_TIME");
+        expect(src, start + 16, ':', "EXPECTED_COLON_IN_TIME");
+
+        int year = digits(src, start, 4);
+        if (negative) {
+            year = -year;
+        }
+        int month = digits(src, start + 5, 2);
+        int day = digits(src, start + 8, 2);
+        int hour = digits(src, start + 11, 2);
+        int minute = digits(src, start + 14, 2);
+        int second = digits(src, start + 17, 2);
+        if (month < 1 || month > 12 || day < 1 || day > 31
+            || hour > 24 || minute > 59 || second > 60) {
+            throw new ParseException("INVALID_XSD_DATETIME: FIELD_OUT_OF_RANGE", start);
+        }
+
+        long time = daysFromCivil(year, month, day) * MILLIS_PER_DAY
+            + ((hour * 60L + minute) * 60L + second) * 1000L;
+
+        int index = start + 19;
+
+        // optional fraction of a second
+        if (index < length && src.charAt(index) == '.') {
+            int fractionStart = ++index;
+            int milliseconds = 0;
+            while (index < length && isDigit(src.charAt(index))) {
+                int digit = src.charAt(index) - '0';
+                int position = index - fractionStart;
+                if (position < 3) {
+                    milliseconds = milliseconds * 10 + digit;
+                } else if (position == 3 && digit >= 5) {
+                    milliseconds++;
+                }
+                index++;
+            }
+            for (int position = index - fractionStart; position < 3; position++) {
+                milliseconds *= 10;
+            }
+            time += milliseconds;
+        }
+
+        // optional time zone offset
+        if (index + 5 < length
+            && (src.charAt(index) == '+' || src.charAt(index) == '-')) {
+            int hours = digits(src, index + 1, 2);
+            expect(src, index + 3, ':', "EXPECTED_COLON_IN_TIMEZONE");
+            int minutes = digits(src, index + 4, 2);
+            long offset = (hours * 60L + minutes) * 60L * 1000L;
+            // subtract the offset to obtain UTC
+            time += (src.charAt(index) == '+') ? -offset : offset;
+            index += 6;
+        }
+
+        if (index < length && src.charAt(index) == 'Z') {
+            index++;
+        }
+        if (index < length) {
+            throw new ParseException("INVALID_XSD_DATETIME: TOO_MANY_CHARS", index);
+        }
+        return time;
+    }
+
+    /**
+     * Format a time in the Zulu form with milliseconds, "yyyy-MM-ddTHH:mm:ss.SSSZ".
+     *
+     * @param time the time in milliseconds since the epoch
+     * @return the dateTime string
+     */
+    public static String format(long time) {
+        return format(time, true);
+    }
+
+    /**
+     * Format a time in the Zulu form.
+     *
+     * @param time the time in milliseconds since the epoch
+     * @param milliseconds whether to include the milliseconds
+     * @return the dateTime string
+     */
+    public static String format(long time, boolean milliseconds) {
+        FormatBuffer buffer = (FormatBuffer) buffers.get();
+        if (!buffer.format(time, milliseconds)) {
+            return formatSlow(time, milliseconds);
+        }
+        return buffer.toString(milliseconds);
+    }
+
+    /**
+     * Format a time in the Zulu form and append it to a buffer.
+     *
+     * @param time the time in milliseconds since the epoch
+     * @param milliseconds whether to include the milliseconds
+     * @param buf the buffer to append to
+     * @return <code>buf</code>
+     */
+    public static StringBuffer format(long time, boolean milliseconds, StringBuffer buf) {
+        FormatBuffer buffer = (FormatBuffer) buffers.get();
+        if (!buffer.format(time, milliseconds)) {
+            return buf.append(formatSlow(time, milliseconds));
+        }
+        return buffer.appendTo(buf, milliseconds);
+    }
+
+    /**
+     * Years outside of 0000-9999 are rare enough to leave them to SimpleDateFormat
+     */
+    private static String formatSlow(long time, boolean milliseconds) {
+        SimpleDateFormat zulu =
+            new SimpleDateFormat(
+                milliseconds ? "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'" : "yyyy-MM-dd'T'HH:mm:ss'Z'"
+            );
+        zulu.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return zulu.format(new Date(time));
+    }
+
+    private static void expect(CharSequence src, int index, char expected, String reason)
+        throws ParseException {
+        if (src.charAt(index) != expected) {
+            throw new ParseException("INVALID_XSD_DATETIME: " + reason, index);
+        }
+    }
+
+    private static int digits(CharSequence src, int index, int count) throws ParseException {
+        int value = 0;
+        for (int i = index; i < index + count; i++) {
+            char c = src.charAt(i);
+            if (!isDigit(c)) {
+                throw new ParseException("INVALID_XSD_DATETIME: EXPECTED_NUMERAL", i);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Days since 1970-01-01 of a date in the proleptic Gregorian calendar
+     */
+    static long daysFromCivil(int year, int month, int day) {
+        long y = (month <= 2) ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static final class FormatBuffer {
+        private final char[] chars = "0000-00-00T00:00:00.000Z".toCharArray();
+        private final char[] secondsChars = new char[20];
+        private long second = Long.MIN_VALUE;
+
+        /**
+         * @return false if the year does not fit into four digits
+         */
+        boolean format(long time, boolean milliseconds) {
+            long sec = floorDiv(time, 1000);
+            if (sec != second) {
+                long days = floorDiv(time, MILLIS_PER_DAY);
+                // civil date from days since the epoch
+                long z = days + 719468;
+                long era = (z >= 0 ? z : z - 146096) / 146097;
+                long dayOfEra = z - era * 146097;
+                long yearOfEra =
+                    (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+                long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+                long mp = (5 * dayOfYear + 2) / 153;
+                int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+                int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+                long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+                if (year < 0 || year > 9999) {
+                    return false;
+                }
+                int secondOfDay = (int) (sec - days * 24 * 60 * 60);
+                put((int) year, 0, 4);
+                put(month, 5, 2);
+                put(day, 8, 2);
+                put(secondOfDay / 3600, 11, 2);
+                put((secondOfDay / 60) % 60, 14, 2);
+                put(secondOfDay % 60, 17, 2);
+                System.arraycopy(chars, 0, secondsChars, 0, 19);
+                secondsChars[19] = 'Z';
+                second = sec;
+            }
+            if (milliseconds) {
+                put((int) (time - sec * 1000), 20, 3);
+            }
+            return true;
+        }
+
+        String toString(boolean milliseconds) {
+            return milliseconds ? new String(chars) : new String(secondsChars);
+        }
+
+        StringBuffer appendTo(StringBuffer buf, boolean milliseconds) {
+            return milliseconds ? buf.append(chars) : buf.append(secondsChars);
+        }
+
+        private void put(int value, int offset, int count) {
+            for (int i = offset + count - 1; i >= offset; i--) {
+                chars[i] = (char) ('0' + value % 10);
+                value /= 10;
+            }
+        }
+
+        private static long floorDiv(long x, long y) {
+            long q = x / y;
+            if ((x % y) != 0 && ((x ^ y) < 0)) {
+                q--;
+            }
+            return q;
+        }
+    }
+}
@@ -38,7 +38,14 @@ public class PackageTests extends TestCase {
         suite.addTestSuite(TestX509NameTokenizer.class);
         suite.addTestSuite(TestReference.class);
         suite.addTestSuite(TestWSSecurityUtil.class);
+        suite.addTestSuite(TestBlockWsuIdAllocator.class);
+        suite.addTestSuite(TestPartResolver.class);
+        suite.addTestSuite(TestHistogramMetrics.class);
         suite.addTestSuite(XMLUtilsTest.class);
+        suite.addTestSuite(TestXmlSchemaDateTime.class);
+        suite.addTestSuite(TestBase64.class);
+        suite.addTestSuite(TestWSSecurityException.class);
+        suite.addTestSuite(TestSAMLAssertionCache.class);
         return suite;
     }
 
@@ -0,0 +1,145 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package components;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.ws.security.WSSecurityException;
+import org.apache.ws.security.util.Base64;
+import org.apache.ws.security.util.XMLUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Test the Base64 codec
+ */
+public class TestBase64 extends TestCase {
+
+    public TestBase64(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestBase64.class);
+    }
+
+    public void testKnownValues() throws Exception {
+        String[] plain = {"", "f", "fo", "foo", "foob", "fooba", "foobar"};
+        String[] encoded = {"", "Zg==", "Zm8=", "Zm9v", "Zm9vYg==", "Zm9vYmE=", "Zm9vYmFy"};
+        for (int i = 0; i < plain.length; i++) {
+            assertEquals(encoded[i], Base64.encode(plain[i].getBytes("US-ASCII")));
+            assertEquals(plain[i], new String(Base64.decode(encoded[i]), "US-ASCII"));
+        }
+    }
+
+    public void testRoundTrip() throws Exception {
+        Random random = new Random(11);
+        for (int length = 0; length < 10000; length += 1 + length / 3) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            String encoded = Base64.encode(data);
+            assertEquals(Base64.getEncodedLength(length), encoded.length());
+            assertTrue(Arrays.equals(data, Base64.decode(encoded)));
+
+            StringWriter writer = new StringWriter();
+            Base64.encode(data, 0, length, writer);
+            assertEquals(encoded, writer.toString());
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Base64.encode(data, 0, length, out);
+            assertEquals(encoded, new String(out.toByteArray(), "US-ASCII"));
+        }
+    }
+
+    public void testWhiteSpace() throws Exception {
+        byte[] data = "any carnal pleasure.".getBytes("US-ASCII");
+        String encoded = " YW55IGNh\r\ncm5hbCBw\n\tbGVhc3Vy ZS4=\n";
+        assertTrue(Arrays.equals(data, Base64.decode(encoded)));
+        assertTrue(Arrays.equals(data, Base64.decode(new StringBuffer(encoded))));
+
+        byte[] buf = new byte[Base64.getMaxDecodedLength(encoded.length()) + 2];
+        int length = Base64.decode(encoded, buf, 2);
+        assertEquals(data.length, length);
+        for (int i = 0; i < length; i++) {
+            assertEquals(data[i], buf[i + 2]);
+        }
+    }
+
+    public void testDecodeNode() throws Exception {
+        byte[] data = new byte[20000];
+        new Random(3).nextBytes(data);
+        String encoded = Base64.encode(data);
+
+        Document doc = XMLUtils.newDocument();
+        Element element = doc.createElementNS(null, "Value");
+        element.appendChild(doc.createTextNode(encoded.substring(0, 10001)));
+        element.appendChild(doc.createComment("ignored"));
+        element.appendChild(doc.createTextNode(encoded.substring(10001)));
+        assertTrue(Arrays.equals(data, Base64.decode(element)));
+
+        Element single = doc.createElementNS(null, "Value");
+        single.appendChild(doc.createTextNode(encoded));
+        assertTrue(Arrays.equals(data, Base64.decode(single.getFirstChild())));
+    }
+
+    public void testDecodeCDATA() throws Exception {
+        byte[] data = new byte[300];
+        new Random(5).nextBytes(data);
+        String encoded = Base64.encode(data);
+
+        Document doc = XMLUtils.newDocument();
+        Element element = doc.createElementNS(null, "Value");
+        element.appendChild(doc.createCDATASection(encoded.substring(0, 101)));
+        element.appendChild(doc.createTextNode(encoded.substring(101)));
+        assertTrue(Arrays.equals(data, Base64.decode(element)));
+
+        Element single = doc.createElementNS(null, "Value");
+        single.appendChild(doc.createCDATASection(encoded));
+        assertTrue(Arrays.equals(data, Base64.decode(single.getFirstChild())));
+        
+        Element parsed = 
+            XMLUtils.parse(
+                new java.io.ByteArrayInputStream(
+                    ("<Value><![CDATA[" + encoded + "]]></Value>").getBytes("UTF-8")
+                )
+            ).getDocumentElement();
+        assertTrue(Arrays.equals(data, Base64.decode(parsed)));
+    }
+
+    public void testInvalid() throws Exception {
+        String[] invalid = {"Zg=", "Zg", "Z===", "Zh==", "Zm9=", "Zg=a", "Zm9v$", "Zg==Zg==", "Zm9vYmF"};
+        for (int i = 0; i < invalid.length; i++) {
+            try {
+                Base64.decode(invalid[i]);
+                fail("Expected a WSSecurityException for " + invalid[i]);
+            } catch (WSSecurityException ex) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package components;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.ws.security.BlockWsuIdAllocator;
+import org.apache.ws.security.WsuIdAllocator;
+
+/**
+ * Test the uniqueness of the ids generated by the BlockWsuIdAllocator
+ */
+public class TestBlockWsuIdAllocator extends TestCase {
+
+    public TestBlockWsuIdAllocator(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestBlockWsuIdAllocator.class);
+    }
+
+    public void testIdsAreUniqueAcrossThreads() throws Exception {
+        final WsuIdAllocator allocator = new BlockWsuIdAllocator(10);
+        final Set ids = Collections.synchronizedSet(new HashSet());
+        final Set secureIds = Collections.synchronizedSet(new HashSet());
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        ids.add(allocator.createId("id-", null));
+                        secureIds.add(allocator.createSecureId("id-", null));
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        assertEquals(8000, ids.size());
+        assertEquals(8000, secureIds.size());
+    }
+
+    public void testPrefix() throws Exception {
+        WsuIdAllocator allocator = new BlockWsuIdAllocator();
+        assertEquals("Timestamp-1", allocator.createId("Timestamp-", null));
+        assertEquals("2", allocator.createId(null, null));
+        assertTrue(allocator.createSecureId("KeyId-", null).startsWith("KeyId-"));
+    }
+
+    /**
+     * Test that every secure id has fresh random bits, so that consecutive
+     * secure ids of a thread do not share a common part.
+     */
+    public void testSecureIdsAreRandom() throws Exception {
+        WsuIdAllocator allocator = new BlockWsuIdAllocator();
+        String first = allocator.createSecureId(null, null);
+        String second = allocator.createSecureId(null, null);
+        assertEquals(32, first.length());
+        assertEquals(32, second.length());
+        assertFalse(first.substring(0, 16).equals(second.substring(0, 16)));
+        assertFalse(first.substring(16).equals(second.substring(16)));
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package components;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.xml.namespace.QName;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.WSSConfig;
+import org.apache.ws.security.WSSecurityException;
+import org.apache.ws.security.metrics.Histogram;
+import org.apache.ws.security.metrics.HistogramMetrics;
+import org.apache.ws.security.metrics.NoOpMetrics;
+
+/**
+ * Test the in-memory metrics implementation
+ */
+public class TestHistogramMetrics extends TestCase {
+
+    public TestHistogramMetrics(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestHistogramMetrics.class);
+    }
+
+    public void
+    testHistogram() throws Exception {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getPercentile(50));
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(5050, histogram.getSum());
+        assertEquals(100, histogram.getMax());
+        assertEquals(50.5, histogram.getMean(), 0.001);
+        // 50 lies in the bucket [32, 63]
+        assertEquals(63, histogram.getPercentile(50));
+        assertEquals(100, histogram.getPercentile(100));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+    }
+
+    public void
+    testMetrics() throws Exception {
+        HistogramMetrics metrics = new HistogramMetrics();
+        QName signature = new QName(WSConstants.SIG_NS, WSConstants.SIG_LN);
+        metrics.processorTime(signature, 1000);
+        metrics.processorTime(signature, 3000);
+        metrics.actionTime(WSConstants.SIGN, true, 500);
+        metrics.messageSize(false, 2048);
+        metrics.failure(WSSecurityException.FAILED_CHECK);
+        metrics.cacheAccess("SecurityPlan", false);
+        metrics.cacheAccess("SecurityPlan", true);
+        metrics.cacheAccess("SecurityPlan", true);
+        metrics.cacheAccess("SecurityPlan", true);
+        metrics.limitExceeded("signatureReferences");
+
+        assertEquals(2, metrics.getCount("processor." + signature));
+        assertEquals(2000.0, metrics.getMean("processor." + signature), 0.001);
+        assertEquals(2, metrics.getCounter("token." + signature));
+        assertEquals(1, metrics.getCount("action.sender.Signature"));
+        assertEquals(2048, metrics.getMax("size.receiver"));
+        assertEquals(1, metrics.getCounter("failure." + WSSecurityException.FAILED_CHECK));
+        assertEquals(1, metrics.getCounter("limit.signatureReferences"));
+        assertEquals(0.75, metrics.getCacheHitRate("SecurityPlan"), 0.001);
+        assertEquals(0.0, metrics.getCacheHitRate("unknown"), 0.001);
+
+        metrics.reset();
+        assertEquals(0, metrics.getCount("processor." + signature));
+    }
+
+    public void
+    testConfig() throws Exception {
+        WSSConfig config = WSSConfig.getNewInstance();
+        assertSame(NoOpMetrics.INSTANCE, config.getMetrics());
+        assertFalse(config.getMetrics().isEnabled());
+        HistogramMetrics metrics = new HistogramMetrics();
+        config.setMetrics(metrics);
+        assertSame(metrics, config.getMetrics());
+        config.setMetrics(null);
+        assertSame(NoOpMetrics.INSTANCE, config.getMetrics());
+    }
+
+    public void
+    testMBean() throws Exception {
+        HistogramMetrics metrics = new HistogramMetrics();
+        metrics.messageTime(true, 42);
+        ObjectName name = metrics.registerMBean("org.apache.ws.security:type=TestMetrics");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            String[] names = (String[]) server.getAttribute(name, "HistogramNames");
+            assertEquals(1, names.length);
+            assertEquals("message.sender", names[0]);
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package components;
+
+import java.io.ByteArrayInputStream;
+import java.util.Vector;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.WSEncryptionPart;
+import org.apache.ws.security.util.PartResolver;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Test the single traversal lookup of signature and encryption parts
+ */
+public class TestPartResolver extends TestCase {
+
+    private static final String SOAPMSG = 
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" 
+        + "<SOAP-ENV:Envelope "
+        +   "xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" "
+        +   "xmlns:wsu=\"" + WSConstants.WSU_NS + "\">" 
+        +   "<SOAP-ENV:Header>"
+        +     "<foo:bar xmlns:foo=\"urn:foo\" wsu:Id=\"wsu-1\">1</foo:bar>"
+        +     "<foo:bar xmlns:foo=\"urn:foo\" Id=\"plain-1\">2</foo:bar>"
+        +     "<dup wsu:Id=\"dup-1\"/>"
+        +   "</SOAP-ENV:Header>"
+        +   "<SOAP-ENV:Body>" 
+        +     "<dup wsu:Id=\"dup-1\"/>"
+        +     "<nons>3</nons>"
+        +   "</SOAP-ENV:Body>" 
+        + "</SOAP-ENV:Envelope>";
+
+    public TestPartResolver(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestPartResolver.class);
+    }
+
+    public void
+    testResolveParts() throws Exception {
+        Document doc = parse();
+        WSEncryptionPart bar = new WSEncryptionPart("bar", "urn:foo", "Element");
+        WSEncryptionPart body = 
+            new WSEncryptionPart("Body", WSConstants.URI_SOAP11_ENV, "Content");
+        WSEncryptionPart nons = new WSEncryptionPart("nons", null, "Content");
+        WSEncryptionPart wsuId = new WSEncryptionPart("wsu-1");
+        WSEncryptionPart plainId = new WSEncryptionPart("plain-1");
+        WSEncryptionPart dupId = new WSEncryptionPart("dup-1");
+        WSEncryptionPart missing = new WSEncryptionPart("missing", "urn:foo", "Content");
+
+        Vector parts = new Vector();
+        parts.add(bar);
+        parts.add(body);
+        parts.add(nons);
+        parts.add(wsuId);
+        parts.add(plainId);
+        parts.add(dupId);
+        parts.add(missing);
+        PartResolver resolver = new PartResolver(doc, parts);
+
+        Element element = resolver.getElement(bar);
+        assertEquals("1", element.getTextContent());
+        assertEquals("Body", resolver.getElement(body).getLocalName());
+        assertEquals("3", resolver.getElement(nons).getTextContent());
+        assertEquals("1", resolver.getElement(wsuId).getTextContent());
+        assertEquals("2", resolver.getElement(plainId).getTextContent());
+        assertNull(resolver.getElement(dupId));
+        assertNull(resolver.getElement(missing));
+    }
+
+    /**
+     * A part that was removed from the document must be looked up again
+     */
+    public void
+    testDetachedPart() throws Exception {
+        Document doc = parse();
+        WSEncryptionPart bar = new WSEncryptionPart("bar", "urn:foo", "Element");
+        Vector parts = new Vector();
+        parts.add(bar);
+        PartResolver resolver = new PartResolver(doc, parts);
+
+        Element first = resolver.getElement(bar);
+        first.getParentNode().removeChild(first);
+        assertEquals("2", resolver.getElement(bar).getTextContent());
+    }
+
+    private static Document parse() throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(
+            new ByteArrayInputStream(SOAPMSG.getBytes("UTF-8"))
+        );
+    }
+}
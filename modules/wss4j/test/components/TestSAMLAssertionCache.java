@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package components;
+
+import java.io.ByteArrayInputStream;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.ws.security.components.crypto.Crypto;
+import org.apache.ws.security.components.crypto.CryptoFactory;
+import org.apache.ws.security.saml.SAMLAssertionCache;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Test the cache of verified SAML assertions
+ */
+public class TestSAMLAssertionCache extends TestCase {
+
+    private static final String ASSERTION = 
+        "<saml:Assertion xmlns:saml=\"urn:oasis:names:tc:SAML:1.0:assertion\" "
+        +   "AssertionID=\"_a1\" Issuer=\"www.example.com\">"
+        +   "<saml:Conditions NotOnOrAfter=\"2100-01-01T00:00:00Z\"/>"
+        + "</saml:Assertion>";
+
+    private Crypto crypto;
+
+    public TestSAMLAssertionCache(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestSAMLAssertionCache.class);
+    }
+
+    protected void setUp() throws Exception {
+        org.apache.xml.security.Init.init();
+        crypto = CryptoFactory.getInstance();
+    }
+
+    private static Element parse(String xml) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Document doc = 
+            factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes()));
+        return doc.getDocumentElement();
+    }
+
+    public void testKeyDependsOnContent() throws Exception {
+        String key = SAMLAssertionCache.getKey("_a1", parse(ASSERTION));
+        assertEquals(key, SAMLAssertionCache.getKey("_a1", parse(ASSERTION)));
+        String changed = ASSERTION.replaceAll("www.example.com", "www.example.org");
+        assertFalse(key.equals(SAMLAssertionCache.getKey("_a1", parse(changed))));
+    }
+
+    public void testGetAndPut() throws Exception {
+        SAMLAssertionCache cache = new SAMLAssertionCache();
+        String key = SAMLAssertionCache.getKey("_a1", parse(ASSERTION));
+        assertNull(cache.get(key, crypto));
+
+        Set claims = new TreeSet();
+        claims.add("urn:claim");
+        cache.put(key, crypto, System.currentTimeMillis() + 60000L, claims);
+        assertEquals(claims, cache.get(key, crypto));
+        // only valid for the Crypto that verified the assertion
+        assertNull(cache.get(key, null));
+
+        // expired assertions are not cached
+        cache.clear();
+        cache.put(key, crypto, System.currentTimeMillis() - 1000L, claims);
+        assertNull(cache.get(key, crypto));
+        assertEquals(0, cache.size());
+    }
+
+    public void testBounded() throws Exception {
+        SAMLAssertionCache cache = new SAMLAssertionCache(2);
+        long expires = System.currentTimeMillis() + 60000L;
+        cache.put("a", crypto, expires, new TreeSet());
+        cache.put("b", crypto, expires, new TreeSet());
+        assertNotNull(cache.get("a", crypto));
+        cache.put("c", crypto, expires, new TreeSet());
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("a", crypto));
+        assertNull(cache.get("b", crypto));
+        assertNotNull(cache.get("c", crypto));
+    }
+}
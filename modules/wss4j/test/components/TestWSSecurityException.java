@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package components;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.ws.security.WSSecurityException;
+
+/**
+ * Test the lightweight mode of WSSecurityException
+ */
+public class TestWSSecurityException extends TestCase {
+
+    public TestWSSecurityException(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestWSSecurityException.class);
+    }
+
+    protected void tearDown() throws Exception {
+        WSSecurityException.setLightweight(false);
+        super.tearDown();
+    }
+
+    public void testDefaultHasStackTrace() throws Exception {
+        WSSecurityException ex = 
+            new WSSecurityException(WSSecurityException.FAILED_CHECK, "invalidTimestamp");
+        assertTrue(ex.getStackTrace().length > 0);
+        assertTrue(ex.getMessage().indexOf("(") > 0);
+    }
+
+    public void testLightweightWellKnownCode() throws Exception {
+        WSSecurityException.setLightweight(true);
+        Exception cause = new Exception("cause");
+        WSSecurityException ex = 
+            new WSSecurityException(
+                WSSecurityException.FAILED_CHECK, "invalidTimestamp", null, cause
+            );
+        assertEquals(0, ex.getStackTrace().length);
+        assertEquals(WSSecurityException.FAILED_CHECK, ex.getErrorCode());
+        assertSame(cause, ex.getCause());
+
+        WSSecurityException.setLightweight(false);
+        WSSecurityException full = 
+            new WSSecurityException(
+                WSSecurityException.FAILED_CHECK, "invalidTimestamp", null, cause
+            );
+        assertEquals(full.getMessage(), ex.getMessage());
+        assertEquals(full.toString(), ex.toString());
+    }
+
+    public void testLightweightOtherCode() throws Exception {
+        WSSecurityException.setLightweight(true);
+        WSSecurityException ex = 
+            new WSSecurityException(WSSecurityException.FAILURE, "noReference");
+        assertTrue(ex.getStackTrace().length > 0);
+        assertNotNull(ex.getMessage());
+
+        ex = new WSSecurityException("plain message");
+        assertTrue(ex.getStackTrace().length > 0);
+        assertEquals("plain message", ex.getMessage());
+    }
+}
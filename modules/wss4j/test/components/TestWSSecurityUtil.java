@@ -24,8 +24,11 @@ import java.security.SecureRandom;
 import junit.framework.TestCase;
 import junit.framework.Test;
 import junit.framework.TestSuite;
+import org.apache.ws.security.util.SecureRandomSource;
 import org.apache.ws.security.util.WSSecurityUtil;
 
+import javax.crypto.SecretKey;
+
 /**
  *
  */
@@ -59,4 +62,41 @@ public class TestWSSecurityUtil extends TestCase {
         final SecureRandom r2 = WSSecurityUtil.resolveSecureRandom();
         assertSame(r1, r2);
     }
+    
+    /**
+     * Each thread must get its own SecureRandom instance
+     */
+    public void
+    testSecureRandomPerThread() throws java.lang.Exception {
+        final SecureRandom r1 = WSSecurityUtil.resolveSecureRandom();
+        final SecureRandom[] other = new SecureRandom[1];
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    other[0] = WSSecurityUtil.resolveSecureRandom();
+                } catch (NoSuchAlgorithmException e) {
+                    // other[0] stays null
+                }
+            }
+        };
+        t.start();
+        t.join();
+        assertNotNull(other[0]);
+        assertNotSame(r1, other[0]);
+    }
+    
+    /**
+     * Test the symmetric key generation of the SecureRandomSource
+     */
+    public void
+    testGenerateKey() throws java.lang.Exception {
+        SecureRandomSource source = SecureRandomSource.getInstance();
+        SecretKey k1 = source.generateKey("AES", 128);
+        SecretKey k2 = source.generateKey("AES", 128);
+        assertEquals(16, k1.getEncoded().length);
+        assertFalse(java.util.Arrays.equals(k1.getEncoded(), k2.getEncoded()));
+        assertEquals(32, source.generateKey("AES", 256).getEncoded().length);
+        assertEquals(24, source.generateKey("DESede", 0).getEncoded().length);
+        assertEquals(20, WSSecurityUtil.generateNonce(20).length);
+    }
 }
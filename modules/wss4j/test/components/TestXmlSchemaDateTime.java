@@ -0,0 +1,145 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package components;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.ws.security.util.XmlSchemaDateFormat;
+import org.apache.ws.security.util.XmlSchemaDateTime;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Test the XML Schema dateTime codec against SimpleDateFormat
+ */
+public class TestXmlSchemaDateTime extends TestCase {
+
+    public TestXmlSchemaDateTime(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestXmlSchemaDateTime.class);
+    }
+
+    public void testFormat() throws Exception {
+        SimpleDateFormat millis = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        millis.setTimeZone(TimeZone.getTimeZone("UTC"));
+        SimpleDateFormat seconds = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        seconds.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        Random random = new Random(42);
+        long[] times = new long[1000];
+        times[0] = 0;
+        times[1] = -1;
+        times[2] = 951782400000L; // 2000-02-29
+        for (int i = 3; i < times.length; i++) {
+            // between 1601 and 2300
+            times[i] = (random.nextLong() % 10000000000000L) + 1000000000000L;
+        }
+        for (int i = 0; i < times.length; i++) {
+            Date date = new Date(times[i]);
+            assertEquals(millis.format(date), XmlSchemaDateTime.format(times[i]));
+            assertEquals(seconds.format(date), XmlSchemaDateTime.format(times[i], false));
+        }
+    }
+
+    public void testFormatSameSecond() throws Exception {
+        long time = 1234567890000L;
+        assertEquals("2009-02-13T23:31:30.000Z", XmlSchemaDateTime.format(time));
+        assertEquals("2009-02-13T23:31:30.999Z", XmlSchemaDateTime.format(time + 999));
+        assertEquals("2009-02-13T23:31:30Z", XmlSchemaDateTime.format(time + 999, false));
+        assertEquals("2009-02-13T23:31:31.000Z", XmlSchemaDateTime.format(time + 1000));
+        StringBuffer buf = new StringBuffer("at ");
+        XmlSchemaDateTime.format(time + 5, true, buf);
+        assertEquals("at 2009-02-13T23:31:30.005Z", buf.toString());
+    }
+
+    public void testParse() throws Exception {
+        long time = 1234567890000L;
+        assertEquals(time, XmlSchemaDateTime.parse("2009-02-13T23:31:30Z"));
+        assertEquals(time, XmlSchemaDateTime.parse("2009-02-13T23:31:30"));
+        assertEquals(time + 120, XmlSchemaDateTime.parse("2009-02-13T23:31:30.12Z"));
+        assertEquals(time + 123, XmlSchemaDateTime.parse("2009-02-13T23:31:30.123Z"));
+        assertEquals(time + 124, XmlSchemaDateTime.parse("2009-02-13T23:31:30.1235Z"));
+        assertEquals(time + 123, XmlSchemaDateTime.parse("2009-02-13T23:31:30.123499"));
+        assertEquals(time, XmlSchemaDateTime.parse("2009-02-14T01:01:30+01:30"));
+        assertEquals(time, XmlSchemaDateTime.parse("2009-02-13T18:31:30-05:00"));
+        assertEquals(time, XmlSchemaDateTime.parse(new StringBuffer("2009-02-13T23:31:30Z")));
+
+        Random random = new Random(7);
+        for (int i = 0; i < 1000; i++) {
+            long t = (random.nextLong() % 10000000000000L) + 1000000000000L;
+            assertEquals(t, XmlSchemaDateTime.parse(XmlSchemaDateTime.format(t)));
+        }
+    }
+
+    public void testParseYearSign() throws Exception {
+        long time = 1234567890000L;
+        assertEquals(time, XmlSchemaDateTime.parse("+2009-02-13T23:31:30Z"));
+        
+        // year 0000 is a leap year and lies between -0001 and 0001
+        long negative = XmlSchemaDateTime.parse("-0001-01-01T00:00:00Z");
+        long positive = XmlSchemaDateTime.parse("0001-01-01T00:00:00Z");
+        assertEquals((365L + 366L) * 24 * 60 * 60 * 1000, positive - negative);
+    }
+
+    public void testParseInvalid() throws Exception {
+        String[] invalid = {
+            "",
+            "2009-02-13",
+            "2009-02-13 23:31:30Z",
+            "2009/02/13T23:31:30Z",
+            "2009-02-13T23:31:30ZZ",
+            "2009-02-13T23:31:30+0100",
+            "2009-0a-13T23:31:30Z",
+            "2009-13-13T23:31:30Z",
+            "2009-02-13T23:31:30+01-00",
+        };
+        for (int i = 0; i < invalid.length; i++) {
+            try {
+                XmlSchemaDateTime.parse(invalid[i]);
+                fail("Expected a ParseException for " + invalid[i]);
+            } catch (ParseException ex) {
+                // expected
+            }
+        }
+    }
+
+    public void testDateFormatCompatibility() throws Exception {
+        XmlSchemaDateFormat zulu = new XmlSchemaDateFormat();
+        Date date = zulu.parse("2009-02-13T23:31:30.123Z");
+        assertEquals(1234567890123L, date.getTime());
+        assertEquals("2009-02-13T23:31:30.123Z", zulu.format(date));
+        try {
+            zulu.parse("2009-02-13T23:31");
+            fail("Expected a ParseException");
+        } catch (ParseException ex) {
+            // expected
+        }
+    }
+}
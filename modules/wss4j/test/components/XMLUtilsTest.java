@@ -20,8 +20,15 @@ package components;
 
 import junit.framework.TestCase;
 import org.apache.ws.security.util.XMLUtils;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
 
+import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+
+import java.io.ByteArrayInputStream;
 
 /**
  * Unit test for XMLUtils.
@@ -33,4 +40,64 @@ public class XMLUtilsTest extends TestCase {
         DocumentBuilderFactory securedDocumentBuilder = XMLUtils.getSecuredDocumentBuilder();
         assertNotNull("SecuredDocumentBuilder cannot be null", securedDocumentBuilder);
     }
+
+    public void testDocumentBuilderPerThread() throws Exception {
+
+        DocumentBuilder builder = XMLUtils.getDocumentBuilder();
+        assertSame(builder, XMLUtils.getDocumentBuilder());
+        assertTrue(builder.isNamespaceAware());
+
+        final DocumentBuilder[] other = new DocumentBuilder[1];
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    other[0] = XMLUtils.getDocumentBuilder();
+                } catch (Exception e) {
+                    // other[0] stays null
+                }
+            }
+        };
+        t.start();
+        t.join();
+        assertNotNull(other[0]);
+        assertNotSame(builder, other[0]);
+    }
+
+    public void testParseAfterFailure() throws Exception {
+
+        try {
+            XMLUtils.parse(new ByteArrayInputStream("<foo>".getBytes("UTF-8")));
+            fail("Expected failure on malformed document");
+        } catch (SAXException e) {
+            // expected
+        }
+        // the builder must still be usable after a failed parse
+        Document doc = XMLUtils.parse(new ByteArrayInputStream("<bar/>".getBytes("UTF-8")));
+        assertEquals("bar", doc.getDocumentElement().getLocalName());
+    }
+
+    public void testGetDocument() throws Exception {
+
+        Document doc = XMLUtils.newDocument();
+        assertNull(XMLUtils.getDocument(new DOMSource(doc)));
+        doc.appendChild(doc.createElementNS("urn:foo", "foo:bar"));
+        assertSame(doc, XMLUtils.getDocument(new DOMSource(doc)));
+        assertNull(XMLUtils.getDocument(new DOMSource(doc.getDocumentElement())));
+        assertNull(XMLUtils.getDocument(new StreamSource(new ByteArrayInputStream(new byte[0]))));
+    }
+
+    public void testEscapeAttribute() throws Exception {
+
+        String plain = "urn:foo";
+        assertSame(plain, XMLUtils.escapeAttribute(plain));
+        String value = "a&b<c\"d'e>f\tg\nh\ri";
+        String escaped = XMLUtils.escapeAttribute(value);
+        assertEquals("a&amp;b&lt;c&quot;d'e>f&#9;g&#10;h&#13;i", escaped);
+
+        Document doc = 
+            XMLUtils.parse(
+                new ByteArrayInputStream(("<foo bar=\"" + escaped + "\"/>").getBytes("UTF-8"))
+            );
+        assertEquals(value, doc.getDocumentElement().getAttribute("bar"));
+    }
 }
@@ -69,6 +69,7 @@ public class PackageTests extends TestCase {
         suite.addTestSuite(TestWSSecurityWSS86.class);
         suite.addTestSuite(TestWSSecurityKerberosTokenProfile.class);
         suite.addTestSuite(TestWSSecurityTimestamp.class);
+        suite.addTestSuite(TestWSSecurityLimits.class);
         suite.addTestSuite(SignatureKeyValueTest.class);
         suite.addTestSuite(TestWSSecurityResultsOrder.class);
         suite.addTestSuite(TestWSSecurityWSS178.class);
@@ -77,6 +78,16 @@ public class PackageTests extends TestCase {
         suite.addTestSuite(TestWSSecurityWSS234.class);
         suite.addTestSuite(TestWSSecurityWSS245.class);
         suite.addTestSuite(TestEncryptedKeyProcessor.class);
+        suite.addTestSuite(TestWSSecurityStreaming.class);
+        suite.addTestSuite(TestWSSecurityXOP.class);
+        suite.addTestSuite(TestWSSecuritySignatureEC.class);
+        suite.addTestSuite(TestWSSecurityEncryptionEC.class);
+        suite.addTestSuite(TestWSSecurityEncryptionGCM.class);
+        suite.addTestSuite(TestWSSecurityAsync.class);
+        suite.addTestSuite(TestWSSecurityBatchedCallbacks.class);
+        suite.addTestSuite(TestWSSecurityLazyTokens.class);
+        suite.addTestSuite(TestWSSecurityResults.class);
+        suite.addTestSuite(TestWSSecuritySecurityPlan.class);
         
         return suite;
     }
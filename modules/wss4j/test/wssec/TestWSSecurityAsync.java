@@ -0,0 +1,208 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package wssec;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.WSPasswordCallback;
+import org.apache.ws.security.WSSecurityEngine;
+import org.apache.ws.security.WSSecurityException;
+import org.apache.ws.security.components.crypto.Crypto;
+import org.apache.ws.security.components.crypto.CryptoFactory;
+import org.apache.ws.security.message.WSSecEncrypt;
+import org.apache.ws.security.message.WSSecHeader;
+import org.apache.ws.security.message.WSSecSignature;
+import org.apache.ws.security.util.CryptoExecutor;
+import org.apache.ws.security.util.SecurityFuture;
+import org.apache.ws.security.util.WSSecurityUtil;
+import org.apache.ws.security.util.XMLUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.UnsupportedCallbackException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WS-Security Test Case for the asynchronous building and processing of 
+ * messages on an executor.
+ */
+public class TestWSSecurityAsync extends TestCase implements CallbackHandler {
+    private static final String SOAPMSG = 
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" 
+        + "<SOAP-ENV:Envelope "
+        +   "xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" "
+        +   "xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\" "
+        +   "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">" 
+        +   "<SOAP-ENV:Body>" 
+        +       "<add xmlns=\"http://ws.apache.org/counter/counter_port_type\">" 
+        +           "<value xmlns=\"\">15</value>" 
+        +       "</add>" 
+        +   "</SOAP-ENV:Body>" 
+        + "</SOAP-ENV:Envelope>";
+
+    private static final int MESSAGES = 8;
+
+    private WSSecurityEngine secEngine = new WSSecurityEngine();
+    private Crypto crypto = CryptoFactory.getInstance();
+    private ExecutorService executor;
+
+    public TestWSSecurityAsync(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestWSSecurityAsync.class);
+    }
+
+    protected void setUp() throws Exception {
+        executor = CryptoExecutor.newFixedPool(4);
+    }
+
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Test that several messages are signed and encrypted concurrently, and 
+     * then processed concurrently.
+     */
+    public void testConcurrentMessages() throws Exception {
+        SecurityFuture[] built = new SecurityFuture[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            WSSecSignature builder = new WSSecSignature();
+            builder.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+            Document doc = createDocument();
+            WSSecHeader secHeader = new WSSecHeader();
+            secHeader.insertSecurityHeader(doc);
+            built[i] = builder.buildAsync(doc, crypto, secHeader, executor);
+        }
+        for (int i = 0; i < MESSAGES; i++) {
+            Document doc = (Document) built[i].getResult();
+            WSSecEncrypt builder = new WSSecEncrypt();
+            builder.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e");
+            WSSecHeader secHeader = new WSSecHeader();
+            secHeader.insertSecurityHeader(doc);
+            built[i] = builder.buildAsync(doc, crypto, secHeader, executor);
+        }
+
+        final CountDownLatch done = new CountDownLatch(MESSAGES);
+        SecurityFuture[] processed = new SecurityFuture[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            Document doc = reparse((Document) built[i].getResult());
+            processed[i] = 
+                secEngine.processSecurityHeaderAsync(doc, null, this, crypto, crypto, executor);
+            processed[i].addListener(new Runnable() {
+                public void run() {
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        for (int i = 0; i < MESSAGES; i++) {
+            assertTrue(processed[i].isDone());
+            Vector results = (Vector) processed[i].getResult();
+            assertNotNull(WSSecurityUtil.fetchActionResult(results, WSConstants.SIGN));
+            assertNotNull(WSSecurityUtil.fetchActionResult(results, WSConstants.ENCR));
+        }
+    }
+
+    /**
+     * Test that a failure of the processing is thrown by getResult as the 
+     * original WSSecurityException.
+     */
+    public void testFailure() throws Exception {
+        WSSecSignature builder = new WSSecSignature();
+        builder.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        Document doc = createDocument();
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        doc = reparse((Document) builder.buildAsync(doc, crypto, secHeader, executor).getResult());
+
+        Element value = 
+            (Element) WSSecurityUtil.findElement(doc.getDocumentElement(), "value", "");
+        value.getFirstChild().setNodeValue("16");
+        SecurityFuture future = 
+            secEngine.processSecurityHeaderAsync(doc, null, this, crypto, crypto, executor);
+        try {
+            future.getResult();
+            fail("Failure expected on a modified signed element");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.FAILED_CHECK, ex.getErrorCode());
+        }
+    }
+
+    /**
+     * Test that an operation that the executor rejects fails, and that its 
+     * listeners are still run.
+     */
+    public void testRejected() throws Exception {
+        executor.shutdown();
+        SecurityFuture future = 
+            secEngine.processSecurityHeaderAsync(
+                createDocument(), null, this, crypto, crypto, executor
+            );
+        assertTrue(future.isDone());
+        final boolean[] notified = new boolean[1];
+        future.addListener(new Runnable() {
+            public void run() {
+                notified[0] = true;
+            }
+        });
+        assertTrue(notified[0]);
+        try {
+            future.getResult();
+            fail("Failure expected on a rejected operation");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.FAILURE, ex.getErrorCode());
+        }
+    }
+
+    private Document createDocument() throws Exception {
+        return XMLUtils.parse(new ByteArrayInputStream(SOAPMSG.getBytes("UTF-8")));
+    }
+
+    private Document reparse(Document doc) throws Exception {
+        String message = XMLUtils.PrettyDocumentToString(doc);
+        return XMLUtils.parse(new ByteArrayInputStream(message.getBytes("UTF-8")));
+    }
+
+    public void handle(Callback[] callbacks)
+        throws IOException, UnsupportedCallbackException {
+        for (int i = 0; i < callbacks.length; i++) {
+            if (callbacks[i] instanceof WSPasswordCallback) {
+                WSPasswordCallback pc = (WSPasswordCallback) callbacks[i];
+                pc.setPassword("security");
+            } else {
+                throw new UnsupportedCallbackException(callbacks[i], "Unrecognized Callback");
+            }
+        }
+    }
+}
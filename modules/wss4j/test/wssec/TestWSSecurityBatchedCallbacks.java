@@ -0,0 +1,163 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package wssec;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.WSPasswordCallback;
+import org.apache.ws.security.WSSConfig;
+import org.apache.ws.security.WSSecurityEngine;
+import org.apache.ws.security.WSSecurityException;
+import org.apache.ws.security.components.crypto.Crypto;
+import org.apache.ws.security.components.crypto.CryptoFactory;
+import org.apache.ws.security.message.WSSecEncrypt;
+import org.apache.ws.security.message.WSSecHeader;
+import org.apache.ws.security.message.WSSecUsernameToken;
+import org.apache.ws.security.util.WSSecurityUtil;
+import org.apache.ws.security.util.XMLUtils;
+import org.w3c.dom.Document;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.UnsupportedCallbackException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Vector;
+
+/**
+ * WS-Security Test Case for the batched resolution of the credentials of a
+ * received message.
+ */
+public class TestWSSecurityBatchedCallbacks extends TestCase implements CallbackHandler {
+    private static final String SOAPMSG = 
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" 
+        + "<SOAP-ENV:Envelope "
+        +   "xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" "
+        +   "xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\" "
+        +   "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">" 
+        +   "<SOAP-ENV:Body>" 
+        +       "<add xmlns=\"http://ws.apache.org/counter/counter_port_type\">" 
+        +           "<value xmlns=\"\">15</value>" 
+        +       "</add>" 
+        +   "</SOAP-ENV:Body>" 
+        + "</SOAP-ENV:Envelope>";
+
+    private WSSecurityEngine secEngine = new WSSecurityEngine();
+    private Crypto crypto = CryptoFactory.getInstance();
+    private Vector calls = new Vector();
+    private String utPassword = "verySecret";
+
+    public TestWSSecurityBatchedCallbacks(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestWSSecurityBatchedCallbacks.class);
+    }
+
+    /**
+     * Test that without batching every processor calls the handler.
+     */
+    public void testUnbatched() throws Exception {
+        Document doc = createMessage();
+        secEngine.processSecurityHeader(doc, null, this, crypto);
+        assertEquals(3, calls.size());
+    }
+
+    /**
+     * Test that the credentials of a UsernameToken and of two EncryptedKeys for 
+     * the same private key are requested with one call of the handler.
+     */
+    public void testBatched() throws Exception {
+        Document doc = createMessage();
+        WSSConfig config = WSSConfig.getNewInstance();
+        config.setBatchPasswordCallbacks(true);
+        secEngine.setWssConfig(config);
+        Vector results = secEngine.processSecurityHeader(doc, null, this, crypto);
+
+        assertNotNull(WSSecurityUtil.fetchActionResult(results, WSConstants.UT));
+        assertNotNull(WSSecurityUtil.fetchActionResult(results, WSConstants.ENCR));
+        String message = XMLUtils.PrettyDocumentToString(doc);
+        assertTrue(message.indexOf("<value xmlns=\"\">15</value>") != -1);
+        assertEquals(1, calls.size());
+        Callback[] batch = (Callback[]) calls.get(0);
+        assertEquals(2, batch.length);
+    }
+
+    /**
+     * Test that a wrong password supplied in the batch still fails the 
+     * UsernameToken.
+     */
+    public void testBatchedWrongPassword() throws Exception {
+        Document doc = createMessage();
+        WSSConfig config = WSSConfig.getNewInstance();
+        config.setBatchPasswordCallbacks(true);
+        secEngine.setWssConfig(config);
+        utPassword = "verySecre";
+        try {
+            secEngine.processSecurityHeader(doc, null, this, crypto);
+            fail("Failure expected on a wrong password");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.FAILED_AUTHENTICATION, ex.getErrorCode());
+        }
+    }
+
+    /**
+     * Create a message with a UsernameToken with a password digest, whose Body 
+     * is encrypted twice for the same recipient.
+     */
+    private Document createMessage() throws Exception {
+        Document doc = XMLUtils.parse(new ByteArrayInputStream(SOAPMSG.getBytes("UTF-8")));
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        for (int i = 0; i < 2; i++) {
+            WSSecEncrypt builder = new WSSecEncrypt();
+            builder.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e");
+            builder.build(doc, crypto, secHeader);
+        }
+        WSSecUsernameToken utBuilder = new WSSecUsernameToken();
+        utBuilder.setUserInfo("wernerd", "verySecret");
+        utBuilder.build(doc, secHeader);
+        String message = XMLUtils.PrettyDocumentToString(doc);
+        return XMLUtils.parse(new ByteArrayInputStream(message.getBytes("UTF-8")));
+    }
+
+    public void handle(Callback[] callbacks)
+        throws IOException, UnsupportedCallbackException {
+        calls.add(callbacks);
+        for (int i = 0; i < callbacks.length; i++) {
+            if (callbacks[i] instanceof WSPasswordCallback) {
+                WSPasswordCallback pc = (WSPasswordCallback) callbacks[i];
+                if (pc.getUsage() == WSPasswordCallback.USERNAME_TOKEN
+                    && "wernerd".equals(pc.getIdentifier())) {
+                    pc.setPassword(utPassword);
+                } else if (pc.getUsage() == WSPasswordCallback.DECRYPT) {
+                    pc.setPassword("security");
+                }
+            } else {
+                throw new UnsupportedCallbackException(callbacks[i], "Unrecognized Callback");
+            }
+        }
+    }
+}
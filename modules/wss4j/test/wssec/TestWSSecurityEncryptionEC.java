@@ -0,0 +1,172 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package wssec;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.axis.Message;
+import org.apache.axis.MessageContext;
+import org.apache.axis.client.AxisClient;
+import org.apache.axis.configuration.NullProvider;
+import org.apache.axis.message.SOAPEnvelope;
+import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.WSPasswordCallback;
+import org.apache.ws.security.WSSecurityEngine;
+import org.apache.ws.security.WSSecurityEngineResult;
+import org.apache.ws.security.components.crypto.Crypto;
+import org.apache.ws.security.components.crypto.CryptoFactory;
+import org.apache.ws.security.message.WSSecEncrypt;
+import org.apache.ws.security.message.WSSecHeader;
+import org.apache.ws.security.util.WSSecurityUtil;
+import org.apache.ws.security.util.XMLUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.UnsupportedCallbackException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Vector;
+
+/**
+ * WS-Security Test Case for the ECDH-ES key agreement of an EncryptedKey.
+ */
+public class TestWSSecurityEncryptionEC extends TestCase implements CallbackHandler {
+    private static final String SOAPMSG = 
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" 
+        + "<SOAP-ENV:Envelope "
+        +   "xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" "
+        +   "xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\" "
+        +   "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">" 
+        +   "<SOAP-ENV:Body>" 
+        +       "<add xmlns=\"http://ws.apache.org/counter/counter_port_type\">" 
+        +           "<value xmlns=\"\">15</value>" 
+        +       "</add>" 
+        +   "</SOAP-ENV:Body>" 
+        + "</SOAP-ENV:Envelope>";
+
+    private WSSecurityEngine secEngine = new WSSecurityEngine();
+    private Crypto crypto = CryptoFactory.getInstance("ec.properties");
+    private MessageContext msgContext;
+    private SOAPEnvelope unsignedEnvelope;
+
+    public TestWSSecurityEncryptionEC(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestWSSecurityEncryptionEC.class);
+    }
+
+    protected void setUp() throws Exception {
+        AxisClient tmpEngine = new AxisClient(new NullProvider());
+        msgContext = new MessageContext(tmpEngine);
+        InputStream in = new ByteArrayInputStream(SOAPMSG.getBytes());
+        Message msg = new Message(in);
+        msg.setMessageContext(msgContext);
+        unsignedEnvelope = msg.getSOAPEnvelope();
+    }
+
+    /**
+     * Test that the session key for a P-256 recipient is wrapped with a key that 
+     * is agreed with ECDH-ES, using AES-256 key wrap by default.
+     */
+    public void testECDHES() throws Exception {
+        Document doc = encrypt("ec256", WSConstants.ISSUER_SERIAL, null);
+        Element encryptedKey = 
+            (Element) WSSecurityUtil.findElement(
+                doc.getDocumentElement(), WSConstants.ENC_KEY_LN, WSConstants.ENC_NS
+            );
+        Element encryptionMethod = 
+            WSSecurityUtil.getDirectChildElement(
+                encryptedKey, "EncryptionMethod", WSConstants.ENC_NS
+            );
+        assertEquals(WSConstants.KEYWRAP_AES256, encryptionMethod.getAttribute("Algorithm"));
+        Element agreementMethod = 
+            (Element) WSSecurityUtil.findElement(
+                encryptedKey, WSConstants.AGREEMENT_METHOD_LN, WSConstants.ENC_NS
+            );
+        assertNotNull(agreementMethod);
+        assertEquals(WSConstants.AGREEMENT_ECDH_ES, agreementMethod.getAttribute("Algorithm"));
+        verify(doc);
+    }
+
+    /**
+     * Test ECDH-ES with a P-384 recipient that is found by the SubjectKeyIdentifier,
+     * and an explicit key wrap algorithm.
+     */
+    public void testECDHESP384() throws Exception {
+        Document doc = 
+            encrypt("ec384", WSConstants.SKI_KEY_IDENTIFIER, WSConstants.KEYWRAP_AES128);
+        verify(doc);
+    }
+
+    /**
+     * Test ECDH-ES with the recipient certificate in a BinarySecurityToken.
+     */
+    public void testECDHESDirectReference() throws Exception {
+        Document doc = encrypt("ec256", WSConstants.BST_DIRECT_REFERENCE, null);
+        verify(doc);
+    }
+
+    private Document encrypt(String alias, int keyIdentifierType, String keyWrapAlgo) 
+        throws Exception {
+        WSSecEncrypt builder = new WSSecEncrypt();
+        builder.setUserInfo(alias);
+        builder.setKeyIdentifierType(keyIdentifierType);
+        builder.setSymmetricEncAlgorithm(WSConstants.AES_128);
+        if (keyWrapAlgo != null) {
+            builder.setKeyEnc(keyWrapAlgo);
+        }
+        Document doc = unsignedEnvelope.getAsDocument();
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        builder.build(doc, crypto, secHeader);
+        String message = XMLUtils.PrettyDocumentToString(doc);
+        assertTrue(message.indexOf("<value xmlns=\"\">15</value>") == -1);
+        return XMLUtils.parse(new ByteArrayInputStream(message.getBytes("UTF-8")));
+    }
+
+    private void verify(Document doc) throws Exception {
+        Vector results = secEngine.processSecurityHeader(doc, null, this, crypto);
+        WSSecurityEngineResult result = 
+            WSSecurityUtil.fetchActionResult(results, WSConstants.ENCR);
+        assertNotNull(result);
+        String message = XMLUtils.PrettyDocumentToString(doc);
+        assertTrue(message.indexOf("<value xmlns=\"\">15</value>") != -1);
+    }
+
+    public void handle(Callback[] callbacks)
+        throws IOException, UnsupportedCallbackException {
+        for (int i = 0; i < callbacks.length; i++) {
+            if (callbacks[i] instanceof WSPasswordCallback) {
+                WSPasswordCallback pc = (WSPasswordCallback) callbacks[i];
+                pc.setPassword("security");
+            } else {
+                throw new UnsupportedCallbackException(callbacks[i], "Unrecognized Callback");
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package wssec;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.axis.Message;
+import org.apache.axis.MessageContext;
+import org.apache.axis.client.AxisClient;
+import org.apache.axis.configuration.NullProvider;
+import org.apache.axis.message.SOAPEnvelope;
+import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.WSPasswordCallback;
+import org.apache.ws.security.WSSecurityEngine;
+import org.apache.ws.security.WSSecurityEngineResult;
+import org.apache.ws.security.WSSecurityException;
+import org.apache.ws.security.components.crypto.Crypto;
+import org.apache.ws.security.components.crypto.CryptoFactory;
+import org.apache.ws.security.message.WSSecDKEncrypt;
+import org.apache.ws.security.message.WSSecEncrypt;
+import org.apache.ws.security.message.WSSecEncryptedKey;
+import org.apache.ws.security.message.WSSecHeader;
+import org.apache.ws.security.util.Base64;
+import org.apache.ws.security.util.WSSecurityUtil;
+import org.apache.ws.security.util.XMLUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Text;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.UnsupportedCallbackException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Vector;
+
+/**
+ * WS-Security Test Case for the AES-GCM content encryption algorithms.
+ */
+public class TestWSSecurityEncryptionGCM extends TestCase implements CallbackHandler {
+    private static final String SOAPMSG = 
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" 
+        + "<SOAP-ENV:Envelope "
+        +   "xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" "
+        +   "xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\" "
+        +   "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">" 
+        +   "<SOAP-ENV:Body>" 
+        +       "<add xmlns=\"http://ws.apache.org/counter/counter_port_type\">" 
+        +           "<value xmlns=\"\">15</value>" 
+        +       "</add>" 
+        +   "</SOAP-ENV:Body>" 
+        + "</SOAP-ENV:Envelope>";
+
+    private WSSecurityEngine secEngine = new WSSecurityEngine();
+    private Crypto crypto = CryptoFactory.getInstance("wss40.properties");
+    private MessageContext msgContext;
+    private SOAPEnvelope unsignedEnvelope;
+
+    public TestWSSecurityEncryptionGCM(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestWSSecurityEncryptionGCM.class);
+    }
+
+    protected void setUp() throws Exception {
+        AxisClient tmpEngine = new AxisClient(new NullProvider());
+        msgContext = new MessageContext(tmpEngine);
+        InputStream in = new ByteArrayInputStream(SOAPMSG.getBytes());
+        Message msg = new Message(in);
+        msg.setMessageContext(msgContext);
+        unsignedEnvelope = msg.getSOAPEnvelope();
+    }
+
+    /**
+     * Test encryption of the Body content with AES-128-GCM.
+     */
+    public void testAES128GCM() throws Exception {
+        Document doc = encrypt(WSConstants.AES_128_GCM);
+        Element encryptionMethod = 
+            (Element) WSSecurityUtil.findElement(
+                getEncryptedData(doc), "EncryptionMethod", WSConstants.ENC_NS
+            );
+        assertEquals(WSConstants.AES_128_GCM, encryptionMethod.getAttribute("Algorithm"));
+        verify(doc);
+    }
+
+    /**
+     * Test encryption of the Body content with AES-256-GCM.
+     */
+    public void testAES256GCM() throws Exception {
+        Document doc = encrypt(WSConstants.AES_256_GCM);
+        verify(doc);
+    }
+
+    /**
+     * Test that a modified cipher text is rejected because the authentication
+     * tag does not match.
+     */
+    public void testModifiedCipherText() throws Exception {
+        Document doc = encrypt(WSConstants.AES_128_GCM);
+        Element cipherValue = 
+            (Element) WSSecurityUtil.findElement(
+                getEncryptedData(doc), "CipherValue", WSConstants.ENC_NS
+            );
+        Text text = (Text) cipherValue.getFirstChild();
+        byte[] cipherText = Base64.decode(text.getData());
+        cipherText[cipherText.length - 1] ^= 1;
+        text.setData(Base64.encode(cipherText));
+        try {
+            secEngine.processSecurityHeader(doc, null, this, crypto);
+            fail("Failure expected on a modified cipher text");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.FAILED_CHECK, ex.getErrorCode());
+        }
+    }
+
+    /**
+     * Test AES-256-GCM encryption with a key derived from an EncryptedKey.
+     */
+    public void testDerivedKeyGCM() throws Exception {
+        Document doc = unsignedEnvelope.getAsDocument();
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+
+        WSSecEncryptedKey encrKeyBuilder = new WSSecEncryptedKey();
+        encrKeyBuilder.setUserInfo("wss40");
+        encrKeyBuilder.setKeyIdentifierType(WSConstants.THUMBPRINT_IDENTIFIER);
+        encrKeyBuilder.prepare(doc, crypto);
+
+        WSSecDKEncrypt encrBuilder = new WSSecDKEncrypt();
+        encrBuilder.setSymmetricEncAlgorithm(WSConstants.AES_256_GCM);
+        encrBuilder.setExternalKey(encrKeyBuilder.getEphemeralKey(), encrKeyBuilder.getId());
+        encrBuilder.build(doc, secHeader);
+        encrKeyBuilder.prependToHeader(secHeader);
+        encrKeyBuilder.prependBSTElementToHeader(secHeader);
+
+        verify(reparse(doc));
+    }
+
+    private Document encrypt(String algorithm) throws Exception {
+        WSSecEncrypt builder = new WSSecEncrypt();
+        builder.setUserInfo("wss40");
+        builder.setKeyIdentifierType(WSConstants.BST_DIRECT_REFERENCE);
+        builder.setSymmetricEncAlgorithm(algorithm);
+        Document doc = unsignedEnvelope.getAsDocument();
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        builder.build(doc, crypto, secHeader);
+        return reparse(doc);
+    }
+
+    private Document reparse(Document doc) throws Exception {
+        String message = XMLUtils.PrettyDocumentToString(doc);
+        assertTrue(message.indexOf("<value xmlns=\"\">15</value>") == -1);
+        return XMLUtils.parse(new ByteArrayInputStream(message.getBytes("UTF-8")));
+    }
+
+    private Element getEncryptedData(Document doc) {
+        return 
+            (Element) WSSecurityUtil.findElement(
+                doc.getDocumentElement(), WSConstants.ENC_DATA_LN, WSConstants.ENC_NS
+            );
+    }
+
+    private void verify(Document doc) throws Exception {
+        Vector results = secEngine.processSecurityHeader(doc, null, this, crypto);
+        WSSecurityEngineResult result = 
+            WSSecurityUtil.fetchActionResult(results, WSConstants.ENCR);
+        assertNotNull(result);
+        String message = XMLUtils.PrettyDocumentToString(doc);
+        assertTrue(message.indexOf("<value xmlns=\"\">15</value>") != -1);
+    }
+
+    public void handle(Callback[] callbacks)
+        throws IOException, UnsupportedCallbackException {
+        for (int i = 0; i < callbacks.length; i++) {
+            if (callbacks[i] instanceof WSPasswordCallback) {
+                WSPasswordCallback pc = (WSPasswordCallback) callbacks[i];
+                pc.setPassword("security");
+            } else {
+                throw new UnsupportedCallbackException(callbacks[i], "Unrecognized Callback");
+            }
+        }
+    }
+}
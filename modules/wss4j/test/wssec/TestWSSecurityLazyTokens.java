@@ -0,0 +1,260 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package wssec;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.WSPasswordCallback;
+import org.apache.ws.security.WSSConfig;
+import org.apache.ws.security.WSSecurityEngine;
+import org.apache.ws.security.WSSecurityEngineResult;
+import org.apache.ws.security.WSSecurityException;
+import org.apache.ws.security.components.crypto.Crypto;
+import org.apache.ws.security.components.crypto.CryptoFactory;
+import org.apache.ws.security.message.WSSecHeader;
+import org.apache.ws.security.message.WSSecSignature;
+import org.apache.ws.security.message.token.X509Security;
+import org.apache.ws.security.saml.SAMLIssuer;
+import org.apache.ws.security.saml.SAMLIssuerFactory;
+import org.apache.ws.security.util.WSSecurityUtil;
+import org.apache.ws.security.util.XMLUtils;
+import org.opensaml.SAMLAssertion;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.UnsupportedCallbackException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Vector;
+
+/**
+ * WS-Security Test Case for the lazy processing of tokens that are only needed
+ * when they are referenced.
+ */
+public class TestWSSecurityLazyTokens extends TestCase implements CallbackHandler {
+    private static final String SOAPMSG = 
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" 
+        + "<SOAP-ENV:Envelope "
+        +   "xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" "
+        +   "xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\" "
+        +   "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">" 
+        +   "<SOAP-ENV:Body>" 
+        +       "<add xmlns=\"http://ws.apache.org/counter/counter_port_type\">" 
+        +           "<value xmlns=\"\">15</value>" 
+        +       "</add>" 
+        +   "</SOAP-ENV:Body>" 
+        + "</SOAP-ENV:Envelope>";
+
+    private static final String ALIAS = "16c73ab6-b892-458f-abf5-2f875f74882e";
+
+    private WSSecurityEngine secEngine = new WSSecurityEngine();
+    private Crypto crypto = CryptoFactory.getInstance();
+    private WSSConfig config;
+
+    public TestWSSecurityLazyTokens(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestWSSecurityLazyTokens.class);
+    }
+
+    protected void setUp() throws Exception {
+        config = WSSConfig.getNewInstance();
+        secEngine.setWssConfig(config);
+    }
+
+    /**
+     * Test that every BinarySecurityToken is processed by default.
+     */
+    public void testEager() throws Exception {
+        Document doc = createMessage(false);
+        Vector results = secEngine.processSecurityHeader(doc, null, this, crypto);
+        assertEquals(2, countResults(results, WSConstants.BST));
+    }
+
+    /**
+     * Test that with lazy processing only the BinarySecurityToken that the 
+     * Signature references is processed.
+     */
+    public void testLazy() throws Exception {
+        config.setLazyTokenProcessing(true);
+        Document doc = createMessage(false);
+        Vector results = secEngine.processSecurityHeader(doc, null, this, crypto);
+        assertEquals(1, countResults(results, WSConstants.BST));
+        WSSecurityEngineResult result = 
+            WSSecurityUtil.fetchActionResult(results, WSConstants.SIGN);
+        assertNotNull(result);
+        assertNotNull(result.getCertificate());
+    }
+
+    /**
+     * Test that an invalid token that is not referenced only fails the message 
+     * if the token is processed.
+     */
+    public void testUnreferencedInvalidToken() throws Exception {
+        Document doc = createMessage(true);
+        try {
+            secEngine.processSecurityHeader(doc, null, this, crypto);
+            fail("Failure expected on an invalid BinarySecurityToken");
+        } catch (WSSecurityException ex) {
+            // expected
+        }
+
+        config.setLazyTokenProcessing(true);
+        doc = createMessage(true);
+        Vector results = secEngine.processSecurityHeader(doc, null, this, crypto);
+        assertNotNull(WSSecurityUtil.fetchActionResult(results, WSConstants.SIGN));
+    }
+
+    /**
+     * Test that required tokens are processed even if they are not referenced.
+     */
+    public void testRequiredToken() throws Exception {
+        config.setLazyTokenProcessing(true);
+        config.setRequiredTokens(Collections.singleton(WSSecurityEngine.binaryToken));
+        Document doc = createMessage(false);
+        Vector results = secEngine.processSecurityHeader(doc, null, this, crypto);
+        assertEquals(2, countResults(results, WSConstants.BST));
+    }
+
+    /**
+     * Test that a holder-of-key assertion that a Signature references by 
+     * KeyIdentifier is processed, and its signature verified, when the 
+     * Signature is processed, although the assertion follows the Signature.
+     */
+    public void testSAMLKeyIdentifier() throws Exception {
+        config.setLazyTokenProcessing(true);
+        Document doc = createSAMLMessage(false);
+        Vector results = secEngine.processSecurityHeader(doc, null, this, crypto);
+        assertNotNull(WSSecurityUtil.fetchActionResult(results, WSConstants.SIGN));
+        assertNotNull(WSSecurityUtil.fetchActionResult(results, WSConstants.ST_UNSIGNED));
+    }
+
+    /**
+     * Test that a tampered holder-of-key assertion that a Signature references
+     * by KeyIdentifier is rejected with lazy processing as it is without.
+     */
+    public void testTamperedSAMLKeyIdentifier() throws Exception {
+        Document doc = createSAMLMessage(true);
+        try {
+            secEngine.processSecurityHeader(doc, null, this, crypto);
+            fail("Failure expected on a tampered assertion");
+        } catch (WSSecurityException ex) {
+            // expected
+        }
+
+        config.setLazyTokenProcessing(true);
+        doc = createSAMLMessage(true);
+        try {
+            secEngine.processSecurityHeader(doc, null, this, crypto);
+            fail("Failure expected on a tampered assertion");
+        } catch (WSSecurityException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Create a message signed with the key of a signed holder-of-key assertion,
+     * that the Signature references by a SAMLAssertionID KeyIdentifier.
+     */
+    private Document createSAMLMessage(boolean tampered) throws Exception {
+        Document doc = XMLUtils.parse(new ByteArrayInputStream(SOAPMSG.getBytes("UTF-8")));
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+
+        SAMLIssuer saml = SAMLIssuerFactory.getInstance("saml4.properties");
+        saml.setInstanceDoc(doc);
+        saml.setUserCrypto(crypto);
+        saml.setUsername(ALIAS);
+        SAMLAssertion assertion = saml.newAssertion();
+        Element assertionElement = (Element) assertion.toDOM(doc);
+        if (tampered) {
+            assertionElement.setAttributeNS(null, "Issuer", "www.example.org");
+        }
+        secHeader.getSecurityHeader().appendChild(assertionElement);
+
+        WSSecSignature builder = new WSSecSignature();
+        builder.setUserInfo(ALIAS, "security");
+        builder.setKeyIdentifierType(WSConstants.CUSTOM_KEY_IDENTIFIER);
+        builder.setCustomTokenValueType(WSConstants.WSS_SAML_KI_VALUE_TYPE);
+        builder.setCustomTokenId(assertion.getId());
+        builder.setSignatureAlgorithm(WSConstants.RSA);
+        builder.build(doc, crypto, secHeader);
+
+        String message = XMLUtils.PrettyDocumentToString(doc);
+        return XMLUtils.parse(new ByteArrayInputStream(message.getBytes("UTF-8")));
+    }
+
+    /**
+     * Create a message signed with a certificate in a BinarySecurityToken, with
+     * another BinarySecurityToken that is not referenced.
+     */
+    private Document createMessage(boolean invalid) throws Exception {
+        Document doc = XMLUtils.parse(new ByteArrayInputStream(SOAPMSG.getBytes("UTF-8")));
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        WSSecSignature builder = new WSSecSignature();
+        builder.setUserInfo(ALIAS, "security");
+        builder.setKeyIdentifierType(WSConstants.BST_DIRECT_REFERENCE);
+        builder.build(doc, crypto, secHeader);
+
+        X509Security bst = new X509Security(doc);
+        bst.setID("UnreferencedToken");
+        if (invalid) {
+            bst.setToken(new byte[] {1, 2, 3});
+        } else {
+            bst.setX509Certificate(crypto.getCertificates(ALIAS)[0]);
+        }
+        WSSecurityUtil.prependChildElement(secHeader.getSecurityHeader(), bst.getElement());
+        String message = XMLUtils.PrettyDocumentToString(doc);
+        return XMLUtils.parse(new ByteArrayInputStream(message.getBytes("UTF-8")));
+    }
+
+    private static int countResults(Vector results, int action) {
+        int count = 0;
+        for (int i = 0; i < results.size(); i++) {
+            WSSecurityEngineResult result = (WSSecurityEngineResult) results.get(i);
+            if (((Integer) result.get(WSSecurityEngineResult.TAG_ACTION)).intValue() == action) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public void handle(Callback[] callbacks)
+        throws IOException, UnsupportedCallbackException {
+        for (int i = 0; i < callbacks.length; i++) {
+            if (callbacks[i] instanceof WSPasswordCallback) {
+                WSPasswordCallback pc = (WSPasswordCallback) callbacks[i];
+                pc.setPassword("security");
+            } else {
+                throw new UnsupportedCallbackException(callbacks[i], "Unrecognized Callback");
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package wssec;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.axis.Message;
+import org.apache.axis.MessageContext;
+import org.apache.axis.client.AxisClient;
+import org.apache.axis.configuration.NullProvider;
+import org.apache.axis.message.SOAPEnvelope;
+import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.WSEncryptionPart;
+import org.apache.ws.security.WSPasswordCallback;
+import org.apache.ws.security.WSSConfig;
+import org.apache.ws.security.WSSecurityEngine;
+import org.apache.ws.security.WSSecurityException;
+import org.apache.ws.security.components.crypto.Crypto;
+import org.apache.ws.security.components.crypto.CryptoFactory;
+import org.apache.ws.security.handler.WSHandlerConstants;
+import org.apache.ws.security.message.WSSecHeader;
+import org.apache.ws.security.message.WSSecSignature;
+import org.apache.ws.security.message.WSSecTimestamp;
+import org.apache.ws.security.message.WSSecUsernameToken;
+import org.apache.ws.security.metrics.HistogramMetrics;
+import org.w3c.dom.Document;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.UnsupportedCallbackException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Vector;
+
+/**
+ * WS-Security Test Case for the structural limits of a received message and
+ * the metrics recorded for it.
+ */
+public class TestWSSecurityLimits extends TestCase implements CallbackHandler {
+    private static final String SOAPMSG = 
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" 
+        + "<SOAP-ENV:Envelope "
+        +   "xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" "
+        +   "xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\" "
+        +   "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">" 
+        +   "<SOAP-ENV:Body>" 
+        +       "<add xmlns=\"http://ws.apache.org/counter/counter_port_type\">" 
+        +           "<value xmlns=\"\">15</value>" 
+        +       "</add>" 
+        +   "</SOAP-ENV:Body>" 
+        + "</SOAP-ENV:Envelope>";
+    
+    private Crypto crypto = CryptoFactory.getInstance();
+    private MessageContext msgContext;
+    private SOAPEnvelope unsignedEnvelope;
+    private WSSConfig config;
+    private HistogramMetrics metrics;
+    private WSSecurityEngine secEngine;
+
+    public TestWSSecurityLimits(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestWSSecurityLimits.class);
+    }
+
+    protected void setUp() throws Exception {
+        AxisClient tmpEngine = new AxisClient(new NullProvider());
+        msgContext = new MessageContext(tmpEngine);
+        InputStream in = new ByteArrayInputStream(SOAPMSG.getBytes());
+        Message msg = new Message(in);
+        msg.setMessageContext(msgContext);
+        unsignedEnvelope = msg.getSOAPEnvelope();
+        
+        config = WSSConfig.getNewInstance();
+        metrics = new HistogramMetrics();
+        config.setMetrics(metrics);
+        secEngine = new WSSecurityEngine();
+        secEngine.setWssConfig(config);
+    }
+
+    /**
+     * Test the limit on the number of elements in the security header
+     */
+    public void testSecurityHeaderElements() throws Exception {
+        Document doc = unsignedEnvelope.getAsDocument();
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        for (int i = 0; i < 3; i++) {
+            secHeader.getSecurityHeader().appendChild(
+                doc.createElementNS("urn:foo.bar", "foo:bar")
+            );
+        }
+        
+        config.setMaxSecurityHeaderElements(3);
+        secEngine.processSecurityHeader(doc, null, this, crypto);
+        
+        config.setMaxSecurityHeaderElements(2);
+        assertLimitExceeded(doc, WSSConfig.MAX_SECURITY_HEADER_ELEMENTS);
+    }
+
+    /**
+     * Test the limit on the number of References of a Signature. The limit is
+     * checked before the certificate or the signature value are looked at.
+     */
+    public void testSignatureReferences() throws Exception {
+        Document doc = unsignedEnvelope.getAsDocument();
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        
+        WSSecTimestamp timestamp = new WSSecTimestamp();
+        timestamp.build(doc, secHeader);
+        
+        WSSecSignature sign = new WSSecSignature();
+        sign.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        Vector parts = new Vector();
+        parts.add(new WSEncryptionPart("Body", WSConstants.URI_SOAP11_ENV, ""));
+        parts.add(new WSEncryptionPart(WSConstants.TIMESTAMP_TOKEN_LN, WSConstants.WSU_NS, ""));
+        sign.setParts(parts);
+        Document signedDoc = sign.build(doc, crypto, secHeader);
+        
+        config.setMaxSignatureReferences(1);
+        assertLimitExceeded(signedDoc, WSSConfig.MAX_SIGNATURE_REFERENCES);
+    }
+
+    /**
+     * Test the limit on the Iteration value of a UsernameToken used to derive a key
+     */
+    public void testDerivedKeyIterations() throws Exception {
+        Document doc = unsignedEnvelope.getAsDocument();
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        
+        WSSecUsernameToken builder = new WSSecUsernameToken();
+        builder.setUserInfo("bob", "security");
+        builder.addDerivedKey(false, null, 20000);
+        Document utDoc = builder.build(doc, secHeader);
+        
+        config.setMaxDerivedKeyIterations(10000);
+        assertLimitExceeded(utDoc, WSSConfig.MAX_DERIVED_KEY_ITERATIONS);
+    }
+
+    /**
+     * Test that the processing of a received message records the time of
+     * each action
+     */
+    public void testReceiverActionTime() throws Exception {
+        Document doc = unsignedEnvelope.getAsDocument();
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        
+        WSSecTimestamp timestamp = new WSSecTimestamp();
+        timestamp.build(doc, secHeader);
+        
+        WSSecSignature sign = new WSSecSignature();
+        sign.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        Document signedDoc = sign.build(doc, crypto, secHeader);
+        
+        secEngine.processSecurityHeader(signedDoc, null, this, crypto);
+        assertEquals(1, metrics.getCount("action.receiver." + WSHandlerConstants.SIGNATURE));
+        assertEquals(1, metrics.getCount("action.receiver." + WSHandlerConstants.TIMESTAMP));
+        assertEquals(0, metrics.getCount("action.sender." + WSHandlerConstants.SIGNATURE));
+    }
+
+    private void assertLimitExceeded(Document doc, String limit) throws Exception {
+        try {
+            secEngine.processSecurityHeader(doc, null, this, crypto);
+            fail("Expected failure on limit " + limit);
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.SECURITY_LIMIT_EXCEEDED, ex.getErrorCode());
+            assertEquals(WSConstants.INVALID_SECURITY, ex.getFaultCode());
+        }
+        assertEquals(1, metrics.getCounter("limit." + limit));
+        assertEquals(
+            1, metrics.getCounter("failure." + WSSecurityException.SECURITY_LIMIT_EXCEEDED)
+        );
+    }
+
+    public void handle(Callback[] callbacks)
+        throws IOException, UnsupportedCallbackException {
+        for (int i = 0; i < callbacks.length; i++) {
+            if (callbacks[i] instanceof WSPasswordCallback) {
+                WSPasswordCallback pc = (WSPasswordCallback) callbacks[i];
+                pc.setPassword("security");
+            } else {
+                throw new UnsupportedCallbackException(callbacks[i], "Unrecognized Callback");
+            }
+        }
+    }
+}
@@ -25,6 +25,7 @@ import junit.framework.TestSuite;
 
 import org.apache.ws.security.saml.SAMLIssuerFactory;
 import org.apache.ws.security.saml.SAMLIssuer;
+import org.apache.ws.security.saml.SAMLUtil;
 import org.apache.ws.security.util.WSSecurityUtil;
 
 import org.apache.axis.Message;
@@ -35,11 +36,13 @@ import org.apache.axis.message.SOAPEnvelope;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.WSDocInfo;
 import org.apache.ws.security.WSSecurityEngine;
 import org.apache.ws.security.WSSecurityEngineResult;
 import org.apache.ws.security.message.WSSecHeader;
 import org.apache.ws.security.message.WSSecSAMLToken;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 
 import org.opensaml.SAMLAssertion;
 
@@ -145,6 +148,35 @@ public class TestWSSecurityNewST1 extends TestCase {
         assertTrue(receivedAssertion != null);
     }
 
+    /**
+     * Test that an assertion element is parsed once per message, and can be
+     * found by its AssertionID afterwards.
+     */
+    public void testAssertionRegistry() throws Exception {
+        SOAPEnvelope unsignedEnvelope = message.getSOAPEnvelope();
+        SAMLIssuer saml = SAMLIssuerFactory.getInstance("saml.properties");
+        SAMLAssertion assertion = saml.newAssertion();
+
+        Document doc = unsignedEnvelope.getAsDocument();
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        Document unsignedDoc = new WSSecSAMLToken().build(doc, assertion, secHeader);
+        Element assertionElement = 
+            (Element) WSSecurityUtil.findElement(
+                unsignedDoc.getDocumentElement(), "Assertion", WSConstants.SAML_NS
+            );
+
+        WSDocInfo docInfo = new WSDocInfo(unsignedDoc);
+        SAMLAssertion parsed = SAMLUtil.getAssertion(assertionElement, docInfo);
+        assertSame(parsed, SAMLUtil.getAssertion(assertionElement, docInfo));
+        assertEquals(assertion.getId(), parsed.getId());
+        assertSame(
+            assertionElement, 
+            docInfo.getSAMLAssertionRegistry().getElement(assertion.getId())
+        );
+        assertNotSame(parsed, SAMLUtil.getAssertion(assertionElement, null));
+    }
+
     /**
      * Verifies the soap envelope
      * <p/>
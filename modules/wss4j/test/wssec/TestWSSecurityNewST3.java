@@ -25,6 +25,7 @@ import junit.framework.TestSuite;
 
 import org.apache.ws.security.saml.SAMLIssuerFactory;
 import org.apache.ws.security.saml.SAMLIssuer;
+import org.apache.ws.security.saml.SAMLIssuerImpl;
 import org.apache.ws.security.saml.WSSecSignatureSAML;
 import org.apache.ws.security.util.WSSecurityUtil;
 
@@ -54,6 +55,7 @@ import javax.security.auth.callback.UnsupportedCallbackException;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Properties;
 import java.util.Vector;
 
 /**
@@ -270,6 +272,48 @@ public class TestWSSecurityNewST3 extends TestCase implements CallbackHandler {
         assertTrue(receivedAssertion != null);
     }
 
+    /**
+     * Test that a signed holder-of-key assertion is reused for further messages
+     * when a validity and a reuse fraction are configured.
+     */
+    public void testSAMLSignedKeyHolderReuse() throws Exception {
+        Properties properties = new Properties();
+        InputStream in = 
+            getClass().getClassLoader().getResourceAsStream("saml4.properties");
+        properties.load(in);
+        in.close();
+        properties.setProperty("org.apache.ws.security.saml.issuer.validity", "300");
+        properties.setProperty("org.apache.ws.security.saml.issuer.reuseFraction", "0.5");
+
+        String[] ids = new String[2];
+        for (int i = 0; i < ids.length; i++) {
+            Document doc = getSOAPMessage().getSOAPEnvelope().getAsDocument();
+            SAMLIssuer saml = new SAMLIssuerImpl(properties);
+            saml.setInstanceDoc(doc);
+            saml.setUserCrypto(crypto);
+            saml.setUsername("16c73ab6-b892-458f-abf5-2f875f74882e");
+            SAMLAssertion assertion = saml.newAssertion();
+            assertTrue(assertion.isSigned());
+            assertNotNull(assertion.getNotOnOrAfter());
+
+            WSSecSignatureSAML wsSign = new WSSecSignatureSAML();
+            wsSign.setKeyIdentifierType(WSConstants.BST_DIRECT_REFERENCE);
+            wsSign.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+            WSSecHeader secHeader = new WSSecHeader();
+            secHeader.insertSecurityHeader(doc);
+            Document signedDoc = 
+                wsSign.build(doc, crypto, assertion, null, null, null, secHeader);
+
+            Vector results = verify(signedDoc);
+            WSSecurityEngineResult actionResult =
+                WSSecurityUtil.fetchActionResult(results, WSConstants.ST_UNSIGNED);
+            SAMLAssertion receivedAssertion = 
+                (SAMLAssertion) actionResult.get(WSSecurityEngineResult.TAG_SAML_ASSERTION);
+            ids[i] = receivedAssertion.getId();
+        }
+        assertEquals(ids[0], ids[1]);
+    }
+
     
     /**
      * Verifies the soap envelope
@@ -0,0 +1,260 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+
+package wssec;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.ws.security.CustomTokenPrincipal;
+import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.WSSConfig;
+import org.apache.ws.security.WSSecurityEngine;
+import org.apache.ws.security.WSSecurityEngineResult;
+import org.apache.ws.security.WSSecurityEngineResults;
+import org.apache.ws.security.WSSecurityException;
+import org.apache.ws.security.components.crypto.Crypto;
+import org.apache.ws.security.components.crypto.CryptoFactory;
+import org.apache.ws.security.handler.WSHandlerResult;
+import org.apache.ws.security.message.WSSecHeader;
+import org.apache.ws.security.message.WSSecSignature;
+import org.apache.ws.security.message.WSSecTimestamp;
+import org.apache.ws.security.message.token.Timestamp;
+import org.apache.ws.security.util.WSSecurityUtil;
+import org.apache.ws.security.util.XMLUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import java.io.ByteArrayInputStream;
+import java.security.Principal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+/**
+ * WS-Security Test Case for the indexed results of the security engine.
+ */
+public class TestWSSecurityResults extends TestCase {
+    private static final String SOAPMSG = 
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" 
+        + "<SOAP-ENV:Envelope "
+        +   "xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" "
+        +   "xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\" "
+        +   "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">" 
+        +   "<SOAP-ENV:Body>" 
+        +       "<add xmlns=\"http://ws.apache.org/counter/counter_port_type\">" 
+        +           "<value xmlns=\"\">15</value>" 
+        +       "</add>" 
+        +   "</SOAP-ENV:Body>" 
+        + "</SOAP-ENV:Envelope>";
+
+    private WSSecurityEngine secEngine = new WSSecurityEngine();
+    private Crypto crypto = CryptoFactory.getInstance();
+
+    public TestWSSecurityResults(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestWSSecurityResults.class);
+    }
+
+    protected void setUp() throws Exception {
+        secEngine.setWssConfig(WSSConfig.getNewInstance());
+    }
+
+    /**
+     * Test that the results of the security engine can be looked up by action
+     * and by the wsu:Id of the signed element.
+     */
+    public void testIndexedResults() throws Exception {
+        Document doc = createMessage();
+        Vector results = secEngine.processSecurityHeader(doc, null, null, crypto);
+        assertTrue(results instanceof WSSecurityEngineResults);
+        WSSecurityEngineResults indexed = (WSSecurityEngineResults) results;
+
+        WSSecurityEngineResult sign = indexed.getResult(WSConstants.SIGN);
+        assertNotNull(sign);
+        assertEquals(WSConstants.SIGN, sign.getAction());
+        assertNotNull(sign.getCertificate());
+        assertSame(sign, WSSecurityUtil.fetchActionResult(results, WSConstants.SIGN));
+        assertSame(sign, WSSecurityUtil.fetchActionResult(new Vector(results), WSConstants.SIGN));
+        assertEquals(1, indexed.countResults(WSConstants.TS));
+        assertEquals(0, indexed.countResults(WSConstants.ENCR));
+        assertNull(indexed.getResult(WSConstants.ENCR));
+
+        String bodyId = getBody(doc).getAttributeNS(WSConstants.WSU_NS, "Id");
+        assertEquals(Collections.singletonList(sign), indexed.getResultsForElementId(bodyId));
+        assertTrue(indexed.getResultsForElementId("no-such-id").isEmpty());
+    }
+
+    /**
+     * Test that the index follows modifications of the results.
+     */
+    public void testModifiedResults() throws Exception {
+        Document doc = createMessage();
+        WSSecurityEngineResults results = 
+            (WSSecurityEngineResults) secEngine.processSecurityHeader(doc, null, null, crypto);
+        assertEquals(1, results.countResults(WSConstants.TS));
+
+        Timestamp timestamp = results.getResult(WSConstants.TS).getTimestamp();
+        WSSecurityEngineResult added = new WSSecurityEngineResult(WSConstants.TS, timestamp);
+        results.add(added);
+        assertEquals(2, results.countResults(WSConstants.TS));
+        assertSame(added, results.getResult(WSConstants.TS));
+
+        results.set(
+            results.indexOf(added), 
+            new WSSecurityEngineResult(WSConstants.UT, null, null, null, (byte[]) null)
+        );
+        assertEquals(1, results.countResults(WSConstants.TS));
+        assertEquals(1, results.countResults(WSConstants.UT));
+    }
+
+    /**
+     * Test that the action of a result follows its Map view.
+     */
+    public void testResultAction() throws Exception {
+        WSSecurityEngineResult result = 
+            new WSSecurityEngineResult(WSConstants.SIGN, null, null, null, (byte[]) null);
+        assertEquals(WSConstants.SIGN, result.getAction());
+        assertEquals(new Integer(WSConstants.SIGN), result.get(WSSecurityEngineResult.TAG_ACTION));
+
+        result.put(WSSecurityEngineResult.TAG_ACTION, new Integer(WSConstants.UT_SIGN));
+        assertEquals(WSConstants.UT_SIGN, result.getAction());
+
+        WSSecurityEngineResult copy = new WSSecurityEngineResult(WSConstants.TS, (Timestamp) null);
+        copy.putAll(result);
+        assertEquals(WSConstants.UT_SIGN, copy.getAction());
+
+        for (Iterator it = result.entrySet().iterator(); it.hasNext();) {
+            Map.Entry entry = (Map.Entry) it.next();
+            if (WSSecurityEngineResult.TAG_ACTION.equals(entry.getKey())) {
+                entry.setValue(new Integer(WSConstants.ENCR));
+            }
+        }
+        assertEquals(WSConstants.ENCR, result.getAction());
+
+        result.remove(WSSecurityEngineResult.TAG_ACTION);
+        assertEquals(0, result.getAction());
+    }
+
+    /**
+     * Test that the fields and the map view of a result agree.
+     */
+    public void testResultFields() throws Exception {
+        WSSecurityEngineResult result = 
+            new WSSecurityEngineResult(WSConstants.SIGN, null, null, null, (byte[]) null);
+        assertTrue(result.containsKey(WSSecurityEngineResult.TAG_PRINCIPAL));
+        assertNull(result.getPrincipal());
+
+        Principal principal = new CustomTokenPrincipal("user");
+        result.put(WSSecurityEngineResult.TAG_PRINCIPAL, principal);
+        assertSame(principal, result.getPrincipal());
+
+        Set ids = new HashSet();
+        for (Iterator it = result.entrySet().iterator(); it.hasNext();) {
+            Map.Entry entry = (Map.Entry) it.next();
+            if (WSSecurityEngineResult.TAG_SIGNED_ELEMENT_IDS.equals(entry.getKey())) {
+                entry.setValue(ids);
+            } else if (WSSecurityEngineResult.TAG_PRINCIPAL.equals(entry.getKey())) {
+                it.remove();
+            }
+        }
+        assertSame(ids, result.getSignedElements());
+        assertNull(result.getPrincipal());
+        assertFalse(result.containsKey(WSSecurityEngineResult.TAG_PRINCIPAL));
+
+        HashMap copy = new HashMap(result);
+        assertEquals(copy, result);
+        assertEquals(copy.size(), result.size());
+        assertEquals(new Integer(WSConstants.SIGN), copy.get(WSSecurityEngineResult.TAG_ACTION));
+
+        result.clear();
+        assertTrue(result.isEmpty());
+        assertEquals(0, result.getAction());
+        assertNull(result.getSignedElements());
+    }
+
+    /**
+     * Test ensureSignedTogether on the indexed results.
+     */
+    public void testEnsureSignedTogether() throws Exception {
+        Document doc = createMessage();
+        Vector results = secEngine.processSecurityHeader(doc, null, null, crypto);
+        Vector handlerResults = new Vector();
+        handlerResults.add(new WSHandlerResult(null, results));
+
+        Element[] elements = new Element[] {getBody(doc)};
+        assertNotNull(WSSecurityUtil.ensureSignedTogether(handlerResults.iterator(), elements));
+    }
+
+    /**
+     * Test that ensureSignedTogether reports an element that is not signed.
+     */
+    public void testEnsureSignedTogetherNotSigned() throws Exception {
+        Document doc = createMessage();
+        Vector results = secEngine.processSecurityHeader(doc, null, null, crypto);
+        Vector handlerResults = new Vector();
+        handlerResults.add(new WSHandlerResult(null, results));
+
+        Element timestamp = 
+            (Element) WSSecurityUtil.findElement(
+                doc.getDocumentElement(), "Timestamp", WSConstants.WSU_NS
+            );
+        Element[][] checks = new Element[][] {
+            {timestamp}, {getBody(doc), timestamp}, {timestamp, getBody(doc)}
+        };
+        for (int i = 0; i < checks.length; i++) {
+            try {
+                WSSecurityUtil.ensureSignedTogether(handlerResults.iterator(), checks[i]);
+                fail("Failure expected on an element that is not signed");
+            } catch (WSSecurityException ex) {
+                assertEquals(WSSecurityException.FAILED_CHECK, ex.getErrorCode());
+                assertTrue(ex.getMessage(), ex.getMessage().indexOf("not included") != -1);
+            }
+        }
+    }
+
+    private Document createMessage() throws Exception {
+        Document doc = XMLUtils.parse(new ByteArrayInputStream(SOAPMSG.getBytes("UTF-8")));
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+
+        WSSecTimestamp timestamp = new WSSecTimestamp();
+        timestamp.build(doc, secHeader);
+
+        WSSecSignature sign = new WSSecSignature();
+        sign.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        sign.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+        return sign.build(doc, crypto, secHeader);
+    }
+
+    private static Element getBody(Document doc) {
+        return WSSecurityUtil.findBodyElement(
+            doc, WSSecurityUtil.getSOAPConstants(doc.getDocumentElement())
+        );
+    }
+}
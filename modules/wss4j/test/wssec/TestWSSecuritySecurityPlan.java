@@ -0,0 +1,122 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package wssec;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.WSSConfig;
+import org.apache.ws.security.WSSecurityException;
+import org.apache.ws.security.handler.RequestData;
+import org.apache.ws.security.handler.SecurityPlan;
+import org.apache.ws.security.handler.WSHandlerConstants;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * WS-Security Test Case for the caching of the security plans of a handler.
+ */
+public class TestWSSecuritySecurityPlan extends TestCase {
+
+    public TestWSSecuritySecurityPlan(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestWSSecuritySecurityPlan.class);
+    }
+
+    /**
+     * Test that the plan of a configuration with an identifier is compiled once.
+     */
+    public void testCachedWithPlanId() throws Exception {
+        MyHandler handler = new MyHandler();
+        Map config = new TreeMap();
+        config.put(WSHandlerConstants.SECURITY_PLAN_ID, "service");
+
+        SecurityPlan plan = receive(handler, config);
+        assertSame(plan, receive(handler, config));
+        
+        // The options of a configuration identifier are not looked up again
+        config.put(WSHandlerConstants.TIMESTAMP_STRICT, "false");
+        SecurityPlan cached = receive(handler, config);
+        assertSame(plan, cached);
+        assertTrue(cached.isTimestampStrict());
+
+        config.put(WSHandlerConstants.SECURITY_PLAN_ID, "other-service");
+        SecurityPlan other = receive(handler, config);
+        assertNotSame(plan, other);
+        assertFalse(other.isTimestampStrict());
+    }
+
+    /**
+     * Test that without an identifier a plan is compiled for every message.
+     */
+    public void testNotCachedWithoutPlanId() throws Exception {
+        MyHandler handler = new MyHandler();
+        Map config = new TreeMap();
+
+        SecurityPlan plan = receive(handler, config);
+        assertNotSame(plan, receive(handler, config));
+
+        config.put(WSHandlerConstants.TIMESTAMP_STRICT, "false");
+        assertFalse(receive(handler, config).isTimestampStrict());
+    }
+
+    /**
+     * Test that the plans of a handler that overrides a decode method are not
+     * cached, even if the configuration has an identifier.
+     */
+    public void testNotCachedWithDecodeOverride() throws Exception {
+        MyHandler handler = new MessageDependentHandler();
+        Map config = new TreeMap();
+        config.put(WSHandlerConstants.SECURITY_PLAN_ID, "service");
+
+        config.put("strict", "true");
+        SecurityPlan plan = receive(handler, config);
+        assertTrue(plan.isTimestampStrict());
+
+        config.put("strict", "false");
+        SecurityPlan next = receive(handler, config);
+        assertNotSame(plan, next);
+        assertFalse(next.isTimestampStrict());
+    }
+
+    private static SecurityPlan receive(MyHandler handler, Map config) throws Exception {
+        RequestData reqData = new RequestData();
+        reqData.setWssConfig(WSSConfig.getNewInstance());
+        reqData.setMsgContext(config);
+        handler.receive(WSConstants.TS, reqData);
+        return reqData.getSecurityPlan();
+    }
+
+    /**
+     * A handler that decodes the timestamp strictness from the message
+     */
+    private static class MessageDependentHandler extends MyHandler {
+        protected boolean decodeTimestampStrict(RequestData reqData) 
+            throws WSSecurityException {
+            return "true".equals(getProperty(reqData.getMsgContext(), "strict"));
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package wssec;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.axis.Message;
+import org.apache.axis.MessageContext;
+import org.apache.axis.client.AxisClient;
+import org.apache.axis.configuration.NullProvider;
+import org.apache.axis.message.SOAPEnvelope;
+import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.WSSecurityEngine;
+import org.apache.ws.security.WSSecurityEngineResult;
+import org.apache.ws.security.WSSecurityException;
+import org.apache.ws.security.components.crypto.Crypto;
+import org.apache.ws.security.components.crypto.CryptoFactory;
+import org.apache.ws.security.message.WSSecHeader;
+import org.apache.ws.security.message.WSSecSignature;
+import org.apache.ws.security.util.WSSecurityUtil;
+import org.apache.ws.security.util.XMLUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.security.cert.X509Certificate;
+import java.util.Vector;
+
+/**
+ * WS-Security Test Case for ECDSA and Ed25519 signatures.
+ */
+public class TestWSSecuritySignatureEC extends TestCase {
+    private static final String SOAPMSG = 
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" 
+        + "<SOAP-ENV:Envelope "
+        +   "xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" "
+        +   "xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\" "
+        +   "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">" 
+        +   "<SOAP-ENV:Body>" 
+        +       "<add xmlns=\"http://ws.apache.org/counter/counter_port_type\">" 
+        +           "<value xmlns=\"\">15</value>" 
+        +       "</add>" 
+        +   "</SOAP-ENV:Body>" 
+        + "</SOAP-ENV:Envelope>";
+
+    private WSSecurityEngine secEngine = new WSSecurityEngine();
+    private Crypto crypto = CryptoFactory.getInstance("ec.properties");
+    private MessageContext msgContext;
+    private SOAPEnvelope unsignedEnvelope;
+
+    public TestWSSecuritySignatureEC(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestWSSecuritySignatureEC.class);
+    }
+
+    protected void setUp() throws Exception {
+        AxisClient tmpEngine = new AxisClient(new NullProvider());
+        msgContext = new MessageContext(tmpEngine);
+        InputStream in = new ByteArrayInputStream(SOAPMSG.getBytes());
+        Message msg = new Message(in);
+        msg.setMessageContext(msgContext);
+        unsignedEnvelope = msg.getSOAPEnvelope();
+    }
+
+    /**
+     * Test that a P-256 key signs with ECDSA and SHA-256 by default.
+     */
+    public void testECDSAP256() throws Exception {
+        Document doc = sign("ec256", WSConstants.BST_DIRECT_REFERENCE, null);
+        assertEquals(WSConstants.ECDSA_SHA256, getSignatureMethod(doc));
+        verify(doc, "CN=ec256, OU=WSS4J, O=Apache, C=US");
+    }
+
+    /**
+     * Test that a P-384 key signs with ECDSA and SHA-384 by default, and that
+     * the signer is found by the SubjectKeyIdentifier.
+     */
+    public void testECDSAP384() throws Exception {
+        Document doc = sign("ec384", WSConstants.SKI_KEY_IDENTIFIER, null);
+        assertEquals(WSConstants.ECDSA_SHA384, getSignatureMethod(doc));
+        verify(doc, "CN=ec384, OU=WSS4J, O=Apache, C=US");
+    }
+
+    /**
+     * Test an explicitly set ECDSA signature algorithm.
+     */
+    public void testECDSASHA512() throws Exception {
+        Document doc = sign("ec256", WSConstants.ISSUER_SERIAL, WSConstants.ECDSA_SHA512);
+        assertEquals(WSConstants.ECDSA_SHA512, getSignatureMethod(doc));
+        verify(doc, "CN=ec256, OU=WSS4J, O=Apache, C=US");
+    }
+
+    /**
+     * Test an Ed25519 signature.
+     */
+    public void testEd25519() throws Exception {
+        Document doc = sign("ed25519", WSConstants.ISSUER_SERIAL, null);
+        assertEquals(WSConstants.ED25519, getSignatureMethod(doc));
+        verify(doc, "CN=ed25519, OU=WSS4J, O=Apache, C=US");
+    }
+
+    /**
+     * Test that a modified Body fails the verification of an ECDSA signature.
+     */
+    public void testModifiedBody() throws Exception {
+        Document doc = sign("ec256", WSConstants.BST_DIRECT_REFERENCE, null);
+        Element value = 
+            (Element) WSSecurityUtil.findElement(doc.getDocumentElement(), "value", "");
+        value.getFirstChild().setNodeValue("16");
+        try {
+            verify(doc, null);
+            fail("Failure expected on a modified Body");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.FAILED_CHECK, ex.getErrorCode());
+        }
+    }
+
+    private Document sign(String alias, int keyIdentifierType, String sigAlgo) 
+        throws Exception {
+        WSSecSignature builder = new WSSecSignature();
+        builder.setUserInfo(alias, "security");
+        builder.setKeyIdentifierType(keyIdentifierType);
+        if (sigAlgo != null) {
+            builder.setSignatureAlgorithm(sigAlgo);
+        }
+        Document doc = unsignedEnvelope.getAsDocument();
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        builder.build(doc, crypto, secHeader);
+        String message = XMLUtils.PrettyDocumentToString(doc);
+        return XMLUtils.parse(new ByteArrayInputStream(message.getBytes("UTF-8")));
+    }
+
+    private static String getSignatureMethod(Document doc) {
+        Element signatureMethod = 
+            (Element) WSSecurityUtil.findElement(
+                doc.getDocumentElement(), "SignatureMethod", WSConstants.SIG_NS
+            );
+        return signatureMethod.getAttribute("Algorithm");
+    }
+
+    private void verify(Document doc, String subject) throws Exception {
+        Vector results = secEngine.processSecurityHeader(doc, null, null, crypto);
+        WSSecurityEngineResult result = 
+            WSSecurityUtil.fetchActionResult(results, WSConstants.SIGN);
+        X509Certificate cert = result.getCertificate();
+        assertEquals(subject, cert.getSubjectX500Principal().getName().replaceAll(",", ", "));
+    }
+}
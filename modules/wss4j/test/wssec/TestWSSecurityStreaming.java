@@ -0,0 +1,295 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package wssec;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.axis.Message;
+import org.apache.axis.MessageContext;
+import org.apache.axis.client.AxisClient;
+import org.apache.axis.configuration.NullProvider;
+import org.apache.axis.message.SOAPEnvelope;
+import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.WSDataRef;
+import org.apache.ws.security.WSEncryptionPart;
+import org.apache.ws.security.WSPasswordCallback;
+import org.apache.ws.security.WSSecurityEngine;
+import org.apache.ws.security.WSSecurityEngineResult;
+import org.apache.ws.security.WSSecurityException;
+import org.apache.ws.security.components.crypto.Crypto;
+import org.apache.ws.security.components.crypto.CryptoFactory;
+import org.apache.ws.security.message.WSSecEncrypt;
+import org.apache.ws.security.message.WSSecHeader;
+import org.apache.ws.security.message.WSSecSignature;
+import org.apache.ws.security.stream.StreamedMessage;
+import org.apache.ws.security.stream.StreamingSecurityEngine;
+import org.apache.ws.security.util.WSSecurityUtil;
+import org.apache.ws.security.util.XMLUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.UnsupportedCallbackException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * WS-Security Test Case for the streaming processing of the SOAP Body.
+ */
+public class TestWSSecurityStreaming extends TestCase implements CallbackHandler {
+    private static final String SOAPMSG = 
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" 
+        + "<SOAP-ENV:Envelope "
+        +   "xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" "
+        +   "xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\" "
+        +   "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">" 
+        +   "<SOAP-ENV:Body>" 
+        +       "<add xmlns=\"http://ws.apache.org/counter/counter_port_type\">" 
+        +           "<value xmlns=\"\" xsi:type=\"xsd:int\">15 &amp; &lt;16&gt;</value>" 
+        +       "</add>" 
+        +   "</SOAP-ENV:Body>" 
+        + "</SOAP-ENV:Envelope>";
+    
+    private static final String BODY_CONTENT =
+        "<add xmlns=\"http://ws.apache.org/counter/counter_port_type\" "
+        + "xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" ";
+
+    private Crypto crypto = CryptoFactory.getInstance();
+    private MessageContext msgContext;
+    private SOAPEnvelope unsignedEnvelope;
+    private StreamingSecurityEngine secEngine = new StreamingSecurityEngine();
+
+    public TestWSSecurityStreaming(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestWSSecurityStreaming.class);
+    }
+
+    protected void setUp() throws Exception {
+        AxisClient tmpEngine = new AxisClient(new NullProvider());
+        msgContext = new MessageContext(tmpEngine);
+        InputStream in = new ByteArrayInputStream(SOAPMSG.getBytes());
+        Message msg = new Message(in);
+        msg.setMessageContext(msgContext);
+        unsignedEnvelope = msg.getSOAPEnvelope();
+    }
+
+    /**
+     * Test a message that is signed and then encrypted. The digest of the
+     * Body is computed over the plaintext.
+     */
+    public void testSignEncrypt() throws Exception {
+        Document doc = unsignedEnvelope.getAsDocument();
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        sign(doc, secHeader, null);
+        encrypt(doc, secHeader);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamedMessage message = process(doc, out);
+        assertTrue(message.isStreamed());
+        assertBodyContent(out);
+        assertEquals(
+            WSSecurityUtil.findElement(message.getEnvelope(), "add", null), null
+        );
+        
+        Vector results = message.getResults();
+        assertEquals(2, results.size());
+        WSSecurityEngineResult result = 
+            WSSecurityUtil.fetchActionResult(results, WSConstants.ENCR);
+        List dataRefs = 
+            (List) result.get(WSSecurityEngineResult.TAG_DATA_REF_URIS);
+        WSDataRef dataRef = (WSDataRef) dataRefs.get(0);
+        assertEquals(WSConstants.AES_128, dataRef.getAlgorithm());
+        assertEquals(message.getBody(), dataRef.getProtectedElement());
+        assertNotNull(WSSecurityUtil.fetchActionResult(results, WSConstants.SIGN));
+    }
+
+    /**
+     * Test a message that is encrypted and then signed. The digest of the
+     * Body is computed over the EncryptedData.
+     */
+    public void testEncryptSign() throws Exception {
+        Document doc = unsignedEnvelope.getAsDocument();
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        encrypt(doc, secHeader);
+        sign(doc, secHeader, null);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamedMessage message = process(doc, out);
+        assertTrue(message.isStreamed());
+        assertBodyContent(out);
+        assertEquals(2, message.getResults().size());
+    }
+
+    /**
+     * Test that a modified Body is detected after it was read
+     */
+    public void testModifiedBody() throws Exception {
+        Document doc = unsignedEnvelope.getAsDocument();
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        sign(doc, secHeader, null);
+
+        String message = XMLUtils.PrettyDocumentToString(doc);
+        message = message.replaceAll(">15 ", ">16 ");
+        try {
+            secEngine.processMessage(
+                new ByteArrayInputStream(message.getBytes("UTF-8")), 
+                null, this, crypto, crypto, new ByteArrayOutputStream()
+            );
+            fail("Failure expected on a modified Body");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.FAILED_CHECK, ex.getErrorCode());
+        }
+    }
+
+    /**
+     * Test that a message that signs an element in the Body is processed as
+     * a whole.
+     */
+    public void testSignedBodyElement() throws Exception {
+        Document doc = unsignedEnvelope.getAsDocument();
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        Vector parts = new Vector();
+        parts.add(
+            new WSEncryptionPart("add", "http://ws.apache.org/counter/counter_port_type", "")
+        );
+        sign(doc, secHeader, parts);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamedMessage message = process(doc, out);
+        assertFalse(message.isStreamed());
+        assertBodyContent(out);
+        assertEquals(1, message.getResults().size());
+    }
+
+    /**
+     * Test that the Body content is encrypted while the envelope is written,
+     * and that the message is processed by both engines.
+     */
+    public void testStreamingEncryption() throws Exception {
+        Document doc = unsignedEnvelope.getAsDocument();
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        sign(doc, secHeader, null);
+        
+        WSSecEncrypt encrypt = new WSSecEncrypt();
+        encrypt.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e");
+        encrypt.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+        encrypt.setStreaming(true);
+        encrypt.build(doc, crypto, secHeader);
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        encrypt.writeTo(message);
+        assertTrue(message.toString("UTF-8").indexOf("counter_port_type") < 0);
+
+        Document encrypted = XMLUtils.parse(new ByteArrayInputStream(message.toByteArray()));
+        Vector results = 
+            new WSSecurityEngine().processSecurityHeader(encrypted, null, this, crypto);
+        assertEquals(2, results.size());
+        Element value = 
+            (Element) WSSecurityUtil.findElement(encrypted.getDocumentElement(), "value", "");
+        assertEquals("15 & <16>", value.getFirstChild().getNodeValue());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encrypted = XMLUtils.parse(new ByteArrayInputStream(message.toByteArray()));
+        StreamedMessage streamed = process(encrypted, out);
+        assertTrue(streamed.isStreamed());
+        assertBodyContent(out);
+    }
+
+    private void sign(Document doc, WSSecHeader secHeader, Vector parts) throws Exception {
+        WSSecSignature sign = new WSSecSignature();
+        sign.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        sign.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+        if (parts != null) {
+            sign.setParts(parts);
+        }
+        sign.build(doc, crypto, secHeader);
+    }
+
+    private void encrypt(Document doc, WSSecHeader secHeader) throws Exception {
+        WSSecEncrypt encrypt = new WSSecEncrypt();
+        encrypt.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e");
+        encrypt.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+        encrypt.setSymmetricEncAlgorithm(WSConstants.AES_128);
+        encrypt.build(doc, crypto, secHeader);
+    }
+
+    /**
+     * Process the message with the streaming engine and check that the results
+     * have the same actions as those of the WSSecurityEngine.
+     */
+    private StreamedMessage process(Document doc, ByteArrayOutputStream out) throws Exception {
+        byte[] message = XMLUtils.PrettyDocumentToString(doc).getBytes("UTF-8");
+        StreamedMessage streamed = 
+            secEngine.processMessage(
+                new ByteArrayInputStream(message), null, this, crypto, crypto, out
+            );
+        Document expected = XMLUtils.parse(new ByteArrayInputStream(message));
+        Vector results = 
+            new WSSecurityEngine().processSecurityHeader(expected, null, this, crypto);
+        assertEquals(results.size(), streamed.getResults().size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(
+                ((WSSecurityEngineResult) results.get(i)).get(WSSecurityEngineResult.TAG_ACTION),
+                ((WSSecurityEngineResult) streamed.getResults().get(i)).get(
+                    WSSecurityEngineResult.TAG_ACTION
+                )
+            );
+        }
+        return streamed;
+    }
+
+    /**
+     * Check the content of the Body and that it can be read on its own
+     */
+    private void assertBodyContent(ByteArrayOutputStream out) throws Exception {
+        String content = new String(out.toByteArray(), "UTF-8");
+        assertTrue(content, content.startsWith(BODY_CONTENT));
+        assertTrue(content, content.indexOf(">15 &amp; &lt;16&gt;</value></add>") > 0);
+        Element add = 
+            XMLUtils.parse(new ByteArrayInputStream(out.toByteArray())).getDocumentElement();
+        assertEquals("add", add.getLocalName());
+    }
+
+    public void handle(Callback[] callbacks)
+        throws IOException, UnsupportedCallbackException {
+        for (int i = 0; i < callbacks.length; i++) {
+            if (callbacks[i] instanceof WSPasswordCallback) {
+                WSPasswordCallback pc = (WSPasswordCallback) callbacks[i];
+                pc.setPassword("security");
+            } else {
+                throw new UnsupportedCallbackException(callbacks[i], "Unrecognized Callback");
+            }
+        }
+    }
+}
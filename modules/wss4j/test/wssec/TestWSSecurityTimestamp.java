@@ -30,14 +30,17 @@ import org.apache.axis.message.SOAPEnvelope;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.WSSConfig;
 import org.apache.ws.security.WSSecurityEngineResult;
 import org.apache.ws.security.WSSecurityException;
 import org.apache.ws.security.util.WSSecurityUtil;
 import org.apache.ws.security.util.XmlSchemaDateFormat;
+import org.apache.ws.security.util.XmlSchemaDateTime;
 import org.apache.ws.security.WSSecurityEngine;
 import org.apache.ws.security.handler.WSHandler;
 import org.apache.ws.security.message.WSSecHeader;
 import org.apache.ws.security.message.WSSecTimestamp;
+import org.apache.ws.security.message.WSSecUsernameToken;
 import org.apache.ws.security.message.token.Timestamp;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -315,6 +318,106 @@ public class TestWSSecurityTimestamp extends TestCase {
     }
     
     
+    /**
+     * This is a test for the pre-scan of the security header. The expired Timestamp
+     * follows a Signature that cannot be processed, so it is only detected first if
+     * the header is pre-scanned.
+     */
+    public void testPrecheckExpiredTimestamp() throws Exception {
+        
+        Document doc = unsignedEnvelope.getAsDocument();
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        
+        WSSecTimestamp timestamp = new WSSecTimestamp();
+        timestamp.setTimeToLive(-1);
+        Document createdDoc = timestamp.build(doc, secHeader);
+        Element signature = 
+            createdDoc.createElementNS(WSConstants.SIG_NS, WSConstants.SIG_PREFIX + ":Signature");
+        secHeader.getSecurityHeader().insertBefore(
+            signature, secHeader.getSecurityHeader().getFirstChild()
+        );
+        
+        try {
+            verify(createdDoc);
+            fail("Expected failure on an invalid signature");
+        } catch (WSSecurityException ex) {
+            assertTrue(ex.getErrorCode() != WSSecurityException.MESSAGE_EXPIRED); 
+        }
+        
+        WSSConfig config = WSSConfig.getNewInstance();
+        config.setPrecheckSecurityHeader(true);
+        WSSecurityEngine engine = new WSSecurityEngine();
+        engine.setWssConfig(config);
+        try {
+            engine.processSecurityHeader(createdDoc, null, null, null);
+            fail("Expected failure on an expired timestamp");
+        } catch (WSSecurityException ex) {
+            assertTrue(ex.getErrorCode() == WSSecurityException.MESSAGE_EXPIRED); 
+        }
+    }
+    
+    
+    /**
+     * This is a test for the pre-scan of the security header with a UsernameToken
+     * that was created too long ago.
+     */
+    public void testPrecheckOldUsernameToken() throws Exception {
+        
+        Document doc = unsignedEnvelope.getAsDocument();
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        
+        WSSecUsernameToken builder = new WSSecUsernameToken();
+        builder.setUserInfo("wernerd", "verySecret");
+        Document createdDoc = builder.build(doc, secHeader);
+        Element created = 
+            WSSecurityUtil.getDirectChildElement(
+                builder.getUsernameTokenElement(), WSConstants.CREATED_LN, WSConstants.WSU_NS
+            );
+        created.getFirstChild().setNodeValue(
+            XmlSchemaDateTime.format(System.currentTimeMillis() - 600000L)
+        );
+        
+        WSSConfig config = WSSConfig.getNewInstance();
+        config.setPrecheckSecurityHeader(true);
+        config.setUsernameTokenTTL(300);
+        WSSecurityEngine engine = new WSSecurityEngine();
+        engine.setWssConfig(config);
+        try {
+            engine.processSecurityHeader(createdDoc, null, null, null);
+            fail("Expected failure on an old UsernameToken");
+        } catch (WSSecurityException ex) {
+            assertTrue(ex.getErrorCode() == WSSecurityException.MESSAGE_EXPIRED); 
+        }
+        
+        config.setUsernameTokenTTL(900);
+        try {
+            engine.processSecurityHeader(createdDoc, null, null, null);
+            fail("Expected failure without a callback handler");
+        } catch (WSSecurityException ex) {
+            assertTrue(ex.getErrorCode() != WSSecurityException.MESSAGE_EXPIRED); 
+        }
+    }
+
+    /**
+     * This is a test that a subclass of Timestamp that overrides getCurrentTime
+     * sets the creation time of a new Timestamp.
+     */
+    public void testOverriddenCurrentTime() throws Exception {
+        Document doc = unsignedEnvelope.getAsDocument();
+        Timestamp timestamp = new FixedTimestamp(doc, 300);
+        assertEquals(1234567890000L, timestamp.getCreatedTime());
+        assertEquals(1234567890000L + 300000L, timestamp.getExpiresTime());
+        
+        Element created = 
+            WSSecurityUtil.getDirectChildElement(
+                timestamp.getElement(), WSConstants.CREATED_LN, WSConstants.WSU_NS
+            );
+        assertEquals("2009-02-13T23:31:30.000Z", created.getFirstChild().getNodeValue());
+    }
+    
+    
     /**
      * Verifies the soap envelope
      * 
@@ -325,6 +428,22 @@ public class TestWSSecurityTimestamp extends TestCase {
         return secEngine.processSecurityHeader(doc, null, null, null);
     }
     
+    /**
+     * A Timestamp with a fixed creation time
+     */
+    private static class FixedTimestamp extends Timestamp {
+        FixedTimestamp(Document doc, int ttl) {
+            super(true, doc, ttl);
+        }
+        
+        protected java.util.Calendar getCurrentTime() {
+            java.util.Calendar now = 
+                java.util.Calendar.getInstance(java.util.TimeZone.getTimeZone("UTC"));
+            now.setTimeInMillis(1234567890000L);
+            return now;
+        }
+    }
+    
     /**
      * a trivial extension of the WSHandler type
      */
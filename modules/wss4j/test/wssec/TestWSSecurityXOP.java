@@ -0,0 +1,407 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package wssec;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.axis.Message;
+import org.apache.axis.MessageContext;
+import org.apache.axis.client.AxisClient;
+import org.apache.axis.configuration.NullProvider;
+import org.apache.axis.message.SOAPEnvelope;
+import org.apache.ws.security.AttachmentCallback;
+import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.WSEncryptionPart;
+import org.apache.ws.security.WSPasswordCallback;
+import org.apache.ws.security.WSSConfig;
+import org.apache.ws.security.WSSecurityEngine;
+import org.apache.ws.security.WSSecurityEngineResult;
+import org.apache.ws.security.WSSecurityException;
+import org.apache.ws.security.components.crypto.Crypto;
+import org.apache.ws.security.components.crypto.CryptoFactory;
+import org.apache.ws.security.message.WSSecEncrypt;
+import org.apache.ws.security.message.WSSecHeader;
+import org.apache.ws.security.message.WSSecSignature;
+import org.apache.ws.security.util.WSSecurityUtil;
+import org.apache.ws.security.util.XMLUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.UnsupportedCallbackException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * WS-Security Test Case for binary security tokens and cipher text that are
+ * carried in attachments and referenced by xop:Include.
+ */
+public class TestWSSecurityXOP extends TestCase implements CallbackHandler {
+    private static final String SOAPMSG = 
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" 
+        + "<SOAP-ENV:Envelope "
+        +   "xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" "
+        +   "xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\" "
+        +   "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">" 
+        +   "<SOAP-ENV:Body>" 
+        +       "<add xmlns=\"http://ws.apache.org/counter/counter_port_type\">" 
+        +           "<value xmlns=\"\" xsi:type=\"xsd:int\">15</value>" 
+        +       "</add>" 
+        +   "</SOAP-ENV:Body>" 
+        + "</SOAP-ENV:Envelope>";
+
+    private Crypto crypto = CryptoFactory.getInstance();
+    private MessageContext msgContext;
+    private SOAPEnvelope unsignedEnvelope;
+
+    /**
+     * The attachments of the message, of the form <String (Content-ID), ByteArrayOutputStream>
+     */
+    private Map attachments = new HashMap();
+
+    public TestWSSecurityXOP(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestWSSecurityXOP.class);
+    }
+
+    protected void setUp() throws Exception {
+        AxisClient tmpEngine = new AxisClient(new NullProvider());
+        msgContext = new MessageContext(tmpEngine);
+        InputStream in = new ByteArrayInputStream(SOAPMSG.getBytes());
+        Message msg = new Message(in);
+        msg.setMessageContext(msgContext);
+        unsignedEnvelope = msg.getSOAPEnvelope();
+    }
+
+    /**
+     * Test that the cipher text of the Body content and the BinarySecurityToken
+     * of the EncryptedKey are written to attachments and processed from them.
+     */
+    public void testEncryptContent() throws Exception {
+        Document doc = unsignedEnvelope.getAsDocument();
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        WSSecEncrypt encrypt = new WSSecEncrypt();
+        encrypt.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e");
+        encrypt.setKeyIdentifierType(WSConstants.BST_DIRECT_REFERENCE);
+        encrypt.setAttachmentCallbackHandler(this);
+        encrypt.build(doc, crypto, secHeader);
+
+        assertEquals(2, attachments.size());
+        Document encrypted = reparse(doc);
+        assertNotNull(getInclude(encrypted, "BinarySecurityToken", WSConstants.WSSE_NS));
+        Element cipherValue = 
+            (Element) WSSecurityUtil.findElement(
+                (Element) WSSecurityUtil.findElement(
+                    encrypted.getDocumentElement(), "EncryptedData", WSConstants.ENC_NS
+                ), 
+                "CipherValue", WSConstants.ENC_NS
+            );
+        assertNotNull(
+            WSSecurityUtil.getDirectChild(cipherValue, "Include", WSConstants.XOP_NS)
+        );
+
+        Vector results = 
+            new WSSecurityEngine().processSecurityHeader(encrypted, null, this, crypto);
+        assertNotNull(WSSecurityUtil.fetchActionResult(results, WSConstants.ENCR));
+        assertValue(encrypted);
+    }
+
+    /**
+     * Test that an encrypted element is replaced by an EncryptedData whose cipher
+     * text is in an attachment.
+     */
+    public void testEncryptElement() throws Exception {
+        Document doc = unsignedEnvelope.getAsDocument();
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        WSSecEncrypt encrypt = new WSSecEncrypt();
+        encrypt.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e");
+        encrypt.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+        encrypt.setAttachmentCallbackHandler(this);
+        Vector parts = new Vector();
+        parts.add(
+            new WSEncryptionPart(
+                "add", "http://ws.apache.org/counter/counter_port_type", "Element"
+            )
+        );
+        encrypt.setParts(parts);
+        encrypt.build(doc, crypto, secHeader);
+
+        assertEquals(1, attachments.size());
+        Document encrypted = reparse(doc);
+        assertNull(
+            WSSecurityUtil.findElement(
+                encrypted.getDocumentElement(), "add", "http://ws.apache.org/counter/counter_port_type"
+            )
+        );
+        new WSSecurityEngine().processSecurityHeader(encrypted, null, this, crypto);
+        assertValue(encrypted);
+    }
+
+    /**
+     * Test a signature whose BinarySecurityToken is in an attachment.
+     */
+    public void testSignature() throws Exception {
+        Document doc = unsignedEnvelope.getAsDocument();
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        WSSecSignature sign = new WSSecSignature();
+        sign.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        sign.setKeyIdentifierType(WSConstants.BST_DIRECT_REFERENCE);
+        sign.setAttachmentCallbackHandler(this);
+        sign.build(doc, crypto, secHeader);
+
+        assertEquals(1, attachments.size());
+        Document signed = reparse(doc);
+        assertNotNull(getInclude(signed, "BinarySecurityToken", WSConstants.WSSE_NS));
+        Vector results = 
+            new WSSecurityEngine().processSecurityHeader(signed, null, this, crypto);
+        WSSecurityEngineResult result = 
+            WSSecurityUtil.fetchActionResult(results, WSConstants.SIGN);
+        assertNotNull(result.getCertificate());
+    }
+
+    /**
+     * Test that a missing attachment is reported.
+     */
+    public void testMissingAttachment() throws Exception {
+        Document doc = unsignedEnvelope.getAsDocument();
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        WSSecEncrypt encrypt = new WSSecEncrypt();
+        encrypt.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e");
+        encrypt.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+        encrypt.setAttachmentCallbackHandler(this);
+        encrypt.build(doc, crypto, secHeader);
+
+        Document encrypted = reparse(doc);
+        attachments.clear();
+        try {
+            new WSSecurityEngine().processSecurityHeader(encrypted, null, this, crypto);
+            fail("Expected failure on a missing attachment");
+        } catch (WSSecurityException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().indexOf("xop:Include") != -1);
+        }
+    }
+
+    /**
+     * Test that the sender refuses to sign cipher text in an attachment. The 
+     * Signature would only cover the xop:Include, not the cipher text.
+     */
+    public void testEncryptThenSignRefused() throws Exception {
+        Document doc = unsignedEnvelope.getAsDocument();
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        WSSecEncrypt encrypt = new WSSecEncrypt();
+        encrypt.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e");
+        encrypt.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+        encrypt.setAttachmentCallbackHandler(this);
+        encrypt.build(doc, crypto, secHeader);
+
+        WSSecSignature sign = new WSSecSignature();
+        sign.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        sign.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+        try {
+            sign.build(doc, crypto, secHeader);
+            fail("Expected failure on a signed xop:Include");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.FAILED_SIGNATURE, ex.getErrorCode());
+            assertTrue(ex.getMessage(), ex.getMessage().indexOf("xop:Include") != -1);
+        }
+    }
+
+    /**
+     * Test that the sender refuses to sign a BinarySecurityToken in an attachment.
+     */
+    public void testSignedTokenRefused() throws Exception {
+        Document doc = unsignedEnvelope.getAsDocument();
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        WSSecSignature sign = new WSSecSignature();
+        sign.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        sign.setKeyIdentifierType(WSConstants.BST_DIRECT_REFERENCE);
+        sign.setAttachmentCallbackHandler(this);
+        Vector parts = new Vector();
+        parts.add(new WSEncryptionPart("Token", null, null));
+        sign.setParts(parts);
+        try {
+            sign.build(doc, crypto, secHeader);
+            fail("Expected failure on a signed xop:Include");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.FAILED_SIGNATURE, ex.getErrorCode());
+            assertTrue(ex.getMessage(), ex.getMessage().indexOf("xop:Include") != -1);
+        }
+    }
+
+    /**
+     * Test that the receiver rejects a Signature that covers cipher text in an
+     * attachment, as another implementation might send it.
+     */
+    public void testSignedIncludeRejected() throws Exception {
+        Document doc = unsignedEnvelope.getAsDocument();
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        WSSecEncrypt encrypt = new WSSecEncrypt();
+        encrypt.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e");
+        encrypt.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+        encrypt.setAttachmentCallbackHandler(this);
+        encrypt.build(doc, crypto, secHeader);
+
+        WSSecSignature sign = new WSSecSignature() {
+            public void computeSignature() throws WSSecurityException {
+                try {
+                    sig.sign(crypto.getPrivateKey(user, password));
+                } catch (Exception ex) {
+                    throw new WSSecurityException(
+                        WSSecurityException.FAILED_SIGNATURE, null, null, ex
+                    );
+                }
+            }
+        };
+        sign.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        sign.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+        sign.build(doc, crypto, secHeader);
+
+        Document signed = reparse(doc);
+        try {
+            new WSSecurityEngine().processSecurityHeader(signed, null, this, crypto);
+            fail("Expected failure on a signed xop:Include");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.FAILED_CHECK, ex.getErrorCode());
+            assertTrue(ex.getMessage(), ex.getMessage().indexOf("xop:Include") != -1);
+        }
+    }
+
+    /**
+     * Test that an attachment that is read into memory is limited by the 
+     * maximum attachment size of the WSSConfig.
+     */
+    public void testAttachmentSizeLimit() throws Exception {
+        Document doc = unsignedEnvelope.getAsDocument();
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        WSSecEncrypt encrypt = new WSSecEncrypt();
+        encrypt.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e");
+        encrypt.setKeyIdentifierType(WSConstants.BST_DIRECT_REFERENCE);
+        encrypt.setAttachmentCallbackHandler(this);
+        encrypt.build(doc, crypto, secHeader);
+
+        Document encrypted = reparse(doc);
+        WSSConfig config = WSSConfig.getNewInstance();
+        config.setMaxAttachmentSize(64);
+        WSSecurityEngine engine = new WSSecurityEngine();
+        engine.setWssConfig(config);
+        try {
+            engine.processSecurityHeader(encrypted, null, this, crypto);
+            fail("Expected failure on the attachment size");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.SECURITY_LIMIT_EXCEEDED, ex.getErrorCode());
+            assertTrue(
+                ex.getMessage(), ex.getMessage().indexOf(WSSConfig.MAX_ATTACHMENT_SIZE) != -1
+            );
+        }
+    }
+
+    /**
+     * Test that a percent-encoded "cid:" URL is decoded to the Content-ID.
+     */
+    public void testEncodedContentId() throws Exception {
+        Document doc = unsignedEnvelope.getAsDocument();
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        WSSecEncrypt encrypt = new WSSecEncrypt();
+        encrypt.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e");
+        encrypt.setKeyIdentifierType(WSConstants.BST_DIRECT_REFERENCE);
+        encrypt.setAttachmentCallbackHandler(this);
+        encrypt.build(doc, crypto, secHeader);
+
+        Document encrypted = reparse(doc);
+        NodeList includes = 
+            encrypted.getElementsByTagNameNS(WSConstants.XOP_NS, "Include");
+        assertEquals(2, includes.getLength());
+        for (int i = 0; i < includes.getLength(); i++) {
+            Element include = (Element) includes.item(i);
+            String href = include.getAttribute("href");
+            include.setAttributeNS(null, "href", href.replaceAll("@", "%40"));
+            assertTrue(include.getAttribute("href").indexOf("%40") != -1);
+        }
+        new WSSecurityEngine().processSecurityHeader(encrypted, null, this, crypto);
+        assertValue(encrypted);
+    }
+
+    private static Document reparse(Document doc) throws Exception {
+        String message = XMLUtils.PrettyDocumentToString(doc);
+        return XMLUtils.parse(new ByteArrayInputStream(message.getBytes("UTF-8")));
+    }
+
+    private static Element getInclude(Document doc, String parent, String namespace) {
+        Element element = 
+            (Element) WSSecurityUtil.findElement(doc.getDocumentElement(), parent, namespace);
+        return (Element) WSSecurityUtil.getDirectChild(element, "Include", WSConstants.XOP_NS);
+    }
+
+    private static void assertValue(Document doc) {
+        Element value = 
+            (Element) WSSecurityUtil.findElement(doc.getDocumentElement(), "value", "");
+        assertEquals("15", value.getFirstChild().getNodeValue());
+        assertEquals(
+            "http://ws.apache.org/counter/counter_port_type", 
+            value.getParentNode().getNamespaceURI()
+        );
+    }
+
+    public void handle(Callback[] callbacks)
+        throws IOException, UnsupportedCallbackException {
+        for (int i = 0; i < callbacks.length; i++) {
+            if (callbacks[i] instanceof WSPasswordCallback) {
+                WSPasswordCallback pc = (WSPasswordCallback) callbacks[i];
+                pc.setPassword("security");
+            } else if (callbacks[i] instanceof AttachmentCallback) {
+                AttachmentCallback ac = (AttachmentCallback) callbacks[i];
+                if (ac.getUsage() == AttachmentCallback.ATTACHMENT_RESULT) {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    attachments.put(ac.getContentId(), out);
+                    ac.setOutputStream(out);
+                } else {
+                    ByteArrayOutputStream out = 
+                        (ByteArrayOutputStream) attachments.get(ac.getContentId());
+                    if (out != null) {
+                        ac.setInputStream(new ByteArrayInputStream(out.toByteArray()));
+                    }
+                }
+            } else {
+                throw new UnsupportedCallbackException(callbacks[i], "Unrecognized Callback");
+            }
+        }
+    }
+}